@@ -218,5 +218,50 @@ public enum TaskCounter {
    *
    * Represented in milliseconds
    */
-  LAST_EVENT_RECEIVED
+  LAST_EVENT_RECEIVED,
+
+  /**
+   * Time spent establishing shuffle connections, summed over all fetches.
+   * Only collected when shuffle fetch statistics are enabled.
+   *
+   * Represented in milliseconds
+   */
+  SHUFFLE_CONNECT_TIME,
+
+  /**
+   * Time from an established shuffle connection to the response headers, summed over all fetches.
+   * Only collected when shuffle fetch statistics are enabled.
+   *
+   * Represented in milliseconds
+   */
+  SHUFFLE_FIRST_BYTE_TIME,
+
+  /**
+   * Time spent reading and decompressing fetched outputs, summed over all outputs.
+   * Only collected when shuffle fetch statistics are enabled.
+   *
+   * Represented in milliseconds
+   */
+  SHUFFLE_FETCH_TIME,
+
+  /**
+   * Number of fetches which timed out and were retried over a new connection.
+   * Only collected when shuffle fetch statistics are enabled.
+   */
+  SHUFFLE_FETCH_RETRIES,
+
+  /**
+   * Number of times a host was penalized after a failed fetch.
+   * Only collected when shuffle fetch statistics are enabled.
+   */
+  SHUFFLE_HOST_PENALTIES,
+
+  /**
+   * Bytes written by intermediate memory-to-memory, memory-to-disk and disk-to-disk merges of
+   * the shuffle. 0 when every output goes to the final merge as fetched. Divided by
+   * SHUFFLE_BYTES, at any level, it gives the write amplification of the merges (in-memory merge
+   * outputs are counted uncompressed).
+   * Used by ShuffledMergedInput
+   */
+  SHUFFLE_MERGE_BYTES_WRITTEN
 }
\ No newline at end of file
@@ -182,6 +182,18 @@ public class TezConfiguration extends Configuration {
   @Private
   public static final int TEZ_AM_CONCURRENT_DISPATCHER_CONCURRENCY_DEFAULT = 10;
 
+  /**
+   * Int value. Capacity of the event queue of each thread of the concurrent dispatcher. Events
+   * beyond it are queued in an unbounded overflow queue, which is slower.
+   */
+  @Private
+  @ConfigurationScope(Scope.AM)
+  @ConfigurationProperty(type="integer")
+  public static final String TEZ_AM_CONCURRENT_DISPATCHER_QUEUE_CAPACITY = TEZ_AM_PREFIX
+      + "concurrent-dispatcher.queue-capacity";
+  @Private
+  public static final int TEZ_AM_CONCURRENT_DISPATCHER_QUEUE_CAPACITY_DEFAULT = 16384;
+
   /**
    * Boolean value. Execution mode for the Tez application. True implies session mode. If the client
    * code is written according to best practices then the same code can execute in either mode based
@@ -446,6 +458,20 @@ public class TezConfiguration extends Configuration {
       TEZ_AM_PREFIX + "task.listener.thread-count";
   public static final int TEZ_AM_TASK_LISTENER_THREAD_COUNT_DEFAULT = 30;
 
+  /**
+   * Long value. If positive, the events received in task heartbeats are posted to the dispatcher
+   * in batches, at this interval in milliseconds, with the events for each vertex combined into a
+   * single routing event. Reduces the dispatcher load for a large number of concurrent tasks, at
+   * the cost of up to this much extra latency for the events. 0 posts the events of each heartbeat
+   * as it is received.
+   * Expert level setting.
+   */
+  @ConfigurationScope(Scope.AM)
+  @ConfigurationProperty(type="long")
+  public static final String TEZ_AM_TASK_HEARTBEAT_BATCH_INTERVAL_MS =
+      TEZ_AM_PREFIX + "task.heartbeat.batch.interval-ms";
+  public static final long TEZ_AM_TASK_HEARTBEAT_BATCH_INTERVAL_MS_DEFAULT = 0;
+
   /**
    * Int value. Configuration to limit the counters per dag (AppMaster and Task). This can be used
    * to
@@ -713,6 +739,23 @@ public class TezConfiguration extends Configuration {
   public static final int TEZ_TASK_AM_HEARTBEAT_COUNTER_INTERVAL_MS_DEFAULT =
       4000;
 
+  /**
+   * Int value. If positive, the app master suggests the interval until the next heartbeat of each
+   * task, up to this many milliseconds. Tasks which exchange events with the app master, or whose
+   * source vertices are still running, heartbeat at
+   * {@link TezConfiguration#TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS}; idle tasks gradually back off to
+   * this interval. Both are stretched while the app master has a backlog of events or heartbeats.
+   * Tasks with events to send heartbeat without backing off. Values above a quarter of
+   * {@link TezConfiguration#TASK_HEARTBEAT_TIMEOUT_MS} are reduced to a quarter of it, so that
+   * idle tasks are not considered lost. 0 disables adaptive heartbeats.
+   * Expert level setting.
+   */
+  @ConfigurationScope(Scope.AM)
+  @ConfigurationProperty(type="integer")
+  public static final String TEZ_TASK_AM_HEARTBEAT_ADAPTIVE_INTERVAL_MS_MAX = TEZ_TASK_PREFIX
+      + "am.heartbeat.adaptive.interval-ms.max";
+  public static final int TEZ_TASK_AM_HEARTBEAT_ADAPTIVE_INTERVAL_MS_MAX_DEFAULT = 0;
+
   /**
    * Int value. Maximum number of of events to fetch from the AM by the tasks in a single heartbeat.
    * Expert level setting. Expert level setting.
@@ -21,9 +21,13 @@ package org.apache.tez.common;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.hadoop.classification.InterfaceAudience.Private;
 import org.apache.hadoop.conf.Configuration;
@@ -32,7 +36,7 @@ import org.apache.hadoop.util.ShutdownHookManager;
 import org.apache.hadoop.yarn.event.Dispatcher;
 import org.apache.hadoop.yarn.event.Event;
 import org.apache.hadoop.yarn.event.EventHandler;
-import org.apache.hadoop.yarn.exceptions.YarnRuntimeException;
+import org.apache.tez.dag.api.TezConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +50,13 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * to schedule events. Events that have the same serializing hash will get scheduled
  * on the same thread in the threadpool. This can be used to prevent concurrency issues
  * for events that may not be independently processed.
+ *
+ * Every thread drains its own bounded {@link MpscRingBuffer}, in batches. Producers never block
+ * on a full ring, since they may hold locks needed by the handlers: the events are added to an
+ * unbounded overflow queue instead, and producers keep using it until the thread has drained it,
+ * so that the events of a producer are still dispatched in order. The number of queued events,
+ * the time from enqueue to dispatch and the time spent in the handler are tracked per event type,
+ * see {@link #getEventTypeStatistics()}.
  */
 @SuppressWarnings({"rawtypes", "unchecked"})
 @Private
@@ -53,17 +64,18 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
 
   private static final Logger LOG = LoggerFactory.getLogger(AsyncDispatcher.class);
 
+  // maximum number of events dispatched between checks for stop and drain requests
+  private static final int DRAIN_BATCH_SIZE = 256;
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
   private final String name;
-  private final ArrayList<LinkedBlockingQueue<Event>> eventQueues;
+  private final ArrayList<Shard> shards;
   private volatile boolean stopped = false;
 
   // Configuration flag for enabling/disabling draining dispatcher's events on
   // stop functionality.
   private volatile boolean drainEventsOnStop = false;
 
-  // Indicates all the remaining dispatcher's events on stop have been drained
-  // and processed.
-  private volatile boolean drained = true;
   private Object waitForDrained = new Object();
 
   // For drainEventsOnStop enabled only, block newly coming events into the
@@ -73,31 +85,137 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
 
   private ExecutorService execService;
   private final int numThreads;
+  private int queueCapacity;
   
   protected final Map<Class<? extends Enum>, EventHandler> eventHandlers = Maps.newHashMap();
   protected final Map<Class<? extends Enum>, AsyncDispatcherConcurrent> eventDispatchers = 
       Maps.newHashMap();
   private boolean exitOnDispatchException;
 
+  // handlers and statistics of the registered event types, looked up by identity of the event
+  // type class and indexed by the ordinal of the event type; built on start
+  private Class<? extends Enum>[] handlerTypes;
+  private EventHandler[] handlerTable;
+  private Enum[][] eventTypes;
+  private AtomicLongArray[] enqueuedEvents;
+  private final AtomicLong overflowedEvents = new AtomicLong();
+
   AsyncDispatcherConcurrent(String name, int numThreads) {
     super(name);
     Preconditions.checkArgument(numThreads > 0);
     this.name = name;
-    this.eventQueues = Lists.newArrayListWithCapacity(numThreads);
+    this.shards = Lists.newArrayListWithCapacity(numThreads);
     this.numThreads = numThreads;
   }
-  
-  class DispatchRunner implements Runnable {
-    final LinkedBlockingQueue<Event> queue;
-    
-    public DispatchRunner(LinkedBlockingQueue<Event> queue) {
-      this.queue = queue;
+
+  private static class OverflowEvent {
+    final Event event;
+    final long enqueueTime;
+
+    OverflowEvent(Event event, long enqueueTime) {
+      this.event = event;
+      this.enqueueTime = enqueueTime;
     }
-    
+  }
+
+  class Shard implements Runnable {
+    final MpscRingBuffer<Event> ring;
+    final ConcurrentLinkedQueue<OverflowEvent> overflow = new ConcurrentLinkedQueue<OverflowEvent>();
+    final Object overflowLock = new Object();
+    // set while events are added to the overflow queue, cleared once the queue is drained
+    volatile boolean overflowing = false;
+    volatile boolean drained = true;
+    volatile boolean waiting = false;
+    volatile Thread thread;
+
+    // statistics per handler type and event type ordinal, only written by the shard thread
+    final long[][] dispatched;
+    final long[][] totalLatencyNanos;
+    final long[][] maxLatencyNanos;
+    final long[][] totalHandlerNanos;
+
+    Shard(int capacity) {
+      ring = new MpscRingBuffer<Event>(capacity);
+      dispatched = new long[handlerTypes.length][];
+      totalLatencyNanos = new long[handlerTypes.length][];
+      maxLatencyNanos = new long[handlerTypes.length][];
+      totalHandlerNanos = new long[handlerTypes.length][];
+      for (int i = 0; i < handlerTypes.length; i++) {
+        int numTypes = eventTypes[i].length;
+        dispatched[i] = new long[numTypes];
+        totalLatencyNanos[i] = new long[numTypes];
+        maxLatencyNanos[i] = new long[numTypes];
+        totalHandlerNanos[i] = new long[numTypes];
+      }
+    }
+
+    void add(Event event, int handlerIndex) {
+      drained = false;
+      long now = System.nanoTime();
+      if (handlerIndex >= 0) {
+        enqueuedEvents[handlerIndex].incrementAndGet(event.getType().ordinal());
+      }
+      if (overflowing || !ring.offer(event, now)) {
+        synchronized (overflowLock) {
+          overflowing = true;
+          overflow.add(new OverflowEvent(event, now));
+        }
+        long overflowed = overflowedEvents.incrementAndGet();
+        if (overflowed % 10000 == 1) {
+          LOG.warn("Event queue of dispatcher " + name + " is full, " + overflowed
+              + " events queued beyond capacity " + ring.capacity() + " in total");
+        }
+      }
+      if (waiting) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    boolean isEmpty() {
+      return ring.isEmpty() && overflow.isEmpty();
+    }
+
+    int size() {
+      return ring.size() + overflow.size();
+    }
+
+    // dispatch up to DRAIN_BATCH_SIZE events, the ones in the ring first
+    private int drain() {
+      int count = 0;
+      while (count < DRAIN_BATCH_SIZE) {
+        Event event = ring.poll();
+        long enqueueTime;
+        if (event != null) {
+          enqueueTime = ring.getPolledTag();
+        } else if (overflowing) {
+          OverflowEvent overflowEvent = overflow.poll();
+          if (overflowEvent == null) {
+            synchronized (overflowLock) {
+              if (overflow.isEmpty()) {
+                overflowing = false;
+              }
+            }
+            continue;
+          }
+          event = overflowEvent.event;
+          enqueueTime = overflowEvent.enqueueTime;
+        } else {
+          break;
+        }
+        dispatch(event, enqueueTime, this);
+        count++;
+      }
+      return count;
+    }
+
     @Override
     public void run() {
+      thread = Thread.currentThread();
       while (!stopped && !Thread.currentThread().isInterrupted()) {
-        drained = queue.isEmpty();
+        if (drain() > 0) {
+          continue;
+        }
+        drained = isEmpty();
         // blockNewEvents is only set when dispatcher is draining to stop,
         // adding this check is to avoid the overhead of acquiring the lock
         // and calling notify every time in the normal run of the loop.
@@ -108,18 +226,14 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
             }
           }
         }
-        Event event;
-        try {
-          event = queue.take();
-        } catch(InterruptedException ie) {
-          if (!stopped) {
-            LOG.warn("AsyncDispatcher thread interrupted", ie);
-          }
-          return;
-        }
-        if (event != null) {
-          dispatch(event);
+        waiting = true;
+        if (isEmpty()) {
+          LockSupport.parkNanos(this, PARK_NANOS);
         }
+        waiting = false;
+      }
+      if (!stopped) {
+        LOG.warn("AsyncDispatcher thread interrupted");
       }
     }
   };
@@ -130,18 +244,36 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
     this.exitOnDispatchException =
         conf.getBoolean(Dispatcher.DISPATCHER_EXIT_ON_ERROR_KEY,
           Dispatcher.DEFAULT_DISPATCHER_EXIT_ON_ERROR);
+    this.queueCapacity = conf.getInt(TezConfiguration.TEZ_AM_CONCURRENT_DISPATCHER_QUEUE_CAPACITY,
+        TezConfiguration.TEZ_AM_CONCURRENT_DISPATCHER_QUEUE_CAPACITY_DEFAULT);
+    Preconditions.checkArgument(queueCapacity > 0,
+        TezConfiguration.TEZ_AM_CONCURRENT_DISPATCHER_QUEUE_CAPACITY + " should be positive: "
+            + queueCapacity);
     super.serviceInit(conf);
   }
 
   @Override
   protected void serviceStart() throws Exception {
+    int numHandlers = eventHandlers.size();
+    handlerTypes = new Class[numHandlers];
+    handlerTable = new EventHandler[numHandlers];
+    eventTypes = new Enum[numHandlers][];
+    enqueuedEvents = new AtomicLongArray[numHandlers];
+    int i = 0;
+    for (Map.Entry<Class<? extends Enum>, EventHandler> entry : eventHandlers.entrySet()) {
+      handlerTypes[i] = entry.getKey();
+      handlerTable[i] = entry.getValue();
+      eventTypes[i] = entry.getKey().getEnumConstants();
+      enqueuedEvents[i] = new AtomicLongArray(eventTypes[i].length);
+      i++;
+    }
     execService = Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder().setDaemon(true)
         .setNameFormat("Dispatcher {" + this.name + "} #%d").build());
-    for (int i=0; i<numThreads; ++i) {
-      eventQueues.add(new LinkedBlockingQueue<Event>());
+    for (i=0; i<numThreads; ++i) {
+      shards.add(new Shard(queueCapacity));
     }
-    for (int i=0; i<numThreads; ++i) {
-      execService.execute(new DispatchRunner(eventQueues.get(i)));
+    for (i=0; i<numThreads; ++i) {
+      execService.execute(shards.get(i));
     }
     //start all the components
     super.serviceStart();
@@ -151,6 +283,15 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
     drainEventsOnStop = true;
   }
 
+  private boolean isDrained() {
+    for (Shard shard : shards) {
+      if (!shard.drained) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   protected void serviceStop() throws Exception {
     if (execService != null) {
@@ -158,7 +299,7 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
         blockNewEvents = true;
         LOG.info("AsyncDispatcher is draining to stop, ignoring any new events.");
         synchronized (waitForDrained) {
-          while (!drained && !execService.isShutdown()) {
+          while (!isDrained() && !execService.isShutdown()) {
             LOG.info("Waiting for AsyncDispatcher to drain.");
             waitForDrained.wait(1000);
           }
@@ -168,9 +309,10 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
       stopped = true;
 
       for (int i=0; i<numThreads; ++i) {
-        LOG.info("AsyncDispatcher stopping with events: " + eventQueues.get(i).size()
+        LOG.info("AsyncDispatcher stopping with events: " + shards.get(i).size()
             + " in queue: " + i);
       }
+      LOG.info("AsyncDispatcher " + name + " event statistics: " + getEventTypeStatistics());
       execService.shutdownNow();
     }
 
@@ -178,7 +320,17 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
     super.serviceStop();
   }
 
-  protected void dispatch(Event event) {
+  // index of the handler of the event type class in the handler table, or -1
+  private int getHandlerIndex(Class<? extends Enum> type) {
+    for (int i = 0; i < handlerTypes.length; i++) {
+      if (handlerTypes[i] == type) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void dispatch(Event event, long enqueueTime, Shard shard) {
     //all events go thru this loop
     if (LOG.isDebugEnabled()) {
       LOG.debug("Dispatching the event " + event.getClass().getName() + "."
@@ -188,9 +340,21 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
     Class<? extends Enum> type = event.getType().getDeclaringClass();
 
     try{
-      EventHandler handler = eventHandlers.get(type);
-      if(handler != null) {
-        handler.handle(event);
+      int handlerIndex = getHandlerIndex(type);
+      if(handlerIndex >= 0) {
+        int ordinal = event.getType().ordinal();
+        long start = System.nanoTime();
+        long latency = start - enqueueTime;
+        shard.dispatched[handlerIndex][ordinal]++;
+        shard.totalLatencyNanos[handlerIndex][ordinal] += latency;
+        if (latency > shard.maxLatencyNanos[handlerIndex][ordinal]) {
+          shard.maxLatencyNanos[handlerIndex][ordinal] = latency;
+        }
+        try {
+          handlerTable[handlerIndex].handle(event);
+        } finally {
+          shard.totalHandlerNanos[handlerIndex][ordinal] += System.nanoTime() - start;
+        }
       } else {
         throw new Exception("No handler for registered for " + type);
       }
@@ -207,6 +371,122 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
     }
   }
 
+  /**
+   * Statistics of the events handled by this dispatcher.
+   */
+  public static class EventTypeStatistics {
+    private final Enum eventType;
+    private final long queued;
+    private final long dispatched;
+    private final long totalLatencyNanos;
+    private final long maxLatencyNanos;
+    private final long totalHandlerNanos;
+
+    EventTypeStatistics(Enum eventType, long queued, long dispatched, long totalLatencyNanos,
+        long maxLatencyNanos, long totalHandlerNanos) {
+      this.eventType = eventType;
+      this.queued = queued;
+      this.dispatched = dispatched;
+      this.totalLatencyNanos = totalLatencyNanos;
+      this.maxLatencyNanos = maxLatencyNanos;
+      this.totalHandlerNanos = totalHandlerNanos;
+    }
+
+    public Enum getEventType() {
+      return eventType;
+    }
+
+    /**
+     * Events waiting to be dispatched.
+     */
+    public long getQueued() {
+      return queued;
+    }
+
+    public long getDispatched() {
+      return dispatched;
+    }
+
+    /**
+     * Total time from the events being added to the queue to being dispatched.
+     */
+    public long getTotalLatencyNanos() {
+      return totalLatencyNanos;
+    }
+
+    public long getMaxLatencyNanos() {
+      return maxLatencyNanos;
+    }
+
+    /**
+     * Total time spent in the handler.
+     */
+    public long getTotalHandlerNanos() {
+      return totalHandlerNanos;
+    }
+
+    @Override
+    public String toString() {
+      return eventType + "{queued=" + queued + ", dispatched=" + dispatched
+          + ", avgLatencyUs=" + (dispatched == 0 ? 0 : totalLatencyNanos / dispatched / 1000)
+          + ", maxLatencyUs=" + maxLatencyNanos / 1000
+          + ", avgHandlerUs=" + (dispatched == 0 ? 0 : totalHandlerNanos / dispatched / 1000)
+          + "}";
+    }
+  }
+
+  /**
+   * Statistics of the event types that have been queued, aggregated over all threads. Values are
+   * read without synchronization, so they may be slightly out of date.
+   */
+  public List<EventTypeStatistics> getEventTypeStatistics() {
+    List<EventTypeStatistics> statistics = new ArrayList<EventTypeStatistics>();
+    if (handlerTypes == null) {
+      return statistics;
+    }
+    for (int i = 0; i < handlerTypes.length; i++) {
+      for (int ordinal = 0; ordinal < eventTypes[i].length; ordinal++) {
+        long enqueued = enqueuedEvents[i].get(ordinal);
+        if (enqueued == 0) {
+          continue;
+        }
+        long dispatched = 0;
+        long totalLatency = 0;
+        long maxLatency = 0;
+        long totalHandler = 0;
+        for (Shard shard : shards) {
+          dispatched += shard.dispatched[i][ordinal];
+          totalLatency += shard.totalLatencyNanos[i][ordinal];
+          maxLatency = Math.max(maxLatency, shard.maxLatencyNanos[i][ordinal]);
+          totalHandler += shard.totalHandlerNanos[i][ordinal];
+        }
+        statistics.add(new EventTypeStatistics(eventTypes[i][ordinal],
+            Math.max(0, enqueued - dispatched), dispatched, totalLatency, maxLatency,
+            totalHandler));
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * Number of events waiting in the event queues of all threads. Events which overflowed the
+   * queues are not included; a full queue is reported instead.
+   */
+  public int getQueueSize() {
+    int queueSize = 0;
+    for (Shard shard : shards) {
+      queueSize += shard.ring.size();
+    }
+    return queueSize;
+  }
+
+  /**
+   * Number of events that were queued beyond the capacity of the event queues.
+   */
+  public long getOverflowedEvents() {
+    return overflowedEvents.get();
+  }
+
   private void checkForExistingHandler(Class<? extends Enum> eventType) {
     EventHandler<Event> registeredHandler = (EventHandler<Event>) eventHandlers.get(eventType);
     Preconditions.checkState(registeredHandler == null, 
@@ -297,38 +577,20 @@ public class AsyncDispatcherConcurrent extends CompositeService implements Dispa
       if (blockNewEvents) {
         return;
       }
-      drained = false;
-      
       // offload to specific dispatcher if one exists
       Class<? extends Enum> type = event.getType().getDeclaringClass();
-      AsyncDispatcherConcurrent registeredDispatcher = eventDispatchers.get(type);
-      if (registeredDispatcher != null) {
-        registeredDispatcher.getEventHandler().handle(event);
-        return;
+      if (!eventDispatchers.isEmpty()) {
+        AsyncDispatcherConcurrent registeredDispatcher = eventDispatchers.get(type);
+        if (registeredDispatcher != null) {
+          registeredDispatcher.getEventHandler().handle(event);
+          return;
+        }
       }
       
       int index = numThreads > 1 ? event.getSerializingHash() % numThreads : 0;
 
-     // no registered dispatcher. use internal dispatcher.
-      LinkedBlockingQueue<Event> queue = eventQueues.get(index);
-      /* all this method does is enqueue all the events onto the queue */
-      int qSize = queue.size();
-      if (qSize !=0 && qSize %1000 == 0) {
-        LOG.info("Size of event-queue is " + qSize);
-      }
-      int remCapacity = queue.remainingCapacity();
-      if (remCapacity < 1000) {
-        LOG.warn("Very low remaining capacity in the event-queue: "
-            + remCapacity);
-      }
-      try {
-        queue.put(event);
-      } catch (InterruptedException e) {
-        if (!stopped) {
-          LOG.warn("AsyncDispatcher thread interrupted", e);
-        }
-        throw new YarnRuntimeException(e);
-      }
+      // no registered dispatcher. use internal dispatcher.
+      shards.get(index).add(event, getHandlerIndex(type));
     };
   }
 
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounded, lock free queue for many producers and a single consumer. Every slot has a sequence
+ * number; producers claim a position with a CAS on the tail and publish the element by advancing
+ * the sequence of its slot, which the consumer checks before reading it. Each element carries a
+ * long tag, e.g. the time it was added, so that callers need not wrap elements.
+ *
+ * {@link #poll()} and {@link #getPolledTag()} must only be called by the consumer thread.
+ */
+@Private
+public class MpscRingBuffer<T> {
+
+  private final int mask;
+  private final Object[] elements;
+  private final long[] tags;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  // only touched by the consumer
+  private long head = 0;
+  private long polledTag;
+
+  /**
+   * @param capacity rounded up to a power of two
+   */
+  public MpscRingBuffer(int capacity) {
+    Preconditions.checkArgument(capacity > 0 && capacity <= (1 << 30),
+        "Invalid capacity: " + capacity);
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    elements = new Object[size];
+    tags = new long[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  public int capacity() {
+    return elements.length;
+  }
+
+  /**
+   * @return false if the buffer is full
+   */
+  public boolean offer(T element, long tag) {
+    Preconditions.checkNotNull(element);
+    long pos = tail.get();
+    while (true) {
+      int index = (int) (pos & mask);
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          elements[index] = element;
+          tags[index] = tag;
+          // publish, after the element
+          sequences.set(index, pos + 1);
+          return true;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        // the consumer has not released the slot yet
+        return false;
+      } else {
+        // claimed by another producer
+        pos = tail.get();
+      }
+    }
+  }
+
+  /**
+   * @return the oldest element, or null if there is none
+   */
+  @SuppressWarnings("unchecked")
+  public T poll() {
+    int index = (int) (head & mask);
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+    T element = (T) elements[index];
+    polledTag = tags[index];
+    elements[index] = null;
+    // release the slot for the next round
+    sequences.set(index, head + elements.length);
+    head++;
+    return element;
+  }
+
+  /**
+   * The tag of the element last returned by {@link #poll()}.
+   */
+  public long getPolledTag() {
+    return polledTag;
+  }
+
+  /**
+   * Number of elements added and not yet polled; elements being added may be included.
+   */
+  public int size() {
+    long size = tail.get() - head;
+    return (int) Math.max(0, Math.min(size, elements.length));
+  }
+
+  public boolean isEmpty() {
+    return sequences.get((int) (head & mask)) != head + 1;
+  }
+}
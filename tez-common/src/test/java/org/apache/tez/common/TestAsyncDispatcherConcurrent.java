@@ -17,10 +17,14 @@
 
 package org.apache.tez.common;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.dag.api.TezConfiguration;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -132,6 +136,45 @@ public class TestAsyncDispatcherConcurrent {
     central.close();
   }
   
+  @Test (timeout=5000)
+  public void testOverflowKeepsOrder() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+    AsyncDispatcherConcurrent dispatcher = new AsyncDispatcherConcurrent("Type1", 1);
+    dispatcher.register(TestEventType1.class, new EventHandler<TestEvent1>() {
+      @Override
+      public void handle(TestEvent1 event) {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        handled.add(event.hash);
+      }
+    });
+    Configuration conf = new Configuration();
+    conf.setInt(TezConfiguration.TEZ_AM_CONCURRENT_DISPATCHER_QUEUE_CAPACITY, 4);
+    dispatcher.init(conf);
+    dispatcher.start();
+    // more events than fit in the queue while the handler is blocked
+    for (int i = 0; i < 20; i++) {
+      dispatcher.getEventHandler().handle(new TestEvent1(TestEventType1.TYPE1, i));
+    }
+    Assert.assertTrue(dispatcher.getOverflowedEvents() > 0);
+    blocked.countDown();
+    while (handled.size() < 20) {
+      Thread.sleep(10);
+    }
+    dispatcher.close();
+    for (int i = 0; i < 20; i++) {
+      Assert.assertEquals(i, handled.get(i).intValue());
+    }
+    AsyncDispatcherConcurrent.EventTypeStatistics statistics =
+        dispatcher.getEventTypeStatistics().get(0);
+    Assert.assertEquals(TestEventType1.TYPE1, statistics.getEventType());
+    Assert.assertEquals(0, statistics.getQueued());
+  }
+
   @Test (timeout=5000)
   public void testMultipleRegisterFail() throws Exception {
     AsyncDispatcher central = new AsyncDispatcher("Type1");
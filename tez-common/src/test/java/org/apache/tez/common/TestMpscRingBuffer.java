@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TestMpscRingBuffer {
+
+  @Test(timeout = 5000)
+  public void testOfferPoll() {
+    MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(3);
+    assertEquals(4, ring.capacity());
+    assertTrue(ring.isEmpty());
+    assertNull(ring.poll());
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 4; i++) {
+        assertTrue(ring.offer(i, 100 + i));
+      }
+      assertFalse(ring.offer(4, 104));
+      assertEquals(4, ring.size());
+      for (int i = 0; i < 4; i++) {
+        assertEquals(i, ring.poll().intValue());
+        assertEquals(100 + i, ring.getPolledTag());
+      }
+      assertTrue(ring.isEmpty());
+      assertNull(ring.poll());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testConcurrentProducers() throws Exception {
+    final MpscRingBuffer<Long> ring = new MpscRingBuffer<Long>(64);
+    final int numProducers = 4;
+    final int numElements = 100000;
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] producers = new Thread[numProducers];
+    for (int p = 0; p < numProducers; p++) {
+      final int producer = p;
+      producers[p] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (long i = 0; i < numElements; i++) {
+            while (!ring.offer(producer * (long) numElements + i, producer)) {
+              Thread.yield();
+            }
+          }
+        }
+      };
+      producers[p].start();
+    }
+    start.countDown();
+    long[] next = new long[numProducers];
+    int received = 0;
+    while (received < numProducers * numElements) {
+      Long value = ring.poll();
+      if (value == null) {
+        Thread.yield();
+        continue;
+      }
+      int producer = (int) ring.getPolledTag();
+      // elements of a producer arrive in order
+      assertEquals(producer * (long) numElements + next[producer], value.longValue());
+      next[producer]++;
+      received++;
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertTrue(ring.isEmpty());
+  }
+}
@@ -84,6 +84,9 @@ public interface AppContext {
   @SuppressWarnings("rawtypes")
   EventHandler getEventHandler();
 
+  /** Number of events waiting to be handled by the AM dispatchers */
+  int getEventQueueSize();
+
   Clock getClock();
 
   ClusterInfo getClusterInfo();
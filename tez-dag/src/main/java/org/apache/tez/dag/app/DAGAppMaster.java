@@ -85,6 +85,8 @@ import org.apache.tez.dag.records.TezTaskID;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.metrics2.MetricsException;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.security.Credentials;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.token.Token;
@@ -254,6 +256,8 @@ public class DAGAppMaster extends AbstractService {
   private AppContext context;
   private Configuration amConf;
   private AsyncDispatcher dispatcher;
+  // dispatcher of task and task attempt events, if the concurrent dispatcher is used
+  private AsyncDispatcherConcurrent taskEventDispatcher;
   private ContainerLauncherManager containerLauncherManager;
   private ContainerHeartbeatHandler containerHeartbeatHandler;
   private TaskHeartbeatHandler taskHeartbeatHandler;
@@ -559,16 +563,26 @@ public class DAGAppMaster extends AbstractService {
     } else {
       int concurrency = conf.getInt(TezConfiguration.TEZ_AM_CONCURRENT_DISPATCHER_CONCURRENCY, 
           TezConfiguration.TEZ_AM_CONCURRENT_DISPATCHER_CONCURRENCY_DEFAULT);
-      AsyncDispatcherConcurrent sharedDispatcher = dispatcher.registerAndCreateDispatcher(
+      taskEventDispatcher = dispatcher.registerAndCreateDispatcher(
           TaskEventType.class, new TaskEventDispatcher(), "TaskAndAttemptEventThread", concurrency);
       dispatcher.registerWithExistingDispatcher(TaskAttemptEventType.class,
-          new TaskAttemptEventDispatcher(), sharedDispatcher);
+          new TaskAttemptEventDispatcher(), taskEventDispatcher);
     }
     
     // register other delegating dispatchers
     dispatcher.registerAndCreateDispatcher(SpeculatorEventType.class, new SpeculatorEventHandler(),
         "Speculator");
 
+    DefaultMetricsSystem.initialize("TezAM");
+    try {
+      DefaultMetricsSystem.instance().register(DispatcherMetricsSource.SOURCE_NAME,
+          "Event queues of the AM dispatchers",
+          new DispatcherMetricsSource(dispatcher, taskEventDispatcher));
+    } catch (MetricsException e) {
+      // another AM in this JVM has registered its dispatchers already
+      LOG.warn("Failed to register the dispatcher metrics", e);
+    }
+
     if (enableWebUIService()) {
       this.webUIService = new WebUIService(context);
       addIfService(webUIService, false);
@@ -822,6 +836,11 @@ public class DAGAppMaster extends AbstractService {
           if (!sessionStopped.get()) {
             LOG.info("Central Dispatcher queue size after DAG completion, before cleanup: " +
                 dispatcher.getQueueSize());
+            if (taskEventDispatcher != null) {
+              LOG.info("Task event dispatcher statistics after DAG completion: "
+                  + taskEventDispatcher.getEventTypeStatistics() + ", overflowed events: "
+                  + taskEventDispatcher.getOverflowedEvents());
+            }
             LOG.info("Waiting for next DAG to be submitted.");
 
             // Sending this via the event queue, in case there are pending events which need to be
@@ -1579,6 +1598,15 @@ public class DAGAppMaster extends AbstractService {
       return eventHandler;
     }
 
+    @Override
+    public int getEventQueueSize() {
+      int queueSize = dispatcher.getQueueSize();
+      if (taskEventDispatcher != null) {
+        queueSize += taskEventDispatcher.getQueueSize();
+      }
+      return queueSize;
+    }
+
     @Override
     public String getUser() {
       return dag.getUserName();
@@ -2218,6 +2246,7 @@ public class DAGAppMaster extends AbstractService {
         execService.shutdownNow();
       }
 
+      DefaultMetricsSystem.shutdown();
       super.serviceStop();
     }
   }
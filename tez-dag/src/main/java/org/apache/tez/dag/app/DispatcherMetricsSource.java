@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app;
+
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.tez.common.AsyncDispatcher;
+import org.apache.tez.common.AsyncDispatcherConcurrent;
+import org.apache.tez.common.AsyncDispatcherConcurrent.EventTypeStatistics;
+
+/**
+ * Publishes the state of the AM dispatchers to the metrics system, and through it to JMX. The
+ * central dispatcher only reports its queue size. The concurrent task event dispatcher reports
+ * per event type the queue depth, the number of dispatched events, and the time spent waiting
+ * in the queue and in the handler. Times are cumulative, so that rates can be derived from
+ * consecutive snapshots.
+ */
+class DispatcherMetricsSource implements MetricsSource {
+
+  static final String SOURCE_NAME = "TezAMDispatcher";
+  static final String RECORD_NAME = "Dispatcher";
+  static final String CONTEXT = "tez";
+
+  private final AsyncDispatcher dispatcher;
+  private final AsyncDispatcherConcurrent taskEventDispatcher;
+
+  DispatcherMetricsSource(AsyncDispatcher dispatcher,
+      AsyncDispatcherConcurrent taskEventDispatcher) {
+    this.dispatcher = dispatcher;
+    this.taskEventDispatcher = taskEventDispatcher;
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder record = collector.addRecord(RECORD_NAME).setContext(CONTEXT);
+    record.addGauge(Interns.info("CentralQueueSize",
+        "Events waiting in the central dispatcher"), dispatcher.getQueueSize());
+    if (taskEventDispatcher == null) {
+      return;
+    }
+    record.addGauge(Interns.info("TaskEventQueueSize",
+        "Events waiting in the task event dispatcher"), taskEventDispatcher.getQueueSize());
+    record.addCounter(Interns.info("TaskEventOverflowed",
+        "Events queued beyond the capacity of the task event dispatcher"),
+        taskEventDispatcher.getOverflowedEvents());
+    for (EventTypeStatistics statistics : taskEventDispatcher.getEventTypeStatistics()) {
+      String eventType = statistics.getEventType().name();
+      record.addGauge(Interns.info(eventType + "Queued",
+          "Events of type " + eventType + " waiting to be dispatched"), statistics.getQueued());
+      record.addCounter(Interns.info(eventType + "Dispatched",
+          "Events of type " + eventType + " dispatched"), statistics.getDispatched());
+      record.addCounter(Interns.info(eventType + "TotalLatencyNanos",
+          "Time events of type " + eventType + " spent in the queue"),
+          statistics.getTotalLatencyNanos());
+      record.addGauge(Interns.info(eventType + "MaxLatencyNanos",
+          "Longest time an event of type " + eventType + " spent in the queue"),
+          statistics.getMaxLatencyNanos());
+      record.addCounter(Interns.info(eventType + "TotalHandlerNanos",
+          "Time spent handling events of type " + eventType),
+          statistics.getTotalHandlerNanos());
+    }
+  }
+}
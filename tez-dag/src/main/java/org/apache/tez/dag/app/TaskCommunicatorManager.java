@@ -38,6 +38,7 @@ import org.apache.tez.runtime.api.events.TaskAttemptKilledEvent;
 import org.apache.tez.serviceplugins.api.DagInfo;
 import org.apache.tez.serviceplugins.api.ServicePluginError;
 import org.apache.tez.serviceplugins.api.TaskCommunicator;
+import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.dag.api.TezConstants;
 import org.apache.tez.dag.api.UserPayload;
 import org.apache.tez.dag.app.dag.event.DAGAppMasterEventType;
@@ -67,6 +68,8 @@ import org.apache.hadoop.yarn.util.ConverterUtils;
 import org.apache.tez.serviceplugins.api.TaskHeartbeatRequest;
 import org.apache.tez.dag.app.dag.DAG;
 import org.apache.tez.dag.app.dag.Task;
+import org.apache.tez.dag.app.dag.Vertex;
+import org.apache.tez.dag.app.dag.VertexState;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEvent;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventAttemptFailed;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventAttemptKilled;
@@ -113,6 +116,11 @@ public class TaskCommunicatorManager extends AbstractService implements
 
   private static final ContainerInfo NULL_CONTAINER_INFO = new ContainerInfo(null);
 
+  // set when heartbeat events are posted in batches
+  private volatile TaskHeartbeatEventBatcher heartbeatEventBatcher;
+  // set when tasks are sent heartbeat intervals
+  private volatile TaskHeartbeatIntervalPolicy heartbeatIntervalPolicy;
+
 
   @VisibleForTesting
   @InterfaceAudience.Private
@@ -162,10 +170,23 @@ public class TaskCommunicatorManager extends AbstractService implements
       taskCommunicatorServiceWrappers[i].init(getConfig());
       taskCommunicatorServiceWrappers[i].start();
     }
+    long batchIntervalMs = getConfig().getLong(
+        TezConfiguration.TEZ_AM_TASK_HEARTBEAT_BATCH_INTERVAL_MS,
+        TezConfiguration.TEZ_AM_TASK_HEARTBEAT_BATCH_INTERVAL_MS_DEFAULT);
+    if (batchIntervalMs > 0) {
+      TaskHeartbeatEventBatcher batcher =
+          new TaskHeartbeatEventBatcher(context.getEventHandler(), batchIntervalMs);
+      batcher.start();
+      heartbeatEventBatcher = batcher;
+    }
+    heartbeatIntervalPolicy = TaskHeartbeatIntervalPolicy.create(getConfig());
   }
 
   @Override
   public void serviceStop() {
+    if (heartbeatEventBatcher != null) {
+      heartbeatEventBatcher.stop();
+    }
     for (int i = 0 ; i < taskCommunicators.length ; i++) {
       taskCommunicatorServiceWrappers[i].stop();
     }
@@ -238,6 +259,7 @@ public class TaskCommunicatorManager extends AbstractService implements
 
     pingContainerHeartbeatHandler(containerId);
     TaskAttemptEventInfo eventInfo = new TaskAttemptEventInfo(0, null, 0);
+    long nextHeartbeatIntervalMs = 0;
     TezTaskAttemptID taskAttemptID = request.getTaskAttemptId();
     if (taskAttemptID != null) {
       ContainerId containerIdFromMap = registeredAttempts.get(taskAttemptID);
@@ -264,9 +286,10 @@ public class TaskCommunicatorManager extends AbstractService implements
       // eventsForVertex - including all the taGeneratedEvents and other events such as INPUT_READ_ERROR_EVENT/INPUT_FAILED_EVENT
       // taGeneratedEvents is routed both to TaskAttempt & Vertex. Route to Vertex is for performance consideration
       // taFinishedEvents must be routed before taGeneratedEvents
-      List<TezEvent> taFinishedEvents = new ArrayList<TezEvent>();
-      List<TezEvent> taGeneratedEvents = new ArrayList<TezEvent>();
-      List<TezEvent> eventsForVertex = new ArrayList<TezEvent>();
+      // Most heartbeats only carry a status update, so the lists are created when needed.
+      TezEvent taFinishedEvent = null;
+      List<TezEvent> taGeneratedEvents = null;
+      List<TezEvent> eventsForVertex = null;
       TaskAttemptEventStatusUpdate taskAttemptEvent = null;
       boolean readErrorReported = false;
       for (TezEvent tezEvent : ListUtils.emptyIfNull(inEvents)) {
@@ -281,7 +304,8 @@ public class TaskCommunicatorManager extends AbstractService implements
         } else if (eventType == EventType.TASK_ATTEMPT_COMPLETED_EVENT
            || eventType == EventType.TASK_ATTEMPT_FAILED_EVENT
            || eventType == EventType.TASK_ATTEMPT_KILLED_EVENT) {
-          taFinishedEvents.add(tezEvent);
+          Preconditions.checkArgument(taFinishedEvent == null, "Multiple TaskAttemptFinishedEvent");
+          taFinishedEvent = tezEvent;
         } else {
           if (eventType == EventType.INPUT_READ_ERROR_EVENT) {
             readErrorReported = true;
@@ -290,80 +314,110 @@ public class TaskCommunicatorManager extends AbstractService implements
             || eventType == EventType.COMPOSITE_DATA_MOVEMENT_EVENT
             || eventType == EventType.ROOT_INPUT_INITIALIZER_EVENT
             || eventType == EventType.VERTEX_MANAGER_EVENT) {
+            if (taGeneratedEvents == null) {
+              taGeneratedEvents = new ArrayList<TezEvent>();
+            }
             taGeneratedEvents.add(tezEvent);
           }
+          if (eventsForVertex == null) {
+            eventsForVertex = new ArrayList<TezEvent>();
+          }
           eventsForVertex.add(tezEvent);
         }
       }
+      List<TaskAttemptEvent> attemptEvents = new ArrayList<TaskAttemptEvent>(3);
       if (taskAttemptEvent != null) {
         taskAttemptEvent.setReadErrorReported(readErrorReported);
-        sendEvent(taskAttemptEvent);
+        attemptEvents.add(taskAttemptEvent);
       }
       // route taGeneratedEvents to TaskAttempt
-      if (!taGeneratedEvents.isEmpty()) {
-        sendEvent(new TaskAttemptEventTezEventUpdate(taskAttemptID, taGeneratedEvents));
+      if (taGeneratedEvents != null) {
+        attemptEvents.add(new TaskAttemptEventTezEventUpdate(taskAttemptID, taGeneratedEvents));
       }
       // route events to TaskAttempt
-      Preconditions.checkArgument(taFinishedEvents.size() <= 1, "Multiple TaskAttemptFinishedEvent");
-      for (TezEvent e : taFinishedEvents) {
-        EventMetaData sourceMeta = e.getSourceInfo();
-        switch (e.getEventType()) {
-        case TASK_ATTEMPT_FAILED_EVENT:
-        case TASK_ATTEMPT_KILLED_EVENT:
-          TaskAttemptTerminationCause errCause = null;
-          switch (sourceMeta.getEventGenerator()) {
-          case INPUT:
-            errCause = TaskAttemptTerminationCause.INPUT_READ_ERROR;
-            break;
-          case PROCESSOR:
-            errCause = TaskAttemptTerminationCause.APPLICATION_ERROR;
-            break;
-          case OUTPUT:
-            errCause = TaskAttemptTerminationCause.OUTPUT_WRITE_ERROR;
-            break;
-          case SYSTEM:
-            errCause = TaskAttemptTerminationCause.FRAMEWORK_ERROR;
-            break;
-          default:
-            throw new TezUncheckedException("Unknown EventProducerConsumerType: " +
-                sourceMeta.getEventGenerator());
-          }
-          if (e.getEventType() == EventType.TASK_ATTEMPT_FAILED_EVENT) {
-            TaskAttemptFailedEvent taskFailedEvent = (TaskAttemptFailedEvent) e.getEvent();
-            sendEvent(
-                new TaskAttemptEventAttemptFailed(sourceMeta.getTaskAttemptID(),
-                    TaskAttemptEventType.TA_FAILED, taskFailedEvent.getTaskFailureType(),
-                    "Error: " + taskFailedEvent.getDiagnostics(),
-                    errCause));
-          } else { // Killed
-            TaskAttemptKilledEvent taskKilledEvent = (TaskAttemptKilledEvent) e.getEvent();
-            sendEvent(
-                new TaskAttemptEventAttemptKilled(sourceMeta.getTaskAttemptID(),
-                    "Error: " + taskKilledEvent.getDiagnostics(), errCause));
-          }
-          break;
-        case TASK_ATTEMPT_COMPLETED_EVENT:
+      if (taFinishedEvent != null) {
+        attemptEvents.add(createTaskAttemptFinishedEvent(taFinishedEvent));
+      }
+      TaskHeartbeatEventBatcher batcher = heartbeatEventBatcher;
+      if (batcher != null) {
+        batcher.add(taskAttemptID, attemptEvents, eventsForVertex);
+      } else {
+        for (TaskAttemptEvent event : attemptEvents) {
+          sendEvent(event);
+        }
+        if (eventsForVertex != null) {
+          TezVertexID vertexId = taskAttemptID.getTaskID().getVertexID();
           sendEvent(
-              new TaskAttemptEvent(sourceMeta.getTaskAttemptID(), TaskAttemptEventType.TA_DONE));
-          break;
-        default:
-          throw new TezUncheckedException("Unhandled tez event type: "
-             + e.getEventType());
+              new VertexEventRouteEvent(vertexId, Collections.unmodifiableList(eventsForVertex)));
         }
       }
-      if (!eventsForVertex.isEmpty()) {
-        TezVertexID vertexId = taskAttemptID.getTaskID().getVertexID();
-        sendEvent(
-            new VertexEventRouteEvent(vertexId, Collections.unmodifiableList(eventsForVertex)));
-      }
       taskHeartbeatHandler.pinged(taskAttemptID);
-      eventInfo = context
-          .getCurrentDAG()
-          .getVertex(taskAttemptID.getTaskID().getVertexID())
+      Vertex vertex = context.getCurrentDAG().getVertex(taskAttemptID.getTaskID().getVertexID());
+      eventInfo = vertex
           .getTaskAttemptTezEvents(taskAttemptID, request.getStartIndex(), request.getPreRoutedStartIndex(),
               request.getMaxEvents());
+      TaskHeartbeatIntervalPolicy intervalPolicy = heartbeatIntervalPolicy;
+      if (intervalPolicy != null) {
+        boolean active = eventsForVertex != null || taFinishedEvent != null
+            || !ListUtils.emptyIfNull(eventInfo.getEvents()).isEmpty()
+            || hasRunningSourceVertex(vertex);
+        nextHeartbeatIntervalMs = intervalPolicy.getInterval(active, context.getEventQueueSize());
+      }
+    }
+    return new TaskHeartbeatResponse(false, eventInfo.getEvents(), eventInfo.getNextFromEventId(),
+        eventInfo.getNextPreRoutedFromEventId(), nextHeartbeatIntervalMs);
+  }
+
+  // events for the tasks of the vertex may still be generated
+  private static boolean hasRunningSourceVertex(Vertex vertex) {
+    for (Vertex sourceVertex : vertex.getInputVertices().keySet()) {
+      if (sourceVertex.getState() != VertexState.SUCCEEDED) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private TaskAttemptEvent createTaskAttemptFinishedEvent(TezEvent e) {
+    EventMetaData sourceMeta = e.getSourceInfo();
+    switch (e.getEventType()) {
+    case TASK_ATTEMPT_FAILED_EVENT:
+    case TASK_ATTEMPT_KILLED_EVENT:
+      TaskAttemptTerminationCause errCause = null;
+      switch (sourceMeta.getEventGenerator()) {
+      case INPUT:
+        errCause = TaskAttemptTerminationCause.INPUT_READ_ERROR;
+        break;
+      case PROCESSOR:
+        errCause = TaskAttemptTerminationCause.APPLICATION_ERROR;
+        break;
+      case OUTPUT:
+        errCause = TaskAttemptTerminationCause.OUTPUT_WRITE_ERROR;
+        break;
+      case SYSTEM:
+        errCause = TaskAttemptTerminationCause.FRAMEWORK_ERROR;
+        break;
+      default:
+        throw new TezUncheckedException("Unknown EventProducerConsumerType: " +
+            sourceMeta.getEventGenerator());
+      }
+      if (e.getEventType() == EventType.TASK_ATTEMPT_FAILED_EVENT) {
+        TaskAttemptFailedEvent taskFailedEvent = (TaskAttemptFailedEvent) e.getEvent();
+        return new TaskAttemptEventAttemptFailed(sourceMeta.getTaskAttemptID(),
+            TaskAttemptEventType.TA_FAILED, taskFailedEvent.getTaskFailureType(),
+            "Error: " + taskFailedEvent.getDiagnostics(),
+            errCause);
+      } else { // Killed
+        TaskAttemptKilledEvent taskKilledEvent = (TaskAttemptKilledEvent) e.getEvent();
+        return new TaskAttemptEventAttemptKilled(sourceMeta.getTaskAttemptID(),
+            "Error: " + taskKilledEvent.getDiagnostics(), errCause);
+      }
+    case TASK_ATTEMPT_COMPLETED_EVENT:
+      return new TaskAttemptEvent(sourceMeta.getTaskAttemptID(), TaskAttemptEventType.TA_DONE);
+    default:
+      throw new TezUncheckedException("Unhandled tez event type: "
+         + e.getEventType());
     }
-    return new TaskHeartbeatResponse(false, eventInfo.getEvents(), eventInfo.getNextFromEventId(), eventInfo.getNextPreRoutedFromEventId());
   }
 
   public void taskAlive(TezTaskAttemptID taskAttemptId) {
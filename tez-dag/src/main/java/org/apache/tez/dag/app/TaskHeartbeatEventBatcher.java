@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.dag.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEvent;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEventStatusUpdate;
+import org.apache.tez.dag.app.dag.event.VertexEventRouteEvent;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.apache.tez.runtime.api.events.TaskStatusUpdateEvent;
+import org.apache.tez.runtime.api.impl.TezEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Collects the dispatcher events produced by task heartbeats and posts them together, once per
+ * interval, instead of once per heartbeat.
+ *
+ * Task attempt events are posted in the order they were added, except that a status update which
+ * directly follows another status update of the same attempt replaces it. The events to route to
+ * a vertex are combined into one {@link VertexEventRouteEvent} per vertex, posted after the task
+ * attempt events; as for a single heartbeat, the completion of an attempt is therefore handled
+ * before the events that it generated are routed.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+class TaskHeartbeatEventBatcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TaskHeartbeatEventBatcher.class);
+
+  private final EventHandler eventHandler;
+  private final long intervalMs;
+  private ScheduledExecutorService flushExecutor;
+
+  private final Object lock = new Object();
+  private List<TaskAttemptEvent> attemptEvents = new ArrayList<TaskAttemptEvent>();
+  // position in attemptEvents of the status update of an attempt, while it is the last event of
+  // the attempt
+  private Map<TezTaskAttemptID, Integer> lastStatusUpdates =
+      new HashMap<TezTaskAttemptID, Integer>();
+  private Map<TezVertexID, List<TezEvent>> vertexEvents =
+      new LinkedHashMap<TezVertexID, List<TezEvent>>();
+  private long numHeartbeats = 0;
+  private long numEventsPosted = 0;
+
+  TaskHeartbeatEventBatcher(EventHandler eventHandler, long intervalMs) {
+    Preconditions.checkArgument(intervalMs > 0, "Interval should be positive: " + intervalMs);
+    this.eventHandler = eventHandler;
+    this.intervalMs = intervalMs;
+  }
+
+  void start() {
+    flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("TaskHeartbeatEventBatcher").build());
+    flushExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (Throwable t) {
+          LOG.error("Error posting task heartbeat events", t);
+        }
+      }
+    }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    LOG.info("Batching task heartbeat events every " + intervalMs + " ms");
+  }
+
+  void stop() {
+    if (flushExecutor != null) {
+      flushExecutor.shutdownNow();
+    }
+    flush();
+    LOG.info("Posted " + numEventsPosted + " events for " + numHeartbeats + " task heartbeats");
+  }
+
+  /**
+   * Add the events of one heartbeat.
+   *
+   * @param events task attempt events, in the order they should be handled
+   * @param eventsForVertex events to route to the vertex of the attempt, or null
+   */
+  void add(TezTaskAttemptID attemptId, List<TaskAttemptEvent> events,
+      List<TezEvent> eventsForVertex) {
+    synchronized (lock) {
+      numHeartbeats++;
+      for (TaskAttemptEvent event : events) {
+        if (event instanceof TaskAttemptEventStatusUpdate) {
+          Integer position = lastStatusUpdates.get(attemptId);
+          if (position != null) {
+            attemptEvents.set(position, merge(
+                (TaskAttemptEventStatusUpdate) attemptEvents.get(position),
+                (TaskAttemptEventStatusUpdate) event));
+            continue;
+          }
+          lastStatusUpdates.put(attemptId, attemptEvents.size());
+        } else {
+          lastStatusUpdates.remove(attemptId);
+        }
+        attemptEvents.add(event);
+      }
+      if (eventsForVertex != null && !eventsForVertex.isEmpty()) {
+        TezVertexID vertexId = attemptId.getTaskID().getVertexID();
+        List<TezEvent> routeEvents = vertexEvents.get(vertexId);
+        if (routeEvents == null) {
+          routeEvents = new ArrayList<TezEvent>(eventsForVertex.size());
+          vertexEvents.put(vertexId, routeEvents);
+        }
+        routeEvents.addAll(eventsForVertex);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  void flush() {
+    List<TaskAttemptEvent> events;
+    Map<TezVertexID, List<TezEvent>> routeEvents;
+    synchronized (lock) {
+      if (attemptEvents.isEmpty() && vertexEvents.isEmpty()) {
+        return;
+      }
+      events = attemptEvents;
+      routeEvents = vertexEvents;
+      attemptEvents = new ArrayList<TaskAttemptEvent>(Math.max(16, events.size()));
+      lastStatusUpdates = new HashMap<TezTaskAttemptID, Integer>();
+      vertexEvents = new LinkedHashMap<TezVertexID, List<TezEvent>>();
+      numEventsPosted += events.size() + routeEvents.size();
+    }
+    for (TaskAttemptEvent event : events) {
+      eventHandler.handle(event);
+    }
+    for (Map.Entry<TezVertexID, List<TezEvent>> entry : routeEvents.entrySet()) {
+      eventHandler.handle(new VertexEventRouteEvent(entry.getKey(),
+          Collections.unmodifiableList(entry.getValue())));
+    }
+  }
+
+  // the later status, keeping what the earlier one reported and the later one did not
+  private static TaskAttemptEventStatusUpdate merge(TaskAttemptEventStatusUpdate earlier,
+      TaskAttemptEventStatusUpdate later) {
+    TaskStatusUpdateEvent earlierStatus = earlier.getStatusEvent();
+    TaskStatusUpdateEvent status = later.getStatusEvent();
+    // counters and statistics are only sent every few heartbeats
+    TaskStatusUpdateEvent merged = new TaskStatusUpdateEvent(
+        status.getCounters() != null ? status.getCounters() : earlierStatus.getCounters(),
+        status.getProgress(),
+        status.getStatistics() != null ? status.getStatistics() : earlierStatus.getStatistics(),
+        status.getProgressNotified() || earlierStatus.getProgressNotified());
+    TaskAttemptEventStatusUpdate event =
+        new TaskAttemptEventStatusUpdate(later.getTaskAttemptID(), merged);
+    event.setReadErrorReported(earlier.getReadErrorReported() || later.getReadErrorReported());
+    return event;
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.dag.app;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.tez.dag.api.TezConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Suggests how long a task should wait before its next heartbeat, when
+ * {@link TezConfiguration#TEZ_TASK_AM_HEARTBEAT_ADAPTIVE_INTERVAL_MS_MAX} is set.
+ *
+ * Active tasks, i.e. tasks which exchange events with the AM or whose source vertices are still
+ * running, are asked to heartbeat at the configured heartbeat interval; idle tasks may back off to
+ * the adaptive maximum. Either interval is stretched by one more step for every
+ * {@link #DISPATCHER_BACKLOG_PER_STEP} events queued in the AM dispatchers, and for every call per
+ * RPC handler queued by the umbilical server, up to the adaptive maximum. The adaptive maximum is
+ * capped at 1/{@link #HEARTBEAT_TIMEOUT_FRACTION} of
+ * {@link TezConfiguration#TASK_HEARTBEAT_TIMEOUT_MS}, so that an idle task can miss a few
+ * heartbeats before it is considered lost.
+ */
+class TaskHeartbeatIntervalPolicy {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TaskHeartbeatIntervalPolicy.class);
+
+  @VisibleForTesting
+  static final int DISPATCHER_BACKLOG_PER_STEP = 10000;
+  @VisibleForTesting
+  static final int HEARTBEAT_TIMEOUT_FRACTION = 4;
+
+  private final long minIntervalMs;
+  private final long maxIntervalMs;
+
+  TaskHeartbeatIntervalPolicy(long minIntervalMs, long maxIntervalMs) {
+    this.minIntervalMs = minIntervalMs;
+    this.maxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+  }
+
+  /**
+   * @return the policy configured by conf, or null if adaptive heartbeats are disabled
+   */
+  static TaskHeartbeatIntervalPolicy create(Configuration conf) {
+    int maxIntervalMs = conf.getInt(
+        TezConfiguration.TEZ_TASK_AM_HEARTBEAT_ADAPTIVE_INTERVAL_MS_MAX,
+        TezConfiguration.TEZ_TASK_AM_HEARTBEAT_ADAPTIVE_INTERVAL_MS_MAX_DEFAULT);
+    if (maxIntervalMs <= 0) {
+      return null;
+    }
+    int timeoutMs = conf.getInt(TezConfiguration.TASK_HEARTBEAT_TIMEOUT_MS,
+        TezConfiguration.TASK_HEARTBEAT_TIMEOUT_MS_DEFAULT);
+    if (timeoutMs > 0 && maxIntervalMs > timeoutMs / HEARTBEAT_TIMEOUT_FRACTION) {
+      LOG.warn(TezConfiguration.TEZ_TASK_AM_HEARTBEAT_ADAPTIVE_INTERVAL_MS_MAX + "=" + maxIntervalMs
+          + " is too close to " + TezConfiguration.TASK_HEARTBEAT_TIMEOUT_MS + "=" + timeoutMs
+          + ", using " + timeoutMs / HEARTBEAT_TIMEOUT_FRACTION + " instead");
+      maxIntervalMs = timeoutMs / HEARTBEAT_TIMEOUT_FRACTION;
+    }
+    int minIntervalMs = conf.getInt(TezConfiguration.TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS,
+        TezConfiguration.TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS_DEFAULT);
+    return new TaskHeartbeatIntervalPolicy(minIntervalMs, maxIntervalMs);
+  }
+
+  long getInterval(boolean active, int dispatcherBacklog) {
+    return stretch(active ? minIntervalMs : maxIntervalMs,
+        Math.max(0, dispatcherBacklog) / DISPATCHER_BACKLOG_PER_STEP);
+  }
+
+  /**
+   * Stretch a suggested interval by the backlog of the RPC server receiving the heartbeats.
+   */
+  long adjustForCallQueue(long intervalMs, int callQueueLength, int numHandlers) {
+    if (intervalMs <= 0) {
+      return intervalMs;
+    }
+    return stretch(intervalMs, Math.max(0, callQueueLength) / Math.max(1, numHandlers));
+  }
+
+  private long stretch(long intervalMs, int steps) {
+    return Math.min(maxIntervalMs, intervalMs * (1 + steps));
+  }
+}
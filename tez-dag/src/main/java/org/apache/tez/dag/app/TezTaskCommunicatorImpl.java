@@ -85,6 +85,9 @@ public class TezTaskCommunicatorImpl extends TaskCommunicator {
   protected InetSocketAddress address;
 
   protected volatile Server server;
+  private final int numRpcHandlers;
+  // null unless the AM suggests heartbeat intervals to the tasks
+  private final TaskHeartbeatIntervalPolicy heartbeatIntervalPolicy;
 
   public static final class ContainerInfo {
 
@@ -130,6 +133,9 @@ public class TezTaskCommunicatorImpl extends TaskCommunicator {
       throw new TezUncheckedException(
           "Unable to parse user payload for " + TezTaskCommunicatorImpl.class.getSimpleName(), e);
     }
+    this.numRpcHandlers = conf.getInt(TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT,
+        TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT_DEFAULT);
+    this.heartbeatIntervalPolicy = TaskHeartbeatIntervalPolicy.create(conf);
   }
 
   @Override
@@ -153,9 +159,7 @@ public class TezTaskCommunicatorImpl extends TaskCommunicator {
           .setBindAddress("0.0.0.0")
           .setPort(0)
           .setInstance(taskUmbilical)
-          .setNumHandlers(
-              conf.getInt(TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT,
-                  TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT_DEFAULT))
+          .setNumHandlers(numRpcHandlers)
           .setPortRangeConfig(TezConfiguration.TEZ_AM_TASK_AM_PORT_RANGE)
           .setSecretManager(jobTokenSecretManager).build();
 
@@ -385,6 +389,8 @@ public class TezTaskCommunicatorImpl extends TaskCommunicator {
         response.setEvents(tResponse.getEvents());
         response.setNextFromEventId(tResponse.getNextFromEventId());
         response.setNextPreRoutedEventId(tResponse.getNextPreRoutedEventId());
+        response.setNextHeartbeatIntervalMs(
+            getNextHeartbeatIntervalMs(tResponse.getNextHeartbeatIntervalMs()));
       }
       response.setLastRequestId(requestId);
       containerInfo.lastRequestId = requestId;
@@ -408,6 +414,15 @@ public class TezTaskCommunicatorImpl extends TaskCommunicator {
     }
   }
 
+  private long getNextHeartbeatIntervalMs(long suggestedIntervalMs) {
+    Server rpcServer = server;
+    if (heartbeatIntervalPolicy == null || rpcServer == null) {
+      return suggestedIntervalMs;
+    }
+    return heartbeatIntervalPolicy.adjustForCallQueue(suggestedIntervalMs,
+        rpcServer.getCallQueueLen(), numRpcHandlers);
+  }
+
   private ContainerTask getContainerTask(ContainerId containerId) throws IOException {
     ContainerInfo containerInfo = registeredContainers.get(containerId);
     ContainerTask task;
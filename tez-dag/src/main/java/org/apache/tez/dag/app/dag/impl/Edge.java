@@ -286,6 +286,20 @@ public class Edge {
     return this.edgeManager;
   }
 
+  /**
+   * The only destination task that the given on demand routed event can be routed to, or -1 if it
+   * may be routed to any destination task.
+   */
+  public int getOnDemandDestinationTaskIndex(TezEvent tezEvent, int srcTaskIndex) {
+    if (edgeManager instanceof OneToOneEdgeManagerOnDemand
+        && (tezEvent.getEventType() == EventType.DATA_MOVEMENT_EVENT
+            || tezEvent.getEventType() == EventType.COMPOSITE_DATA_MOVEMENT_EVENT)) {
+      // input failed events are routed to all tasks by the one to one edge manager
+      return srcTaskIndex;
+    }
+    return -1;
+  }
+
   public void setSourceVertex(Vertex sourceVertex) {
     if (this.sourceVertex != null && this.sourceVertex != sourceVertex) {
       throw new TezUncheckedException("Source vertex exists: "
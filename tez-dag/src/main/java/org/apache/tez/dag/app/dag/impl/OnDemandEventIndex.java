@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.dag.app.dag.impl;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Positions of the on demand routed events of a vertex, indexed by destination task. An event that
+ * can only be routed to one known destination task is recorded for that task; all other events are
+ * recorded for every task. {@link #nextEventId} lets a task skip over the events of other tasks,
+ * so that fetching the events of a task costs time proportional to the events that may route to
+ * it, instead of the number of events of the vertex.
+ *
+ * Not thread safe. Guarded by the on demand route events lock of the vertex.
+ */
+class OnDemandEventIndex {
+
+  private static final int INITIAL_CAPACITY = 4;
+
+  // positions of events that may route to any task
+  private int[] untargeted = new int[INITIAL_CAPACITY];
+  private int numUntargeted = 0;
+  // positions of events per destination task, created lazily
+  private int[][] targeted = new int[0][];
+  private int[] numTargeted = new int[0];
+  private int numEvents = 0;
+
+  /**
+   * Record the next event.
+   *
+   * @param destinationTaskIndex the only task the event can be routed to, or -1 if the event may
+   *                             route to any task
+   * @return the position of the event
+   */
+  int add(int destinationTaskIndex) {
+    int eventId = numEvents++;
+    if (destinationTaskIndex < 0) {
+      untargeted = append(untargeted, numUntargeted++, eventId);
+    } else {
+      if (destinationTaskIndex >= targeted.length) {
+        int size = Math.max(destinationTaskIndex + 1, targeted.length * 2);
+        targeted = Arrays.copyOf(targeted, size);
+        numTargeted = Arrays.copyOf(numTargeted, size);
+      }
+      if (targeted[destinationTaskIndex] == null) {
+        targeted[destinationTaskIndex] = new int[INITIAL_CAPACITY];
+      }
+      targeted[destinationTaskIndex] = append(targeted[destinationTaskIndex],
+          numTargeted[destinationTaskIndex]++, eventId);
+    }
+    return eventId;
+  }
+
+  int size() {
+    return numEvents;
+  }
+
+  /**
+   * The position of the first event at or after fromEventId that may route to the given task, or
+   * {@link #size()} if there is none.
+   */
+  int nextEventId(int taskIndex, int fromEventId) {
+    Preconditions.checkArgument(taskIndex >= 0, "Invalid task index: " + taskIndex);
+    if (fromEventId >= numEvents) {
+      return numEvents;
+    }
+    int next = ceiling(untargeted, numUntargeted, fromEventId);
+    if (taskIndex < targeted.length && targeted[taskIndex] != null) {
+      next = Math.min(next, ceiling(targeted[taskIndex], numTargeted[taskIndex], fromEventId));
+    }
+    return next;
+  }
+
+  // smallest of the first length (sorted) values that is >= key, or numEvents
+  private int ceiling(int[] values, int length, int key) {
+    int pos = Arrays.binarySearch(values, 0, length, key);
+    if (pos < 0) {
+      pos = -pos - 1;
+    }
+    return (pos < length) ? values[pos] : numEvents;
+  }
+
+  private static int[] append(int[] values, int length, int value) {
+    if (length == values.length) {
+      values = Arrays.copyOf(values, length * 2);
+    }
+    values[length] = value;
+    return values;
+  }
+}
@@ -727,6 +727,8 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex, EventHandl
   // must be a random access structure
   
   private final List<EventInfo> onDemandRouteEvents = Lists.newArrayListWithCapacity(1000);
+  // positions in onDemandRouteEvents by destination task
+  private final OnDemandEventIndex onDemandRouteEventIndex = new OnDemandEventIndex();
   private final ReadWriteLock onDemandRouteEventsReadWriteLock = new ReentrantReadWriteLock();
   private final Lock onDemandRouteEventsReadLock = onDemandRouteEventsReadWriteLock.readLock();
   private final Lock onDemandRouteEventsWriteLock = onDemandRouteEventsReadWriteLock.writeLock();
@@ -3731,7 +3733,11 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex, EventHandl
               + " vertex: " + getLogIdentifier());
           boolean isFirstEvent = true;
           boolean firstEventObsoleted = false;
-          for (nextFromEventId = fromEventId; nextFromEventId < currEventCount; ++nextFromEventId) {
+          // skip events that cannot be routed to this task
+          for (nextFromEventId = onDemandRouteEventIndex.nextEventId(taskIndex, fromEventId);
+              nextFromEventId < currEventCount;
+              nextFromEventId = onDemandRouteEventIndex.nextEventId(taskIndex,
+                  nextFromEventId + 1)) {
             boolean earlyExit = false;
             if (events.size() == maxEvents) {
               break;
@@ -3982,6 +3988,7 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex, EventHandl
     onDemandRouteEventsWriteLock.lock();
     try {
       onDemandRouteEvents.add(new EventInfo(tezEvent, srcEdge, srcTaskIndex));
+      onDemandRouteEventIndex.add(srcEdge.getOnDemandDestinationTaskIndex(tezEvent, srcTaskIndex));
       if (tezEvent.getEventType() == EventType.INPUT_FAILED_EVENT) {
         for (EventInfo eventInfo : onDemandRouteEvents) {
           if (eventInfo.eventEdge == srcEdge 
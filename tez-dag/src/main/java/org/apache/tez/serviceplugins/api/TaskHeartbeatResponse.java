@@ -39,12 +39,19 @@ public class TaskHeartbeatResponse {
   private final int nextFromEventId;
   private final int nextPreRoutedEventId;
   private final List<TezEvent> events;
+  private final long nextHeartbeatIntervalMs;
 
   public TaskHeartbeatResponse(boolean shouldDie, List<TezEvent> events, int nextFromEventId, int nextPreRoutedEventId) {
+    this(shouldDie, events, nextFromEventId, nextPreRoutedEventId, 0);
+  }
+
+  public TaskHeartbeatResponse(boolean shouldDie, List<TezEvent> events, int nextFromEventId,
+      int nextPreRoutedEventId, long nextHeartbeatIntervalMs) {
     this.shouldDie = shouldDie;
     this.events = events;
     this.nextFromEventId = nextFromEventId;
     this.nextPreRoutedEventId = nextPreRoutedEventId;
+    this.nextHeartbeatIntervalMs = nextHeartbeatIntervalMs;
   }
 
   public boolean isShouldDie() {
@@ -62,4 +69,11 @@ public class TaskHeartbeatResponse {
   public int getNextPreRoutedEventId() {
     return nextPreRoutedEventId;
   }
+
+  /**
+   * @return the suggested interval until the next heartbeat, or 0 for no suggestion
+   */
+  public long getNextHeartbeatIntervalMs() {
+    return nextHeartbeatIntervalMs;
+  }
 }
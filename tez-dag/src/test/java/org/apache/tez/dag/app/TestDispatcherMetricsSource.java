@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.AbstractMetric;
+import org.apache.hadoop.metrics2.MetricsRecord;
+import org.apache.hadoop.metrics2.impl.MetricsCollectorImpl;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.common.AsyncDispatcher;
+import org.apache.tez.common.AsyncDispatcherConcurrent;
+import org.apache.tez.common.TezAbstractEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDispatcherMetricsSource {
+
+  public enum TestEventType { TYPE1 }
+
+  static class TestEvent extends TezAbstractEvent<TestEventType> {
+    TestEvent() {
+      super(TestEventType.TYPE1);
+    }
+  }
+
+  @Test (timeout=5000)
+  public void testMetrics() throws Exception {
+    AsyncDispatcher central = new AsyncDispatcher("Central");
+    AsyncDispatcherConcurrent taskEventDispatcher = central.registerAndCreateDispatcher(
+        TestEventType.class, new EventHandler<TestEvent>() {
+          @Override
+          public void handle(TestEvent event) {
+          }
+        }, "Test", 2);
+    central.init(new Configuration());
+    central.start();
+    try {
+      MetricsCollectorImpl collector = new MetricsCollectorImpl();
+      new DispatcherMetricsSource(central, null).getMetrics(collector, true);
+      Map<String, Number> metrics = getMetrics(collector);
+      Assert.assertEquals(0, metrics.get("CentralQueueSize").intValue());
+      Assert.assertFalse(metrics.containsKey("TaskEventQueueSize"));
+
+      for (int i = 0; i < 10; i++) {
+        central.getEventHandler().handle(new TestEvent());
+      }
+      while (sumDispatched(taskEventDispatcher) < 10) {
+        Thread.sleep(10);
+      }
+
+      collector = new MetricsCollectorImpl();
+      new DispatcherMetricsSource(central, taskEventDispatcher).getMetrics(collector, true);
+      metrics = getMetrics(collector);
+      Assert.assertEquals(0, metrics.get("TaskEventQueueSize").intValue());
+      Assert.assertEquals(0, metrics.get("TaskEventOverflowed").longValue());
+      Assert.assertEquals(0, metrics.get("TYPE1Queued").longValue());
+      Assert.assertEquals(10, metrics.get("TYPE1Dispatched").longValue());
+      Assert.assertTrue(metrics.get("TYPE1TotalLatencyNanos").longValue()
+          >= metrics.get("TYPE1MaxLatencyNanos").longValue());
+      Assert.assertTrue(metrics.containsKey("TYPE1TotalHandlerNanos"));
+    } finally {
+      central.stop();
+    }
+  }
+
+  private static long sumDispatched(AsyncDispatcherConcurrent dispatcher) {
+    long dispatched = 0;
+    for (AsyncDispatcherConcurrent.EventTypeStatistics statistics :
+        dispatcher.getEventTypeStatistics()) {
+      dispatched += statistics.getDispatched();
+    }
+    return dispatched;
+  }
+
+  private static Map<String, Number> getMetrics(MetricsCollectorImpl collector) {
+    List<MetricsRecord> records = (List) collector.getRecords();
+    Assert.assertEquals(1, records.size());
+    Assert.assertEquals(DispatcherMetricsSource.RECORD_NAME, records.get(0).name());
+    Map<String, Number> metrics = new HashMap<String, Number>();
+    for (AbstractMetric metric : records.get(0).metrics()) {
+      metrics.put(metric.name(), metric.value());
+    }
+    return metrics;
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.dag.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEvent;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEventStatusUpdate;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEventType;
+import org.apache.tez.dag.app.dag.event.VertexEventRouteEvent;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.apache.tez.runtime.api.events.TaskStatusUpdateEvent;
+import org.apache.tez.runtime.api.impl.TezEvent;
+import org.junit.Test;
+
+@SuppressWarnings("rawtypes")
+public class TestTaskHeartbeatEventBatcher {
+
+  private final List<Event> events = new ArrayList<Event>();
+  private final EventHandler eventHandler = new EventHandler<Event>() {
+    @Override
+    public void handle(Event event) {
+      events.add(event);
+    }
+  };
+
+  private final TezDAGID dagId = TezDAGID.getInstance(ApplicationId.newInstance(1, 1), 1);
+  private final TezVertexID vertex1 = TezVertexID.getInstance(dagId, 1);
+  private final TezVertexID vertex2 = TezVertexID.getInstance(dagId, 2);
+
+  private static TezTaskAttemptID attempt(TezVertexID vertexId, int task) {
+    return TezTaskAttemptID.getInstance(TezTaskID.getInstance(vertexId, task), 0);
+  }
+
+  private static TaskAttemptEventStatusUpdate status(TezTaskAttemptID attemptId,
+      TezCounters counters, float progress, boolean progressNotified) {
+    return new TaskAttemptEventStatusUpdate(attemptId,
+        new TaskStatusUpdateEvent(counters, progress, null, progressNotified));
+  }
+
+  private static List<TaskAttemptEvent> list(TaskAttemptEvent... attemptEvents) {
+    List<TaskAttemptEvent> list = new ArrayList<TaskAttemptEvent>();
+    Collections.addAll(list, attemptEvents);
+    return list;
+  }
+
+  @Test(timeout = 5000)
+  public void testStatusUpdatesCoalesced() {
+    TaskHeartbeatEventBatcher batcher = new TaskHeartbeatEventBatcher(eventHandler, 1000);
+    TezTaskAttemptID a1 = attempt(vertex1, 0);
+    TezTaskAttemptID a2 = attempt(vertex1, 1);
+    TezCounters counters = new TezCounters();
+    batcher.add(a1, list(status(a1, counters, 0.1f, true)), null);
+    batcher.add(a2, list(status(a2, null, 0.2f, false)), null);
+    TaskAttemptEventStatusUpdate last = status(a1, null, 0.5f, false);
+    last.setReadErrorReported(true);
+    batcher.add(a1, list(last), null);
+    batcher.flush();
+
+    assertEquals(2, events.size());
+    TaskAttemptEventStatusUpdate merged = (TaskAttemptEventStatusUpdate) events.get(0);
+    assertEquals(a1, merged.getTaskAttemptID());
+    assertEquals(0.5f, merged.getStatusEvent().getProgress(), 0);
+    // kept from the earlier status update
+    assertSame(counters, merged.getStatusEvent().getCounters());
+    assertTrue(merged.getStatusEvent().getProgressNotified());
+    assertTrue(merged.getReadErrorReported());
+    assertEquals(a2, ((TaskAttemptEvent) events.get(1)).getTaskAttemptID());
+
+    // nothing left to post
+    batcher.flush();
+    assertEquals(2, events.size());
+  }
+
+  @Test(timeout = 5000)
+  public void testOrderKeptAndRouteEventsCombined() {
+    TaskHeartbeatEventBatcher batcher = new TaskHeartbeatEventBatcher(eventHandler, 1000);
+    TezTaskAttemptID a1 = attempt(vertex1, 0);
+    TezTaskAttemptID a2 = attempt(vertex1, 1);
+    TezTaskAttemptID b1 = attempt(vertex2, 0);
+    TezEvent e1 = new TezEvent();
+    TezEvent e2 = new TezEvent();
+    TezEvent e3 = new TezEvent();
+    TaskAttemptEvent done = new TaskAttemptEvent(a1, TaskAttemptEventType.TA_DONE);
+    batcher.add(a1, list(status(a1, null, 0.1f, false)), Collections.singletonList(e1));
+    batcher.add(b1, list(status(b1, null, 0.1f, false)), Collections.singletonList(e2));
+    batcher.add(a1, list(done), null);
+    // not merged, the attempt finished in between
+    batcher.add(a1, list(status(a1, null, 1.0f, false)), null);
+    batcher.add(a2, new ArrayList<TaskAttemptEvent>(), Collections.singletonList(e3));
+    batcher.flush();
+
+    assertEquals(6, events.size());
+    assertEquals(0.1f,
+        ((TaskAttemptEventStatusUpdate) events.get(0)).getStatusEvent().getProgress(), 0);
+    assertEquals(b1, ((TaskAttemptEvent) events.get(1)).getTaskAttemptID());
+    assertSame(done, events.get(2));
+    assertEquals(1.0f,
+        ((TaskAttemptEventStatusUpdate) events.get(3)).getStatusEvent().getProgress(), 0);
+    VertexEventRouteEvent route1 = (VertexEventRouteEvent) events.get(4);
+    assertEquals(vertex1, route1.getVertexId());
+    assertEquals(2, route1.getEvents().size());
+    assertSame(e1, route1.getEvents().get(0));
+    assertSame(e3, route1.getEvents().get(1));
+    VertexEventRouteEvent route2 = (VertexEventRouteEvent) events.get(5);
+    assertEquals(vertex2, route2.getVertexId());
+    assertSame(e2, route2.getEvents().get(0));
+  }
+
+  @Test(timeout = 5000)
+  public void testStopFlushes() {
+    TaskHeartbeatEventBatcher batcher = new TaskHeartbeatEventBatcher(eventHandler, 60000);
+    batcher.start();
+    TezTaskAttemptID a1 = attempt(vertex1, 0);
+    batcher.add(a1, list(status(a1, null, 0.1f, false)), null);
+    assertTrue(events.isEmpty());
+    batcher.stop();
+    assertEquals(1, events.size());
+    assertNull(((TaskAttemptEventStatusUpdate) events.get(0)).getStatusEvent().getCounters());
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.dag.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.tez.dag.api.TezConfiguration;
+import org.junit.Test;
+
+public class TestTaskHeartbeatIntervalPolicy {
+
+  @Test(timeout = 5000)
+  public void testDisabledByDefault() {
+    assertNull(TaskHeartbeatIntervalPolicy.create(new Configuration(false)));
+  }
+
+  @Test(timeout = 5000)
+  public void testInterval() {
+    Configuration conf = new Configuration(false);
+    conf.setInt(TezConfiguration.TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS, 100);
+    conf.setInt(TezConfiguration.TEZ_TASK_AM_HEARTBEAT_ADAPTIVE_INTERVAL_MS_MAX, 1000);
+    TaskHeartbeatIntervalPolicy policy = TaskHeartbeatIntervalPolicy.create(conf);
+
+    assertEquals(100, policy.getInterval(true, 0));
+    assertEquals(1000, policy.getInterval(false, 0));
+    // stretched by the dispatcher backlog, up to the maximum
+    int step = TaskHeartbeatIntervalPolicy.DISPATCHER_BACKLOG_PER_STEP;
+    assertEquals(100, policy.getInterval(true, step - 1));
+    assertEquals(300, policy.getInterval(true, 2 * step));
+    assertEquals(1000, policy.getInterval(true, 100 * step));
+    assertEquals(1000, policy.getInterval(false, 2 * step));
+  }
+
+  @Test(timeout = 5000)
+  public void testCappedByHeartbeatTimeout() {
+    Configuration conf = new Configuration(false);
+    conf.setInt(TezConfiguration.TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS, 100);
+    conf.setInt(TezConfiguration.TEZ_TASK_AM_HEARTBEAT_ADAPTIVE_INTERVAL_MS_MAX, 10000);
+    conf.setInt(TezConfiguration.TASK_HEARTBEAT_TIMEOUT_MS, 20000);
+    TaskHeartbeatIntervalPolicy policy = TaskHeartbeatIntervalPolicy.create(conf);
+    assertEquals(5000, policy.getInterval(false, 0));
+    assertEquals(5000, policy.adjustForCallQueue(100, 1000, 1));
+
+    // no cap if the heartbeat timeout is disabled
+    conf.setInt(TezConfiguration.TASK_HEARTBEAT_TIMEOUT_MS, 0);
+    policy = TaskHeartbeatIntervalPolicy.create(conf);
+    assertEquals(10000, policy.getInterval(false, 0));
+  }
+
+  @Test(timeout = 5000)
+  public void testAdjustForCallQueue() {
+    TaskHeartbeatIntervalPolicy policy = new TaskHeartbeatIntervalPolicy(100, 1000);
+    assertEquals(0, policy.adjustForCallQueue(0, 100, 10));
+    assertEquals(100, policy.adjustForCallQueue(100, 9, 10));
+    assertEquals(400, policy.adjustForCallQueue(100, 30, 10));
+    assertEquals(1000, policy.adjustForCallQueue(500, 30, 10));
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.dag.app.dag.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestOnDemandEventIndex {
+
+  @Test(timeout = 5000)
+  public void testNextEventId() {
+    OnDemandEventIndex index = new OnDemandEventIndex();
+    assertEquals(0, index.nextEventId(0, 0));
+    // 0: task 1, 1: any task, 2: task 0, 3: task 1, 4: task 7
+    assertEquals(0, index.add(1));
+    assertEquals(1, index.add(-1));
+    assertEquals(2, index.add(0));
+    assertEquals(3, index.add(1));
+    assertEquals(4, index.add(7));
+    assertEquals(5, index.size());
+
+    assertEquals(1, index.nextEventId(0, 0));
+    assertEquals(2, index.nextEventId(0, 2));
+    assertEquals(5, index.nextEventId(0, 3));
+
+    assertEquals(0, index.nextEventId(1, 0));
+    assertEquals(1, index.nextEventId(1, 1));
+    assertEquals(3, index.nextEventId(1, 2));
+    assertEquals(5, index.nextEventId(1, 4));
+
+    // tasks without targeted events only see the untargeted ones
+    assertEquals(1, index.nextEventId(5, 0));
+    assertEquals(5, index.nextEventId(5, 2));
+    assertEquals(4, index.nextEventId(7, 2));
+    assertEquals(5, index.nextEventId(100, 2));
+    assertEquals(5, index.nextEventId(0, 10));
+  }
+
+  @Test(timeout = 5000)
+  public void testManyEvents() {
+    OnDemandEventIndex index = new OnDemandEventIndex();
+    int numTasks = 50;
+    for (int i = 0; i < 1000; i++) {
+      index.add((i % 10 == 0) ? -1 : i % numTasks);
+    }
+    for (int task = 0; task < numTasks; task++) {
+      int expected = 0;
+      for (int id = index.nextEventId(task, 0); id < index.size();
+          id = index.nextEventId(task, id + 1)) {
+        while (expected % 10 != 0 && expected % numTasks != task) {
+          expected++;
+        }
+        assertEquals(expected, id);
+        expected++;
+      }
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.auxservices;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.tez.runtime.library.common.Constants;
+import org.apache.tez.runtime.library.common.sort.impl.TezSpillRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LRU cache of spill index files, bounded by the memory taken by the index records. A fetch of a
+ * recently written output then costs no index file read, which dominates when many small
+ * partitions are fetched.
+ */
+@InterfaceAudience.Private
+class IndexCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IndexCache.class);
+
+  private final Configuration conf;
+  private final long maxSize;
+  private long size = 0;
+  private long hits = 0;
+  private long misses = 0;
+
+  private final LinkedHashMap<String, TezSpillRecord> cache =
+      new LinkedHashMap<String, TezSpillRecord>(16, 0.75f, true);
+
+  IndexCache(Configuration conf, long maxSize) {
+    this.conf = conf;
+    this.maxSize = maxSize;
+    LOG.info("IndexCache created with max memory = " + maxSize);
+  }
+
+  /**
+   * Index of one output, read from the given index file if it is not cached.
+   *
+   * @param expectedIndexOwner user expected to own the index file
+   */
+  TezSpillRecord getSpillRecord(Path indexFile, String expectedIndexOwner) throws IOException {
+    final String key = indexFile.toString();
+    synchronized (this) {
+      TezSpillRecord spillRecord = cache.get(key);
+      if (spillRecord != null) {
+        hits++;
+        return spillRecord;
+      }
+      misses++;
+    }
+    // concurrent misses for the same file both read it; the index is small and that is rare
+    TezSpillRecord spillRecord = new TezSpillRecord(indexFile, conf, expectedIndexOwner);
+    synchronized (this) {
+      if (cache.put(key, spillRecord) == null) {
+        size += sizeOf(spillRecord);
+        evict();
+      }
+    }
+    return spillRecord;
+  }
+
+  /**
+   * Drop the cached indexes of all files whose path contains the given string, e.g. the
+   * application directory of a finished application.
+   */
+  synchronized void removeAll(String pathComponent) {
+    Iterator<Map.Entry<String, TezSpillRecord>> it = cache.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, TezSpillRecord> entry = it.next();
+      if (entry.getKey().contains(pathComponent)) {
+        size -= sizeOf(entry.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  // called with lock held
+  private void evict() {
+    Iterator<TezSpillRecord> it = cache.values().iterator();
+    while (size > maxSize && it.hasNext()) {
+      size -= sizeOf(it.next());
+      it.remove();
+    }
+  }
+
+  private static long sizeOf(TezSpillRecord spillRecord) {
+    return (long) spillRecord.size() * Constants.MAP_OUTPUT_INDEX_RECORD_LENGTH;
+  }
+
+  synchronized long getSize() {
+    return size;
+  }
+
+  synchronized int getNumEntries() {
+    return cache.size();
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+}
@@ -0,0 +1,658 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.auxservices;
+
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.METHOD_NOT_ALLOWED;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.UNAUTHORIZED;
+import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputByteBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.SecureIOUtils;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.server.api.ApplicationInitializationContext;
+import org.apache.hadoop.yarn.server.api.ApplicationTerminationContext;
+import org.apache.hadoop.yarn.server.api.AuxiliaryService;
+import org.apache.tez.common.security.JobTokenIdentifier;
+import org.apache.tez.common.security.JobTokenSecretManager;
+import org.apache.tez.runtime.library.common.Constants;
+import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
+import org.apache.tez.runtime.library.common.security.SecureShuffleUtils;
+import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.ShuffleHeader;
+import org.apache.tez.runtime.library.common.sort.impl.TezIndexRecord;
+import org.apache.tez.runtime.library.common.sort.impl.TezSpillRecord;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultFileRegion;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+import org.jboss.netty.handler.timeout.IdleStateAwareChannelUpstreamHandler;
+import org.jboss.netty.handler.timeout.IdleStateEvent;
+import org.jboss.netty.handler.timeout.IdleStateHandler;
+import org.jboss.netty.util.CharsetUtil;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Netty based shuffle service for the outputs written by Tez tasks. It is run by the NodeManager
+ * as an auxiliary service, or in-process (e.g. in tests) through the usual init/start/stop of a
+ * service, with applications registered by {@link #initializeApplication}.
+ *
+ * Requests are those sent by the Tez fetchers:
+ * <pre>
+ *   GET /mapOutput?job=job_..&amp;dag=..&amp;reduce=3&amp;map=attempt_..,attempt_..[&amp;keepAlive=true]
+ * </pre>
+ * Each map is the path component of an {@link InputAttemptIdentifier}; for pipelined spills it
+ * names the directory of the spill. Besides a single partition, {@code reduce} may be an inclusive
+ * range of partitions ({@code reduce=3-7}). For every map, and every requested partition of that
+ * map, the response carries a {@link ShuffleHeader} followed by the partition data, which is sent
+ * with {@link DefaultFileRegion}, i.e. zero-copy where the platform supports it. The maps of a
+ * request are sent one after the other, so that a request holds a single output file open, and
+ * their indexes are served from an {@link IndexCache}. With keep-alive, a fetcher can issue many
+ * requests over a single connection.
+ *
+ * The service is registered as an auxiliary service of the NodeManager. Tez tasks look up their
+ * shuffle service as {@link org.apache.tez.dag.api.TezConstants#TEZ_SHUFFLE_HANDLER_SERVICE_ID},
+ * so it has to be configured under that name to serve them. SSL is not supported.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class ShuffleHandler extends AuxiliaryService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ShuffleHandler.class);
+
+  public static final String SHUFFLE_SERVICE_ID = "tez_shuffle";
+
+  public static final String SHUFFLE_PORT_CONFIG_KEY = "tez.shuffle.port";
+  public static final int DEFAULT_SHUFFLE_PORT = 13563;
+
+  public static final String SHUFFLE_LISTEN_QUEUE_SIZE = "tez.shuffle.listen.queue.size";
+  public static final int DEFAULT_SHUFFLE_LISTEN_QUEUE_SIZE = 128;
+
+  /** Netty worker threads; 0 means twice the number of processors. */
+  public static final String MAX_SHUFFLE_THREADS = "tez.shuffle.max.threads";
+  public static final int DEFAULT_MAX_SHUFFLE_THREADS = 0;
+
+  /** Keep connections alive even when the fetcher did not ask for it. */
+  public static final String SHUFFLE_CONNECTION_KEEP_ALIVE_ENABLED =
+      "tez.shuffle.connection-keep-alive.enable";
+  public static final boolean DEFAULT_SHUFFLE_CONNECTION_KEEP_ALIVE_ENABLED = false;
+
+  /** Seconds after which an idle connection is closed. */
+  public static final String SHUFFLE_CONNECTION_KEEP_ALIVE_TIME_OUT =
+      "tez.shuffle.connection-keep-alive.timeout";
+  public static final int DEFAULT_SHUFFLE_CONNECTION_KEEP_ALIVE_TIME_OUT = 5;
+
+  /** Memory for cached spill indexes, in MB. */
+  public static final String SHUFFLE_INDEX_CACHE_MB = "tez.shuffle.indexcache.mb";
+  public static final int DEFAULT_SHUFFLE_INDEX_CACHE_MB = 10;
+
+  private static final int MAX_REQUEST_SIZE = 1 << 16;
+
+  private int port;
+  private ChannelFactory selector;
+  private final ChannelGroup accepted = new DefaultChannelGroup();
+  private HashedWheelTimer timer;
+  private IndexCache indexCache;
+  private LocalDirAllocator lDirAlloc;
+  private boolean connectionKeepAliveEnabled;
+  private int connectionKeepAliveTimeOut;
+
+  private final JobTokenSecretManager secretManager = new JobTokenSecretManager();
+  // job id (as sent by the fetchers) to application user
+  private final ConcurrentMap<String, String> userRsrc = new ConcurrentHashMap<String, String>();
+
+  public ShuffleHandler() {
+    super(SHUFFLE_SERVICE_ID);
+  }
+
+  /**
+   * Port of the service, as returned to the tasks by {@link #getMetaData()}.
+   */
+  public static ByteBuffer serializeMetaData(int port) throws IOException {
+    DataOutputBuffer portDob = new DataOutputBuffer();
+    portDob.writeInt(port);
+    return ByteBuffer.wrap(portDob.getData(), 0, portDob.getLength());
+  }
+
+  /**
+   * Job token of an application, as serialized by
+   * {@link org.apache.tez.common.TezCommonUtils#serializeServiceData}.
+   */
+  static Token<JobTokenIdentifier> deserializeServiceData(ByteBuffer secret) throws IOException {
+    DataInputByteBuffer in = new DataInputByteBuffer();
+    in.reset(secret);
+    Token<JobTokenIdentifier> jobToken = new Token<JobTokenIdentifier>();
+    try {
+      jobToken.readFields(in);
+    } finally {
+      in.close();
+    }
+    return jobToken;
+  }
+
+  static String toJobId(ApplicationId appId) {
+    return appId.toString().replace("application", "job");
+  }
+
+  @Override
+  public void initializeApplication(ApplicationInitializationContext context) {
+    String user = context.getUser();
+    ApplicationId appId = context.getApplicationId();
+    try {
+      Token<JobTokenIdentifier> jobToken =
+          deserializeServiceData(context.getApplicationDataForService());
+      String jobId = toJobId(appId);
+      userRsrc.put(jobId, user);
+      secretManager.addTokenForJob(jobId, jobToken);
+      LOG.info("Added token for " + jobId);
+    } catch (IOException e) {
+      LOG.error("Error initializing application " + appId, e);
+    }
+  }
+
+  @Override
+  public void stopApplication(ApplicationTerminationContext context) {
+    ApplicationId appId = context.getApplicationId();
+    String jobId = toJobId(appId);
+    secretManager.removeTokenForJob(jobId);
+    userRsrc.remove(jobId);
+    if (indexCache != null) {
+      indexCache.removeAll(Path.SEPARATOR + appId.toString() + Path.SEPARATOR);
+    }
+  }
+
+  @Override
+  protected void serviceInit(Configuration conf) throws Exception {
+    connectionKeepAliveEnabled = conf.getBoolean(SHUFFLE_CONNECTION_KEEP_ALIVE_ENABLED,
+        DEFAULT_SHUFFLE_CONNECTION_KEEP_ALIVE_ENABLED);
+    connectionKeepAliveTimeOut = Math.max(1, conf.getInt(SHUFFLE_CONNECTION_KEEP_ALIVE_TIME_OUT,
+        DEFAULT_SHUFFLE_CONNECTION_KEEP_ALIVE_TIME_OUT));
+    int maxShuffleThreads = conf.getInt(MAX_SHUFFLE_THREADS, DEFAULT_MAX_SHUFFLE_THREADS);
+    if (maxShuffleThreads <= 0) {
+      maxShuffleThreads = Runtime.getRuntime().availableProcessors() * 2;
+    }
+    selector = new NioServerSocketChannelFactory(
+        Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("ShuffleHandler Netty Boss #%d").build()),
+        Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("ShuffleHandler Netty Worker #%d").build()),
+        maxShuffleThreads);
+    super.serviceInit(new Configuration(conf));
+  }
+
+  @Override
+  protected void serviceStart() throws Exception {
+    Configuration conf = getConfig();
+    indexCache = new IndexCache(conf,
+        conf.getInt(SHUFFLE_INDEX_CACHE_MB, DEFAULT_SHUFFLE_INDEX_CACHE_MB) * 1024L * 1024L);
+    lDirAlloc = new LocalDirAllocator(YarnConfiguration.NM_LOCAL_DIRS);
+    timer = new HashedWheelTimer(new ThreadFactoryBuilder()
+        .setNameFormat("ShuffleHandler Timer #%d").setDaemon(true).build());
+
+    ServerBootstrap bootstrap = new ServerBootstrap(selector);
+    bootstrap.setPipelineFactory(new HttpPipelineFactory());
+    bootstrap.setOption("backlog",
+        conf.getInt(SHUFFLE_LISTEN_QUEUE_SIZE, DEFAULT_SHUFFLE_LISTEN_QUEUE_SIZE));
+    bootstrap.setOption("child.keepAlive", true);
+    Channel ch = bootstrap.bind(
+        new InetSocketAddress(conf.getInt(SHUFFLE_PORT_CONFIG_KEY, DEFAULT_SHUFFLE_PORT)));
+    accepted.add(ch);
+    port = ((InetSocketAddress) ch.getLocalAddress()).getPort();
+    conf.set(SHUFFLE_PORT_CONFIG_KEY, Integer.toString(port));
+    LOG.info(getName() + " listening on port " + port + ", keepAlive="
+        + connectionKeepAliveEnabled + ", keepAliveTimeOut=" + connectionKeepAliveTimeOut);
+    super.serviceStart();
+  }
+
+  @Override
+  protected void serviceStop() throws Exception {
+    accepted.close().awaitUninterruptibly(10, TimeUnit.SECONDS);
+    if (selector != null) {
+      selector.releaseExternalResources();
+    }
+    if (timer != null) {
+      timer.stop();
+    }
+    super.serviceStop();
+  }
+
+  @Override
+  public ByteBuffer getMetaData() {
+    try {
+      return serializeMetaData(port);
+    } catch (IOException e) {
+      LOG.error("Error serializing shuffle port", e);
+      return null;
+    }
+  }
+
+  /**
+   * Port the service is listening on, once started.
+   */
+  public int getPort() {
+    return port;
+  }
+
+  IndexCache getIndexCache() {
+    return indexCache;
+  }
+
+  class HttpPipelineFactory implements ChannelPipelineFactory {
+
+    private final Shuffle shuffle = new Shuffle();
+
+    @Override
+    public ChannelPipeline getPipeline() throws Exception {
+      ChannelPipeline pipeline = Channels.pipeline();
+      pipeline.addLast("decoder", new HttpRequestDecoder());
+      pipeline.addLast("aggregator", new HttpChunkAggregator(MAX_REQUEST_SIZE));
+      pipeline.addLast("encoder", new HttpResponseEncoder());
+      pipeline.addLast("idle", new IdleStateHandler(timer, 0, 0, connectionKeepAliveTimeOut));
+      pipeline.addLast("shuffle", shuffle);
+      return pipeline;
+    }
+  }
+
+  /**
+   * Data of one map to be sent: the requested partitions, in order, each with its header.
+   */
+  private static class MapOutput {
+    final File dataFile;
+    final List<ChannelBuffer> headers = new ArrayList<ChannelBuffer>();
+    final List<TezIndexRecord> indexes = new ArrayList<TezIndexRecord>();
+    long length = 0;
+
+    MapOutput(File dataFile) {
+      this.dataFile = dataFile;
+    }
+
+    void add(ShuffleHeader header, TezIndexRecord index) throws IOException {
+      DataOutputBuffer dob = new DataOutputBuffer();
+      header.write(dob);
+      headers.add(ChannelBuffers.wrappedBuffer(dob.getData(), 0, dob.getLength()));
+      indexes.add(index);
+      length += dob.getLength() + index.getPartLength();
+    }
+  }
+
+  @ChannelHandler.Sharable
+  class Shuffle extends IdleStateAwareChannelUpstreamHandler {
+
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent evt) throws Exception {
+      accepted.add(evt.getChannel());
+      super.channelOpen(ctx, evt);
+    }
+
+    @Override
+    public void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evt) throws Exception {
+      // the attachment is set while a response is being sent
+      if (ctx.getAttachment() == null) {
+        evt.getChannel().close();
+      }
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent evt) throws Exception {
+      HttpRequest request = (HttpRequest) evt.getMessage();
+      if (request.getMethod() != HttpMethod.GET) {
+        sendError(ctx, "Only GET is supported", METHOD_NOT_ALLOWED);
+        return;
+      }
+      if (!ShuffleHeader.DEFAULT_HTTP_HEADER_NAME.equals(
+          request.getHeader(ShuffleHeader.HTTP_HEADER_NAME))
+          || !ShuffleHeader.DEFAULT_HTTP_HEADER_VERSION.equals(
+          request.getHeader(ShuffleHeader.HTTP_HEADER_VERSION))) {
+        sendError(ctx, "Incompatible shuffle request version", BAD_REQUEST);
+        return;
+      }
+
+      final Map<String, List<String>> q = new QueryStringDecoder(request.getUri()).getParameters();
+      final List<String> jobQ = q.get("job");
+      final List<String> reduceQ = q.get("reduce");
+      final List<String> mapIds = splitMaps(q.get("map"));
+      final List<String> keepAliveQ = q.get("keepAlive");
+      final boolean keepAlive = connectionKeepAliveEnabled
+          || (keepAliveQ != null && keepAliveQ.size() == 1
+          && Boolean.parseBoolean(keepAliveQ.get(0)));
+      if (jobQ == null || reduceQ == null || mapIds == null || jobQ.size() != 1
+          || reduceQ.size() != 1 || mapIds.isEmpty()) {
+        sendError(ctx, "Required param job, map and reduce", BAD_REQUEST);
+        return;
+      }
+      final int[] partitions;
+      try {
+        partitions = parsePartitions(reduceQ.get(0));
+      } catch (IllegalArgumentException e) {
+        sendError(ctx, "Bad reduce parameter: " + reduceQ.get(0), BAD_REQUEST);
+        return;
+      }
+      for (String mapId : mapIds) {
+        if (!isValidMapId(mapId)) {
+          sendError(ctx, "Bad map parameter: " + mapId, BAD_REQUEST);
+          return;
+        }
+      }
+      final String jobId = jobQ.get(0);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("RECV: " + request.getUri() + "\n  mapIds: " + mapIds + "\n  reduce: "
+            + reduceQ + "\n  jobId: " + jobId + "\n  keepAlive: " + keepAlive);
+      }
+
+      HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+      try {
+        verifyRequest(jobId, request, response);
+      } catch (IOException e) {
+        LOG.warn("Shuffle failure ", e);
+        sendError(ctx, e.getMessage(), UNAUTHORIZED);
+        return;
+      }
+
+      // resolve every output before sending anything, so that errors get a status code
+      final String user = userRsrc.get(jobId);
+      final List<MapOutput> outputs = new ArrayList<MapOutput>(mapIds.size());
+      long contentLength = 0;
+      try {
+        for (String mapId : mapIds) {
+          MapOutput output = getMapOutput(jobId, user, mapId, partitions);
+          outputs.add(output);
+          contentLength += output.length;
+        }
+      } catch (IOException e) {
+        LOG.error("Shuffle error ", e);
+        sendError(ctx, e.getMessage(), INTERNAL_SERVER_ERROR);
+        return;
+      }
+
+      response.setHeader(ShuffleHeader.HTTP_HEADER_NAME, ShuffleHeader.DEFAULT_HTTP_HEADER_NAME);
+      response.setHeader(ShuffleHeader.HTTP_HEADER_VERSION,
+          ShuffleHeader.DEFAULT_HTTP_HEADER_VERSION);
+      if (keepAlive) {
+        response.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+        response.setHeader(HttpHeaders.Values.KEEP_ALIVE, "timeout=" + connectionKeepAliveTimeOut);
+        HttpHeaders.setContentLength(response, contentLength);
+      }
+      ctx.setAttachment(Boolean.TRUE);
+      evt.getChannel().write(response);
+      new OutputSender(ctx, user, outputs.iterator(), keepAlive).sendNext();
+    }
+
+    private MapOutput getMapOutput(String jobId, String user, String mapId, int[] partitions)
+        throws IOException {
+      String appId = jobId.replace("job", "application");
+      Path indexFile = lDirAlloc.getLocalPathToRead("usercache" + Path.SEPARATOR + user
+          + Path.SEPARATOR + "appcache" + Path.SEPARATOR + appId + Path.SEPARATOR
+          + Constants.TEZ_RUNTIME_TASK_OUTPUT_DIR + Path.SEPARATOR + mapId + Path.SEPARATOR
+          + Constants.TEZ_RUNTIME_TASK_OUTPUT_FILENAME_STRING
+          + Constants.TEZ_RUNTIME_TASK_OUTPUT_INDEX_SUFFIX_STRING, getConfig());
+      Path dataFile = new Path(indexFile.getParent(),
+          Constants.TEZ_RUNTIME_TASK_OUTPUT_FILENAME_STRING);
+      TezSpillRecord spillRecord = indexCache.getSpillRecord(indexFile, user);
+      MapOutput output = new MapOutput(new File(dataFile.toUri().getPath()));
+      for (int partition = partitions[0]; partition <= partitions[1]; partition++) {
+        if (partition >= spillRecord.size()) {
+          throw new IOException("Partition " + partition + " out of range for " + mapId
+              + " with " + spillRecord.size() + " partitions");
+        }
+        TezIndexRecord index = spillRecord.getIndex(partition);
+        output.add(new ShuffleHeader(mapId, index.getPartLength(), index.getRawLength(),
+            partition), index);
+      }
+      return output;
+    }
+
+    private void verifyRequest(String jobId, HttpRequest request, HttpResponse response)
+        throws IOException {
+      SecretKey tokenSecret = secretManager.retrieveTokenSecret(jobId);
+      String urlHash = request.getHeader(SecureShuffleUtils.HTTP_HEADER_URL_HASH);
+      if (urlHash == null) {
+        throw new IOException("Fetcher cannot be authenticated, missing url hash for " + jobId);
+      }
+      // the fetcher hashes port, path and query of the url it requested
+      SecureShuffleUtils.verifyReply(urlHash, String.valueOf(port) + request.getUri(),
+          tokenSecret);
+      response.setHeader(SecureShuffleUtils.HTTP_HEADER_REPLY_URL_HASH,
+          SecureShuffleUtils.generateHash(urlHash.getBytes(Charsets.UTF_8), tokenSecret));
+    }
+
+    private void sendError(ChannelHandlerContext ctx, String message, HttpResponseStatus status) {
+      HttpResponse response = new DefaultHttpResponse(HTTP_1_1, status);
+      response.setHeader(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
+      // the fetchers check these headers before the status
+      response.setHeader(ShuffleHeader.HTTP_HEADER_NAME, ShuffleHeader.DEFAULT_HTTP_HEADER_NAME);
+      response.setHeader(ShuffleHeader.HTTP_HEADER_VERSION,
+          ShuffleHeader.DEFAULT_HTTP_HEADER_VERSION);
+      response.setContent(ChannelBuffers.copiedBuffer(message, CharsetUtil.UTF_8));
+      ctx.getChannel().write(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent evt) throws Exception {
+      Channel ch = evt.getChannel();
+      Throwable cause = evt.getCause();
+      if (cause instanceof TooLongFrameException) {
+        sendError(ctx, "Request too long", BAD_REQUEST);
+        return;
+      } else if (cause instanceof IOException) {
+        if (cause instanceof ClosedChannelException) {
+          LOG.debug("Ignoring closed channel error", cause);
+          return;
+        }
+        String message = String.valueOf(cause.getMessage());
+        if (message.contains("Connection reset") || message.contains("Broken pipe")) {
+          LOG.debug("Ignoring client socket close", cause);
+          return;
+        }
+      }
+      LOG.error("Shuffle error: ", cause);
+      if (ch.isConnected()) {
+        LOG.error("Shuffle error " + evt);
+        sendError(ctx, "Shuffle error", INTERNAL_SERVER_ERROR);
+      }
+    }
+  }
+
+  /**
+   * Writes the outputs of a request, one map at a time: the file of a map is opened once its
+   * predecessor has been written, and closed once its own partitions are.
+   */
+  private class OutputSender implements ChannelFutureListener {
+
+    private final ChannelHandlerContext ctx;
+    private final String user;
+    private final Iterator<MapOutput> outputs;
+    private final boolean keepAlive;
+    private RandomAccessFile current;
+
+    OutputSender(ChannelHandlerContext ctx, String user, Iterator<MapOutput> outputs,
+        boolean keepAlive) {
+      this.ctx = ctx;
+      this.user = user;
+      this.outputs = outputs;
+      this.keepAlive = keepAlive;
+    }
+
+    void sendNext() {
+      final Channel ch = ctx.getChannel();
+      // writes from the I/O thread usually complete immediately, so loop rather than recurse
+      while (outputs.hasNext()) {
+        ChannelFuture lastWrite;
+        try {
+          lastWrite = send(ch, outputs.next());
+        } catch (IOException e) {
+          // the response status has been sent; closing the connection fails the fetch
+          LOG.error("Error sending map output", e);
+          closeCurrent();
+          ch.close();
+          return;
+        }
+        if (!lastWrite.isDone()) {
+          lastWrite.addListener(this);
+          return;
+        }
+        closeCurrent();
+        if (!lastWrite.isSuccess()) {
+          ch.close();
+          return;
+        }
+      }
+      ctx.setAttachment(null);
+      if (!keepAlive) {
+        ch.close();
+      }
+    }
+
+    private ChannelFuture send(Channel ch, MapOutput output) throws IOException {
+      current = SecureIOUtils.openForRandomRead(output.dataFile, "r", user, null);
+      ChannelFuture lastWrite = null;
+      for (int i = 0; i < output.headers.size(); i++) {
+        lastWrite = ch.write(output.headers.get(i));
+        TezIndexRecord index = output.indexes.get(i);
+        if (index.getPartLength() > 0) {
+          lastWrite = ch.write(new DefaultFileRegion(current.getChannel(), index.getStartOffset(),
+              index.getPartLength(), false));
+        }
+      }
+      return lastWrite;
+    }
+
+    @Override
+    public void operationComplete(ChannelFuture future) throws Exception {
+      closeCurrent();
+      if (!future.isSuccess()) {
+        future.getChannel().close();
+        return;
+      }
+      sendNext();
+    }
+
+    private void closeCurrent() {
+      if (current != null) {
+        IOUtils.cleanup(null, current);
+        current = null;
+      }
+    }
+  }
+
+  /**
+   * Map ids of a request; the fetchers send them comma separated in a single parameter.
+   */
+  static List<String> splitMaps(List<String> mapq) {
+    if (mapq == null) {
+      return null;
+    }
+    final List<String> ret = new ArrayList<String>();
+    for (String s : mapq) {
+      for (String mapId : s.split(",")) {
+        if (!mapId.isEmpty()) {
+          ret.add(mapId);
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * First and last (inclusive) partition of a reduce parameter: a partition, or a range
+   * {@code first-last}.
+   */
+  static int[] parsePartitions(String reduce) {
+    int dash = reduce.indexOf('-');
+    int first;
+    int last;
+    if (dash < 0) {
+      first = last = Integer.parseInt(reduce);
+    } else {
+      first = Integer.parseInt(reduce.substring(0, dash));
+      last = Integer.parseInt(reduce.substring(dash + 1));
+    }
+    if (first < 0 || last < first) {
+      throw new IllegalArgumentException("Invalid partition range: " + reduce);
+    }
+    return new int[] { first, last };
+  }
+
+  /**
+   * Map ids are resolved under the output directory of the application, so they must be a single
+   * path component.
+   */
+  static boolean isValidMapId(String mapId) {
+    return mapId.startsWith(InputAttemptIdentifier.PATH_PREFIX) && mapId.indexOf('/') < 0
+        && mapId.indexOf('\\') < 0 && !mapId.contains("..");
+  }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.auxservices;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.server.api.ApplicationInitializationContext;
+import org.apache.tez.common.TezCommonUtils;
+import org.apache.tez.common.security.JobTokenIdentifier;
+import org.apache.tez.common.security.JobTokenSecretManager;
+import org.apache.tez.runtime.library.common.security.SecureShuffleUtils;
+import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.ShuffleHeader;
+import org.apache.tez.runtime.library.common.sort.impl.TezIndexRecord;
+import org.apache.tez.runtime.library.common.sort.impl.TezSpillRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestShuffleHandler {
+
+  private static final String USER = System.getProperty("user.name");
+  private static final int NUM_PARTITIONS = 4;
+
+  private final ApplicationId appId = ApplicationId.newInstance(1000, 1);
+  private final Configuration conf = new Configuration();
+  private final Random random = new Random();
+  private File localDir;
+  private ShuffleHandler handler;
+  private JobTokenSecretManager secretManager;
+  private String urlHash;
+
+  @Before
+  public void setUp() throws IOException {
+    localDir = new File(System.getProperty("test.build.data", System.getProperty(
+        "java.io.tmpdir")), TestShuffleHandler.class.getSimpleName() + "-" + random.nextLong())
+        .getAbsoluteFile();
+    conf.set(YarnConfiguration.NM_LOCAL_DIRS, localDir.getPath());
+    conf.setInt(ShuffleHandler.SHUFFLE_PORT_CONFIG_KEY, 0);
+    handler = new ShuffleHandler();
+    handler.init(conf);
+    handler.start();
+
+    String jobId = ShuffleHandler.toJobId(appId);
+    Token<JobTokenIdentifier> token = new Token<JobTokenIdentifier>(
+        new JobTokenIdentifier(new Text(jobId)), new JobTokenSecretManager());
+    secretManager = new JobTokenSecretManager(
+        JobTokenSecretManager.createSecretKey(token.getPassword()));
+    handler.initializeApplication(new ApplicationInitializationContext(USER, appId,
+        TezCommonUtils.serializeServiceData(token)));
+  }
+
+  @After
+  public void tearDown() {
+    handler.stop();
+    FileUtil.fullyDelete(localDir);
+  }
+
+  @Test(timeout = 10000)
+  public void testPartitionRange() throws Exception {
+    // a final output and a pipelined spill
+    byte[][] output = writeOutput("attempt_1000_1_1_00_000000_0_10003");
+    byte[][] spill = writeOutput("attempt_1000_1_1_00_000001_0_10003_1");
+
+    HttpURLConnection connection = fetch("reduce=1-2&map=attempt_1000_1_1_00_000000_0_10003,"
+        + "attempt_1000_1_1_00_000001_0_10003_1&keepAlive=true", true);
+    assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+    SecureShuffleUtils.verifyReply(
+        connection.getHeaderField(SecureShuffleUtils.HTTP_HEADER_REPLY_URL_HASH),
+        urlHash, secretManager);
+    long expectedLength = 0;
+    for (int partition = 1; partition <= 2; partition++) {
+      expectedLength += output[partition].length + spill[partition].length;
+    }
+
+    DataInputStream in = new DataInputStream(connection.getInputStream());
+    long length = 0;
+    for (byte[][] data : new byte[][][] { output, spill }) {
+      for (int partition = 1; partition <= 2; partition++) {
+        ShuffleHeader header = new ShuffleHeader();
+        header.readFields(in);
+        assertEquals(partition, header.getPartition());
+        assertEquals(data[partition].length, header.getCompressedLength());
+        byte[] bytes = new byte[(int) header.getCompressedLength()];
+        in.readFully(bytes);
+        assertArrayEquals(data[partition], bytes);
+        length += bytes.length;
+      }
+    }
+    assertEquals(-1, in.read());
+    in.close();
+    assertEquals(expectedLength, length);
+    assertEquals(2, handler.getIndexCache().getNumEntries());
+    assertEquals(2, handler.getIndexCache().getMisses());
+
+    connection = fetch("reduce=3&map=attempt_1000_1_1_00_000000_0_10003", true);
+    assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+    in = new DataInputStream(connection.getInputStream());
+    ShuffleHeader header = new ShuffleHeader();
+    header.readFields(in);
+    assertEquals("attempt_1000_1_1_00_000000_0_10003", header.getMapId());
+    assertEquals(3, header.getPartition());
+    IOUtils.skipFully(in, header.getCompressedLength());
+    assertEquals(-1, in.read());
+    in.close();
+    assertEquals(1, handler.getIndexCache().getHits());
+  }
+
+  @Test(timeout = 10000)
+  public void testInvalidRequests() throws Exception {
+    writeOutput("attempt_1000_1_1_00_000000_0_10003");
+    assertEquals(HttpURLConnection.HTTP_UNAUTHORIZED,
+        fetch("reduce=0&map=attempt_1000_1_1_00_000000_0_10003", false).getResponseCode());
+    assertEquals(HttpURLConnection.HTTP_BAD_REQUEST,
+        fetch("reduce=2-1&map=attempt_1000_1_1_00_000000_0_10003", true).getResponseCode());
+    assertEquals(HttpURLConnection.HTTP_BAD_REQUEST,
+        fetch("reduce=0&map=attempt_1000_1_1_00_000000_0_10003/../..", true).getResponseCode());
+    assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR,
+        fetch("reduce=" + NUM_PARTITIONS + "&map=attempt_1000_1_1_00_000000_0_10003", true)
+            .getResponseCode());
+    assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR,
+        fetch("reduce=0&map=attempt_1000_1_1_00_000009_0_10003", true).getResponseCode());
+  }
+
+  private HttpURLConnection fetch(String query, boolean validHash) throws IOException {
+    URL url = new URL("http://127.0.0.1:" + handler.getPort() + "/mapOutput?job="
+        + ShuffleHandler.toJobId(appId) + "&dag=1&" + query);
+    urlHash = SecureShuffleUtils.hashFromString(
+        SecureShuffleUtils.buildMsgFrom(url) + (validHash ? "" : "x"), secretManager);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.addRequestProperty(SecureShuffleUtils.HTTP_HEADER_URL_HASH, urlHash);
+    connection.addRequestProperty(ShuffleHeader.HTTP_HEADER_NAME,
+        ShuffleHeader.DEFAULT_HTTP_HEADER_NAME);
+    connection.addRequestProperty(ShuffleHeader.HTTP_HEADER_VERSION,
+        ShuffleHeader.DEFAULT_HTTP_HEADER_VERSION);
+    connection.connect();
+    return connection;
+  }
+
+  private byte[][] writeOutput(String pathComponent) throws IOException {
+    File dir = new File(localDir, "usercache/" + USER + "/appcache/" + appId + "/output/"
+        + pathComponent);
+    dir.mkdirs();
+    byte[][] data = new byte[NUM_PARTITIONS][];
+    TezSpillRecord spillRecord = new TezSpillRecord(NUM_PARTITIONS);
+    FileOutputStream out = new FileOutputStream(new File(dir, "file.out"));
+    long offset = 0;
+    for (int i = 0; i < NUM_PARTITIONS; i++) {
+      data[i] = new byte[random.nextInt(1000) + 1];
+      random.nextBytes(data[i]);
+      out.write(data[i]);
+      spillRecord.putIndex(new TezIndexRecord(offset, data[i].length, data[i].length), i);
+      offset += data[i].length;
+    }
+    out.close();
+    spillRecord.writeToFile(new Path(new File(dir, "file.out.index").getPath()), conf);
+    return data;
+  }
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.api.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.tez.runtime.api.events.CompositeRoutedDataMovementEvent;
+import org.apache.tez.runtime.api.events.DataMovementEvent;
+
+/**
+ * Serialization of the events of a heartbeat response. Routing a composite event, or an event to a
+ * task with several physical inputs on the edge, produces many events carrying the same payload
+ * and meta data. Payloads and meta data are written once, in tables, and referenced by index. A
+ * sequence of data movement events that only differ in consecutive source and target indices is
+ * written as a single run. Other events are written as is.
+ */
+final class CompactTezEvents {
+
+  private static final byte RECORD_EVENT = 0;
+  private static final byte RECORD_DATA_MOVEMENT_RUN = 1;
+  private static final byte RECORD_COMPOSITE_ROUTED = 2;
+
+  private CompactTezEvents() {
+  }
+
+  static void write(DataOutput out, List<TezEvent> events) throws IOException {
+    int numEvents = events.size();
+    Map<ByteBuffer, Integer> payloads = new HashMap<ByteBuffer, Integer>();
+    List<ByteBuffer> payloadList = new ArrayList<ByteBuffer>();
+    Map<EventMetaData, Integer> metaData = new HashMap<EventMetaData, Integer>();
+    List<EventMetaData> metaDataList = new ArrayList<EventMetaData>();
+    int[] payloadIds = new int[numEvents];
+    int[] sourceIds = new int[numEvents];
+    int[] destinationIds = new int[numEvents];
+    for (int i = 0; i < numEvents; i++) {
+      TezEvent e = events.get(i);
+      ByteBuffer payload;
+      if (e.getEventType() == EventType.DATA_MOVEMENT_EVENT) {
+        payload = ((DataMovementEvent) e.getEvent()).getUserPayload();
+      } else if (e.getEventType() == EventType.COMPOSITE_ROUTED_DATA_MOVEMENT_EVENT) {
+        payload = ((CompositeRoutedDataMovementEvent) e.getEvent()).getUserPayload();
+      } else {
+        continue;
+      }
+      payloadIds[i] = index(payloads, payloadList, payload);
+      sourceIds[i] = index(metaData, metaDataList, e.getSourceInfo());
+      destinationIds[i] = index(metaData, metaDataList, e.getDestinationInfo());
+    }
+
+    out.writeInt(numEvents);
+    WritableUtils.writeVInt(out, payloadList.size());
+    for (ByteBuffer payload : payloadList) {
+      if (payload == null) {
+        WritableUtils.writeVInt(out, -1);
+      } else {
+        ByteBuffer buffer = payload.duplicate();
+        WritableUtils.writeVInt(out, buffer.remaining());
+        if (buffer.hasArray()) {
+          out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+          byte[] bytes = new byte[buffer.remaining()];
+          buffer.get(bytes);
+          out.write(bytes);
+        }
+      }
+    }
+    WritableUtils.writeVInt(out, metaDataList.size());
+    for (EventMetaData m : metaDataList) {
+      if (m == null) {
+        out.writeBoolean(false);
+      } else {
+        out.writeBoolean(true);
+        m.write(out);
+      }
+    }
+
+    int i = 0;
+    while (i < numEvents) {
+      TezEvent e = events.get(i);
+      if (e.getEventType() == EventType.DATA_MOVEMENT_EVENT) {
+        DataMovementEvent first = (DataMovementEvent) e.getEvent();
+        int runLength = 1;
+        while (i + runLength < numEvents
+            && continuesRun(events, i, runLength, payloadIds, sourceIds, destinationIds)) {
+          runLength++;
+        }
+        out.writeByte(RECORD_DATA_MOVEMENT_RUN);
+        writeHeader(out, e, payloadIds[i], sourceIds[i], destinationIds[i]);
+        WritableUtils.writeVInt(out, first.getSourceIndex());
+        WritableUtils.writeVInt(out, first.getTargetIndex());
+        WritableUtils.writeVInt(out, first.getVersion());
+        WritableUtils.writeVInt(out, runLength);
+        i += runLength;
+      } else if (e.getEventType() == EventType.COMPOSITE_ROUTED_DATA_MOVEMENT_EVENT) {
+        CompositeRoutedDataMovementEvent crdme = (CompositeRoutedDataMovementEvent) e.getEvent();
+        out.writeByte(RECORD_COMPOSITE_ROUTED);
+        writeHeader(out, e, payloadIds[i], sourceIds[i], destinationIds[i]);
+        WritableUtils.writeVInt(out, crdme.getSourceIndex());
+        WritableUtils.writeVInt(out, crdme.getTargetIndex());
+        WritableUtils.writeVInt(out, crdme.getVersion());
+        WritableUtils.writeVInt(out, crdme.getCount());
+        i++;
+      } else {
+        out.writeByte(RECORD_EVENT);
+        e.write(out);
+        i++;
+      }
+    }
+  }
+
+  static List<TezEvent> read(DataInput in) throws IOException {
+    int numEvents = in.readInt();
+    ByteBuffer[] payloads = new ByteBuffer[WritableUtils.readVInt(in)];
+    for (int i = 0; i < payloads.length; i++) {
+      int length = WritableUtils.readVInt(in);
+      if (length >= 0) {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        payloads[i] = ByteBuffer.wrap(bytes);
+      }
+    }
+    EventMetaData[] metaData = new EventMetaData[WritableUtils.readVInt(in)];
+    for (int i = 0; i < metaData.length; i++) {
+      if (in.readBoolean()) {
+        metaData[i] = new EventMetaData();
+        metaData[i].readFields(in);
+      }
+    }
+
+    List<TezEvent> events = new ArrayList<TezEvent>(numEvents);
+    while (events.size() < numEvents) {
+      byte recordType = in.readByte();
+      if (recordType == RECORD_EVENT) {
+        TezEvent e = new TezEvent();
+        e.readFields(in);
+        events.add(e);
+        continue;
+      }
+      long receivedTime = in.readLong();
+      ByteBuffer payload = payloads[WritableUtils.readVInt(in)];
+      EventMetaData sourceInfo = metaData[WritableUtils.readVInt(in)];
+      EventMetaData destinationInfo = metaData[WritableUtils.readVInt(in)];
+      int sourceIndex = WritableUtils.readVInt(in);
+      int targetIndex = WritableUtils.readVInt(in);
+      int version = WritableUtils.readVInt(in);
+      int count = WritableUtils.readVInt(in);
+      if (recordType == RECORD_DATA_MOVEMENT_RUN) {
+        for (int i = 0; i < count; i++) {
+          // events of a run share the payload; consumers only get read only views of it
+          TezEvent e = new TezEvent(DataMovementEvent.create(sourceIndex + i, targetIndex + i,
+              version, payload), sourceInfo, receivedTime);
+          e.setDestinationInfo(destinationInfo);
+          events.add(e);
+        }
+      } else if (recordType == RECORD_COMPOSITE_ROUTED) {
+        TezEvent e = new TezEvent(CompositeRoutedDataMovementEvent.create(sourceIndex,
+            targetIndex, count, version, payload), sourceInfo, receivedTime);
+        e.setDestinationInfo(destinationInfo);
+        events.add(e);
+      } else {
+        throw new IOException("Unknown event record type: " + recordType);
+      }
+    }
+    return events;
+  }
+
+  private static void writeHeader(DataOutput out, TezEvent e, int payloadId, int sourceId,
+      int destinationId) throws IOException {
+    out.writeLong(e.getEventReceivedTime());
+    WritableUtils.writeVInt(out, payloadId);
+    WritableUtils.writeVInt(out, sourceId);
+    WritableUtils.writeVInt(out, destinationId);
+  }
+
+  // whether the event at start + runLength extends the data movement run starting at start
+  private static boolean continuesRun(List<TezEvent> events, int start, int runLength,
+      int[] payloadIds, int[] sourceIds, int[] destinationIds) {
+    int next = start + runLength;
+    TezEvent e = events.get(next);
+    if (e.getEventType() != EventType.DATA_MOVEMENT_EVENT
+        || payloadIds[next] != payloadIds[start]
+        || sourceIds[next] != sourceIds[start]
+        || destinationIds[next] != destinationIds[start]
+        || e.getEventReceivedTime() != events.get(start).getEventReceivedTime()) {
+      return false;
+    }
+    DataMovementEvent first = (DataMovementEvent) events.get(start).getEvent();
+    DataMovementEvent dme = (DataMovementEvent) e.getEvent();
+    return dme.getVersion() == first.getVersion()
+        && dme.getSourceIndex() == first.getSourceIndex() + runLength
+        && dme.getTargetIndex() == first.getTargetIndex() + runLength;
+  }
+
+  private static <T> int index(Map<T, Integer> ids, List<T> values, T value) {
+    Integer id = ids.get(value);
+    if (id == null) {
+      id = values.size();
+      ids.put(value, id);
+      values.add(value);
+    }
+    return id;
+  }
+}
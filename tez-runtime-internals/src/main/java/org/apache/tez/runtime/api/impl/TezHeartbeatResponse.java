@@ -21,7 +21,6 @@ package org.apache.tez.runtime.api.impl;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -34,6 +33,8 @@ public class TezHeartbeatResponse implements Writable {
   private List<TezEvent> events;
   private int nextFromEventId;
   private int nextPreRoutedEventId;
+  // 0 if the AM does not suggest an interval
+  private long nextHeartbeatIntervalMs;
 
   public TezHeartbeatResponse() {
   }
@@ -62,6 +63,10 @@ public class TezHeartbeatResponse implements Writable {
     return nextPreRoutedEventId;
   }
 
+  public long getNextHeartbeatIntervalMs() {
+    return nextHeartbeatIntervalMs;
+  }
+
   public void setEvents(List<TezEvent> events) {
     this.events = Collections.unmodifiableList(events);
   }
@@ -82,18 +87,20 @@ public class TezHeartbeatResponse implements Writable {
     this.nextPreRoutedEventId = nextPreRoutedEventId;
   }
 
+  public void setNextHeartbeatIntervalMs(long nextHeartbeatIntervalMs) {
+    this.nextHeartbeatIntervalMs = nextHeartbeatIntervalMs;
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
     out.writeLong(lastRequestId);
     out.writeBoolean(shouldDie);
     out.writeInt(nextFromEventId);
     out.writeInt(nextPreRoutedEventId);
+    out.writeLong(nextHeartbeatIntervalMs);
     if(events != null) {
       out.writeBoolean(true);
-      out.writeInt(events.size());
-      for (TezEvent e : events) {
-        e.write(out);
-      }
+      CompactTezEvents.write(out, events);
     } else {
       out.writeBoolean(false);
     }
@@ -105,14 +112,9 @@ public class TezHeartbeatResponse implements Writable {
     shouldDie = in.readBoolean();
     nextFromEventId = in.readInt();
     nextPreRoutedEventId = in.readInt();
+    nextHeartbeatIntervalMs = in.readLong();
     if(in.readBoolean()) {
-      int eventCount = in.readInt();
-      events = new ArrayList<TezEvent>(eventCount);
-      for (int i = 0; i < eventCount; ++i) {
-        TezEvent e = new TezEvent();
-        e.readFields(in);
-        events.add(e);
-      }
+      events = CompactTezEvents.read(in);
     }
   }
 
@@ -123,6 +125,7 @@ public class TezHeartbeatResponse implements Writable {
         + ", shouldDie=" + shouldDie
         + ", nextFromEventId=" + nextFromEventId
         + ", nextPreRoutedEventId=" + nextPreRoutedEventId
+        + ", nextHeartbeatIntervalMs=" + nextHeartbeatIntervalMs
         + ", eventCount=" + (events != null ? events.size() : 0)
         + " }";
   }
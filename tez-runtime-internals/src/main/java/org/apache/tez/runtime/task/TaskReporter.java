@@ -158,15 +158,23 @@ public class TaskReporter implements TaskReporterInterface {
     private AtomicInteger nonOobHeartbeatCounter = new AtomicInteger(0);
     private int nextHeartbeatNumToLog = 0;
     /*
-     * Tracks the last non-OOB heartbeat number at which counters were sent to the AM. 
+     * Total time waited before regular timed heartbeats, and the total at which counters were last
+     * sent to the AM.
      */
-    private int prevCounterSendHeartbeatNum = 0;
+    private final AtomicLong nonOobHeartbeatWaitMs = new AtomicLong(0);
+    private long prevCounterSendWaitMs = 0;
+    /*
+     * Interval before the next regular heartbeat. Only differs from pollInterval if the AM suggests
+     * heartbeat intervals. Only used by the heartbeat thread.
+     */
+    private long heartbeatInterval;
 
     public HeartbeatCallable(RuntimeTask task,
         TezTaskUmbilicalProtocol umbilical, long amPollInterval, long sendCounterInterval,
         int maxEventsToGet, AtomicLong requestCounter, String containerIdStr) {
 
       this.pollInterval = amPollInterval;
+      this.heartbeatInterval = amPollInterval;
       this.sendCounterInterval = sendCounterInterval;
       this.maxEventsToGet = maxEventsToGet;
       this.requestCounter = requestCounter;
@@ -195,11 +203,21 @@ public class TaskReporter implements TaskReporterInterface {
         } else {
           if (response.numEvents < maxEventsToGet) {
             // Wait before sending another heartbeat. Otherwise consider as an OOB heartbeat
+            long interval = getNextHeartbeatInterval(response.nextHeartbeatIntervalMs);
             lock.lock();
             try {
-              boolean interrupted = condition.await(pollInterval, TimeUnit.MILLISECONDS);
+              // A longer interval is waited in steps of pollInterval, and ends early once there
+              // are events to send, so that events are not delayed by the backoff.
+              boolean interrupted;
+              long waited = 0;
+              do {
+                long wait = Math.min(Math.max(1, pollInterval), interval - waited);
+                interrupted = condition.await(wait, TimeUnit.MILLISECONDS);
+                waited += wait;
+              } while (!interrupted && waited < interval && eventsToSend.isEmpty());
               if (!interrupted) {
                 nonOobHeartbeatCounter.incrementAndGet();
+                nonOobHeartbeatWaitMs.addAndGet(waited);
               }
             } finally {
               lock.unlock();
@@ -217,6 +235,20 @@ public class TaskReporter implements TaskReporterInterface {
       return true;
     }
 
+    /**
+     * Follow the heartbeat interval suggested by the AM, if any. Backing off is gradual, the
+     * interval at most doubles from one heartbeat to the next.
+     */
+    private long getNextHeartbeatInterval(long suggestedInterval) {
+      if (suggestedInterval <= 0) {
+        heartbeatInterval = pollInterval;
+      } else {
+        heartbeatInterval = Math.min(suggestedInterval,
+            Math.max(pollInterval, heartbeatInterval * 2));
+      }
+      return heartbeatInterval;
+    }
+
     /**
      * @param eventsArg
      * @return
@@ -244,9 +276,9 @@ public class TaskReporter implements TaskReporterInterface {
          * real time decisions are made based on these counters, it can be sent once per second.
          */
         // Not completely accurate, since OOB heartbeats could go out.
-        if ((nonOobHeartbeatCounter.get() - prevCounterSendHeartbeatNum) * pollInterval >= sendCounterInterval) {
+        if (nonOobHeartbeatWaitMs.get() - prevCounterSendWaitMs >= sendCounterInterval) {
           sendCounters = true;
-          prevCounterSendHeartbeatNum = nonOobHeartbeatCounter.get();
+          prevCounterSendWaitMs = nonOobHeartbeatWaitMs.get();
         }
         updateEvent = new TezEvent(getStatusUpdateEvent(sendCounters), updateEventMetadata);
         events.add(updateEvent);
@@ -272,7 +304,7 @@ public class TaskReporter implements TaskReporterInterface {
       if (response.shouldDie()) {
         LOG.info("Received should die response from AM");
         askedToDie.set(true);
-        return new ResponseWrapper(true, 1);
+        return new ResponseWrapper(true, 1, 0);
       }
       if (response.getLastRequestId() != requestId) {
         throw new TezException("AM and Task out of sync" + ", responseReqId="
@@ -300,7 +332,7 @@ public class TaskReporter implements TaskReporterInterface {
           task.handleEvents(response.getEvents());
         }
       }
-      return new ResponseWrapper(false, numEventsReceived);
+      return new ResponseWrapper(false, numEventsReceived, response.getNextHeartbeatIntervalMs());
     }
 
     public void markComplete() {
@@ -469,10 +501,12 @@ public class TaskReporter implements TaskReporterInterface {
   private static final class ResponseWrapper {
     boolean shouldDie;
     int numEvents;
+    long nextHeartbeatIntervalMs;
 
-    private ResponseWrapper(boolean shouldDie, int numEvents) {
+    private ResponseWrapper(boolean shouldDie, int numEvents, long nextHeartbeatIntervalMs) {
       this.shouldDie = shouldDie;
       this.numEvents = numEvents;
+      this.nextHeartbeatIntervalMs = nextHeartbeatIntervalMs;
     }
   }
 }
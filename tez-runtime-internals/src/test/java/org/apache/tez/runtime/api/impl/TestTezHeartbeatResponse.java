@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.runtime.api.events.CompositeRoutedDataMovementEvent;
+import org.apache.tez.runtime.api.events.DataMovementEvent;
+import org.apache.tez.runtime.api.events.InputFailedEvent;
+import org.apache.tez.runtime.api.impl.EventMetaData.EventProducerConsumerType;
+import org.junit.Test;
+
+public class TestTezHeartbeatResponse {
+
+  private static final TezTaskID TASK_ID =
+      TezTaskID.fromString("task_1454468251169_866787_1_02_000000");
+
+  @Test(timeout = 5000)
+  public void testEventSerialization() throws IOException {
+    EventMetaData destInfo = new EventMetaData(EventProducerConsumerType.INPUT, "v2", "v1",
+        TezTaskAttemptID.getInstance(TASK_ID, 2));
+    List<TezEvent> events = new ArrayList<TezEvent>();
+    for (int src = 0; src < 10; src++) {
+      EventMetaData srcInfo = new EventMetaData(EventProducerConsumerType.OUTPUT, "v1", "v2",
+          TezTaskAttemptID.getInstance(TASK_ID, src));
+      ByteBuffer payload = ByteBuffer.wrap(new byte[] {(byte) src, 1, 2, 3});
+      // partitions 5 to 8 of the source task
+      for (int partition = 5; partition < 9; partition++) {
+        events.add(createEvent(DataMovementEvent.create(partition, src * 4 + partition - 5, 0,
+            payload), srcInfo, destInfo));
+      }
+      events.add(createEvent(CompositeRoutedDataMovementEvent.create(0, src, 3, 1, payload),
+          srcInfo, destInfo));
+      events.add(createEvent(InputFailedEvent.create(src, 0), srcInfo, destInfo));
+    }
+    // not contiguous with the previous event, and without a payload
+    events.add(createEvent(DataMovementEvent.create(20, 0, 0, null), null, destInfo));
+
+    TezHeartbeatResponse response = new TezHeartbeatResponse(events);
+    response.setNextFromEventId(12);
+    response.setNextHeartbeatIntervalMs(800);
+    DataOutputBuffer out = new DataOutputBuffer();
+    response.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TezHeartbeatResponse actual = new TezHeartbeatResponse();
+    actual.readFields(in);
+    assertEquals(out.getLength(), in.getPosition());
+    assertEquals(12, actual.getNextFromEventId());
+    assertEquals(800, actual.getNextHeartbeatIntervalMs());
+
+    List<TezEvent> actualEvents = actual.getEvents();
+    assertEquals(events.size(), actualEvents.size());
+    for (int i = 0; i < events.size(); i++) {
+      TezEvent expected = events.get(i);
+      TezEvent e = actualEvents.get(i);
+      assertEquals(expected.getEventType(), e.getEventType());
+      assertEquals(expected.getEventReceivedTime(), e.getEventReceivedTime());
+      assertEquals(expected.getSourceInfo(), e.getSourceInfo());
+      assertEquals(expected.getDestinationInfo(), e.getDestinationInfo());
+      if (expected.getEventType() == EventType.DATA_MOVEMENT_EVENT) {
+        DataMovementEvent dmeExpected = (DataMovementEvent) expected.getEvent();
+        DataMovementEvent dme = (DataMovementEvent) e.getEvent();
+        assertEquals(dmeExpected.getSourceIndex(), dme.getSourceIndex());
+        assertEquals(dmeExpected.getTargetIndex(), dme.getTargetIndex());
+        assertEquals(dmeExpected.getVersion(), dme.getVersion());
+        assertEquals(dmeExpected.getUserPayload(), dme.getUserPayload());
+      } else if (expected.getEventType() == EventType.COMPOSITE_ROUTED_DATA_MOVEMENT_EVENT) {
+        CompositeRoutedDataMovementEvent crdmeExpected =
+            (CompositeRoutedDataMovementEvent) expected.getEvent();
+        CompositeRoutedDataMovementEvent crdme = (CompositeRoutedDataMovementEvent) e.getEvent();
+        assertEquals(crdmeExpected.getSourceIndex(), crdme.getSourceIndex());
+        assertEquals(crdmeExpected.getTargetIndex(), crdme.getTargetIndex());
+        assertEquals(crdmeExpected.getCount(), crdme.getCount());
+        assertEquals(crdmeExpected.getVersion(), crdme.getVersion());
+        assertEquals(crdmeExpected.getUserPayload(), crdme.getUserPayload());
+      } else {
+        InputFailedEvent ifeExpected = (InputFailedEvent) expected.getEvent();
+        InputFailedEvent ife = (InputFailedEvent) e.getEvent();
+        assertEquals(ifeExpected.getTargetIndex(), ife.getTargetIndex());
+        assertEquals(ifeExpected.getVersion(), ife.getVersion());
+      }
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testSharedPayloadWrittenOnce() throws IOException {
+    EventMetaData srcInfo = new EventMetaData(EventProducerConsumerType.OUTPUT, "v1", "v2",
+        TezTaskAttemptID.getInstance(TASK_ID, 0));
+    EventMetaData destInfo = new EventMetaData(EventProducerConsumerType.INPUT, "v2", "v1",
+        TezTaskAttemptID.getInstance(TASK_ID, 1));
+    ByteBuffer payload = ByteBuffer.wrap(new byte[1024]);
+    List<TezEvent> events = new ArrayList<TezEvent>();
+    for (int i = 0; i < 100; i++) {
+      events.add(createEvent(DataMovementEvent.create(i, i, 0, payload), srcInfo, destInfo));
+    }
+    DataOutputBuffer out = new DataOutputBuffer();
+    new TezHeartbeatResponse(events).write(out);
+    assertTrue("Unexpected size " + out.getLength(), out.getLength() < 2 * 1024);
+  }
+
+  private static TezEvent createEvent(org.apache.tez.runtime.api.Event event,
+      EventMetaData srcInfo, EventMetaData destInfo) {
+    TezEvent tezEvent = new TezEvent(event, srcInfo, 1000);
+    tezEvent.setDestinationInfo(destInfo);
+    return tezEvent;
+  }
+}
@@ -90,6 +90,62 @@ public class TezRuntimeConfiguration {
 
   public static final int TEZ_RUNTIME_IFILE_BUFFER_SIZE_DEFAULT = -1;
 
+  /**
+   * Write IFiles as a sequence of independently compressed blocks, cut in front of a key. Readers
+   * detect the format from the IFile header, but files written with this enabled cannot be read by
+   * releases which predate the block format.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_IFILE_BLOCK_FORMAT_ENABLED = TEZ_RUNTIME_PREFIX +
+      "ifile.block-format.enabled";
+  public static final boolean TEZ_RUNTIME_IFILE_BLOCK_FORMAT_ENABLED_DEFAULT = false;
+
+  /**
+   * Raw (uncompressed) size in bytes after which an IFile block is closed, when the block format
+   * is enabled. Blocks are only cut in front of a new key, so a long run of values for the same key
+   * can make a block larger.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_IFILE_BLOCK_SIZE = TEZ_RUNTIME_PREFIX +
+      "ifile.block-format.block.size";
+  public static final int TEZ_RUNTIME_IFILE_BLOCK_SIZE_DEFAULT = 64 * 1024;
+
+  /**
+   * Number of chunks of each on-disk segment which are read and decompressed ahead of the merge
+   * thread, on a pool shared by all merges of the JVM. 0 disables prefetching.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_IFILE_PREFETCH_CHUNKS = TEZ_RUNTIME_PREFIX +
+      "ifile.prefetch.chunks";
+  public static final int TEZ_RUNTIME_IFILE_PREFETCH_CHUNKS_DEFAULT = 0;
+
+  /**
+   * Size in bytes of the (decompressed) chunks read ahead when IFile prefetching is enabled.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_IFILE_PREFETCH_CHUNK_SIZE = TEZ_RUNTIME_PREFIX +
+      "ifile.prefetch.chunk.size";
+  public static final int TEZ_RUNTIME_IFILE_PREFETCH_CHUNK_SIZE_DEFAULT = 128 * 1024;
+
+  /**
+   * Number of threads reading and decompressing IFile segments ahead of the merge, when IFile
+   * prefetching is enabled. The pool is shared, so the first task in a JVM determines its size.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_IFILE_PREFETCH_THREADS = TEZ_RUNTIME_PREFIX +
+      "ifile.prefetch.threads";
+  public static final int TEZ_RUNTIME_IFILE_PREFETCH_THREADS_DEFAULT = 2;
+
+  /**
+   * Memory in MB which the chunks prefetched for the segments of one merge pass may use. Fewer
+   * chunks than {@link #TEZ_RUNTIME_IFILE_PREFETCH_CHUNKS} are prefetched per segment if a pass
+   * merges too many segments, and none if not even a single chunk per segment fits.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_IFILE_PREFETCH_MEMORY_MB = TEZ_RUNTIME_PREFIX +
+      "ifile.prefetch.memory-mb";
+  public static final int TEZ_RUNTIME_IFILE_PREFETCH_MEMORY_MB_DEFAULT = 32;
+
   /**
    * This is copy of io.file.buffer.size from Hadoop, which is used in several places such
    * as compression codecs, buffer sizes in IFile, while fetching etc.
@@ -154,6 +210,24 @@ public class TezRuntimeConfiguration {
   public static final boolean
       TEZ_RUNTIME_PIPELINED_SORTER_LAZY_ALLOCATE_MEMORY_DEFAULT = false;
 
+  /**
+   * String value.
+   * Where PipelinedSorter allocates its sort buffers (both the serialized key/values and the
+   * per-record metadata) from.
+   * Valid values:
+   *    - HEAP ( default ) - regular on-heap byte arrays
+   *    - DIRECT - direct ByteBuffers, bounded by -XX:MaxDirectMemorySize
+   *    - MAPPED - MappedByteBuffers backed by (already unlinked) files in the local dirs
+   * DIRECT and MAPPED keep large @link{#TEZ_RUNTIME_IO_SORT_MB} settings out of the
+   * GC-managed heap, at the cost of copying keys out of the buffer for comparisons.
+   * {@link org.apache.tez.runtime.library.api.TezRuntimeConfiguration.SortBufferType}
+   */
+  @ConfigurationProperty
+  public static final String TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_TYPE = TEZ_RUNTIME_PREFIX +
+      "pipelined.sorter.buffer.type";
+  public static final String
+      TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_TYPE_DEFAULT = SortBufferType.HEAP.name();
+
   /**
    * String value.
    * Which sorter implementation to use.
@@ -167,6 +241,18 @@ public class TezRuntimeConfiguration {
       "sorter.class";
   public static final String TEZ_RUNTIME_SORTER_CLASS_DEFAULT = SorterImpl.PIPELINED.name();
 
+  /**
+   * Store a fixed width normalized prefix of each key while collecting records, and sort on
+   * partition + prefix, only falling back to the key comparator when prefixes are equal.
+   * Takes effect only with comparators that order keys by their serialized bytes
+   * (TezBytesComparator, Text and BytesWritable comparators) and is ignored otherwise.
+   * PipelinedSorter stores 8 additional bytes of metadata per record when enabled.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_SORTER_KEY_PREFIX_ENABLED = TEZ_RUNTIME_PREFIX +
+      "sorter.key-prefix.enabled";
+  public static final boolean TEZ_RUNTIME_SORTER_KEY_PREFIX_ENABLED_DEFAULT = false;
+
   @ConfigurationProperty(type = "integer")
   public static final String TEZ_RUNTIME_PIPELINED_SORTER_SORT_THREADS = TEZ_RUNTIME_PREFIX +
       "pipelined.sorter.sort.threads";
@@ -204,6 +290,36 @@ public class TezRuntimeConfiguration {
       TEZ_RUNTIME_PREFIX +
           "unordered.output.max-per-buffer.size-bytes";
 
+  /**
+   * Minimum number of partitions for which the unordered partitioned output describes the
+   * partitions that received data as a sparse, delta-encoded list in its DataMovementEvents,
+   * instead of a compressed bitmap of the empty partitions. The sparse form is only used when it
+   * is smaller than the bitmap.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_UNORDERED_OUTPUT_SPARSE_PARTITIONS_THRESHOLD =
+      TEZ_RUNTIME_PREFIX + "unordered.output.sparse-partitions.threshold";
+  public static final int TEZ_RUNTIME_UNORDERED_OUTPUT_SPARSE_PARTITIONS_THRESHOLD_DEFAULT = 1000;
+
+  /**
+   * Specifies a {@link org.apache.tez.runtime.library.common.combine.HashCombiner} class, used by
+   * unordered outputs to aggregate the values of records with the same key before they are
+   * buffered and spilled. Disabled if not set.
+   */
+  @ConfigurationProperty
+  public static final String TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_CLASS =
+      TEZ_RUNTIME_PREFIX + "unordered.output.hash-combiner.class";
+
+  /**
+   * Fraction of the unordered output memory which is used by the hash combiner table. The rest
+   * is used by the output buffers.
+   */
+  @ConfigurationProperty(type = "float")
+  public static final String TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_MEMORY_FRACTION =
+      TEZ_RUNTIME_PREFIX + "unordered.output.hash-combiner.memory.fraction";
+  public static final float TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_MEMORY_FRACTION_DEFAULT =
+      0.25f;
+
   /**
    * Specifies a partitioner class, which is used in Tez Runtime components
    * like OnFileSortedOutput
@@ -223,6 +339,44 @@ public class TezRuntimeConfiguration {
       "shuffle.parallel.copies";
   public static final int TEZ_RUNTIME_SHUFFLE_PARALLEL_COPIES_DEFAULT = 20;
 
+  /**
+   * Run the fetchers of all shuffle inputs of the JVM on a single shared pool, instead of a
+   * thread pool per input. The pool limits the number of concurrent fetches in the container and
+   * to each host; TEZ_RUNTIME_SHUFFLE_PARALLEL_COPIES still limits the fetches of each input.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_ENABLED = TEZ_RUNTIME_PREFIX +
+      "shuffle.shared-fetchers.enabled";
+  public static final boolean TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_ENABLED_DEFAULT = false;
+
+  /**
+   * Maximum number of concurrent fetches, over all shuffle inputs of the JVM, when shared
+   * fetchers are enabled. The pool is shared, so the first task in a JVM determines its size.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX = TEZ_RUNTIME_PREFIX +
+      "shuffle.shared-fetchers.max";
+  public static final int TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_DEFAULT = 40;
+
+  /**
+   * Maximum number of concurrent fetches from a single host, over all shuffle inputs of the JVM,
+   * when shared fetchers are enabled.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_PER_HOST = TEZ_RUNTIME_PREFIX +
+      "shuffle.shared-fetchers.max-per-host";
+  public static final int TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_PER_HOST_DEFAULT = 5;
+
+  /**
+   * Priority of an input's fetches over the fetches of the other inputs of the JVM, when shared
+   * fetchers are enabled. Free fetch slots go to the inputs with the highest priority first, and
+   * are otherwise shared according to the number of inputs each still has to fetch.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_PRIORITY = TEZ_RUNTIME_PREFIX +
+      "shuffle.shared-fetchers.priority";
+  public static final int TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_PRIORITY_DEFAULT = 0;
+
   @ConfigurationProperty(type = "integer")
   public static final String TEZ_RUNTIME_SHUFFLE_FETCH_FAILURES_LIMIT = TEZ_RUNTIME_PREFIX +
       "shuffle.fetch.failures.limit";
@@ -335,6 +489,135 @@ public class TezRuntimeConfiguration {
   public final static int TEZ_RUNTIME_SHUFFLE_FETCH_MAX_TASK_OUTPUT_AT_ONCE_DEFAULT
       = 20;
 
+  /**
+   * Adapt the number of outputs requested per connection to each host, from the size and
+   * latency of the previous requests to that host. The batch starts at
+   * {@link #TEZ_RUNTIME_SHUFFLE_FETCH_MAX_TASK_OUTPUT_AT_ONCE} and is doubled while full
+   * requests stay within the targets below, or halved when a request exceeds them or fails.
+   * Enables keep-alive, unless {@link #TEZ_RUNTIME_SHUFFLE_KEEP_ALIVE_ENABLED} is set, so that
+   * connections to a host are reused across fetches.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_ENABLED =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.adaptive-batching.enabled";
+  public static final boolean TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_ENABLED_DEFAULT = false;
+
+  /**
+   * Bytes that a single request should fetch, with adaptive batching.
+   */
+  @ConfigurationProperty(type = "long")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_BYTES =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.adaptive-batching.target-bytes";
+  public static final long TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_BYTES_DEFAULT =
+      8 * 1024 * 1024;
+
+  /**
+   * Milliseconds that a single request should take, with adaptive batching.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_LATENCY_MS =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.adaptive-batching.target-latency-ms";
+  public static final int TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_LATENCY_MS_DEFAULT =
+      1000;
+
+  /**
+   * Fetch the outputs of a slow host a second time while the first fetch is still running, and
+   * use whichever copy completes first. An output is fetched from another known attempt of the
+   * same source if there is one, and otherwise from the same host over a new connection. Only
+   * applies to ordered inputs, and not to sources that are fetched in chunks.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_ENABLED =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.hedged.enabled";
+  public static final boolean TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_ENABLED_DEFAULT = false;
+
+  /**
+   * A host is slow, for hedged fetching, when its throughput falls below this fraction of the
+   * median throughput of the hosts of the input.
+   */
+  @ConfigurationProperty(type = "float")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_SLOW_HOST_FRACTION =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.hedged.slow-host-fraction";
+  public static final float TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_SLOW_HOST_FRACTION_DEFAULT = 0.2f;
+
+  /**
+   * Milliseconds a fetch has to go without completing an output before it is hedged.
+   */
+  @ConfigurationProperty(type = "long")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MIN_STALL_MS =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.hedged.min-stall-ms";
+  public static final long TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MIN_STALL_MS_DEFAULT = 10000;
+
+  /**
+   * Maximum number of hedged fetches running at a time for an input. They run on their own
+   * threads, in addition to {@link #TEZ_RUNTIME_SHUFFLE_PARALLEL_COPIES}.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MAX =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.hedged.max";
+  public static final int TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MAX_DEFAULT = 2;
+
+  /**
+   * Collect connect, time to first byte and transfer times of shuffle fetches, per host and in
+   * total. Totals are reported in task counters while the shuffle runs; a histogram of the
+   * transfer times and the throughput of the slowest hosts are reported when it completes.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_STATS_ENABLED =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.stats.enabled";
+  public static final boolean TEZ_RUNTIME_SHUFFLE_FETCH_STATS_ENABLED_DEFAULT = false;
+
+  /**
+   * Number of slowest hosts, by throughput, reported in counters by an input when shuffle fetch
+   * statistics are enabled, at most 10. The counters are named after the hosts; the bytes and time
+   * of the other hosts are reported together.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_STATS_SLOW_HOSTS =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.stats.slow-hosts";
+  public static final int TEZ_RUNTIME_SHUFFLE_FETCH_STATS_SLOW_HOSTS_DEFAULT = 5;
+
+  /**
+   * Fetch in-memory shuffle data into buffers that are recycled, instead of allocating a new
+   * array for every fetched output. Buffers are rounded up to size classes (at most 12.5% larger
+   * than requested) and count against the shuffle memory limit at their rounded size. The inputs
+   * of a task share one pool, bounded by the sum of their shuffle memory limits.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED =
+      TEZ_RUNTIME_PREFIX + "shuffle.buffer-pool.enabled";
+  public static final boolean TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED_DEFAULT = false;
+
+  /**
+   * Let unordered inputs read large outputs while they are being fetched, instead of waiting until
+   * each output is in memory or on disk. A fetcher streaming an output waits while the reader is
+   * behind by the configured buffer size, so a slow consumer also holds the connection to the
+   * source. A failure part way through such a fetch fails the task, since the data cannot be
+   * fetched again once the reader has seen it. Not used with shared fetchers.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_ENABLED =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.streaming.enabled";
+  public static final boolean TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_ENABLED_DEFAULT = false;
+
+  /**
+   * Minimum (decompressed) size of an output for it to be streamed to the reader.
+   */
+  @ConfigurationProperty(type = "long")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_MIN_SIZE =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.streaming.min-size";
+  public static final long TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_MIN_SIZE_DEFAULT = 8 << 20;
+
+  /**
+   * Bytes of a streamed output buffered between the fetcher and the reader. The buffer is taken
+   * from the shuffle fetch memory while the output is open; an output is fetched as usual when
+   * that memory is in use.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_BUFFER_SIZE =
+      TEZ_RUNTIME_PREFIX + "shuffle.fetch.streaming.buffer-size";
+  public static final int TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_BUFFER_SIZE_DEFAULT = 4 << 20;
+
   @ConfigurationProperty(type = "boolean")
   public static final String TEZ_RUNTIME_SHUFFLE_NOTIFY_READERROR = TEZ_RUNTIME_PREFIX +
       "shuffle.notify.readerror";
@@ -417,6 +700,68 @@ public class TezRuntimeConfiguration {
   public static final boolean TEZ_RUNTIME_SHUFFLE_ENABLE_MEMTOMEM_DEFAULT =
       false;
 
+  /**
+   * With memory-to-memory merges enabled, merge in-memory outputs of similar size together (see
+   * {@link #TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIER_RATIO}), instead of whichever outputs are in memory,
+   * and skip such merges while the outputs still to be fetched are expected to cause a merge to
+   * disk anyway.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIERED = TEZ_RUNTIME_PREFIX +
+      "shuffle.memory-to-memory.tiered";
+  public static final boolean TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIERED_DEFAULT = false;
+
+  /**
+   * Maximum ratio between the largest and the smallest output merged together by a tiered
+   * memory-to-memory merge.
+   */
+  @ConfigurationProperty(type = "float")
+  public static final String TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIER_RATIO = TEZ_RUNTIME_PREFIX +
+      "shuffle.memory-to-memory.tier-ratio";
+  public static final float TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIER_RATIO_DEFAULT = 4.0f;
+
+  /**
+   * Maximum number of tiered memory-to-memory merges the same data goes through, which bounds
+   * the bytes rewritten in memory.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_SHUFFLE_MEMTOMEM_MAX_MERGES = TEZ_RUNTIME_PREFIX +
+      "shuffle.memory-to-memory.max-merges";
+  public static final int TEZ_RUNTIME_SHUFFLE_MEMTOMEM_MAX_MERGES_DEFAULT = 2;
+
+  /**
+   * Number of threads used for the final merge of an ordered shuffle. When greater than 1, the
+   * segments are split into as many groups, each group is merged on its own thread, and the
+   * resulting streams are combined by a final k-way merge. 1 (default) keeps the single threaded
+   * merge.
+   */
+  @ConfigurationProperty(type = "integer")
+  public static final String TEZ_RUNTIME_SHUFFLE_FINAL_MERGE_PARALLELISM = TEZ_RUNTIME_PREFIX +
+      "shuffle.final-merge.parallelism";
+  public static final int TEZ_RUNTIME_SHUFFLE_FINAL_MERGE_PARALLELISM_DEFAULT = 1;
+
+  /**
+   * Merge fetched data progressively while an ordered shuffle runs, so that little work is left
+   * once the last output arrives. In-memory outputs are merged to disk once they take
+   * {@link #TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_MEMORY_PERCENT} of the shuffle memory, and
+   * on-disk files are merged, smallest first, as soon as there are
+   * {@link #TEZ_RUNTIME_IO_SORT_FACTOR} of them. The final merge is then a single pass over at
+   * most that many files and a bounded amount of memory.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_ENABLED = TEZ_RUNTIME_PREFIX +
+      "shuffle.merge.progressive.enabled";
+  public static final boolean TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_ENABLED_DEFAULT = false;
+
+  /**
+   * Fraction of the shuffle memory after which in-memory outputs are merged to disk, when
+   * progressive merging is enabled. Capped at {@link #TEZ_RUNTIME_SHUFFLE_MERGE_PERCENT}.
+   */
+  @ConfigurationProperty(type = "float")
+  public static final String TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_MEMORY_PERCENT =
+      TEZ_RUNTIME_PREFIX + "shuffle.merge.progressive.memory.percent";
+  public static final float TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_MEMORY_PERCENT_DEFAULT = 0.25f;
+
   @ConfigurationProperty(type = "float")
   public static final String TEZ_RUNTIME_INPUT_POST_MERGE_BUFFER_PERCENT = TEZ_RUNTIME_PREFIX +
       "task.input.post-merge.buffer.percent";
@@ -465,6 +810,17 @@ public class TezRuntimeConfiguration {
   public static final String TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH = TEZ_RUNTIME_PREFIX + "optimize.local.fetch";
   public static final boolean TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH_DEFAULT = true;
 
+  /**
+   * When inputs are fetched directly from the local disk (see
+   * @link{#TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH}), read the producer's output segment through a
+   * read-only memory mapping instead of a buffered file stream. Segments longer than 2 GB are
+   * still read through a stream.
+   */
+  @ConfigurationProperty(type = "boolean")
+  public static final String TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH_MMAP = TEZ_RUNTIME_PREFIX +
+      "optimize.local.fetch.mmap";
+  public static final boolean TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH_MMAP_DEFAULT = false;
+
   /**
    * Expert level setting. Enable pipelined shuffle in ordered outputs and in unordered
    * partitioned outputs. In ordered cases, it works with PipelinedSorter.
@@ -532,6 +888,12 @@ public class TezRuntimeConfiguration {
   static {
     tezRuntimeKeys.add(TEZ_RUNTIME_IFILE_READAHEAD);
     tezRuntimeKeys.add(TEZ_RUNTIME_IFILE_READAHEAD_BYTES);
+    tezRuntimeKeys.add(TEZ_RUNTIME_IFILE_BLOCK_FORMAT_ENABLED);
+    tezRuntimeKeys.add(TEZ_RUNTIME_IFILE_BLOCK_SIZE);
+    tezRuntimeKeys.add(TEZ_RUNTIME_IFILE_PREFETCH_CHUNKS);
+    tezRuntimeKeys.add(TEZ_RUNTIME_IFILE_PREFETCH_CHUNK_SIZE);
+    tezRuntimeKeys.add(TEZ_RUNTIME_IFILE_PREFETCH_THREADS);
+    tezRuntimeKeys.add(TEZ_RUNTIME_IFILE_PREFETCH_MEMORY_MB);
     tezRuntimeKeys.add(TEZ_RUNTIME_IO_FILE_BUFFER_SIZE);
     tezRuntimeKeys.add(TEZ_RUNTIME_IO_SORT_FACTOR);
     tezRuntimeKeys.add(TEZ_RUNTIME_SORT_SPILL_PERCENT);
@@ -542,14 +904,35 @@ public class TezRuntimeConfiguration {
     tezRuntimeKeys.add(
         TEZ_RUNTIME_PIPELINED_SORTER_MIN_BLOCK_SIZE_IN_MB);
     tezRuntimeKeys.add(TEZ_RUNTIME_PIPELINED_SORTER_LAZY_ALLOCATE_MEMORY);
+    tezRuntimeKeys.add(TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_TYPE);
     tezRuntimeKeys.add(TEZ_RUNTIME_UNORDERED_OUTPUT_BUFFER_SIZE_MB);
     tezRuntimeKeys.add(TEZ_RUNTIME_UNORDERED_OUTPUT_MAX_PER_BUFFER_SIZE_BYTES);
+    tezRuntimeKeys.add(TEZ_RUNTIME_UNORDERED_OUTPUT_SPARSE_PARTITIONS_THRESHOLD);
+    tezRuntimeKeys.add(TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_CLASS);
+    tezRuntimeKeys.add(TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_MEMORY_FRACTION);
     tezRuntimeKeys.add(TEZ_RUNTIME_PARTITIONER_CLASS);
     tezRuntimeKeys.add(TEZ_RUNTIME_COMBINER_CLASS);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_USE_ASYNC_HTTP);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_PARALLEL_COPIES);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_ENABLED);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_PER_HOST);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_PRIORITY);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_FAILURES_LIMIT);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_MAX_TASK_OUTPUT_AT_ONCE);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_ENABLED);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_BYTES);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_LATENCY_MS);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_ENABLED);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_SLOW_HOST_FRACTION);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MIN_STALL_MS);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MAX);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_STATS_ENABLED);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_STATS_SLOW_HOSTS);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_ENABLED);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_MIN_SIZE);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_BUFFER_SIZE);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_NOTIFY_READERROR);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_CONNECT_TIMEOUT);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_KEEP_ALIVE_ENABLED);
@@ -563,6 +946,12 @@ public class TezRuntimeConfiguration {
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_MERGE_PERCENT);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_MEMTOMEM_SEGMENTS);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_ENABLE_MEMTOMEM);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIERED);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIER_RATIO);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_MEMTOMEM_MAX_MERGES);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_FINAL_MERGE_PARALLELISM);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_ENABLED);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_MEMORY_PERCENT);
     tezRuntimeKeys.add
         (TEZ_RUNTIME_SHUFFLE_ACCEPTABLE_HOST_FETCH_FAILURE_FRACTION);
     tezRuntimeKeys.add(TEZ_RUNTIME_SHUFFLE_MIN_FAILURES_PER_HOST);
@@ -586,9 +975,11 @@ public class TezRuntimeConfiguration {
     tezRuntimeKeys.add(TEZ_RUNTIME_ENABLE_FINAL_MERGE_IN_OUTPUT);
     tezRuntimeKeys.add(TEZ_RUNTIME_RECORDS_BEFORE_PROGRESS);
     tezRuntimeKeys.add(TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH);
+    tezRuntimeKeys.add(TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH_MMAP);
     tezRuntimeKeys.add(TEZ_RUNTIME_OPTIMIZE_SHARED_FETCH);
     tezRuntimeKeys.add(TEZ_RUNTIME_CONVERT_USER_PAYLOAD_TO_HISTORY_TEXT);
     tezRuntimeKeys.add(TEZ_RUNTIME_SORTER_CLASS);
+    tezRuntimeKeys.add(TEZ_RUNTIME_SORTER_KEY_PREFIX_ENABLED);
     tezRuntimeKeys.add(TEZ_RUNTIME_CLEANUP_FILES_ON_INTERRUPT);
 
     defaultConf.addResource("core-default.xml");
@@ -641,6 +1032,34 @@ public class TezRuntimeConfiguration {
     return Collections.unmodifiableMap(otherConfMap);
   }
 
+  public enum SortBufferType {
+    /**
+     * On-heap byte arrays.
+     */
+    HEAP,
+
+    /**
+     * Direct (off-heap) ByteBuffers.
+     */
+    DIRECT,
+
+    /**
+     * Memory mapped regions of files created in the local dirs.
+     */
+    MAPPED;
+
+    public static SortBufferType fromString(String type) {
+      if (type != null) {
+        for (SortBufferType b : SortBufferType.values()) {
+          if (type.equalsIgnoreCase(b.name())) {
+            return b;
+          }
+        }
+      }
+      throw new IllegalArgumentException("Invalid type " + type);
+    }
+  }
+
   public enum ReportPartitionStats {
     @Deprecated
     /**
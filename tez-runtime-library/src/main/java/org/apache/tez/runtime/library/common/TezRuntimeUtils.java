@@ -26,12 +26,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.classification.InterfaceAudience.Private;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.runtime.api.OutputContext;
 import org.apache.tez.runtime.api.TaskContext;
 import org.apache.tez.runtime.library.api.Partitioner;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.combine.Combiner;
+import org.apache.tez.runtime.library.common.combine.HashCombiner;
 import org.apache.tez.runtime.library.common.task.local.output.TezTaskOutput;
 import org.apache.tez.runtime.library.common.task.local.output.TezTaskOutputFiles;
 
@@ -95,6 +97,41 @@ public class TezRuntimeUtils {
       return combiner;
   }
   
+  @SuppressWarnings("unchecked")
+  public static HashCombiner instantiateHashCombiner(Configuration conf, TaskContext taskContext)
+      throws IOException {
+    String className =
+        conf.get(TezRuntimeConfiguration.TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_CLASS);
+    if (className == null) {
+      return null;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Using HashCombiner class: " + className);
+    }
+    Class<? extends HashCombiner> clazz;
+    try {
+      clazz = (Class<? extends HashCombiner>) conf.getClassByName(className);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Unable to load hash combiner class: " + className);
+    }
+
+    Constructor<? extends HashCombiner> ctor;
+    try {
+      ctor = clazz.getConstructor(TaskContext.class);
+    } catch (NoSuchMethodException e) {
+      return ReflectionUtils.newInstance(clazz, conf);
+    }
+    try {
+      return ctor.newInstance(taskContext);
+    } catch (InstantiationException e) {
+      throw new IOException(e);
+    } catch (IllegalAccessException e) {
+      throw new IOException(e);
+    } catch (InvocationTargetException e) {
+      throw new IOException(e);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   public static Partitioner instantiatePartitioner(Configuration conf)
       throws IOException {
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.combine;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.classification.InterfaceStability.Unstable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
+
+/**
+ * Map side partial aggregation for unordered outputs. Unlike a {@link Combiner}, it does not need
+ * sorted input: the output keeps the records in a hash table keyed by their serialized keys, and
+ * merges the value of every record with the value already held for its key. Keys which are equal
+ * must therefore serialize to the same bytes, as is the case for the usual Writables.
+ *
+ * The HashCombiner class is picked up using the TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_CLASS
+ * attribute in {@link TezRuntimeConfiguration}. Implementations need to provide a single argument
+ * ({@link org.apache.tez.runtime.api.TaskContext}) constructor or a default constructor.
+ */
+@Private
+@Unstable
+public interface HashCombiner {
+
+  /**
+   * Merge two serialized values of the same key.
+   *
+   * @param key      the serialized key
+   * @param value    the value held for the key so far
+   * @param newValue the value of the record being added
+   * @param out      buffer to write the serialized, merged value to. It is empty on entry.
+   */
+  public void combine(DataInputBuffer key, DataInputBuffer value, DataInputBuffer newValue,
+      DataOutputBuffer out) throws IOException;
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.combine;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.classification.InterfaceStability.Unstable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * {@link HashCombiner} which sums {@link org.apache.hadoop.io.LongWritable} values, e.g. for
+ * counting.
+ */
+@Private
+@Unstable
+public class LongSumHashCombiner implements HashCombiner {
+
+  @Override
+  public void combine(DataInputBuffer key, DataInputBuffer value, DataInputBuffer newValue,
+      DataOutputBuffer out) throws IOException {
+    out.writeLong(WritableComparator.readLong(value.getData(), value.getPosition())
+        + WritableComparator.readLong(newValue.getData(), newValue.getPosition()));
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.comparator;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.classification.InterfaceStability.Unstable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.primitives.UnsignedLongs;
+
+/**
+ * Extracts a fixed width (8 byte) normalized prefix from serialized keys, for comparators
+ * which order keys by the unsigned lexicographic order of (a suffix of) their serialized bytes.
+ *
+ * The prefix is the first {@link #PREFIX_LENGTH} compared bytes, big endian, zero padded. For
+ * such comparators, prefix(k1) < prefix(k2) (unsigned) implies k1 < k2, so sorters can order
+ * records by prefix and only fall back to the full {@link RawComparator} when prefixes are equal.
+ */
+@Private
+@Unstable
+public abstract class NormalizedKeyPrefix {
+
+  public static final int PREFIX_LENGTH = 8;
+
+  /**
+   * Returns the extractor for the given comparator, or null if the comparator is not known to
+   * order keys by their raw bytes.
+   */
+  public static NormalizedKeyPrefix forComparator(RawComparator comparator) {
+    if (comparator == null) {
+      return null;
+    }
+    Class<?> clazz = comparator.getClass();
+    if (clazz == TezBytesComparator.class) {
+      return RAW;
+    } else if (clazz == Text.Comparator.class) {
+      return VINT_LENGTH_HEADER;
+    } else if (clazz == BytesWritable.Comparator.class) {
+      return INT_LENGTH_HEADER;
+    }
+    return null;
+  }
+
+  /**
+   * Compare two prefixes.
+   *
+   * @return negative, zero or positive, with the same sign as the full comparator would return
+   *         when the prefixes differ. Zero means the full comparator has to be consulted.
+   */
+  public static int compare(long prefix1, long prefix2) {
+    return UnsignedLongs.compare(prefix1, prefix2);
+  }
+
+  /**
+   * @return number of bytes the comparator skips at the start of a serialized key
+   */
+  protected abstract int headerLength(byte firstByte);
+
+  public long getPrefix(byte[] b, int s, int l) {
+    if (l <= 0) {
+      return 0;
+    }
+    final int skip = headerLength(b[s]);
+    final int n = Math.min(PREFIX_LENGTH, l - skip);
+    long prefix = 0;
+    for (int i = 0; i < n; i++) {
+      prefix |= (b[s + skip + i] & 0xffL) << (56 - (i << 3));
+    }
+    return prefix;
+  }
+
+  public long getPrefix(ByteBuffer b, int s, int l) {
+    if (l <= 0) {
+      return 0;
+    }
+    final int skip = headerLength(b.get(s));
+    final int n = Math.min(PREFIX_LENGTH, l - skip);
+    long prefix = 0;
+    for (int i = 0; i < n; i++) {
+      prefix |= (b.get(s + skip + i) & 0xffL) << (56 - (i << 3));
+    }
+    return prefix;
+  }
+
+  // TezBytesComparator compares the serialized bytes as is
+  private static final NormalizedKeyPrefix RAW = new NormalizedKeyPrefix() {
+    @Override
+    protected int headerLength(byte firstByte) {
+      return 0;
+    }
+  };
+
+  // Text.Comparator skips the vint encoded length
+  private static final NormalizedKeyPrefix VINT_LENGTH_HEADER = new NormalizedKeyPrefix() {
+    @Override
+    protected int headerLength(byte firstByte) {
+      return WritableUtils.decodeVIntSize(firstByte);
+    }
+  };
+
+  // BytesWritable.Comparator skips the 4 byte length
+  private static final NormalizedKeyPrefix INT_LENGTH_HEADER = new NormalizedKeyPrefix() {
+    @Override
+    protected int headerLength(byte firstByte) {
+      return 4;
+    }
+  };
+}
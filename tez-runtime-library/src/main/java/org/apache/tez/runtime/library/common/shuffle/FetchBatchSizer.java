@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Number of outputs a fetcher requests per connection to a host, adapted from the previous
+ * requests to that host. A batch is doubled after a full request that stayed within the target
+ * latency, and halved after a request that took longer or failed. It is also capped so that the
+ * expected payload, from the average output size seen on the host, stays within the target
+ * bytes. Small outputs thus get fetched many at a time, while large or slow ones keep requests
+ * short enough to be retried cheaply.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class FetchBatchSizer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FetchBatchSizer.class);
+
+  /**
+   * Every attempt id takes about 48 bytes of the URL; longer URLs can fail with HTTP 400.
+   */
+  public static final int MAX_BATCH_SIZE = 75;
+
+  private final int initialBatchSize;
+  private final long targetBytes;
+  private final long targetLatencyMs;
+  private final ConcurrentMap<String, HostBatch> hosts = new ConcurrentHashMap<String, HostBatch>();
+
+  private static class HostBatch {
+    int batchSize;
+
+    HostBatch(int batchSize) {
+      this.batchSize = batchSize;
+    }
+  }
+
+  public FetchBatchSizer(int initialBatchSize, long targetBytes, long targetLatencyMs) {
+    Preconditions.checkArgument(targetBytes > 0, "Target bytes should be positive: " + targetBytes);
+    Preconditions.checkArgument(targetLatencyMs > 0,
+        "Target latency should be positive: " + targetLatencyMs);
+    this.initialBatchSize = clamp(initialBatchSize);
+    this.targetBytes = targetBytes;
+    this.targetLatencyMs = targetLatencyMs;
+    LOG.info("FetchBatchSizer created with initialBatchSize=" + this.initialBatchSize
+        + ", targetBytes=" + targetBytes + ", targetLatencyMs=" + targetLatencyMs);
+  }
+
+  public int getBatchSize(String host) {
+    HostBatch batch = hosts.get(host);
+    if (batch == null) {
+      return initialBatchSize;
+    }
+    synchronized (batch) {
+      return batch.batchSize;
+    }
+  }
+
+  /**
+   * Account a request that fetched all of its outputs.
+   *
+   * @param outputs number of outputs requested
+   * @param bytes   bytes fetched
+   * @param millis  time from connecting to reading the last output
+   */
+  public void fetchCompleted(String host, int outputs, long bytes, long millis) {
+    if (outputs <= 0) {
+      return;
+    }
+    HostBatch batch = getHostBatch(host);
+    synchronized (batch) {
+      int batchSize = batch.batchSize;
+      if (millis > targetLatencyMs) {
+        batchSize = batchSize / 2;
+      } else if (outputs >= batchSize) {
+        // only a full batch tells that the host could have served more
+        batchSize = batchSize * 2;
+      }
+      long bytesPerOutput = Math.max(1, bytes / outputs);
+      batchSize = (int) Math.min(batchSize, Math.max(1, targetBytes / bytesPerOutput));
+      update(host, batch, batchSize);
+    }
+  }
+
+  /**
+   * Account a request that failed, or returned only part of its outputs.
+   */
+  public void fetchFailed(String host) {
+    HostBatch batch = getHostBatch(host);
+    synchronized (batch) {
+      update(host, batch, batch.batchSize / 2);
+    }
+  }
+
+  private HostBatch getHostBatch(String host) {
+    HostBatch batch = hosts.get(host);
+    if (batch == null) {
+      batch = new HostBatch(initialBatchSize);
+      HostBatch existing = hosts.putIfAbsent(host, batch);
+      if (existing != null) {
+        batch = existing;
+      }
+    }
+    return batch;
+  }
+
+  // called with the batch lock held
+  private void update(String host, HostBatch batch, int batchSize) {
+    batchSize = clamp(batchSize);
+    if (batchSize != batch.batchSize) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Fetch batch size for " + host + " changed from " + batch.batchSize + " to "
+            + batchSize);
+      }
+      batch.batchSize = batchSize;
+    }
+  }
+
+  private static int clamp(int batchSize) {
+    return Math.max(1, Math.min(MAX_BATCH_SIZE, batchSize));
+  }
+}
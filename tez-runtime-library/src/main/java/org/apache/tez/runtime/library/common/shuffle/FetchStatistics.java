@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounters;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Connection and transfer statistics of the fetches done by one input, per host and in total.
+ * Fetcher threads record into lock-free histograms and counters; the totals are turned into
+ * {@link TaskCounter}s periodically, so they are visible in the AM while the shuffle runs.
+ *
+ * When the shuffle is done, the fetch time histogram is published in the
+ * {@link #FETCH_TIME_GROUP} counter group (one counter per power of two milliseconds, the slowest
+ * fetches sharing the last one). The bytes and milliseconds fetched from the slowest hosts of the
+ * input are published in the {@link #HOST_BYTES_GROUP} and {@link #HOST_MILLIS_GROUP} groups, one
+ * counter per host, and those of all the other hosts in a single {@link #OTHER_HOSTS} counter. An
+ * input publishes at most {@link #MAX_SLOW_HOSTS} host names, so a vertex only has counters for
+ * hosts that were among the slowest of one of its tasks. Counters add up across tasks, so the
+ * vertex and DAG counters give the histogram and, for each of those hosts, the bytes and time of
+ * the fetches from it by the consumers that found it slow.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class FetchStatistics {
+
+  public static final String FETCH_TIME_GROUP = "ShuffleFetchTime";
+  public static final String HOST_BYTES_GROUP = "ShuffleSlowHostBytes";
+  public static final String HOST_MILLIS_GROUP = "ShuffleSlowHostMillis";
+  /** Counter name for the hosts which are not among the slowest ones. */
+  public static final String OTHER_HOSTS = "OTHER";
+
+  /** Upper bound of the number of slowest hosts published by name. */
+  static final int MAX_SLOW_HOSTS = 10;
+  /** Number of fetch time histogram counters published; the last one counts all slower fetches. */
+  static final int PUBLISHED_BUCKETS = 21;
+
+  private final int numSlowHosts;
+
+  private final Histogram connectTime = new Histogram();
+  private final Histogram firstByteTime = new Histogram();
+  private final Histogram fetchTime = new Histogram();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong penalties = new AtomicLong();
+  private final ConcurrentMap<String, HostStatistics> hosts =
+      new ConcurrentHashMap<String, HostStatistics>();
+
+  // values last added to the counters, guarded by this
+  private long publishedConnectTime = 0;
+  private long publishedFirstByteTime = 0;
+  private long publishedFetchTime = 0;
+  private long publishedRetries = 0;
+  private long publishedPenalties = 0;
+  private boolean finalCountersPublished = false;
+
+  /**
+   * @param numSlowHosts number of hosts published by name, at most {@link #MAX_SLOW_HOSTS}
+   */
+  public FetchStatistics(int numSlowHosts) {
+    this.numSlowHosts = Math.min(Math.max(0, numSlowHosts), MAX_SLOW_HOSTS);
+  }
+
+  /**
+   * A connection to the host was established and the response headers were received.
+   */
+  public void connected(String host, long connectMillis, long firstByteMillis) {
+    connectTime.record(connectMillis);
+    firstByteTime.record(firstByteMillis);
+    getHostStatistics(host).connections.incrementAndGet();
+  }
+
+  /**
+   * An output was read (and decompressed) from the host.
+   */
+  public void outputFetched(String host, long bytes, long millis) {
+    fetchTime.record(millis);
+    HostStatistics stats = getHostStatistics(host);
+    stats.outputs.incrementAndGet();
+    stats.bytes.addAndGet(bytes);
+    stats.millis.addAndGet(millis);
+  }
+
+  public void fetchFailed(String host) {
+    getHostStatistics(host).failures.incrementAndGet();
+  }
+
+  /**
+   * A fetch from the host timed out and is retried over a new connection.
+   */
+  public void fetchRetried(String host) {
+    retries.incrementAndGet();
+    getHostStatistics(host).failures.incrementAndGet();
+  }
+
+  public void hostPenalized(String host) {
+    penalties.incrementAndGet();
+    getHostStatistics(host).penalties.incrementAndGet();
+  }
+
+  private HostStatistics getHostStatistics(String host) {
+    HostStatistics stats = hosts.get(host);
+    if (stats == null) {
+      stats = new HostStatistics(host);
+      HostStatistics existing = hosts.putIfAbsent(host, stats);
+      if (existing != null) {
+        stats = existing;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Add what was recorded since the last call to the totals in the counters.
+   */
+  public synchronized void updateCounters(TezCounters counters) {
+    publishedConnectTime = increment(counters, TaskCounter.SHUFFLE_CONNECT_TIME,
+        publishedConnectTime, connectTime.getSum());
+    publishedFirstByteTime = increment(counters, TaskCounter.SHUFFLE_FIRST_BYTE_TIME,
+        publishedFirstByteTime, firstByteTime.getSum());
+    publishedFetchTime = increment(counters, TaskCounter.SHUFFLE_FETCH_TIME,
+        publishedFetchTime, fetchTime.getSum());
+    publishedRetries = increment(counters, TaskCounter.SHUFFLE_FETCH_RETRIES,
+        publishedRetries, retries.get());
+    publishedPenalties = increment(counters, TaskCounter.SHUFFLE_HOST_PENALTIES,
+        publishedPenalties, penalties.get());
+  }
+
+  private static long increment(TezCounters counters, TaskCounter counter, long published,
+      long current) {
+    if (current != published) {
+      counters.findCounter(counter).increment(current - published);
+    }
+    return current;
+  }
+
+  /**
+   * Update the totals, and publish the fetch time histogram and the slowest hosts. Only the first
+   * call publishes the latter.
+   */
+  public synchronized void publishFinalCounters(TezCounters counters) {
+    updateCounters(counters);
+    if (finalCountersPublished) {
+      return;
+    }
+    finalCountersPublished = true;
+    long slowest = 0;
+    for (int i = 0; i < Histogram.BUCKETS; i++) {
+      long count = fetchTime.getBucketCount(i);
+      if (i >= PUBLISHED_BUCKETS - 1) {
+        slowest += count;
+      } else if (count > 0) {
+        counters.findCounter(FETCH_TIME_GROUP, Histogram.getBucketName(i)).increment(count);
+      }
+    }
+    if (slowest > 0) {
+      counters.findCounter(FETCH_TIME_GROUP, getSlowestBucketName()).increment(slowest);
+    }
+    List<HostStatistics> slowHosts = getSlowestHosts(numSlowHosts);
+    long otherBytes = 0;
+    long otherMillis = 0;
+    for (HostStatistics stats : hosts.values()) {
+      if (slowHosts.contains(stats)) {
+        counters.findCounter(HOST_BYTES_GROUP, stats.host).increment(stats.bytes.get());
+        counters.findCounter(HOST_MILLIS_GROUP, stats.host).increment(stats.millis.get());
+      } else {
+        otherBytes += stats.bytes.get();
+        otherMillis += stats.millis.get();
+      }
+    }
+    if (otherBytes > 0 || otherMillis > 0) {
+      counters.findCounter(HOST_BYTES_GROUP, OTHER_HOSTS).increment(otherBytes);
+      counters.findCounter(HOST_MILLIS_GROUP, OTHER_HOSTS).increment(otherMillis);
+    }
+  }
+
+  /**
+   * Name of the counter of all the fetches that fall in or above the last published bucket.
+   */
+  @VisibleForTesting
+  static String getSlowestBucketName() {
+    return "AT_LEAST_" + (1L << (PUBLISHED_BUCKETS - 2)) + "_MS";
+  }
+
+  /**
+   * Hosts with at least one fetched output, by ascending throughput.
+   */
+  @VisibleForTesting
+  List<HostStatistics> getSlowestHosts(int max) {
+    List<HostStatistics> fetched = new ArrayList<HostStatistics>();
+    for (HostStatistics stats : hosts.values()) {
+      if (stats.outputs.get() > 0) {
+        fetched.add(stats);
+      }
+    }
+    Collections.sort(fetched, new Comparator<HostStatistics>() {
+      @Override
+      public int compare(HostStatistics o1, HostStatistics o2) {
+        long t1 = o1.getThroughput();
+        long t2 = o2.getThroughput();
+        return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+      }
+    });
+    return fetched.subList(0, Math.min(Math.max(0, max), fetched.size()));
+  }
+
+  @VisibleForTesting
+  Histogram getFetchTime() {
+    return fetchTime;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("connect=[").append(connectTime).append("], firstByte=[").append(firstByteTime)
+        .append("], fetch=[").append(fetchTime).append("], retries=").append(retries.get())
+        .append(", penalties=").append(penalties.get()).append(", hosts=").append(hosts.size())
+        .append(", slowestHosts=").append(getSlowestHosts(numSlowHosts));
+    return sb.toString();
+  }
+
+  @VisibleForTesting
+  static class HostStatistics {
+    final String host;
+    final AtomicLong connections = new AtomicLong();
+    final AtomicLong outputs = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong millis = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong penalties = new AtomicLong();
+
+    HostStatistics(String host) {
+      this.host = host;
+    }
+
+    /**
+     * Bytes per second.
+     */
+    long getThroughput() {
+      return bytes.get() * 1000 / Math.max(1, millis.get());
+    }
+
+    @Override
+    public String toString() {
+      return host + "(outputs=" + outputs.get() + ", bytes=" + bytes.get() + ", millis="
+          + millis.get() + ", connections=" + connections.get() + ", failures=" + failures.get()
+          + ", penalties=" + penalties.get() + ")";
+    }
+  }
+
+  /**
+   * Histogram of non-negative values in buckets of powers of two: bucket i counts the values
+   * below 2^i that do not fall in a lower bucket. Recording is a couple of atomic increments.
+   */
+  @VisibleForTesting
+  static class Histogram {
+    static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int getBucket(long value) {
+      return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, value)));
+    }
+
+    static String getBucketName(int bucket) {
+      return "LESS_THAN_" + (1L << bucket) + "_MS";
+    }
+
+    void record(long value) {
+      buckets.incrementAndGet(getBucket(value));
+      count.incrementAndGet();
+      sum.addAndGet(value);
+      long current = max.get();
+      while (value > current && !max.compareAndSet(current, value)) {
+        current = max.get();
+      }
+    }
+
+    long getBucketCount(int bucket) {
+      return buckets.get(bucket);
+    }
+
+    long getCount() {
+      return count.get();
+    }
+
+    long getSum() {
+      return sum.get();
+    }
+
+    long getMax() {
+      return max.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, or 0 if nothing was recorded.
+     */
+    long getPercentile(double percentile) {
+      long total = count.get();
+      if (total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(total * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank) {
+          return (1L << i);
+        }
+      }
+      return max.get();
+    }
+
+    @Override
+    public String toString() {
+      long total = count.get();
+      return "count=" + total + ", mean=" + ((total == 0) ? 0 : sum.get() / total)
+          + ", p50<" + getPercentile(50) + ", p99<" + getPercentile(99) + ", max=" + max.get();
+    }
+  }
+}
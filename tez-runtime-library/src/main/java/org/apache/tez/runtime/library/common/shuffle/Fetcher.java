@@ -141,6 +141,15 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
 
   private final boolean verifyDiskChecksum;
 
+  // null unless adaptive fetch batching is enabled
+  private FetchBatchSizer fetchBatchSizer;
+  // bytes fetched over http by the current request
+  private long httpBytesFetched = 0;
+  // null unless fetch statistics are enabled
+  private FetchStatistics fetchStatistics;
+  // outputs of at least this size are read while they are fetched; negative if disabled
+  private long streamingMinSize = -1;
+
   private final boolean isDebugEnabled = LOG.isDebugEnabled();
 
   private Fetcher(FetcherCallback fetcherCallback, HttpConnectionParams params,
@@ -218,7 +227,9 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
 
     HostFetchResult hostFetchResult;
 
-    if (localDiskFetchEnabled && host.equals(localHostname) && port == shufflePort) {
+    final boolean isLocalFetch =
+        localDiskFetchEnabled && host.equals(localHostname) && port == shufflePort;
+    if (isLocalFetch) {
       hostFetchResult = setupLocalDiskFetch();
     } else if (multiplex) {
       hostFetchResult = doSharedFetch();
@@ -231,6 +242,9 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
         LOG.warn("copyInputs failed for tasks " + Arrays.toString(hostFetchResult.failedInputs));
         for (InputAttemptIdentifier left : hostFetchResult.failedInputs) {
           fetcherCallback.fetchFailed(host, left, hostFetchResult.connectFailed);
+          if (fetchStatistics != null && !isLocalFetch) {
+            fetchStatistics.fetchFailed(host + ":" + port);
+          }
         }
       } else {
         if (isDebugEnabled) {
@@ -429,6 +443,7 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
   }
 
   private HostFetchResult setupConnection(Collection<InputAttemptIdentifier> attempts) {
+    long connectStartTime = 0;
     try {
       StringBuilder baseURI = ShuffleUtils.constructBaseURIForShuffleHandler(host,
           port, partition, appId.toString(), dagIdentifier, httpConnectionParams.isSslShuffle());
@@ -437,6 +452,7 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
 
       httpConnection = ShuffleUtils.getHttpConnection(asyncHttp, url, httpConnectionParams,
           logIdentifier, jobTokenSecretMgr);
+      connectStartTime = System.currentTimeMillis();
       httpConnection.connect();
     } catch (IOException | InterruptedException e) {
       if (e instanceof InterruptedException) {
@@ -467,10 +483,15 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
       return new HostFetchResult(new FetchResult(host, port, partition, srcAttemptsRemaining.values()), null, false);
     }
 
+    final long connectEndTime = System.currentTimeMillis();
     try {
       input = httpConnection.getInputStream();
       httpConnection.validate();
       //validateConnectionResponse(msgToEncode, encHash);
+      if (fetchStatistics != null) {
+        fetchStatistics.connected(host + ":" + port, connectEndTime - connectStartTime,
+            System.currentTimeMillis() - connectEndTime);
+      }
     } catch (IOException e) {
       // ioErrs.increment(1);
       // If we got a read error at this stage, it implies there was a problem
@@ -498,10 +519,14 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
 
   @VisibleForTesting
   protected HostFetchResult doHttpFetch(CachingCallBack callback) {
+    final int numInputs = srcAttemptsRemaining.size();
+    final long startTime = System.currentTimeMillis();
+    httpBytesFetched = 0;
 
     HostFetchResult connectionsWithRetryResult =
         setupConnection(srcAttemptsRemaining.values());
     if (connectionsWithRetryResult != null) {
+      fetchBatchFailed(connectionsWithRetryResult.failedInputs);
       return connectionsWithRetryResult;
     }
     // By this point, the connection is setup and the response has been
@@ -551,7 +576,9 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
         // Connect again.
         connectionsWithRetryResult = setupConnection(srcAttemptsRemaining.values());
         if (connectionsWithRetryResult != null) {
-          break;
+          // report the inputs that could not be fetched, instead of failing the sanity check
+          fetchBatchFailed(connectionsWithRetryResult.failedInputs);
+          return connectionsWithRetryResult;
         }
       }
     }
@@ -563,10 +590,27 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
       }
       failedInputs = null;
     }
+    if (fetchBatchSizer != null && !isShutDown.get() && failedInputs == null
+        && srcAttemptsRemaining.isEmpty()) {
+      fetchBatchSizer.fetchCompleted(host + ":" + port, numInputs, httpBytesFetched,
+          System.currentTimeMillis() - startTime);
+    }
+    fetchBatchFailed(failedInputs);
     return new HostFetchResult(new FetchResult(host, port, partition, srcAttemptsRemaining.values()), failedInputs,
         false);
   }
 
+  /**
+   * Account a request to the host that failed, for adaptive batching. Failures seen once the
+   * fetcher is shut down are not reported.
+   */
+  private void fetchBatchFailed(InputAttemptIdentifier[] failedInputs) {
+    if (fetchBatchSizer != null && !isShutDown.get() && failedInputs != null
+        && failedInputs.length > 0) {
+      fetchBatchSizer.fetchFailed(host + ":" + port);
+    }
+  }
+
   @VisibleForTesting
   protected HostFetchResult setupLocalDiskFetch() {
     return doLocalDiskFetch(true);
@@ -789,6 +833,18 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
         // force disk if input is being shared
         fetchedInput = inputManager.allocateType(Type.DISK, decompressedLength,
             compressedLength, srcAttemptId);
+      } else if (streamingMinSize >= 0 && decompressedLength >= streamingMinSize
+          && !srcAttemptId.canRetrieveInputInChunks()) {
+        // not streamed if the allocator has no memory left for it
+        fetchedInput = inputManager.allocateType(Type.STREAM, decompressedLength,
+            compressedLength, srcAttemptId);
+        if (fetchedInput.getType() == Type.STREAM
+            && !fetcherCallback.streamStarted(host, srcAttemptId, fetchedInput)) {
+          // Already fetched from another attempt; read it as usual, to be discarded.
+          fetchedInput.abort();
+          fetchedInput = inputManager.allocate(decompressedLength,
+              compressedLength, srcAttemptId);
+        }
       } else {
         fetchedInput = inputManager.allocate(decompressedLength,
             compressedLength, srcAttemptId);
@@ -820,6 +876,12 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
           (host +":" +port), input, compressedLength, decompressedLength, LOG,
           fetchedInput.getInputAttemptIdentifier().toString(),
           ifileReadAhead, ifileReadAheadLength, verifyDiskChecksum);
+      } else if (fetchedInput.getType() == Type.STREAM) {
+        // Copied as is; the checksum is verified by the reader.
+        ShuffleUtils.shuffleToDisk(fetchedInput.getOutputStream(),
+          (host +":" +port), input, compressedLength, decompressedLength, LOG,
+          fetchedInput.getInputAttemptIdentifier().toString(),
+          ifileReadAhead, ifileReadAheadLength, false);
       } else {
         throw new TezUncheckedException("Bad fetchedInput type while fetching shuffle data " +
             fetchedInput);
@@ -839,6 +901,10 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
       retryStartTime = 0;
       fetcherCallback.fetchSucceeded(host, srcAttemptId, fetchedInput,
           compressedLength, decompressedLength, (endTime - startTime));
+      httpBytesFetched += compressedLength;
+      if (fetchStatistics != null) {
+        fetchStatistics.outputFetched(host + ":" + port, compressedLength, endTime - startTime);
+      }
 
       // Note successful shuffle
       srcAttemptsRemaining.remove(srcAttemptId.toString());
@@ -855,6 +921,12 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
         }
         return null;
       }
+      if (fetchedInput != null && fetchedInput.getType() == Type.STREAM) {
+        // The reader may have consumed part of it already, so it cannot be fetched again.
+        LOG.warn("Failed to stream output of " + srcAttemptId + " from " + host, ioe);
+        cleanupFetchedInput(fetchedInput);
+        return new InputAttemptIdentifier[] { srcAttemptId };
+      }
       if (shouldRetry(srcAttemptId, ioe)) {
         //release mem/file handles
         cleanupFetchedInput(fetchedInput);
@@ -914,6 +986,9 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
     if (currentTime - retryStartTime < httpConnectionParams.getReadTimeout()) {
       LOG.warn("Shuffle output from " + srcAttemptId +
           " failed, retry it.");
+      if (fetchStatistics != null) {
+        fetchStatistics.fetchRetried(host + ":" + port);
+      }
       //retry connecting to the host
       return true;
     } else {
@@ -1021,6 +1096,21 @@ public class Fetcher extends CallableWithNdc<FetchResult> {
       return this;
     }
 
+    public FetcherBuilder setFetchBatchSizer(FetchBatchSizer fetchBatchSizer) {
+      fetcher.fetchBatchSizer = fetchBatchSizer;
+      return this;
+    }
+
+    public FetcherBuilder setFetchStatistics(FetchStatistics fetchStatistics) {
+      fetcher.fetchStatistics = fetchStatistics;
+      return this;
+    }
+
+    public FetcherBuilder setStreamingMinSize(long streamingMinSize) {
+      fetcher.streamingMinSize = streamingMinSize;
+      return this;
+    }
+
     public FetcherBuilder assignWork(String host, int port, int partition,
         List<InputAttemptIdentifier> inputs) {
       fetcher.host = host;
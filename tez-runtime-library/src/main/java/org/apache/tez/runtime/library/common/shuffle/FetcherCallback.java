@@ -30,4 +30,13 @@ public interface FetcherCallback {
   
   public void fetchFailed(String host, InputAttemptIdentifier srcAttemptIdentifier, boolean connectFailed);
 
+  /**
+   * Offer an input for reading while it is still being fetched.
+   *
+   * @return false if the input should be fetched completely instead, e.g. because another attempt
+   *         of the same input has already been fetched
+   */
+  public boolean streamStarted(String host, InputAttemptIdentifier srcAttemptIdentifier,
+      FetchedInput fetchedInput);
+
 }
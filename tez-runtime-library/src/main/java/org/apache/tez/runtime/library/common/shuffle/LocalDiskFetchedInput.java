@@ -18,6 +18,7 @@
 
 package org.apache.tez.runtime.library.common.shuffle;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -31,7 +32,9 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
+import org.apache.tez.runtime.library.utils.MappedSegmentInputStream;
 
 public class LocalDiskFetchedInput extends FetchedInput {
   private static final Logger LOG = LoggerFactory.getLogger(LocalDiskFetchedInput.class);
@@ -39,6 +42,7 @@ public class LocalDiskFetchedInput extends FetchedInput {
   private final Path inputFile;
   private final FileSystem localFS;
   private final long startOffset;
+  private final boolean mapped;
 
   public LocalDiskFetchedInput(long startOffset, long actualSize, long compressedSize,
                                InputAttemptIdentifier inputAttemptIdentifier, Path inputFile,
@@ -48,6 +52,8 @@ public class LocalDiskFetchedInput extends FetchedInput {
     this.startOffset = startOffset;
     this.inputFile = inputFile;
     localFS = FileSystem.getLocal(conf);
+    mapped = conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH_MMAP,
+        TezRuntimeConfiguration.TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH_MMAP_DEFAULT);
   }
 
   @Override
@@ -57,6 +63,10 @@ public class LocalDiskFetchedInput extends FetchedInput {
 
   @Override
   public InputStream getInputStream() throws IOException {
+    if (mapped && MappedSegmentInputStream.canMap(compressedSize)) {
+      File file = new File(localFS.makeQualified(inputFile).toUri().getPath());
+      return MappedSegmentInputStream.map(file, startOffset, compressedSize);
+    }
     FSDataInputStream inputStream = localFS.open(inputFile);
     inputStream.seek(startOffset);
     return new BoundedInputStream(inputStream, compressedSize);
@@ -93,6 +103,7 @@ public class LocalDiskFetchedInput extends FetchedInput {
   public String toString() {
     return "LocalDiskFetchedInput [inputFile path =" + inputFile +
         ", offset" + startOffset +
+        ", mapped=" + mapped +
         ", actualSize=" + actualSize +
         ", compressedSize=" + compressedSize +
         ", inputAttemptIdentifier=" + inputAttemptIdentifier +
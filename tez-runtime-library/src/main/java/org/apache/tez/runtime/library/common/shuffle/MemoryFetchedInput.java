@@ -34,8 +34,21 @@ public class MemoryFetchedInput extends FetchedInput {
   public MemoryFetchedInput(long actualSize, long compressedSize,
       InputAttemptIdentifier inputAttemptIdentifier,
       FetchedInputCallback callbackHandler) {
+    this(actualSize, compressedSize, inputAttemptIdentifier, callbackHandler, null);
+  }
+
+  /**
+   * @param buffer array of at least actualSize bytes to fetch into, or null to allocate one
+   */
+  public MemoryFetchedInput(long actualSize, long compressedSize,
+      InputAttemptIdentifier inputAttemptIdentifier,
+      FetchedInputCallback callbackHandler, byte[] buffer) {
     super(Type.MEMORY, actualSize, compressedSize, inputAttemptIdentifier, callbackHandler);
-    this.byteStream = new BoundedByteArrayOutputStream((int) actualSize);
+    if (buffer == null) {
+      this.byteStream = new BoundedByteArrayOutputStream((int) actualSize);
+    } else {
+      this.byteStream = new ShuffleBufferPool.BufferOutputStream(buffer, (int) actualSize);
+    }
   }
 
   @Override
@@ -45,9 +58,12 @@ public class MemoryFetchedInput extends FetchedInput {
 
   @Override
   public InputStream getInputStream() {
-    return new NonSyncByteArrayInputStream(byteStream.getBuffer());
+    return new NonSyncByteArrayInputStream(byteStream.getBuffer(), 0, (int) actualSize);
   }
 
+  /**
+   * The array holding the fetched data, which may be longer than {@link #getActualSize()}.
+   */
   public byte[] getBytes() {
     return byteStream.getBuffer();
   }
@@ -75,8 +91,9 @@ public class MemoryFetchedInput extends FetchedInput {
         "FetchedInput can only be freed after it is committed or aborted");
     if (state == State.COMMITTED) { // ABORTED would have already called cleanup
       state = State.FREED;
-      this.byteStream = null;
+      // the callback may recycle the buffer
       notifyFreedResource();
+      this.byteStream = null;
     }
   }
 
@@ -0,0 +1,364 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the fetchers of all shuffle inputs of the JVM, so that the number of fetcher threads no
+ * longer grows with the number of inputs. Fetches are queued, and started as long as the number
+ * of running fetches stays within the limit for the container and for the host they fetch from.
+ * Threads are created as needed up to the container limit, and time out when idle.
+ *
+ * When a slot frees up, it goes to the input with the highest priority. Among inputs of the same
+ * priority, it goes to the one with the most remaining inputs per running fetch, so that the
+ * inputs of a task (e.g. the sides of a join) finish shuffling at about the same time, instead of
+ * the earliest scheduled input taking all the slots.
+ *
+ * Each input submits its fetchers through its own {@link Client}, which can be shut down without
+ * affecting the other inputs. Like {@link org.apache.hadoop.io.ReadaheadPool}, there is a single
+ * instance per JVM; it is created by the first caller of {@link #getInstance}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class SharedFetcherPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SharedFetcherPool.class);
+
+  private static final long IDLE_TIMEOUT_SECONDS = 60;
+
+  private static SharedFetcherPool instance;
+
+  private final int maxFetchers;
+  private final int maxFetchersPerHost;
+  private final ThreadPoolExecutor executor;
+
+  // All guarded by this.
+  private final LinkedList<Task> pending = new LinkedList<Task>();
+  private final Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+  private int running = 0;
+
+  public static synchronized SharedFetcherPool getInstance(int maxFetchers,
+      int maxFetchersPerHost) {
+    if (instance == null) {
+      instance = new SharedFetcherPool(maxFetchers, maxFetchersPerHost);
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  SharedFetcherPool(int maxFetchers, int maxFetchersPerHost) {
+    Preconditions.checkArgument(maxFetchers > 0, "maxFetchers should be positive: " + maxFetchers);
+    Preconditions.checkArgument(maxFetchersPerHost > 0,
+        "maxFetchersPerHost should be positive: " + maxFetchersPerHost);
+    this.maxFetchers = maxFetchers;
+    this.maxFetchersPerHost = maxFetchersPerHost;
+    this.executor = new ThreadPoolExecutor(maxFetchers, maxFetchers, IDLE_TIMEOUT_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+            .setDaemon(true).setNameFormat("Fetcher_S #%d").build());
+    this.executor.allowCoreThreadTimeOut(true);
+    LOG.info("Created SharedFetcherPool with maxFetchers=" + maxFetchers
+        + ", maxFetchersPerHost=" + maxFetchersPerHost);
+  }
+
+  /**
+   * @param name used in log messages
+   */
+  public Client newClient(String name) {
+    return newClient(name, 0);
+  }
+
+  /**
+   * @param name     used in log messages
+   * @param priority inputs with a higher priority get free slots first
+   */
+  public Client newClient(String name, int priority) {
+    return new Client(name, priority);
+  }
+
+  private synchronized void schedule() {
+    while (running < maxFetchers) {
+      Task next = null;
+      for (Task task : pending) {
+        if ((next == null || task.client.isAhead(next.client)) && canRun(task)) {
+          next = task;
+        }
+      }
+      if (next == null) {
+        return;
+      }
+      pending.remove(next);
+      if (next.host != null) {
+        Integer hostRunning = runningPerHost.get(next.host);
+        runningPerHost.put(next.host, hostRunning == null ? 1 : hostRunning + 1);
+      }
+      running++;
+      next.client.running.add(next);
+      executor.execute(next);
+    }
+  }
+
+  // called with the lock held
+  private boolean canRun(Task task) {
+    if (task.host == null) {
+      return true;
+    }
+    Integer hostRunning = runningPerHost.get(task.host);
+    return hostRunning == null || hostRunning < maxFetchersPerHost;
+  }
+
+  private synchronized void finished(Task task) {
+    running--;
+    if (task.host != null) {
+      int hostRunning = runningPerHost.get(task.host) - 1;
+      if (hostRunning == 0) {
+        runningPerHost.remove(task.host);
+      } else {
+        runningPerHost.put(task.host, hostRunning);
+      }
+    }
+    task.client.running.remove(task);
+    notifyAll();
+    schedule();
+  }
+
+  @VisibleForTesting
+  synchronized int getNumRunning() {
+    return running;
+  }
+
+  @VisibleForTesting
+  synchronized int getNumPending() {
+    return pending.size();
+  }
+
+  private class Task implements Runnable {
+    private final Client client;
+    private final String host;
+    private final ListenableFutureTask<?> future;
+    // guarded by SharedFetcherPool.this
+    private Thread runner;
+
+    Task(Client client, String host, ListenableFutureTask<?> future) {
+      this.client = client;
+      this.host = host;
+      this.future = future;
+    }
+
+    @Override
+    public void run() {
+      synchronized (SharedFetcherPool.this) {
+        runner = Thread.currentThread();
+        if (client.stopped) {
+          // Handed to this thread before the client was shut down.
+          runner.interrupt();
+        }
+      }
+      try {
+        future.run();
+      } finally {
+        synchronized (SharedFetcherPool.this) {
+          runner = null;
+        }
+        finished(this);
+      }
+    }
+  }
+
+  /**
+   * The fetchers of one input. Shutting down a client only affects the fetches submitted through
+   * it: {@link #shutdownNow()} drops its pending fetches and interrupts its running ones, the
+   * same as it would for a dedicated thread pool.
+   */
+  public class Client extends AbstractExecutorService implements ListeningExecutorService {
+
+    private final String name;
+    private final int priority;
+    // guarded by SharedFetcherPool.this
+    private final Set<Task> running = new HashSet<Task>();
+    // guarded by SharedFetcherPool.this
+    private long remainingInputs = 1;
+    private volatile boolean shutdown = false;
+    // guarded by SharedFetcherPool.this
+    private boolean stopped = false;
+
+    private Client(String name, int priority) {
+      this.name = name;
+      this.priority = priority;
+    }
+
+    /**
+     * Update the number of inputs this client still has to fetch, which decides how free slots
+     * are shared with the other clients of the same priority.
+     */
+    public void setRemainingInputs(long remainingInputs) {
+      synchronized (SharedFetcherPool.this) {
+        this.remainingInputs = Math.max(0, remainingInputs);
+      }
+    }
+
+    // called with the pool lock held
+    private boolean isAhead(Client other) {
+      if (this == other) {
+        return false;
+      }
+      if (priority != other.priority) {
+        return priority > other.priority;
+      }
+      // remaining / (running + 1) > other.remaining / (other.running + 1)
+      return remainingInputs * (other.running.size() + 1)
+          > other.remainingInputs * (running.size() + 1);
+    }
+
+    /**
+     * Submit a fetch from the given host, which counts against the per host limit.
+     *
+     * @param host the host, or null if the fetch should not count against any host
+     */
+    public <T> ListenableFuture<T> submitFetch(String host, Callable<T> callable) {
+      ListenableFutureTask<T> future = ListenableFutureTask.create(callable);
+      synchronized (SharedFetcherPool.this) {
+        if (shutdown) {
+          throw new RejectedExecutionException(
+              name + ": fetcher pool client has been shut down");
+        }
+        pending.add(new Task(this, host, future));
+        schedule();
+      }
+      return future;
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submit(Callable<T> callable) {
+      return submitFetch(null, callable);
+    }
+
+    @Override
+    public ListenableFuture<?> submit(Runnable runnable) {
+      return submitFetch(null, Executors.callable(runnable));
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submit(Runnable runnable, T result) {
+      return submitFetch(null, Executors.callable(runnable, result));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      submit(command);
+    }
+
+    @Override
+    public void shutdown() {
+      synchronized (SharedFetcherPool.this) {
+        shutdown = true;
+        SharedFetcherPool.this.notifyAll();
+      }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      List<Runnable> dropped = new ArrayList<Runnable>();
+      synchronized (SharedFetcherPool.this) {
+        shutdown = true;
+        stopped = true;
+        for (Iterator<Task> iter = pending.iterator(); iter.hasNext(); ) {
+          Task task = iter.next();
+          if (task.client == this) {
+            iter.remove();
+            dropped.add(task.future);
+          }
+        }
+        for (Task task : running) {
+          if (task.runner != null) {
+            task.runner.interrupt();
+          }
+        }
+        SharedFetcherPool.this.notifyAll();
+      }
+      if (!dropped.isEmpty()) {
+        LOG.info(name + ": dropped " + dropped.size() + " pending fetches on shutdown");
+      }
+      return dropped;
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      synchronized (SharedFetcherPool.this) {
+        return shutdown && running.isEmpty() && !hasPending();
+      }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      synchronized (SharedFetcherPool.this) {
+        while (!isTerminated()) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(SharedFetcherPool.this, remaining);
+        }
+        return true;
+      }
+    }
+
+    // called with the pool lock held
+    private boolean hasPending() {
+      for (Task task : pending) {
+        if (task.client == this) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
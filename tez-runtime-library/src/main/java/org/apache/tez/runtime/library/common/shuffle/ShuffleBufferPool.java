@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.BoundedByteArrayOutputStream;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Recycles the arrays that fetched outputs are copied into, so that a shuffle of many small and
+ * medium outputs does not allocate (and promote) a new array for each of them.
+ *
+ * Requested sizes are rounded up to size classes, 8 per power of two, so a buffer is at most
+ * 12.5% larger than the output it holds and can be reused for any output of its class. Free
+ * buffers are kept per class. The pool never holds more than the given number of bytes in free
+ * and outstanding buffers together: free buffers, largest first, are dropped to make room for a
+ * new one, and released buffers are dropped when there is no room for them.
+ *
+ * Sizes of at most {@link #MIN_POOLED_SIZE}, or that round up to more than the maximum pooled
+ * size, are allocated exactly and not recycled. Callers reserve memory for the length of the
+ * buffer they get, see {@link #getBufferSize}, not for the size they asked for.
+ *
+ * The inputs of a task share one pool, obtained with {@link #getShared} and handed back with
+ * {@link #releaseShared}, so a buffer released by one input can be reused by another.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class ShuffleBufferPool {
+
+  @VisibleForTesting
+  static final int MIN_POOLED_SIZE = 1024;
+  // 2^3 size classes per power of two
+  private static final int SIZE_CLASS_BITS = 3;
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  // pool shared by the inputs of the running task, and the number of inputs using it. A task
+  // JVM runs one task at a time, so there is one pool per task. Guarded by the class.
+  private static ShuffleBufferPool sharedPool = null;
+  private static int sharedPoolUsers = 0;
+
+  // both grow and shrink with the inputs sharing the pool
+  private long maxBytes;
+  private int maxPooledSize;
+
+  private final TreeMap<Integer, ArrayDeque<byte[]>> freeBuffers =
+      new TreeMap<Integer, ArrayDeque<byte[]>>();
+  // bytes in freeBuffers
+  private long freeBytes = 0;
+  // bytes in pooled buffers handed out and not released yet
+  private long allocatedBytes = 0;
+  private long reused = 0;
+  private long allocated = 0;
+
+  /**
+   * @param maxBytes      upper bound of the free and outstanding pooled buffers together
+   * @param maxPooledSize largest buffer that is recycled
+   */
+  public ShuffleBufferPool(long maxBytes, int maxPooledSize) {
+    Preconditions.checkArgument(maxBytes >= 0, "maxBytes should be >= 0: " + maxBytes);
+    this.maxBytes = maxBytes;
+    this.maxPooledSize = maxPooledSize;
+  }
+
+  /**
+   * The pool shared by the inputs of the task. Its bound is the sum of the bounds of the inputs
+   * using it. Every call must be matched by a call to {@link #releaseShared}.
+   *
+   * @param maxBytes      memory limit of the input
+   * @param maxPooledSize largest buffer the input allocates
+   */
+  public static synchronized ShuffleBufferPool getShared(long maxBytes, int maxPooledSize) {
+    if (sharedPool == null) {
+      sharedPool = new ShuffleBufferPool(maxBytes, maxPooledSize);
+    } else {
+      sharedPool.grow(maxBytes, maxPooledSize);
+    }
+    sharedPoolUsers++;
+    return sharedPool;
+  }
+
+  /**
+   * Hand back a pool obtained from {@link #getShared}, with the same memory limit. Free buffers
+   * beyond the remaining bound are dropped, all of them once no input uses the pool.
+   */
+  public static synchronized void releaseShared(ShuffleBufferPool pool, long maxBytes) {
+    if (pool == null || pool != sharedPool) {
+      return;
+    }
+    if (--sharedPoolUsers == 0) {
+      pool.clear();
+      sharedPool = null;
+    } else {
+      pool.shrink(maxBytes);
+    }
+  }
+
+  private synchronized void grow(long bytes, int pooledSize) {
+    maxBytes += bytes;
+    // never shrinks, so a released buffer is pooled if it was allocated as pooled
+    maxPooledSize = Math.max(maxPooledSize, pooledSize);
+  }
+
+  private synchronized void shrink(long bytes) {
+    maxBytes = Math.max(0, maxBytes - bytes);
+    evict(0);
+  }
+
+  /**
+   * Length of the buffer {@link #allocate} returns for the given size, which is what the caller
+   * has to reserve memory for.
+   */
+  public synchronized int getBufferSize(int size) {
+    int capacity = getCapacity(size);
+    return isPooled(capacity) ? capacity : size;
+  }
+
+  /**
+   * Size of the buffer returned for the given size, if it is recycled.
+   */
+  @VisibleForTesting
+  static int getCapacity(int size) {
+    if (size <= MIN_POOLED_SIZE) {
+      return size;
+    }
+    int shift = 31 - Integer.numberOfLeadingZeros(size - 1) - SIZE_CLASS_BITS;
+    long capacity = ((long) ((size - 1) >> shift) + 1) << shift;
+    return (capacity > MAX_ARRAY_SIZE) ? size : (int) capacity;
+  }
+
+  private boolean isPooled(int capacity) {
+    return capacity > MIN_POOLED_SIZE && capacity <= maxPooledSize;
+  }
+
+  /**
+   * A buffer of at least the given size. Its contents are undefined.
+   */
+  public synchronized byte[] allocate(int size) {
+    Preconditions.checkArgument(size >= 0, "size should be >= 0: " + size);
+    int capacity = getCapacity(size);
+    if (!isPooled(capacity)) {
+      return new byte[size];
+    }
+    byte[] buffer = null;
+    ArrayDeque<byte[]> free = freeBuffers.get(capacity);
+    if (free != null) {
+      buffer = free.poll();
+    }
+    if (buffer != null) {
+      freeBytes -= capacity;
+      reused++;
+    } else {
+      evict(capacity);
+      buffer = new byte[capacity];
+      allocated++;
+    }
+    allocatedBytes += capacity;
+    return buffer;
+  }
+
+  /**
+   * Return a buffer obtained from {@link #allocate}. The caller must not use it afterwards.
+   */
+  public synchronized void release(byte[] buffer) {
+    if (buffer == null) {
+      return;
+    }
+    int capacity = buffer.length;
+    if (!isPooled(capacity) || getCapacity(capacity) != capacity) {
+      // allocated exactly
+      return;
+    }
+    allocatedBytes = Math.max(0, allocatedBytes - capacity);
+    if (freeBytes + allocatedBytes + capacity > maxBytes) {
+      return;
+    }
+    ArrayDeque<byte[]> free = freeBuffers.get(capacity);
+    if (free == null) {
+      free = new ArrayDeque<byte[]>();
+      freeBuffers.put(capacity, free);
+    }
+    free.push(buffer);
+    freeBytes += capacity;
+  }
+
+  // drop free buffers until a new buffer of the given capacity fits
+  private void evict(int capacity) {
+    Iterator<Map.Entry<Integer, ArrayDeque<byte[]>>> it =
+        freeBuffers.descendingMap().entrySet().iterator();
+    while (freeBytes > 0 && freeBytes + allocatedBytes + capacity > maxBytes && it.hasNext()) {
+      Map.Entry<Integer, ArrayDeque<byte[]>> entry = it.next();
+      ArrayDeque<byte[]> free = entry.getValue();
+      while (!free.isEmpty() && freeBytes + allocatedBytes + capacity > maxBytes) {
+        free.poll();
+        freeBytes -= entry.getKey();
+      }
+      if (free.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Drop all free buffers.
+   */
+  public synchronized void clear() {
+    freeBuffers.clear();
+    freeBytes = 0;
+  }
+
+  public synchronized long getFreeBytes() {
+    return freeBytes;
+  }
+
+  public synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Number of allocations served by a recycled buffer.
+   */
+  public synchronized long getReusedCount() {
+    return reused;
+  }
+
+  /**
+   * Number of pooled buffers that had to be allocated.
+   */
+  public synchronized long getAllocatedCount() {
+    return allocated;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ShuffleBufferPool [maxBytes=" + maxBytes + ", freeBytes=" + freeBytes
+        + ", allocatedBytes=" + allocatedBytes + ", reused=" + reused + ", allocated="
+        + allocated + "]";
+  }
+
+  /**
+   * Output stream over a buffer obtained from the pool, limited to the size of the data it
+   * holds rather than the length of the buffer.
+   */
+  public static class BufferOutputStream extends BoundedByteArrayOutputStream {
+    public BufferOutputStream(byte[] buffer, int limit) {
+      super(buffer, 0, limit);
+    }
+  }
+}
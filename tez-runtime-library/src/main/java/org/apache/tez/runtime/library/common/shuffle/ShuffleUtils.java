@@ -19,6 +19,7 @@
 package org.apache.tez.runtime.library.common.shuffle;
 
 import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -30,6 +31,7 @@ import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.annotation.Nullable;
 import javax.crypto.SecretKey;
@@ -51,6 +53,7 @@ import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.io.DataInputByteBuffer;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.security.token.Token;
 import org.apache.tez.common.TezCommonUtils;
@@ -260,6 +263,9 @@ public class ShuffleUtils {
     if (dmProto.hasEmptyPartitions()) {
       sb.append("hasEmptyPartitions: ").append(dmProto.hasEmptyPartitions()).append(", ");
     }
+    if (dmProto.hasNonEmptyPartitions()) {
+      sb.append("hasNonEmptyPartitions: ").append(dmProto.hasNonEmptyPartitions()).append(", ");
+    }
     sb.append("host: " + dmProto.getHost()).append(", ");
     sb.append("port: " + dmProto.getPort()).append(", ");
     sb.append("pathComponent: " + dmProto.getPathComponent()).append(", ");
@@ -268,6 +274,40 @@ public class ShuffleUtils {
     return sb.toString();
   }
 
+  /**
+   * Empty partitions of a DataMovementEvent payload, from either its bitmap of empty partitions or
+   * its sparse list of partitions with data.
+   *
+   * @param partitionLimit partitions from this index on are not looked up by the caller, and are
+   *                       not necessarily included in the result
+   * @return the empty partitions, or null if the payload does not describe them (i.e. every
+   *         partition has data)
+   */
+  public static BitSet getEmptyPartitions(DataMovementEventPayloadProto payload,
+      int partitionLimit, Inflater inflater) throws IOException {
+    if (payload.hasEmptyPartitions()) {
+      byte[] emptyPartitions = TezCommonUtils.decompressByteStringToByteArray(
+          payload.getEmptyPartitions(), inflater);
+      return TezUtilsInternal.fromByteArray(emptyPartitions);
+    }
+    if (payload.hasNonEmptyPartitions()) {
+      DataInputStream in = new DataInputStream(payload.getNonEmptyPartitions().newInput());
+      BitSet emptyPartitions = new BitSet(partitionLimit);
+      emptyPartitions.set(0, partitionLimit);
+      final int count = WritableUtils.readVInt(in);
+      int partition = 0;
+      for (int i = 0; i < count; i++) {
+        partition += WritableUtils.readVInt(in);
+        if (partition >= partitionLimit) {
+          break;
+        }
+        emptyPartitions.clear(partition);
+      }
+      return emptyPartitions;
+    }
+    return null;
+  }
+
   /**
    * Generate DataMovementEvent
    *
@@ -562,6 +602,56 @@ public class ShuffleUtils {
     return sb.toString();
   }
 
+  /**
+   * Create the {@link FetchBatchSizer} of an input, or null if adaptive fetch batching is
+   * disabled.
+   *
+   * @param maxTaskOutputAtOnce configured number of outputs per request, used as the initial
+   *                            batch size
+   */
+  public static FetchBatchSizer createFetchBatchSizer(Configuration conf,
+      int maxTaskOutputAtOnce) {
+    if (!conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_ENABLED_DEFAULT)) {
+      return null;
+    }
+    return new FetchBatchSizer(maxTaskOutputAtOnce,
+        conf.getLong(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_BYTES,
+            TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_BYTES_DEFAULT),
+        conf.getInt(
+            TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_LATENCY_MS,
+            TezRuntimeConfiguration
+                .TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_TARGET_LATENCY_MS_DEFAULT));
+  }
+
+  /**
+   * Create the {@link FetchStatistics} of an input, or null if fetch statistics are disabled.
+   */
+  public static FetchStatistics createFetchStatistics(Configuration conf) {
+    if (!conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STATS_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STATS_ENABLED_DEFAULT)) {
+      return null;
+    }
+    return new FetchStatistics(
+        conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STATS_SLOW_HOSTS,
+            TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STATS_SLOW_HOSTS_DEFAULT));
+  }
+
+  /**
+   * Create the {@link SlowHostDetector} of an input, or null if hedged fetching is disabled.
+   */
+  public static SlowHostDetector createSlowHostDetector(Configuration conf) {
+    if (!conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_ENABLED_DEFAULT)) {
+      return null;
+    }
+    return new SlowHostDetector(
+        conf.getFloat(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_SLOW_HOST_FRACTION,
+            TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_SLOW_HOST_FRACTION_DEFAULT),
+        conf.getLong(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MIN_STALL_MS,
+            TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MIN_STALL_MS_DEFAULT));
+  }
+
   /**
    * Build {@link org.apache.tez.http.HttpConnectionParams} from configuration
    *
@@ -579,8 +669,12 @@ public class ShuffleUtils {
     int bufferSize = conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_BUFFER_SIZE,
             TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_BUFFER_SIZE_DEFAULT);
 
+    // adaptive batching relies on connections to a host being reused across fetches
     boolean keepAlive = conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_KEEP_ALIVE_ENABLED,
-            TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_KEEP_ALIVE_ENABLED_DEFAULT);
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_KEEP_ALIVE_ENABLED_DEFAULT
+            || conf.getBoolean(
+            TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_ENABLED,
+            TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_ADAPTIVE_BATCHING_ENABLED_DEFAULT));
 
     int keepAliveMaxConnections = conf.getInt(
             TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_KEEP_ALIVE_MAX_CONNECTIONS,
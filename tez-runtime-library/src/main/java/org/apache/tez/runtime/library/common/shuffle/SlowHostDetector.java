@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Spots hosts that serve shuffle data far slower than the others, so that their outputs can be
+ * fetched again from elsewhere. The throughput of every host is accumulated from the outputs
+ * fetched from it. A fetch in progress is slow once it has gone a minimum time without completing
+ * an output, and the throughput of its host, counting that time, is below a fraction of the
+ * median throughput of all hosts.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class SlowHostDetector {
+
+  /**
+   * Hosts with fetched outputs needed for a meaningful median.
+   */
+  static final int MIN_HOSTS = 3;
+
+  private final float slowHostFraction;
+  private final long minFetchMillis;
+  private final Map<String, HostThroughput> hosts = new HashMap<String, HostThroughput>();
+
+  private static class HostThroughput {
+    long bytes;
+    long millis;
+  }
+
+  /**
+   * @param slowHostFraction fraction of the median throughput below which a host is slow
+   * @param minFetchMillis   time a fetch has to go without completing an output before it can be
+   *                         considered slow
+   */
+  public SlowHostDetector(float slowHostFraction, long minFetchMillis) {
+    Preconditions.checkArgument(slowHostFraction > 0 && slowHostFraction < 1,
+        "Slow host fraction should be between 0 and 1: " + slowHostFraction);
+    Preconditions.checkArgument(minFetchMillis >= 0,
+        "Minimum fetch time should be >= 0: " + minFetchMillis);
+    this.slowHostFraction = slowHostFraction;
+    this.minFetchMillis = minFetchMillis;
+  }
+
+  /**
+   * Account an output fetched from a host.
+   */
+  public synchronized void outputFetched(String host, long bytes, long millis) {
+    HostThroughput throughput = hosts.get(host);
+    if (throughput == null) {
+      throughput = new HostThroughput();
+      hosts.put(host, throughput);
+    }
+    throughput.bytes += bytes;
+    // outputs fetched within a millisecond still took some time
+    throughput.millis += Math.max(1, millis);
+  }
+
+  /**
+   * Median throughput of the hosts in bytes per second, or -1 if too few hosts served outputs.
+   */
+  public synchronized long getMedianThroughput() {
+    if (hosts.size() < MIN_HOSTS) {
+      return -1;
+    }
+    long[] throughputs = new long[hosts.size()];
+    int i = 0;
+    for (HostThroughput throughput : hosts.values()) {
+      throughputs[i++] = throughput.bytes * 1000 / throughput.millis;
+    }
+    Arrays.sort(throughputs);
+    return throughputs[throughputs.length / 2];
+  }
+
+  /**
+   * Whether a fetch from the host is slow, given the time since it last completed an output (or
+   * started, if it has not completed any).
+   *
+   * @param medianThroughput result of {@link #getMedianThroughput()}
+   */
+  public synchronized boolean isSlow(String host, long stalledMillis, long medianThroughput) {
+    if (medianThroughput <= 0 || stalledMillis < minFetchMillis) {
+      return false;
+    }
+    HostThroughput throughput = hosts.get(host);
+    if (throughput == null) {
+      return true;
+    }
+    return throughput.bytes * 1000 / (throughput.millis + stalledMillis)
+        < medianThroughput * slowHostFraction;
+  }
+}
@@ -0,0 +1,338 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A fetched input which is handed to the reader while it is still being fetched. The fetcher writes
+ * the (compressed) IFile bytes into a bounded pipe of chunks, and blocks once the configured number
+ * of chunks is waiting for the reader; the reader blocks until the fetcher has written more data.
+ *
+ * Failures travel both ways through the pipe: aborting the input fails the reader, and closing (or
+ * freeing) the input on the reader side fails the fetcher. The data can only be read once.
+ */
+@Private
+public class StreamingFetchedInput extends FetchedInput {
+
+  private final int chunkSize;
+  private final int maxChunks;
+
+  private final Object lock = new Object();
+  private final ArrayDeque<Chunk> ready = new ArrayDeque<Chunk>();
+  // chunks handed back by the reader, for the writer to fill again
+  private final ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+  private boolean eof = false;
+  private boolean readerClosed = false;
+  private IOException error;
+
+  private boolean outputOpened = false;
+  private boolean inputOpened = false;
+  // freed by the reader before the fetch was committed
+  private boolean freeOnCommit = false;
+
+  public StreamingFetchedInput(long actualSize, long compressedSize,
+      InputAttemptIdentifier inputAttemptIdentifier, FetchedInputCallback callbackHandler,
+      int chunkSize, int maxChunks) {
+    super(Type.STREAM, actualSize, compressedSize, inputAttemptIdentifier, callbackHandler);
+    Preconditions.checkArgument(chunkSize > 0, "Chunk size should be positive: " + chunkSize);
+    Preconditions.checkArgument(maxChunks > 0, "Chunks should be positive: " + maxChunks);
+    this.chunkSize = chunkSize;
+    this.maxChunks = maxChunks;
+  }
+
+  /**
+   * The most memory held by the input: the chunks waiting for the reader, plus the one being
+   * written and the one being read.
+   */
+  public long getMaxBufferedBytes() {
+    return (long) chunkSize * (maxChunks + 2);
+  }
+
+  private static class Chunk {
+    final byte[] data;
+    final int length;
+    int offset = 0;
+
+    Chunk(byte[] data, int length) {
+      this.data = data;
+      this.length = length;
+    }
+  }
+
+  @Override
+  public synchronized OutputStream getOutputStream() throws IOException {
+    Preconditions.checkState(!outputOpened, "Output stream already opened for " + this);
+    outputOpened = true;
+    return new PipeOutputStream();
+  }
+
+  /**
+   * Unlike other inputs, this returns the same data only once; the stream blocks until the fetcher
+   * has written the bytes being read.
+   */
+  @Override
+  public synchronized InputStream getInputStream() throws IOException {
+    if (inputOpened) {
+      throw new IOException("Streamed input can only be read once: " + this);
+    }
+    inputOpened = true;
+    return new PipeInputStream();
+  }
+
+  @Override
+  public synchronized void commit() throws IOException {
+    if (state == State.PENDING) {
+      state = State.COMMITTED;
+      notifyFetchComplete();
+      if (freeOnCommit) {
+        state = State.FREED;
+        notifyFreedResource();
+      }
+    }
+  }
+
+  @Override
+  public synchronized void abort() throws IOException {
+    if (state == State.PENDING) {
+      state = State.ABORTED;
+      fail(new IOException("Fetch of " + inputAttemptIdentifier + " failed while it was being read"));
+      notifyFetchFailure();
+    }
+  }
+
+  /**
+   * The reader may finish with the data before the fetcher has committed the input, in which case
+   * the resources are released once it is committed (or aborted).
+   */
+  @Override
+  public synchronized void free() {
+    closeReader();
+    if (state == State.COMMITTED) {
+      state = State.FREED;
+      notifyFreedResource();
+    } else if (state == State.PENDING) {
+      freeOnCommit = true;
+    }
+  }
+
+  private void fail(IOException exception) {
+    synchronized (lock) {
+      if (error == null && !eof) {
+        error = exception;
+      }
+      lock.notifyAll();
+    }
+  }
+
+  private void closeReader() {
+    synchronized (lock) {
+      readerClosed = true;
+      ready.clear();
+      free.clear();
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Writes the fetched bytes in chunks, waiting while the reader is {@link #maxChunks} behind.
+   */
+  private class PipeOutputStream extends OutputStream {
+
+    private byte[] current;
+    private int length;
+    private long written = 0;
+    private boolean closed = false;
+    private final byte[] oneByte = new byte[1];
+
+    @Override
+    public void write(int b) throws IOException {
+      oneByte[0] = (byte) b;
+      write(oneByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      while (len > 0) {
+        if (current == null) {
+          current = takeChunk();
+          length = 0;
+        }
+        final int n = Math.min(len, current.length - length);
+        System.arraycopy(b, off, current, length, n);
+        length += n;
+        off += n;
+        len -= n;
+        written += n;
+        if (length == current.length) {
+          putChunk();
+        }
+      }
+    }
+
+    private byte[] takeChunk() throws IOException {
+      synchronized (lock) {
+        while (ready.size() >= maxChunks && !readerClosed && error == null) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the reader of "
+                + inputAttemptIdentifier);
+          }
+        }
+        checkWritable();
+        byte[] chunk = free.poll();
+        return (chunk == null) ? new byte[chunkSize] : chunk;
+      }
+    }
+
+    private void putChunk() throws IOException {
+      synchronized (lock) {
+        checkWritable();
+        ready.add(new Chunk(current, length));
+        lock.notifyAll();
+      }
+      current = null;
+    }
+
+    // called with lock held
+    private void checkWritable() throws IOException {
+      if (error != null) {
+        throw error;
+      }
+      if (readerClosed) {
+        throw new IOException("Reader closed before " + inputAttemptIdentifier + " was fetched");
+      }
+    }
+
+    /**
+     * Hands the last chunk to the reader. The reader only sees the end of the data if all the
+     * expected bytes were written, so that a fetch cut short is never mistaken for a short input.
+     */
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (current != null && length > 0 && error == null && !readerClosed) {
+        putChunk();
+      }
+      if (written != compressedSize) {
+        fail(new IOException("Incomplete output received for " + inputAttemptIdentifier + " ("
+            + written + " of " + compressedSize + " bytes)"));
+        return;
+      }
+      synchronized (lock) {
+        if (error == null) {
+          eof = true;
+        }
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private class PipeInputStream extends InputStream {
+
+    private Chunk current;
+    private final byte[] oneByte = new byte[1];
+
+    @Override
+    public int read() throws IOException {
+      int n = read(oneByte, 0, 1);
+      return (n < 0) ? n : (oneByte[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (current == null || current.offset == current.length) {
+        current = nextChunk();
+        if (current == null) {
+          return -1;
+        }
+      }
+      final int n = Math.min(len, current.length - current.offset);
+      System.arraycopy(current.data, current.offset, b, off, n);
+      current.offset += n;
+      return n;
+    }
+
+    private Chunk nextChunk() throws IOException {
+      synchronized (lock) {
+        if (current != null && !readerClosed) {
+          free.add(current.data);
+        }
+        current = null;
+        while (ready.isEmpty() && !eof && error == null && !readerClosed) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for data of "
+                + inputAttemptIdentifier);
+          }
+        }
+        if (readerClosed) {
+          throw new IOException("Stream closed");
+        }
+        Chunk chunk = ready.poll();
+        if (chunk == null && error != null) {
+          throw error;
+        }
+        // wake up the writer, waiting for space
+        lock.notifyAll();
+        return chunk;
+      }
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (current == null) ? 0 : current.length - current.offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+      closeReader();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "StreamingFetchedInput [inputAttemptIdentifier=" + inputAttemptIdentifier
+        + ", actualSize=" + actualSize + ", compressedSize=" + compressedSize
+        + ", type=" + type + ", id=" + id + ", state=" + state + "]";
+  }
+}
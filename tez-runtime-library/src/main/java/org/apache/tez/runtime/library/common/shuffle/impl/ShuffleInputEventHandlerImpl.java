@@ -32,7 +32,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.tez.common.TezCommonUtils;
-import org.apache.tez.common.TezUtilsInternal;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.runtime.api.Event;
 import org.apache.tez.runtime.api.InputContext;
@@ -101,14 +100,12 @@ public class ShuffleInputEventHandlerImpl implements ShuffleEventHandler {
       } catch (InvalidProtocolBufferException e) {
         throw new TezUncheckedException("Unable to parse DataMovementEvent payload", e);
       }
-      BitSet emptyPartitionsBitSet = null;
-      if (shufflePayload.hasEmptyPartitions()) {
-        try {
-          byte[] emptyPartitions = TezCommonUtils.decompressByteStringToByteArray(shufflePayload.getEmptyPartitions(), inflater);
-          emptyPartitionsBitSet = TezUtilsInternal.fromByteArray(emptyPartitions);
-        } catch (IOException e) {
-          throw new TezUncheckedException("Unable to set the empty partition to succeeded", e);
-        }
+      BitSet emptyPartitionsBitSet;
+      try {
+        emptyPartitionsBitSet = ShuffleUtils.getEmptyPartitions(shufflePayload,
+            dmEvent.getSourceIndex() + 1, inflater);
+      } catch (IOException e) {
+        throw new TezUncheckedException("Unable to set the empty partition to succeeded", e);
       }
       processDataMovementEvent(dmEvent, shufflePayload, emptyPartitionsBitSet);
       shuffleManager.updateEventReceivedTime();
@@ -120,14 +117,12 @@ public class ShuffleInputEventHandlerImpl implements ShuffleEventHandler {
       } catch (InvalidProtocolBufferException e) {
         throw new TezUncheckedException("Unable to parse DataMovementEvent payload", e);
       }
-      BitSet emptyPartitionsBitSet = null;
-      if (shufflePayload.hasEmptyPartitions()) {
-        try {
-          byte[] emptyPartitions = TezCommonUtils.decompressByteStringToByteArray(shufflePayload.getEmptyPartitions(), inflater);
-          emptyPartitionsBitSet = TezUtilsInternal.fromByteArray(emptyPartitions);
-        } catch (IOException e) {
-          throw new TezUncheckedException("Unable to set the empty partition to succeeded", e);
-        }
+      BitSet emptyPartitionsBitSet;
+      try {
+        emptyPartitionsBitSet = ShuffleUtils.getEmptyPartitions(shufflePayload,
+            edme.getSourceIndex() + edme.getCount(), inflater);
+      } catch (IOException e) {
+        throw new TezUncheckedException("Unable to set the empty partition to succeeded", e);
       }
       for (int offset = 0; offset < edme.getCount(); offset++) {
         numDmeEvents.incrementAndGet();
@@ -164,7 +159,7 @@ public class ShuffleInputEventHandlerImpl implements ShuffleEventHandler {
           .stringify(shufflePayload));
     }
 
-    if (shufflePayload.hasEmptyPartitions()) {
+    if (emptyPartitionsBitSet != null) {
       if (emptyPartitionsBitSet.get(srcIndex)) {
         InputAttemptIdentifier srcAttemptIdentifier =
             constructInputAttemptIdentifier(dme, shufflePayload, false);
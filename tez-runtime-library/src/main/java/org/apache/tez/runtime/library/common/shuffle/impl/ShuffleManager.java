@@ -69,6 +69,8 @@ import org.apache.tez.runtime.api.events.InputReadErrorEvent;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.TezRuntimeUtils;
+import org.apache.tez.runtime.library.common.shuffle.FetchBatchSizer;
+import org.apache.tez.runtime.library.common.shuffle.FetchStatistics;
 import org.apache.tez.runtime.library.common.shuffle.FetchResult;
 import org.apache.tez.runtime.library.common.shuffle.FetchedInput;
 import org.apache.tez.runtime.library.common.shuffle.FetchedInput.Type;
@@ -79,6 +81,7 @@ import org.apache.tez.runtime.library.common.shuffle.FetcherCallback;
 import org.apache.tez.runtime.library.common.shuffle.HostPort;
 import org.apache.tez.runtime.library.common.shuffle.InputHost;
 import org.apache.tez.runtime.library.common.shuffle.InputHost.PartitionToInputs;
+import org.apache.tez.runtime.library.common.shuffle.SharedFetcherPool;
 import org.apache.tez.runtime.library.common.shuffle.ShuffleUtils;
 
 import com.google.common.base.Objects;
@@ -108,6 +111,8 @@ public class ShuffleManager implements FetcherCallback {
 
   @VisibleForTesting
   final ListeningExecutorService fetcherExecutor;
+  // Set if the fetchers run on the pool shared by all inputs of the JVM.
+  private final SharedFetcherPool.Client sharedFetchers;
 
   private final ListeningExecutorService schedulerExecutor;
   private final RunShuffleCallable schedulerCallable;
@@ -149,6 +154,13 @@ public class ShuffleManager implements FetcherCallback {
   private final String srcNameTrimmed;
 
   private final int maxTaskOutputAtOnce;
+  // null unless adaptive fetch batching is enabled
+  private final FetchBatchSizer fetchBatchSizer;
+  private final FetchStatistics fetchStatistics;
+  // outputs of at least this size are read while they are fetched; negative if disabled
+  private final long streamingMinSize;
+  // inputs handed to the reader, which are still being fetched
+  private final Set<InputAttemptIdentifier> streamingInputs;
 
   private final AtomicBoolean isShutdown = new AtomicBoolean(false);
 
@@ -231,11 +243,25 @@ public class ShuffleManager implements FetcherCallback {
     
     this.numFetchers = Math.min(maxConfiguredFetchers, numInputs);
     
-    ExecutorService fetcherRawExecutor = Executors.newFixedThreadPool(
-        numFetchers,
-        new ThreadFactoryBuilder().setDaemon(true)
-            .setNameFormat("Fetcher_B {" + srcNameTrimmed + "} #%d").build());
-    this.fetcherExecutor = MoreExecutors.listeningDecorator(fetcherRawExecutor);
+    if (conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_ENABLED_DEFAULT)) {
+      this.sharedFetchers = SharedFetcherPool.getInstance(
+          conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX,
+              TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_DEFAULT),
+          conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_PER_HOST,
+              TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_PER_HOST_DEFAULT))
+          .newClient("Fetcher_B {" + srcNameTrimmed + "}", conf.getInt(
+              TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_PRIORITY,
+              TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_PRIORITY_DEFAULT));
+      this.fetcherExecutor = sharedFetchers;
+    } else {
+      this.sharedFetchers = null;
+      ExecutorService fetcherRawExecutor = Executors.newFixedThreadPool(
+          numFetchers,
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("Fetcher_B {" + srcNameTrimmed + "} #%d").build());
+      this.fetcherExecutor = MoreExecutors.listeningDecorator(fetcherRawExecutor);
+    }
     
     ExecutorService schedulerRawExecutor = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder()
         .setDaemon(true).setNameFormat("ShuffleRunner {" + srcNameTrimmed + "}").build());
@@ -271,6 +297,21 @@ public class ShuffleManager implements FetcherCallback {
     this.maxTaskOutputAtOnce = Math.max(1, Math.min(75, conf.getInt(
         TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_MAX_TASK_OUTPUT_AT_ONCE,
         TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_MAX_TASK_OUTPUT_AT_ONCE_DEFAULT)));
+    this.fetchBatchSizer = ShuffleUtils.createFetchBatchSizer(conf, maxTaskOutputAtOnce);
+    this.fetchStatistics = ShuffleUtils.createFetchStatistics(conf);
+    boolean streamingEnabled = conf.getBoolean(
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_ENABLED_DEFAULT);
+    if (streamingEnabled && sharedFetchers != null) {
+      // A pooled fetcher blocked on a reader which is not reading could starve other inputs.
+      LOG.warn(srcNameTrimmed + ": streaming fetched inputs is not supported with shared fetchers");
+      streamingEnabled = false;
+    }
+    this.streamingMinSize = streamingEnabled ? Math.max(0, conf.getLong(
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_MIN_SIZE,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_MIN_SIZE_DEFAULT)) : -1;
+    this.streamingInputs = Collections.newSetFromMap(
+        new ConcurrentHashMap<InputAttemptIdentifier, Boolean>());
 
     Arrays.sort(this.localDisks);
 
@@ -278,11 +319,14 @@ public class ShuffleManager implements FetcherCallback {
 
     LOG.info(srcNameTrimmed + ": numInputs=" + numInputs + ", compressionCodec="
         + (codec == null ? "NoCompressionCodec" : codec.getClass().getName()) + ", numFetchers="
-        + numFetchers + ", ifileBufferSize=" + ifileBufferSize + ", ifileReadAheadEnabled="
+        + numFetchers + ", sharedFetchers=" + (sharedFetchers != null) + ", ifileBufferSize=" + ifileBufferSize + ", ifileReadAheadEnabled="
         + ifileReadAhead + ", ifileReadAheadLength=" + ifileReadAheadLength +", "
         + "localDiskFetchEnabled=" + localDiskFetchEnabled + ", "
         + "sharedFetchEnabled=" + sharedFetchEnabled + ", "
-        + httpConnectionParams.toString() + ", maxTaskOutputAtOnce=" + maxTaskOutputAtOnce);
+        + httpConnectionParams.toString() + ", maxTaskOutputAtOnce=" + maxTaskOutputAtOnce
+        + ", adaptiveBatching=" + (fetchBatchSizer != null)
+        + ", fetchStatistics=" + (fetchStatistics != null)
+        + ", streamingMinSize=" + streamingMinSize);
   }
 
   public void run() throws IOException {
@@ -355,8 +399,13 @@ public class ShuffleManager implements FetcherCallback {
                       "Breaking out of ShuffleScheduler Loop");
                   break;
                 }
-                ListenableFuture<FetchResult> future = fetcherExecutor
-                    .submit(fetcher);
+                ListenableFuture<FetchResult> future;
+                if (sharedFetchers != null) {
+                  sharedFetchers.setRemainingInputs(numInputs - numCompletedInputs.get());
+                  future = sharedFetchers.submitFetch(inputHost.getHost(), fetcher);
+                } else {
+                  future = fetcherExecutor.submit(fetcher);
+                }
                 Futures.addCallback(future, new FetchFutureCallback(fetcher));
                 if (++count >= maxFetchersToRun) {
                   break;
@@ -422,6 +471,11 @@ public class ShuffleManager implements FetcherCallback {
       fetcherBuilder.setCompressionParameters(codec);
     }
     fetcherBuilder.setIFileParams(ifileReadAhead, ifileReadAheadLength);
+    fetcherBuilder.setFetchBatchSizer(fetchBatchSizer);
+    fetcherBuilder.setFetchStatistics(fetchStatistics);
+    fetcherBuilder.setStreamingMinSize(streamingMinSize);
+    final int batchSize = (fetchBatchSizer == null) ? maxTaskOutputAtOnce
+        : fetchBatchSizer.getBatchSize(inputHost.getHost() + ":" + inputHost.getPort());
 
     // Remove obsolete inputs from the list being given to the fetcher. Also
     // remove from the obsolete list.
@@ -450,7 +504,7 @@ public class ShuffleManager implements FetcherCallback {
       }
 
       // Check if max threshold is met
-      if (includedMaps >= maxTaskOutputAtOnce) {
+      if (includedMaps >= batchSize) {
         inputIter.remove();
         //add to inputHost
         inputHost.addKnownInput(pendingInputsOfOnePartition.getPartition(),
@@ -622,10 +676,13 @@ public class ShuffleManager implements FetcherCallback {
     }
     
     inputContext.notifyProgress();
+    // already handed to the reader by streamStarted
+    final boolean streamed = fetchedInput.getType() == Type.STREAM
+        && streamingInputs.remove(srcAttemptIdentifier);
     boolean committed = false;
-    if (!completedInputSet.contains(inputIdentifier)) {
+    if (streamed || !completedInputSet.contains(inputIdentifier)) {
       synchronized (completedInputSet) {
-        if (!completedInputSet.contains(inputIdentifier)) {
+        if (streamed || !completedInputSet.contains(inputIdentifier)) {
           fetchedInput.commit();
           committed = true;
           ShuffleUtils.logIndividualFetchComplete(LOG, copyDuration,
@@ -645,7 +702,9 @@ public class ShuffleManager implements FetcherCallback {
           }
           decompressedDataSizeCounter.increment(decompressedLength);
 
-          if (!srcAttemptIdentifier.canRetrieveInputInChunks()) {
+          if (streamed) {
+            registerCompletedStreamingInput(fetchedInput);
+          } else if (!srcAttemptIdentifier.canRetrieveInputInChunks()) {
             registerCompletedInput(fetchedInput);
           } else {
             registerCompletedInputForPipelinedShuffle(srcAttemptIdentifier, fetchedInput);
@@ -686,6 +745,41 @@ public class ShuffleManager implements FetcherCallback {
     }
   }
 
+  @Override
+  public boolean streamStarted(String host, InputAttemptIdentifier srcAttemptIdentifier,
+      FetchedInput fetchedInput) {
+    int inputIdentifier = srcAttemptIdentifier.getInputIdentifier();
+    synchronized (completedInputSet) {
+      if (completedInputSet.contains(inputIdentifier)) {
+        return false;
+      }
+      // Claim the input, so that no other attempt of it is fetched; it is counted as completed
+      // once the fetch succeeds.
+      completedInputSet.add(inputIdentifier);
+      streamingInputs.add(srcAttemptIdentifier);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(srcNameTrimmed + ": streaming " + srcAttemptIdentifier + " from " + host);
+    }
+    maybeInformInputReady(fetchedInput);
+    return true;
+  }
+
+  private void registerCompletedStreamingInput(FetchedInput fetchedInput) {
+    lock.lock();
+    try {
+      adjustCompletedInputs(fetchedInput);
+      numFetchedSpills.getAndIncrement();
+      if (allInputsFetched()) {
+        // The reader may have read this input before it was committed, and be waiting for the
+        // next one.
+        completedInputs.add(new NullFetchedInput(fetchedInput.getInputAttemptIdentifier()));
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
   private void maybeInformInputReady(FetchedInput fetchedInput) {
     lock.lock();
     try {
@@ -781,6 +875,10 @@ public class ShuffleManager implements FetcherCallback {
     inputContext.notifyProgress();
     if (srcAttemptIdentifier == null) {
       reportFatalError(null, "Received fetchFailure for an unknown src (null)");
+    } else if (streamingInputs.remove(srcAttemptIdentifier)) {
+      // The reader fails on the aborted stream, and the input cannot be fetched again.
+      reportFatalError(null, "Failed to fetch " + srcAttemptIdentifier
+          + " while it was being read");
     } else {
     InputReadErrorEvent readError = InputReadErrorEvent.create(
         "Fetch failure while fetching from "
@@ -830,6 +928,10 @@ public class ShuffleManager implements FetcherCallback {
       if (this.fetcherExecutor != null && !this.fetcherExecutor.isShutdown()) {
         this.fetcherExecutor.shutdownNow(); // Interrupts all running fetchers.
       }
+      if (fetchStatistics != null) {
+        fetchStatistics.publishFinalCounters(inputContext.getCounters());
+        LOG.info(srcNameTrimmed + ": " + "Fetch statistics: " + fetchStatistics);
+      }
     }
   }
 
@@ -945,7 +1047,9 @@ public class ShuffleManager implements FetcherCallback {
           numInputs +
           ". Transfer rate (CumulativeDataFetched/TimeSinceInputStarted)) "
           + mbpsFormat.format(transferRate) + " MB/s)");
-
+      if (fetchStatistics != null) {
+        fetchStatistics.updateCounters(inputContext.getCounters());
+      }
     }
   }
 
@@ -37,6 +37,8 @@ import org.apache.tez.runtime.library.common.shuffle.FetchedInput.Type;
 import org.apache.tez.runtime.library.common.shuffle.FetchedInputAllocator;
 import org.apache.tez.runtime.library.common.shuffle.FetchedInputCallback;
 import org.apache.tez.runtime.library.common.shuffle.MemoryFetchedInput;
+import org.apache.tez.runtime.library.common.shuffle.ShuffleBufferPool;
+import org.apache.tez.runtime.library.common.shuffle.StreamingFetchedInput;
 
 
 /**
@@ -48,6 +50,9 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
     FetchedInputCallback {
 
   private static final Logger LOG = LoggerFactory.getLogger(SimpleFetchedInputAllocator.class);
+
+  // same as the buffer used to copy fetched data to disk
+  private static final int STREAMING_CHUNK_SIZE = 64 * 1024;
   
   private final Configuration conf;
 
@@ -62,6 +67,12 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
   private final long initialMemoryAvailable;
 
   private final String srcNameTrimmed;
+
+  // null unless buffers are recycled
+  private final ShuffleBufferPool bufferPool;
+  private boolean closed = false;
+
+  private final int streamingBufferSize;
   
   private volatile long usedMemory = 0;
 
@@ -115,6 +126,16 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
         + ", maxSingleShuffleLimit=" + this.maxSingleShuffleLimit
     );
 
+    if (conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED_DEFAULT)) {
+      this.bufferPool = ShuffleBufferPool.getShared(memoryLimit, (int) maxSingleShuffleLimit);
+    } else {
+      this.bufferPool = null;
+    }
+
+    this.streamingBufferSize = conf.getInt(
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_BUFFER_SIZE,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_BUFFER_SIZE_DEFAULT);
   }
 
   @Private
@@ -136,20 +157,27 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
   public synchronized FetchedInput allocate(long actualSize, long compressedSize,
       InputAttemptIdentifier inputAttemptIdentifier) throws IOException {
     if (actualSize > maxSingleShuffleLimit
-        || this.usedMemory + actualSize > this.memoryLimit) {
+        || this.usedMemory + getReservedSize(actualSize) > this.memoryLimit) {
       return new DiskFetchedInput(actualSize, compressedSize,
           inputAttemptIdentifier, this, conf, localDirAllocator,
           fileNameAllocator);
     } else {
-      this.usedMemory += actualSize;
+      byte[] buffer = (bufferPool == null) ? null : bufferPool.allocate((int) actualSize);
+      this.usedMemory += (buffer == null) ? actualSize : buffer.length;
       if (LOG.isDebugEnabled()) {
         LOG.info(srcNameTrimmed + ": " + "Used memory after allocating " + actualSize + " : " +
             usedMemory);
       }
-      return new MemoryFetchedInput(actualSize, compressedSize, inputAttemptIdentifier, this);
+      return new MemoryFetchedInput(actualSize, compressedSize, inputAttemptIdentifier, this,
+          buffer);
     }
   }
 
+  // memory taken by an in-memory input of the given size, pool buffers being rounded up
+  private long getReservedSize(long actualSize) {
+    return (bufferPool == null) ? actualSize : bufferPool.getBufferSize((int) actualSize);
+  }
+
   @Override
   public synchronized FetchedInput allocateType(Type type, long actualSize,
       long compressedSize, InputAttemptIdentifier inputAttemptIdentifier)
@@ -160,6 +188,18 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
       return new DiskFetchedInput(actualSize, compressedSize,
           inputAttemptIdentifier, this, conf, localDirAllocator,
           fileNameAllocator);
+    case STREAM:
+      // The chunks a stream can buffer are reserved against the memory limit until it is freed, so
+      // that readers lagging behind several streams cannot exceed it. Without enough memory left,
+      // the output is fetched as usual instead.
+      StreamingFetchedInput streamingInput = new StreamingFetchedInput(actualSize, compressedSize,
+          inputAttemptIdentifier, this, STREAMING_CHUNK_SIZE,
+          Math.max(1, streamingBufferSize / STREAMING_CHUNK_SIZE));
+      if (this.usedMemory + streamingInput.getMaxBufferedBytes() > this.memoryLimit) {
+        return allocate(actualSize, compressedSize, inputAttemptIdentifier);
+      }
+      this.usedMemory += streamingInput.getMaxBufferedBytes();
+      return streamingInput;
     default:
       return allocate(actualSize, compressedSize, inputAttemptIdentifier);
     }
@@ -172,6 +212,7 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
     case DISK:
     case DISK_DIRECT:
     case MEMORY:
+    case STREAM:
       break;
     default:
       throw new TezUncheckedException("InputType: " + fetchedInput.getType()
@@ -193,8 +234,15 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
     switch (fetchedInput.getType()) {
     case DISK:
       break;
+    case STREAM:
+      unreserve(((StreamingFetchedInput) fetchedInput).getMaxBufferedBytes());
+      break;
     case MEMORY:
-      unreserve(fetchedInput.getActualSize());
+      byte[] buffer = ((MemoryFetchedInput) fetchedInput).getBytes();
+      if (bufferPool != null) {
+        bufferPool.release(buffer);
+      }
+      unreserve(buffer.length);
       break;
     default:
       throw new TezUncheckedException("InputType: " + fetchedInput.getType()
@@ -202,6 +250,17 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
     }
   }
 
+  /**
+   * Hand back the buffer pool, once the input is done.
+   */
+  public synchronized void close() {
+    if (bufferPool != null && !closed) {
+      closed = true;
+      LOG.info(srcNameTrimmed + ": " + bufferPool);
+      ShuffleBufferPool.releaseShared(bufferPool, memoryLimit);
+    }
+  }
+
   private synchronized void unreserve(long size) {
     this.usedMemory -= size;
     if (LOG.isDebugEnabled()) {
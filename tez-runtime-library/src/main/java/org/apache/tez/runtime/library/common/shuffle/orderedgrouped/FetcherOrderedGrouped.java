@@ -103,6 +103,8 @@ class FetcherOrderedGrouped extends CallableWithNdc<Void> {
 
   // Initiative value is 0, which means it hasn't retried yet.
   private long retryStartTime = 0;
+  // bytes fetched from the current host
+  private long bytesFetched = 0;
 
   public FetcherOrderedGrouped(HttpConnectionParams httpConnectionParams,
                                ShuffleScheduler scheduler,
@@ -212,6 +214,20 @@ class FetcherOrderedGrouped extends CallableWithNdc<Void> {
     }
   }
 
+  /**
+   * Stop a fetch whose outputs have all been fetched by another fetcher. Unlike
+   * {@link #shutDown()}, the connection is closed rather than drained.
+   */
+  public void cancel() {
+    if (!stopped) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Fetcher cancelled for host " + mapHost);
+      }
+      stopped = true;
+      cleanupCurrentConnection(true);
+    }
+  }
+
   private final Object cleanupLock = new Object();
   private void cleanupCurrentConnection(boolean disconnect) {
     // Synchronizing on cleanupLock to ensure we don't run into a parallel close
@@ -255,11 +271,16 @@ class FetcherOrderedGrouped extends CallableWithNdc<Void> {
         + srcAttempts + ", partitionId: " + currentPartition);
     }
     populateRemainingMap(srcAttempts);
+    final long startTime = System.currentTimeMillis();
+    bytesFetched = 0;
     // Construct the url and connect
     try {
       if (!setupConnection(host, remaining.values())) {
         if (stopped) {
           cleanupCurrentConnection(true);
+        } else {
+          // the inputs were reported as failed by setupConnection
+          scheduler.fetchBatchFailed(host);
         }
         // Maps will be added back in the finally block in case of failure.
         return;
@@ -315,6 +336,15 @@ class FetcherOrderedGrouped extends CallableWithNdc<Void> {
         }
       }
 
+      if (!stopped) {
+        if (failedTasks == null) {
+          scheduler.fetchBatchCompleted(host, srcAttempts.size(), bytesFetched,
+              System.currentTimeMillis() - startTime);
+        } else if (failedTasks.length > 0) {
+          scheduler.fetchBatchFailed(host);
+        }
+      }
+
       cleanupCurrentConnection(false);
 
       // Sanity check
@@ -337,7 +367,9 @@ class FetcherOrderedGrouped extends CallableWithNdc<Void> {
       URL url = ShuffleUtils.constructInputURL(baseURI.toString(), attempts, httpConnectionParams.isKeepAlive());
       httpConnection = ShuffleUtils.getHttpConnection(asyncHttp, url, httpConnectionParams,
           logIdentifier, jobTokenSecretManager);
+      long connectStartTime = System.currentTimeMillis();
       connectSucceeded = httpConnection.connect();
+      long connectEndTime = System.currentTimeMillis();
 
       if (stopped) {
         if (LOG.isDebugEnabled()) {
@@ -347,6 +379,8 @@ class FetcherOrderedGrouped extends CallableWithNdc<Void> {
       }
       input = httpConnection.getInputStream();
       httpConnection.validate();
+      metrics.connected(host, connectEndTime - connectStartTime,
+          System.currentTimeMillis() - connectEndTime);
       return true;
     } catch (IOException | InterruptedException ie) {
       if (ie instanceof InterruptedException) {
@@ -522,6 +556,7 @@ class FetcherOrderedGrouped extends CallableWithNdc<Void> {
 
       scheduler.copySucceeded(srcAttemptId, host, compressedLength, decompressedLength,
                               endTime - startTime, mapOutput, false);
+      bytesFetched += compressedLength;
       // Note successful shuffle
       remaining.remove(srcAttemptId.toString());
       metrics.successFetch();
@@ -588,6 +623,7 @@ class FetcherOrderedGrouped extends CallableWithNdc<Void> {
     if (currentTime - retryStartTime < httpConnectionParams.getReadTimeout()) {
       LOG.warn("Shuffle output from " + host.getHostIdentifier() +
           " failed, retry it.");
+      metrics.fetchRetried(host);
       //retry connecting to the host
       return true;
     } else {
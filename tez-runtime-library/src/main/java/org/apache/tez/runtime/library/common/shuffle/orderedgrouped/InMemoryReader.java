@@ -254,11 +254,15 @@ public class InMemoryReader extends Reader {
   }
 
   public void close() {
-    // Release
-    buffer = null;
     // Inform the MergeManager
     if (merger != null) {
-      merger.releaseCommittedMemory(bufferSize);
+      if (buffer != null) {
+        merger.releaseBuffer(buffer);
+      }
+      // what was reserved is the whole array, which may be longer than the data
+      merger.releaseCommittedMemory((buffer != null) ? buffer.length : bufferSize);
     }
+    // Release
+    buffer = null;
   }
 }
@@ -86,13 +86,20 @@ class MapHost {
   private final String host;
   private final int port;
   private final int partition;
+  // Set for the hosts of hedged fetches, which are not tracked by the scheduler
+  private final boolean hedge;
   // Tracks attempt IDs
   private List<InputAttemptIdentifier> maps = new ArrayList<InputAttemptIdentifier>();
   
   public MapHost(String host, int port, int partition) {
+    this(host, port, partition, false);
+  }
+
+  public MapHost(String host, int port, int partition, boolean hedge) {
     this.host = host;
     this.port = port;
     this.partition = partition;
+    this.hedge = hedge;
   }
 
   public int getPartitionId() {
@@ -111,6 +118,14 @@ class MapHost {
     return port;
   }
 
+  /**
+   * Whether this host is used by a hedged fetch, which fetches outputs that are also being
+   * fetched by another fetcher.
+   */
+  public boolean isHedge() {
+    return hedge;
+  }
+
   public String getHostIdentifier() {
     return host + ":" + port;
   }
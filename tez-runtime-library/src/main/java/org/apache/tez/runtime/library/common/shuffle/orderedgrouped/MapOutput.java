@@ -30,6 +30,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BoundedByteArrayOutputStream;
 import org.apache.hadoop.io.FileChunk;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
+import org.apache.tez.runtime.library.common.shuffle.ShuffleBufferPool;
 import org.apache.tez.runtime.library.common.task.local.output.TezTaskOutputFiles;
 
 
@@ -49,10 +50,14 @@ class MapOutput {
   private InputAttemptIdentifier attemptIdentifier;
 
   private final boolean primaryMapOutput;
+  // number of memory-to-memory merges the data of this output went through
+  private int mergeLevel = 0;
   private final FetchedInputAllocatorOrderedGrouped callback;
 
   // MEMORY
   private BoundedByteArrayOutputStream byteStream;
+  // pool the memory buffer came from, if any
+  private final ShuffleBufferPool bufferPool;
 
   // DISK
   private final Path tmpOutputPath;
@@ -61,7 +66,7 @@ class MapOutput {
 
   private MapOutput(Type type, InputAttemptIdentifier attemptIdentifier, FetchedInputAllocatorOrderedGrouped callback,
                     long size, Path outputPath, long offset, boolean primaryMapOutput,
-                    FileSystem fs, Path tmpOutputPath) {
+                    FileSystem fs, Path tmpOutputPath, ShuffleBufferPool bufferPool) {
     this.id = ID.incrementAndGet();
     this.type = type;
     this.attemptIdentifier = attemptIdentifier;
@@ -72,10 +77,16 @@ class MapOutput {
 
     if (type == Type.MEMORY) {
       // since we are passing an int from createMemoryMapOutput, its safe to cast to int
-      this.byteStream = new BoundedByteArrayOutputStream((int)size);
+      if (bufferPool != null) {
+        this.byteStream = new ShuffleBufferPool.BufferOutputStream(
+            bufferPool.allocate((int) size), (int) size);
+      } else {
+        this.byteStream = new BoundedByteArrayOutputStream((int)size);
+      }
     } else {
       this.byteStream = null;
     }
+    this.bufferPool = bufferPool;
 
     this.tmpOutputPath = tmpOutputPath;
     this.disk = null;
@@ -105,7 +116,7 @@ class MapOutput {
     long offset = 0;
 
     MapOutput mapOutput = new MapOutput(Type.DISK, attemptIdentifier, callback, size, outputPath, offset,
-        primaryMapOutput, fs, tmpOutputPath);
+        primaryMapOutput, fs, tmpOutputPath, null);
     mapOutput.disk = fs.create(tmpOutputPath);
 
     return mapOutput;
@@ -115,24 +126,43 @@ class MapOutput {
                                                    FetchedInputAllocatorOrderedGrouped callback, Path path,  long offset,
                                                    long size, boolean primaryMapOutput)  {
     return new MapOutput(Type.DISK_DIRECT, attemptIdentifier, callback, size, path, offset,
-        primaryMapOutput, null, null);
+        primaryMapOutput, null, null, null);
   }
 
   public static MapOutput createMemoryMapOutput(InputAttemptIdentifier attemptIdentifier,
                                                 FetchedInputAllocatorOrderedGrouped callback, int size,
                                                 boolean primaryMapOutput)  {
+    return createMemoryMapOutput(attemptIdentifier, callback, size, primaryMapOutput, null);
+  }
+
+  /**
+   * @param bufferPool pool to take the buffer from, or null to allocate one
+   */
+  public static MapOutput createMemoryMapOutput(InputAttemptIdentifier attemptIdentifier,
+                                                FetchedInputAllocatorOrderedGrouped callback, int size,
+                                                boolean primaryMapOutput,
+                                                ShuffleBufferPool bufferPool)  {
     return new MapOutput(Type.MEMORY, attemptIdentifier, callback, size, null, -1, primaryMapOutput,
-        null, null);
+        null, null, bufferPool);
   }
 
   public static MapOutput createWaitMapOutput(InputAttemptIdentifier attemptIdentifier) {
-    return new MapOutput(Type.WAIT, attemptIdentifier, null, -1, null, -1, false, null, null);
+    return new MapOutput(Type.WAIT, attemptIdentifier, null, -1, null, -1, false, null, null,
+        null);
   }
 
   public boolean isPrimaryMapOutput() {
     return primaryMapOutput;
   }
 
+  int getMergeLevel() {
+    return mergeLevel;
+  }
+
+  void setMergeLevel(int mergeLevel) {
+    this.mergeLevel = mergeLevel;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (obj instanceof MapOutput) {
@@ -150,6 +180,9 @@ class MapOutput {
     return outputPath;
   }
 
+  /**
+   * The array holding the output, which may be longer than {@link #getSize()}.
+   */
   public byte[] getMemory() {
     return byteStream.getBuffer();
   }
@@ -170,6 +203,17 @@ class MapOutput {
     return type;
   }
 
+  /**
+   * Memory held by an in-memory output, which is the length of its array. This is what the
+   * output reserves and releases, since a pooled array is rounded up from {@link #getSize()}.
+   */
+  public long getReservedSize() {
+    if (type == Type.MEMORY) {
+      return byteStream.getBuffer().length;
+    }
+    return getSize();
+  }
+
   public long getSize() {
     if (type == Type.MEMORY) {
       return byteStream.getLimit();
@@ -194,7 +238,10 @@ class MapOutput {
   
   public void abort() {
     if (type == Type.MEMORY) {
-      callback.unreserve(byteStream.getBuffer().length);
+      callback.unreserve(getReservedSize());
+      if (bufferPool != null) {
+        bufferPool.release(byteStream.getBuffer());
+      }
     } else if (type == Type.DISK) {
       try {
         callback.getLocalFileSystem().delete(tmpOutputPath, true);
@@ -45,8 +45,10 @@ import org.apache.tez.runtime.library.common.ConfigUtils;
 import org.apache.tez.runtime.library.common.Constants;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.combine.Combiner;
+import org.apache.tez.runtime.library.common.shuffle.ShuffleBufferPool;
 import org.apache.tez.runtime.library.common.sort.impl.IFile;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
+import org.apache.tez.runtime.library.common.sort.impl.ParallelMerger;
 import org.apache.tez.runtime.library.common.sort.impl.TezMerger;
 import org.apache.tez.runtime.library.common.sort.impl.TezMerger.DiskSegment;
 import org.apache.tez.runtime.library.common.sort.impl.TezMerger.Segment;
@@ -115,11 +117,31 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
   private long commitMemory;
   private final int ioSortFactor;
   private final long maxSingleShuffleLimit;
+  // null unless in-memory outputs are fetched into recycled buffers
+  private final ShuffleBufferPool bufferPool;
 
   private final AtomicBoolean isShutdown = new AtomicBoolean(false);
 
   private final int memToMemMergeOutputsThreshold; 
   private final long mergeThreshold;
+  // merge in-memory outputs to disk, and on-disk files together, earlier than needed to stay
+  // within memory, so that little is left for the final merge
+  private final boolean progressiveMerge;
+  @VisibleForTesting
+  final long memToDiskMergeThreshold;
+  @VisibleForTesting
+  final int onDiskMergeThreshold;
+  // merge in-memory outputs of similar size together, see selectTier
+  private final boolean tieredMemToMemMerge;
+  private final float memToMemTierRatio;
+  private final int memToMemMaxMerges;
+  // inputs not fetched yet, as reported by the scheduler; negative if unknown
+  private volatile int remainingInputs = -1;
+  private int fetchedMemOutputs = 0;
+  private long fetchedMemBytes = 0;
+  // for the write amplification of intermediate merges
+  private long shuffledBytes = 0;
+  private long mergedBytesWritten = 0;
   
   private final long initialMemoryAvailable;
 
@@ -137,6 +159,7 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
   private final TezCounter numDiskToDiskMerges;
   private final TezCounter additionalBytesWritten;
   private final TezCounter additionalBytesRead;
+  private final TezCounter mergeBytesWritten;
   
   private final CompressionCodec codec;
   
@@ -145,6 +168,9 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
   private final boolean ifileReadAhead;
   private final int ifileReadAheadLength;
   private final int ifileBufferSize;
+  // read local (DISK_DIRECT) outputs through memory mappings
+  private final boolean mapLocalFiles;
+  private final int finalMergeParallelism;
 
   private AtomicInteger mergeFileSequenceId = new AtomicInteger(0);
 
@@ -186,6 +212,8 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
     this.numMemToDiskMerges = inputContext.getCounters().findCounter(TaskCounter.NUM_MEM_TO_DISK_MERGES);
     this.additionalBytesWritten = inputContext.getCounters().findCounter(TaskCounter.ADDITIONAL_SPILLS_BYTES_WRITTEN);
     this.additionalBytesRead = inputContext.getCounters().findCounter(TaskCounter.ADDITIONAL_SPILLS_BYTES_READ);
+    this.mergeBytesWritten =
+        inputContext.getCounters().findCounter(TaskCounter.SHUFFLE_MERGE_BYTES_WRITTEN);
 
     this.cleanup = conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_CLEANUP_FILES_ON_INTERRUPT,
         TezRuntimeConfiguration.TEZ_RUNTIME_CLEANUP_FILES_ON_INTERRUPT_DEFAULT);
@@ -199,6 +227,14 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
     }
     this.ifileBufferSize = conf.getInt("io.file.buffer.size",
         TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_BUFFER_SIZE_DEFAULT);
+    this.mapLocalFiles = conf.getBoolean(
+        TezRuntimeConfiguration.TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH_MMAP,
+        TezRuntimeConfiguration.TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH_MMAP_DEFAULT);
+    this.finalMergeParallelism = conf.getInt(
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FINAL_MERGE_PARALLELISM,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FINAL_MERGE_PARALLELISM_DEFAULT);
+    Preconditions.checkArgument(finalMergeParallelism > 0,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FINAL_MERGE_PARALLELISM + " should be > 0");
     
     // Figure out initial memory req start
     final float maxInMemCopyUse =
@@ -264,6 +300,12 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
     //TODO: Cap it to MAX_VALUE until MapOutput starts supporting > 2 GB
     this.maxSingleShuffleLimit = 
         (long) Math.min((memoryLimit * singleShuffleMemoryLimitPercent), Integer.MAX_VALUE);
+    if (conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED_DEFAULT)) {
+      this.bufferPool = ShuffleBufferPool.getShared(memoryLimit, (int) maxSingleShuffleLimit);
+    } else {
+      this.bufferPool = null;
+    }
     this.memToMemMergeOutputsThreshold = 
             conf.getInt(
                 TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_SEGMENTS, 
@@ -273,12 +315,47 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
                conf.getFloat(
                    TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MERGE_PERCENT, 
                    TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MERGE_PERCENT_DEFAULT));
+    this.progressiveMerge = conf.getBoolean(
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_ENABLED_DEFAULT);
+    if (progressiveMerge) {
+      final float progressiveMemoryPercent = conf.getFloat(
+          TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_MEMORY_PERCENT,
+          TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_MEMORY_PERCENT_DEFAULT);
+      Preconditions.checkArgument(
+          progressiveMemoryPercent > 0.0f && progressiveMemoryPercent <= 1.0f,
+          TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_MEMORY_PERCENT
+              + " should be in (0, 1]: " + progressiveMemoryPercent);
+      this.memToDiskMergeThreshold =
+          Math.min(mergeThreshold, (long) (memoryLimit * progressiveMemoryPercent));
+      this.onDiskMergeThreshold = Math.max(2, ioSortFactor);
+    } else {
+      this.memToDiskMergeThreshold = mergeThreshold;
+      this.onDiskMergeThreshold = 2 * ioSortFactor - 1;
+    }
+    this.tieredMemToMemMerge = conf.getBoolean(
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIERED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIERED_DEFAULT);
+    this.memToMemTierRatio = conf.getFloat(
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIER_RATIO,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIER_RATIO_DEFAULT);
+    Preconditions.checkArgument(memToMemTierRatio >= 1.0f,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIER_RATIO + " should be >= 1: "
+            + memToMemTierRatio);
+    this.memToMemMaxMerges = conf.getInt(
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_MAX_MERGES,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_MAX_MERGES_DEFAULT);
     LOG.info(inputContext.getSourceVertexName() + ": MergerManager: memoryLimit=" + memoryLimit + ", " +
              "maxSingleShuffleLimit=" + maxSingleShuffleLimit + ", " +
              "mergeThreshold=" + mergeThreshold + ", " + 
              "ioSortFactor=" + ioSortFactor + ", " +
              "postMergeMem=" + postMergeMemLimit + ", " +
-             "memToMemMergeOutputsThreshold=" + memToMemMergeOutputsThreshold);
+             "memToMemMergeOutputsThreshold=" + memToMemMergeOutputsThreshold + ", " +
+             "finalMergeParallelism=" + finalMergeParallelism + ", " +
+             "progressiveMerge=" + progressiveMerge + ", " +
+             "memToDiskMergeThreshold=" + memToDiskMergeThreshold + ", " +
+             "onDiskMergeThreshold=" + onDiskMergeThreshold + ", " +
+             "tieredMemToMemMerge=" + tieredMemToMemMerge);
     
     if (this.maxSingleShuffleLimit >= this.mergeThreshold) {
       throw new RuntimeException("Invlaid configuration: "
@@ -444,9 +521,20 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
   private synchronized MapOutput unconditionalReserve(
       InputAttemptIdentifier srcAttemptIdentifier, long requestedSize, boolean primaryMapOutput) throws
       IOException {
-    usedMemory += requestedSize;
-    return MapOutput.createMemoryMapOutput(srcAttemptIdentifier, this, (int)requestedSize,
-        primaryMapOutput);
+    MapOutput mapOutput = MapOutput.createMemoryMapOutput(srcAttemptIdentifier, this,
+        (int) requestedSize, primaryMapOutput, bufferPool);
+    usedMemory += mapOutput.getReservedSize();
+    return mapOutput;
+  }
+
+  /**
+   * Recycle the buffer of an in-memory output whose data is no longer referenced, once it has
+   * been merged. Buffers are not kept after the shuffle completes.
+   */
+  void releaseBuffer(byte[] buffer) {
+    if (bufferPool != null && !isShutdown.get()) {
+      bufferPool.release(buffer);
+    }
   }
 
   @Override
@@ -473,28 +561,125 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
           + ", commitMemory -> " + commitMemory + ", usedMemory ->" + usedMemory + ", mapOutput=" +
           mapOutput);
 
-    commitMemory+= mapOutput.getSize();
+    commitMemory += mapOutput.getReservedSize();
+    fetchedMemOutputs++;
+    fetchedMemBytes += mapOutput.getSize();
+    shuffledBytes += mapOutput.getSize();
 
-    if (commitMemory >= mergeThreshold) {
+    if (commitMemory >= memToDiskMergeThreshold) {
       startMemToDiskMerge();
     }
 
     // This should likely run a Combiner.
     if (memToMemMerger != null) {
       synchronized (memToMemMerger) {
-        if (!memToMemMerger.isInProgress() && 
-            inMemoryMapOutputs.size() >= memToMemMergeOutputsThreshold) {
-          memToMemMerger.startMerge(inMemoryMapOutputs);
+        if (!memToMemMerger.isInProgress()) {
+          if (tieredMemToMemMerge) {
+            startTieredMemToMemMerge();
+          } else if (inMemoryMapOutputs.size() >= memToMemMergeOutputsThreshold) {
+            memToMemMerger.startMerge(inMemoryMapOutputs);
+          }
         }
       }
     }
   }
 
+  /**
+   * Merge a tier of similarly sized in-memory outputs, if there is one with enough outputs. Each
+   * merge writes outputs of the next tier, so the data is rewritten once per tier, and at most
+   * {@link #memToMemMaxMerges} times.
+   */
+  private void startTieredMemToMemMerge() {
+    if (isMemToDiskMergeExpected()) {
+      // The outputs will be written to disk anyway; merging them in memory first only adds writes.
+      return;
+    }
+    List<MapOutput> candidates = new ArrayList<MapOutput>();
+    for (MapOutput mo : inMemoryMapOutputs) {
+      if (mo.getMergeLevel() < memToMemMaxMerges) {
+        candidates.add(mo);
+      }
+    }
+    for (MapOutput mo : inMemoryMergedMapOutputs) {
+      if (mo.getMergeLevel() < memToMemMaxMerges) {
+        candidates.add(mo);
+      }
+    }
+    Collections.sort(candidates, new MapOutput.MapOutputComparator());
+    long[] sizes = new long[candidates.size()];
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = candidates.get(i).getSize();
+    }
+    int start = selectTier(sizes, memToMemTierRatio, memToMemMergeOutputsThreshold);
+    if (start < 0) {
+      return;
+    }
+    Set<MapOutput> tier = new TreeSet<MapOutput>(new MapOutput.MapOutputComparator());
+    tier.addAll(candidates.subList(start, start + memToMemMergeOutputsThreshold));
+    inMemoryMapOutputs.removeAll(tier);
+    inMemoryMergedMapOutputs.removeAll(tier);
+    memToMemMerger.startMerge(tier);
+  }
+
+  /**
+   * Find the smallest run of count sizes in which the largest is at most ratio times the smallest.
+   *
+   * @param sizes sorted in ascending order
+   * @return the index of the first size of the run, or -1 if there is none
+   */
+  @VisibleForTesting
+  static int selectTier(long[] sizes, float ratio, int count) {
+    if (count < 2) {
+      return -1;
+    }
+    int start = 0;
+    for (int end = 0; end < sizes.length; end++) {
+      while (sizes[end] > ratio * sizes[start]) {
+        start++;
+      }
+      if (end - start + 1 >= count) {
+        return end - count + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Cost model for memory-to-memory merges: whether the outputs still to be fetched, at the
+   * average size of those fetched to memory so far, will fill memory up to the memory-to-disk
+   * merge threshold.
+   */
+  @VisibleForTesting
+  synchronized boolean isMemToDiskMergeExpected() {
+    final int remaining = remainingInputs;
+    if (remaining < 0 || fetchedMemOutputs == 0) {
+      return false;
+    }
+    final long expectedBytes = (fetchedMemBytes / fetchedMemOutputs) * remaining;
+    return commitMemory + expectedBytes >= memToDiskMergeThreshold;
+  }
+
+  /**
+   * Called by the scheduler as inputs complete, for the memory-to-memory merge cost model.
+   */
+  void setRemainingInputs(int remainingInputs) {
+    this.remainingInputs = remainingInputs;
+  }
+
+  /**
+   * Bytes written by intermediate merges per 100 bytes shuffled. In-memory outputs are counted
+   * uncompressed and on-disk ones as written.
+   */
+  @VisibleForTesting
+  synchronized long getWriteAmplificationPercent() {
+    return (shuffledBytes == 0) ? 0 : (mergedBytesWritten * 100) / shuffledBytes;
+  }
+
   private void startMemToDiskMerge() {
     synchronized (inMemoryMerger) {
       if (!inMemoryMerger.isInProgress()) {
         LOG.info(inputContext.getSourceVertexName() + ": " + "Starting inMemoryMerger's merge since commitMemory=" +
-            commitMemory + " > mergeThreshold=" + mergeThreshold +
+            commitMemory + " > mergeThreshold=" + memToDiskMergeThreshold +
             ". Current usedMemory=" + usedMemory);
         inMemoryMapOutputs.addAll(inMemoryMergedMapOutputs);
         inMemoryMergedMapOutputs.clear();
@@ -505,13 +690,15 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
   
   public synchronized void closeInMemoryMergedFile(MapOutput mapOutput) {
     inMemoryMergedMapOutputs.add(mapOutput);
+    mergedBytesWritten += mapOutput.getSize();
+    mergeBytesWritten.increment(mapOutput.getSize());
     LOG.info("closeInMemoryMergedFile -> size: " + mapOutput.getSize() +
              ", inMemoryMergedMapOutputs.size() -> " + 
              inMemoryMergedMapOutputs.size());
 
-    commitMemory += mapOutput.getSize();
+    commitMemory += mapOutput.getReservedSize();
 
-    if (commitMemory >= mergeThreshold) {
+    if (commitMemory >= memToDiskMergeThreshold) {
       startMemToDiskMerge();
     }
   }
@@ -535,13 +722,20 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
     }
 
     onDiskMapOutputs.add(file);
+    if (file.getInputAttemptIdentifier() != null) {
+      shuffledBytes += file.getLength();
+    } else {
+      // written by a merge
+      mergedBytesWritten += file.getLength();
+      mergeBytesWritten.increment(file.getLength());
+    }
     if (LOG.isDebugEnabled()) {
       LOG.debug("close onDiskFile=" + file.getPath() + ", len=" + file.getLength());
     }
 
     synchronized (onDiskMerger) {
       if (!onDiskMerger.isInProgress() &&
-          onDiskMapOutputs.size() >= (2 * ioSortFactor - 1)) {
+          onDiskMapOutputs.size() >= onDiskMergeThreshold) {
         onDiskMerger.startMerge(onDiskMapOutputs);
       }
     }
@@ -567,6 +761,12 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
       }
       inMemoryMerger.close();
       onDiskMerger.close();
+      LOG.info(inputContext.getSourceVertexName() + ": merges wrote " + mergeBytesWritten.getValue()
+          + " bytes, " + getWriteAmplificationPercent() + "% of the shuffled bytes");
+      if (bufferPool != null) {
+        LOG.info(inputContext.getSourceVertexName() + ": " + bufferPool);
+        ShuffleBufferPool.releaseShared(bufferPool, memoryLimit);
+      }
 
       List<MapOutput> memory =
           new ArrayList<MapOutput>(inMemoryMergedMapOutputs);
@@ -664,6 +864,7 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
 
         Iterator<MapOutput> it = inputs.iterator();
         MapOutput lastAddedMapOutput = null;
+        int mergeLevel = 0;
         while(it.hasNext() && !Thread.currentThread().isInterrupted()) {
           MapOutput mo = it.next();
           if ((mergeOutputSize + mo.getSize() + manager.getUsedMemory()) > memoryLimit) {
@@ -679,10 +880,11 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
           } else {
             mergeOutputSize += mo.getSize();
             IFile.Reader reader = new InMemoryReader(MergeManager.this,
-                mo.getAttemptIdentifier(), mo.getMemory(), 0, mo.getMemory().length);
+                mo.getAttemptIdentifier(), mo.getMemory(), 0, (int) mo.getSize());
             inMemorySegments.add(new Segment(reader,
                 (mo.isPrimaryMapOutput() ? mergedMapOutputsCounter : null)));
             lastAddedMapOutput = mo;
+            mergeLevel = Math.max(mergeLevel, mo.getMergeLevel());
             it.remove();
             LOG.debug("Added segment for merging. mergeOutputSize=" + mergeOutputSize);
           }
@@ -700,6 +902,7 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
         }
 
         mergedMapOutputs = unconditionalReserve(dummyMapId, mergeOutputSize, false);
+        mergedMapOutputs.setMergeLevel(mergeLevel + 1);
       }
 
       int noInMemorySegments = inMemorySegments.size();
@@ -916,7 +1119,7 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
         final Path file = fileChunk.getPath();
         approxOutputSize += size;
         DiskSegment segment = new DiskSegment(rfs, file, offset, size, codec, ifileReadAhead,
-            ifileReadAheadLength, ifileBufferSize, preserve);
+            ifileReadAheadLength, ifileBufferSize, preserve, null, mapLocalFiles && preserve);
         inputSegments.add(segment);
       }
 
@@ -1003,12 +1206,12 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
     // closed but not yet present in inMemoryMapOutputs
     long fullSize = 0L;
     for (MapOutput mo : inMemoryMapOutputs) {
-      fullSize += mo.getMemory().length;
+      fullSize += mo.getSize();
     }
     while((fullSize > leaveBytes) && !Thread.currentThread().isInterrupted()) {
       MapOutput mo = inMemoryMapOutputs.remove(0);
       byte[] data = mo.getMemory();
-      long size = data.length;
+      long size = mo.getSize();
       totalSize += size;
       fullSize -= size;
       IFile.Reader reader = new InMemoryReader(MergeManager.this, 
@@ -1177,7 +1380,8 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
       final long fileOffset = fileChunk.getOffset();
       final boolean preserve = fileChunk.isLocalFile();
       diskSegments.add(new DiskSegment(fs, file, fileOffset, fileLength, codec, ifileReadAhead,
-                                   ifileReadAheadLength, ifileBufferSize, preserve, counter));
+                                   ifileReadAheadLength, ifileBufferSize, preserve, counter,
+                                   mapLocalFiles && preserve));
     }
     LOG.info("Merging " + onDisk.length + " files, " +
              onDiskBytes + " bytes from disk");
@@ -1196,6 +1400,18 @@ public class MergeManager implements FetchedInputAllocatorOrderedGrouped {
                                              finalSegments, 0);
     LOG.info("Merging " + finalSegments.size() + " segments, " +
              inMemBytes + " bytes from memory into reduce");
+    if (finalMergeParallelism > 1) {
+      // Merge the in-memory and on-disk segments as one tree, instead of merging the on-disk
+      // segments first and feeding the result into a merge with the in-memory ones.
+      final int numInMemSegments = finalSegments.size() + memDiskSegments.size();
+      finalSegments.addAll(memDiskSegments);
+      finalSegments.addAll(diskSegments);
+      memDiskSegments.clear();
+      diskSegments.clear();
+      return ParallelMerger.merge(job, fs, keyClass, valueClass, codec, finalSegments,
+          numInMemSegments, ioSortFactor, finalMergeParallelism, tmpDir, comparator,
+          progressable, spilledRecordsCounter, null, additionalBytesRead);
+    }
     if (0 != onDiskBytes) {
       final int numInMemSegments = memDiskSegments.size();
       diskSegments.addAll(0, memDiskSegments);
@@ -23,9 +23,12 @@ import org.apache.hadoop.metrics.MetricsRecord;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.tez.common.TezRuntimeFrameworkConfigs;
+import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.Constants;
 import org.apache.tez.runtime.library.common.TezRuntimeUtils;
+import org.apache.tez.runtime.library.common.shuffle.FetchStatistics;
+import org.apache.tez.runtime.library.common.shuffle.ShuffleUtils;
 
 class ShuffleClientMetrics implements Updater {
 
@@ -35,6 +38,8 @@ class ShuffleClientMetrics implements Updater {
   private long numBytes = 0;
   private int numThreadsBusy = 0;
   private final int numCopiers;
+  // null if fetch statistics are disabled
+  private final FetchStatistics fetchStatistics;
   
   ShuffleClientMetrics(String dagName, String vertexName, int taskIndex, Configuration conf, 
       String user) {
@@ -54,6 +59,7 @@ class ShuffleClientMetrics implements Updater {
             TezRuntimeFrameworkConfigs.TEZ_RUNTIME_METRICS_SESSION_ID,
             TezRuntimeFrameworkConfigs.TEZ_RUNTIME_METRICS_SESSION_ID_DEFAULT));
     metricsContext.registerUpdater(this);
+    this.fetchStatistics = ShuffleUtils.createFetchStatistics(conf);
   }
   public synchronized void inputBytes(long numBytes) {
     this.numBytes += numBytes;
@@ -70,6 +76,45 @@ class ShuffleClientMetrics implements Updater {
   public synchronized void threadFree() {
     --numThreadsBusy;
   }
+  public void connected(MapHost host, long connectMillis, long firstByteMillis) {
+    if (fetchStatistics != null) {
+      fetchStatistics.connected(host.getHostIdentifier(), connectMillis, firstByteMillis);
+    }
+  }
+  public void outputFetched(MapHost host, long bytes, long millis) {
+    if (fetchStatistics != null) {
+      fetchStatistics.outputFetched(host.getHostIdentifier(), bytes, millis);
+    }
+  }
+  public void fetchFailed(MapHost host) {
+    if (fetchStatistics != null) {
+      fetchStatistics.fetchFailed(host.getHostIdentifier());
+    }
+  }
+  public void fetchRetried(MapHost host) {
+    if (fetchStatistics != null) {
+      fetchStatistics.fetchRetried(host.getHostIdentifier());
+    }
+  }
+  public void hostPenalized(MapHost host) {
+    if (fetchStatistics != null) {
+      fetchStatistics.hostPenalized(host.getHostIdentifier());
+    }
+  }
+  public void updateCounters(TezCounters counters) {
+    if (fetchStatistics != null) {
+      fetchStatistics.updateCounters(counters);
+    }
+  }
+  /**
+   * @return the fetch statistics, after publishing the final counters; null if disabled
+   */
+  public FetchStatistics publishFinalCounters(TezCounters counters) {
+    if (fetchStatistics != null) {
+      fetchStatistics.publishFinalCounters(counters);
+    }
+    return fetchStatistics;
+  }
   public void doUpdates(MetricsContext unused) {
     synchronized (this) {
       shuffleMetrics.incrMetric("shuffle_input_bytes", numBytes);
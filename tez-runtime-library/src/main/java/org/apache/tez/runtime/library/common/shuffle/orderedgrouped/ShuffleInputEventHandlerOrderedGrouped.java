@@ -31,7 +31,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.util.StringInterner;
 import org.apache.tez.common.TezCommonUtils;
-import org.apache.tez.common.TezUtilsInternal;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.runtime.api.Event;
 import org.apache.tez.runtime.api.InputContext;
@@ -89,14 +88,12 @@ public class ShuffleInputEventHandlerOrderedGrouped implements ShuffleEventHandl
       } catch (InvalidProtocolBufferException e) {
         throw new TezUncheckedException("Unable to parse DataMovementEvent payload", e);
       }
-      BitSet emptyPartitionsBitSet = null;
-      if (shufflePayload.hasEmptyPartitions()) {
-        try {
-          byte[] emptyPartitions = TezCommonUtils.decompressByteStringToByteArray(shufflePayload.getEmptyPartitions(), inflater);
-          emptyPartitionsBitSet = TezUtilsInternal.fromByteArray(emptyPartitions);
-        } catch (IOException e) {
-          throw new TezUncheckedException("Unable to set the empty partition to succeeded", e);
-        }
+      BitSet emptyPartitionsBitSet;
+      try {
+        emptyPartitionsBitSet = ShuffleUtils.getEmptyPartitions(shufflePayload,
+            dmEvent.getSourceIndex() + 1, inflater);
+      } catch (IOException e) {
+        throw new TezUncheckedException("Unable to set the empty partition to succeeded", e);
       }
       processDataMovementEvent(dmEvent, shufflePayload, emptyPartitionsBitSet);
       scheduler.updateEventReceivedTime();
@@ -108,14 +105,12 @@ public class ShuffleInputEventHandlerOrderedGrouped implements ShuffleEventHandl
       } catch (InvalidProtocolBufferException e) {
         throw new TezUncheckedException("Unable to parse DataMovementEvent payload", e);
       }
-      BitSet emptyPartitionsBitSet = null;
-      if (shufflePayload.hasEmptyPartitions()) {
-        try {
-          byte[] emptyPartitions = TezCommonUtils.decompressByteStringToByteArray(shufflePayload.getEmptyPartitions(), inflater);
-          emptyPartitionsBitSet = TezUtilsInternal.fromByteArray(emptyPartitions);
-        } catch (IOException e) {
-          throw new TezUncheckedException("Unable to set the empty partition to succeeded", e);
-        }
+      BitSet emptyPartitionsBitSet;
+      try {
+        emptyPartitionsBitSet = ShuffleUtils.getEmptyPartitions(shufflePayload,
+            edme.getSourceIndex() + edme.getCount(), inflater);
+      } catch (IOException e) {
+        throw new TezUncheckedException("Unable to set the empty partition to succeeded", e);
       }
       for (int offset = 0; offset < edme.getCount(); offset++) {
         numDmeEvents.incrementAndGet();
@@ -143,7 +138,7 @@ public class ShuffleInputEventHandlerOrderedGrouped implements ShuffleEventHandl
           ShuffleUtils.stringify(shufflePayload));
     }
 
-    if (shufflePayload.hasEmptyPartitions()) {
+    if (emptyPartitionsBitSet != null) {
       try {
         if (emptyPartitionsBitSet.get(partitionId)) {
           if (LOG.isDebugEnabled()) {
@@ -72,6 +72,10 @@ import org.apache.tez.runtime.api.events.InputReadErrorEvent;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.TezRuntimeUtils;
+import org.apache.tez.runtime.library.common.shuffle.FetchBatchSizer;
+import org.apache.tez.runtime.library.common.shuffle.FetchStatistics;
+import org.apache.tez.runtime.library.common.shuffle.SharedFetcherPool;
+import org.apache.tez.runtime.library.common.shuffle.SlowHostDetector;
 import org.apache.tez.runtime.library.common.shuffle.ShuffleUtils;
 import org.apache.tez.runtime.library.common.shuffle.HostPort;
 import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.MapHost.HostPortPartition;
@@ -142,6 +146,8 @@ class ShuffleScheduler {
   private static final Logger LOG = LoggerFactory.getLogger(ShuffleScheduler.class);
   static final long INITIAL_PENALTY = 2000L; // 2 seconds
   private static final float PENALTY_GROWTH_RATE = 1.3f;
+  // how often running fetches are checked for slow hosts, with hedged fetching
+  private static final long HEDGE_CHECK_INTERVAL_MS = 1000L;
 
   private final BitSet finishedMaps;
   private final int numInputs;
@@ -197,6 +203,8 @@ class ShuffleScheduler {
       Collections.newSetFromMap(new ConcurrentHashMap<FetcherOrderedGrouped, Boolean>());
 
   private final ListeningExecutorService fetcherExecutor;
+  // Set if the fetchers run on the pool shared by all inputs of the JVM.
+  private final SharedFetcherPool.Client sharedFetchers;
 
   private final HttpConnectionParams httpConnectionParams;
   private final FetchedInputAllocatorOrderedGrouped allocator;
@@ -224,6 +232,19 @@ class ShuffleScheduler {
   private final TezCounter wrongReduceErrsCounter;
 
   private final int maxTaskOutputAtOnce;
+  // null unless adaptive fetch batching is enabled
+  private final FetchBatchSizer fetchBatchSizer;
+  // null unless hedged fetching is enabled
+  private final SlowHostDetector slowHostDetector;
+  private final int maxHedgedFetches;
+  private final ListeningExecutorService hedgeExecutor;
+  // with hedged fetching, the running fetches that may be hedged
+  private final Map<MapHost, InFlightFetch> inFlightFetches = new HashMap<MapHost, InFlightFetch>();
+  // with hedged fetching, the known attempts of every unfinished source and their hosts
+  private final Map<Integer, Map<InputAttemptIdentifier, MapHost>> knownSources =
+      new HashMap<Integer, Map<InputAttemptIdentifier, MapHost>>();
+  private final Set<FetcherOrderedGrouped> hedgedFetchers =
+      Collections.newSetFromMap(new ConcurrentHashMap<FetcherOrderedGrouped, Boolean>());
   private final int maxFetchFailuresBeforeReporting;
   private final boolean reportReadErrorImmediately;
   private final int maxFailedUniqueFetches;
@@ -374,10 +395,24 @@ class ShuffleScheduler {
             .getServiceConsumerMetaData(TezConstants.TEZ_SHUFFLE_HANDLER_SERVICE_ID));
     this.jobTokenSecretManager = new JobTokenSecretManager(jobTokenSecret);
 
-    ExecutorService fetcherRawExecutor = Executors.newFixedThreadPool(numFetchers,
-        new ThreadFactoryBuilder().setDaemon(true)
-            .setNameFormat("Fetcher_O {" + srcNameTrimmed + "} #%d").build());
-    this.fetcherExecutor = MoreExecutors.listeningDecorator(fetcherRawExecutor);
+    if (conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_ENABLED_DEFAULT)) {
+      this.sharedFetchers = SharedFetcherPool.getInstance(
+          conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX,
+              TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_DEFAULT),
+          conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_PER_HOST,
+              TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_MAX_PER_HOST_DEFAULT))
+          .newClient("Fetcher_O {" + srcNameTrimmed + "}", conf.getInt(
+              TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_PRIORITY,
+              TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_SHARED_FETCHERS_PRIORITY_DEFAULT));
+      this.fetcherExecutor = sharedFetchers;
+    } else {
+      this.sharedFetchers = null;
+      ExecutorService fetcherRawExecutor = Executors.newFixedThreadPool(numFetchers,
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("Fetcher_O {" + srcNameTrimmed + "} #%d").build());
+      this.fetcherExecutor = MoreExecutors.listeningDecorator(fetcherRawExecutor);
+    }
 
     this.maxFailedUniqueFetches = Math.min(numberOfInputs, 5);
     referee.start();
@@ -400,6 +435,17 @@ class ShuffleScheduler {
     this.maxTaskOutputAtOnce = Math.max(1, Math.min(75, conf.getInt(
             TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_MAX_TASK_OUTPUT_AT_ONCE,
             TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_MAX_TASK_OUTPUT_AT_ONCE_DEFAULT)));
+    this.fetchBatchSizer = ShuffleUtils.createFetchBatchSizer(conf, maxTaskOutputAtOnce);
+    this.slowHostDetector = ShuffleUtils.createSlowHostDetector(conf);
+    this.maxHedgedFetches = conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MAX,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MAX_DEFAULT);
+    if (slowHostDetector != null && maxHedgedFetches > 0) {
+      this.hedgeExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+          maxHedgedFetches, new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("Fetcher_O {" + srcNameTrimmed + "} hedge #%d").build()));
+    } else {
+      this.hedgeExecutor = null;
+    }
     
     this.skippedInputCounter = inputContext.getCounters().findCounter(TaskCounter.NUM_SKIPPED_INPUTS);
     this.firstEventReceived = inputContext.getCounters().findCounter(TaskCounter.FIRST_EVENT_RECEIVED);
@@ -413,7 +459,10 @@ class ShuffleScheduler {
         + ", maxFailedUniqueFetches=" + maxFailedUniqueFetches
         + ", abortFailureLimit=" + abortFailureLimit
         + ", maxTaskOutputAtOnce=" + maxTaskOutputAtOnce
+        + ", adaptiveBatching=" + (fetchBatchSizer != null)
+        + ", maxHedgedFetches=" + ((hedgeExecutor == null) ? 0 : maxHedgedFetches)
         + ", numFetchers=" + numFetchers
+        + ", sharedFetchers=" + (sharedFetchers != null)
         + ", hostFailureFraction=" + hostFailureFraction
         + ", minFailurePerHost=" + minFailurePerHost
         + ", maxAllowedFailedFetchFraction=" + maxAllowedFailedFetchFraction
@@ -438,6 +487,11 @@ class ShuffleScheduler {
           LOG.warn("Failed log progress while closing, ignoring and continuing shutdown. Message={}",
               e.getMessage());
         }
+        FetchStatistics fetchStatistics =
+            shuffleMetrics.publishFinalCounters(inputContext.getCounters());
+        if (fetchStatistics != null) {
+          LOG.info(srcNameTrimmed + ": " + "Fetch statistics: " + fetchStatistics);
+        }
 
         // Notify and interrupt the waiting scheduler thread
         synchronized (this) {
@@ -484,6 +538,9 @@ class ShuffleScheduler {
         // Ensure that fetchers respond to cancel request.
         fetcherExecutor.shutdownNow();
       }
+      if (hedgeExecutor != null) {
+        hedgeExecutor.shutdownNow();
+      }
       long endTime = System.currentTimeMillis();
       LOG.info("Shutting down fetchers for input: {}, shutdown timetaken: {} ms, "
               + "hasFetcherExecutorStopped: {}", srcNameTrimmed,
@@ -561,6 +618,16 @@ class ShuffleScheduler {
                                          ) throws IOException {
 
     inputContext.notifyProgress();
+    if (host != null && output != null && !isLocalFetch) {
+      shuffleMetrics.outputFetched(host, bytesCompressed, millis);
+    }
+    if (slowHostDetector != null && host != null && !isLocalFetch) {
+      slowHostDetector.outputFetched(host.getHostIdentifier(), bytesCompressed, millis);
+      InFlightFetch fetch = inFlightFetches.get(host);
+      if (fetch != null) {
+        fetch.lastProgressTime = System.currentTimeMillis();
+      }
+    }
     if (!isInputFinished(srcAttemptIdentifier.getInputIdentifier())) {
       if (!isLocalFetch) {
         /**
@@ -600,6 +667,7 @@ class ShuffleScheduler {
       if (!srcAttemptIdentifier.canRetrieveInputInChunks()) {
         remainingMaps.decrementAndGet();
         setInputFinished(srcAttemptIdentifier.getInputIdentifier());
+        knownSources.remove(srcAttemptIdentifier.getInputIdentifier());
         numFetchedSpills++;
       } else {
         int inputIdentifier = srcAttemptIdentifier.getInputIdentifier();
@@ -640,6 +708,7 @@ class ShuffleScheduler {
         }
       }
 
+      mergeManager.setRemainingInputs(remainingMaps.get());
       if (remainingMaps.get() == 0) {
         notifyAll(); // Notify the getHost() method.
         LOG.info("All inputs fetched for input vertex : " + inputContext.getSourceVertexName());
@@ -712,6 +781,7 @@ class ShuffleScheduler {
       LOG.info("copy(" + inputsDone + " (spillsFetched=" + numFetchedSpills + ") of " + numInputs +
           ". Transfer rate (CumulativeDataFetched/TimeSinceInputStarted)) "
           + mbpsFormat.format(transferRate) + " MB/s)");
+      shuffleMetrics.updateCounters(inputContext.getCounters());
     }
   }
 
@@ -720,8 +790,17 @@ class ShuffleScheduler {
                                       boolean readError,
                                       boolean connectError,
                                       boolean isLocalFetch) {
+    if (host != null && host.isHedge()) {
+      // the fetch that was hedged is still responsible for the output
+      LOG.info(srcNameTrimmed + ": " + "Ignoring failed hedged fetch of " + srcAttempt + " from "
+          + host);
+      return;
+    }
     failedShuffleCounter.increment(1);
     inputContext.notifyProgress();
+    if (host != null && !isLocalFetch) {
+      shuffleMetrics.fetchFailed(host);
+    }
     int failures = incrementAndGetFailureAttempt(srcAttempt);
 
     if (!isLocalFetch) {
@@ -785,6 +864,7 @@ class ShuffleScheduler {
 
   private void penalizeHost(MapHost host, int failures) {
     host.penalize();
+    shuffleMetrics.hostPenalized(host);
 
     HostPort hostPort = new HostPort(host.getHost(), host.getPort());
     // TODO TEZ-922 hostFailures isn't really used for anything apart from
@@ -1040,6 +1120,16 @@ class ShuffleScheduler {
     pathToIdentifierMap.put(
         getIdentifierFromPathAndReduceId(srcAttempt.getPathComponent(),
             partitionId), srcAttempt);
+    if (slowHostDetector != null && !srcAttempt.canRetrieveInputInChunks()
+        && !isInputFinished(srcAttempt.getInputIdentifier())) {
+      Map<InputAttemptIdentifier, MapHost> sources =
+          knownSources.get(srcAttempt.getInputIdentifier());
+      if (sources == null) {
+        sources = new HashMap<InputAttemptIdentifier, MapHost>();
+        knownSources.put(srcAttempt.getInputIdentifier(), sources);
+      }
+      sources.put(srcAttempt, host);
+    }
 
     // Mark the host as pending
     if (host.getState() == MapHost.State.PENDING) {
@@ -1064,6 +1154,10 @@ class ShuffleScheduler {
   
   public synchronized void putBackKnownMapOutput(MapHost host,
                                                  InputAttemptIdentifier srcAttempt) {
+    if (host.isHedge()) {
+      // left to the fetch that was hedged
+      return;
+    }
     host.addKnownMap(srcAttempt);
   }
 
@@ -1171,11 +1265,13 @@ class ShuffleScheduler {
     List<InputAttemptIdentifier> result = new ArrayList<InputAttemptIdentifier>();
     int includedMaps = 0;
     int totalSize = dedupedList.size();
+    final int batchSize = (fetchBatchSizer == null) ? maxTaskOutputAtOnce
+        : fetchBatchSizer.getBatchSize(host.getHostIdentifier());
 
     for(Integer inputIndex : dedupedList.keySet()) {
       List<InputAttemptIdentifier> attemptIdentifiers = dedupedList.get(inputIndex);
       for (InputAttemptIdentifier inputAttemptIdentifier : attemptIdentifiers) {
-        if (includedMaps++ >= maxTaskOutputAtOnce) {
+        if (includedMaps++ >= batchSize) {
           host.addKnownMap(inputAttemptIdentifier);
         } else {
           result.add(inputAttemptIdentifier);
@@ -1186,10 +1282,36 @@ class ShuffleScheduler {
       LOG.debug("assigned " + includedMaps + " of " + totalSize + " to " +
           host + " to " + Thread.currentThread().getName());
     }
+    InFlightFetch fetch = inFlightFetches.get(host);
+    if (fetch != null) {
+      fetch.attempts = result;
+    }
     return result;
   }
 
+  /**
+   * Account a request that fetched all of its outputs from a host, for adaptive batching.
+   */
+  public void fetchBatchCompleted(MapHost host, int outputs, long bytes, long millis) {
+    if (fetchBatchSizer != null) {
+      fetchBatchSizer.fetchCompleted(host.getHostIdentifier(), outputs, bytes, millis);
+    }
+  }
+
+  /**
+   * Account a request to a host that failed part way, for adaptive batching.
+   */
+  public void fetchBatchFailed(MapHost host) {
+    if (fetchBatchSizer != null) {
+      fetchBatchSizer.fetchFailed(host.getHostIdentifier());
+    }
+  }
+
   public synchronized void freeHost(MapHost host) {
+    if (host.isHedge()) {
+      return;
+    }
+    inFlightFetches.remove(host);
     if (host.getState() != MapHost.State.PENALIZED) {
       if (host.markAvailable() == MapHost.State.PENDING) {
         pendingHosts.add(host);
@@ -1203,6 +1325,7 @@ class ShuffleScheduler {
   }
 
   public synchronized void resetKnownMaps() {
+    knownSources.clear();
     mapLocations.clear();
     obsoleteInputs.clear();
     pendingHosts.clear();
@@ -1241,6 +1364,26 @@ class ShuffleScheduler {
     
   }
   
+  /**
+   * A running fetch from a host, for hedged fetching.
+   */
+  private static class InFlightFetch {
+    final MapHost host;
+    final FetcherOrderedGrouped fetcher;
+    // set once the fetcher asked for its outputs
+    List<InputAttemptIdentifier> attempts;
+    long lastProgressTime;
+    // inputs of the attempts for which a hedged fetch was started
+    final Set<Integer> hedgedInputs = new HashSet<Integer>();
+    boolean cancelled = false;
+
+    InFlightFetch(MapHost host, FetcherOrderedGrouped fetcher, long startTime) {
+      this.host = host;
+      this.fetcher = fetcher;
+      this.lastProgressTime = startTime;
+    }
+  }
+
   private PathPartition getIdentifierFromPathAndReduceId(String path, int reduceId) {
     return new PathPartition(path, reduceId);
   }
@@ -1298,10 +1441,16 @@ class ShuffleScheduler {
       outer:
       while (!isShutdown.get() && remainingMaps.get() > 0) {
         synchronized (ShuffleScheduler.this) {
-          if (runningFetchers.size() >= numFetchers || pendingHosts.isEmpty()) {
+          if (runningFetchers.size() - hedgedFetchers.size() >= numFetchers
+              || pendingHosts.isEmpty()) {
             if (remainingMaps.get() > 0) {
               try {
-                ShuffleScheduler.this.wait();
+                if (hedgeExecutor != null) {
+                  // wake up to look for slow hosts
+                  ShuffleScheduler.this.wait(HEDGE_CHECK_INTERVAL_MS);
+                } else {
+                  ShuffleScheduler.this.wait();
+                }
               } catch (InterruptedException e) {
                 if (isShutdown.get()) {
                   LOG.info(srcNameTrimmed + ": " +
@@ -1320,6 +1469,15 @@ class ShuffleScheduler {
           LOG.debug(srcNameTrimmed + ": " + "NumCompletedInputs: {}" + (numInputs - remainingMaps.get()));
         }
 
+        if (hedgeExecutor != null && !isShutdown.get()) {
+          // Closing connections may block; done without holding the lock.
+          for (FetcherOrderedGrouped loser : hedgeSlowFetches()) {
+            LOG.info(srcNameTrimmed + ": " + "Cancelling fetch, all of its outputs were fetched by "
+                + "hedged fetches");
+            loser.cancel();
+          }
+        }
+
         // Ensure there's memory available before scheduling the next Fetcher.
         try {
           // If merge is on, block
@@ -1339,9 +1497,13 @@ class ShuffleScheduler {
 
         if (!isShutdown.get() && remainingMaps.get() > 0) {
           synchronized (ShuffleScheduler.this) {
-            int numFetchersToRun = numFetchers - runningFetchers.size();
+            int numFetchersToRun = numFetchers - (runningFetchers.size() - hedgedFetchers.size());
             int count = 0;
             while (count < numFetchersToRun && !isShutdown.get() && remainingMaps.get() > 0) {
+              if (hedgeExecutor != null && pendingHosts.isEmpty()) {
+                // Don't block in getHost, slow hosts need to be checked periodically.
+                break;
+              }
               MapHost mapHost;
               try {
                 mapHost = getHost();  // Leads to a wait.
@@ -1367,10 +1529,7 @@ class ShuffleScheduler {
                   LOG.debug(srcNameTrimmed + ": " + "Scheduling fetch for inputHost: {}",
                       mapHost.getHostIdentifier() + ":" + mapHost.getPartitionId());
                 }
-                FetcherOrderedGrouped fetcherOrderedGrouped = constructFetcherForHost(mapHost);
-                runningFetchers.add(fetcherOrderedGrouped);
-                ListenableFuture<Void> future = fetcherExecutor.submit(fetcherOrderedGrouped);
-                Futures.addCallback(future, new FetchFutureCallback(fetcherOrderedGrouped));
+                startFetcher(mapHost);
               }
             }
           }
@@ -1380,10 +1539,127 @@ class ShuffleScheduler {
       if (!fetcherExecutor.isShutdown()) {
         fetcherExecutor.shutdownNow();
       }
+      if (hedgeExecutor != null) {
+        hedgeExecutor.shutdownNow();
+      }
       return null;
     }
   }
 
+  // outputs on the local host are read from disk, if local fetch is enabled
+  private boolean isLocalHost(MapHost host) {
+    return localDiskFetchEnabled && host.getHost().equals(localHostname)
+        && host.getPort() == shufflePort;
+  }
+
+  @VisibleForTesting
+  synchronized void startFetcher(MapHost mapHost) {
+    FetcherOrderedGrouped fetcherOrderedGrouped = constructFetcherForHost(mapHost);
+    runningFetchers.add(fetcherOrderedGrouped);
+    if (hedgeExecutor != null && !isLocalHost(mapHost)) {
+      inFlightFetches.put(mapHost, new InFlightFetch(mapHost, fetcherOrderedGrouped,
+          System.currentTimeMillis()));
+    }
+    ListenableFuture<Void> future;
+    if (sharedFetchers != null) {
+      sharedFetchers.setRemainingInputs(remainingMaps.get());
+      future = sharedFetchers.submitFetch(mapHost.getHost(), fetcherOrderedGrouped);
+    } else {
+      future = fetcherExecutor.submit(fetcherOrderedGrouped);
+    }
+    Futures.addCallback(future, new FetchFutureCallback(fetcherOrderedGrouped));
+  }
+
+  /**
+   * Start hedged fetches for the outputs of running fetches from slow hosts. Every output is
+   * fetched from another known attempt of its source on a different host if there is one, or
+   * else from the same host over a new connection; whichever fetch completes first is used.
+   * Outputs left over once {@link #maxHedgedFetches} are running are hedged in a later call.
+   *
+   * @return fetchers whose outputs have all been fetched by their hedged fetches, which the
+   *         caller should cancel
+   */
+  @VisibleForTesting
+  synchronized List<FetcherOrderedGrouped> hedgeSlowFetches() {
+    List<FetcherOrderedGrouped> losers = new ArrayList<FetcherOrderedGrouped>();
+    long now = System.currentTimeMillis();
+    long medianThroughput = slowHostDetector.getMedianThroughput();
+    for (InFlightFetch fetch : inFlightFetches.values()) {
+      if (fetch.attempts == null || fetch.cancelled) {
+        continue;
+      }
+      if (!fetch.hedgedInputs.isEmpty()) {
+        boolean allFinished = true;
+        for (InputAttemptIdentifier attempt : fetch.attempts) {
+          if (!isInputFinished(attempt.getInputIdentifier())) {
+            allFinished = false;
+            break;
+          }
+        }
+        if (allFinished) {
+          fetch.cancelled = true;
+          losers.add(fetch.fetcher);
+          continue;
+        }
+      }
+      if (hedgedFetchers.size() >= maxHedgedFetches || !slowHostDetector.isSlow(
+          fetch.host.getHostIdentifier(), now - fetch.lastProgressTime, medianThroughput)) {
+        continue;
+      }
+
+      Map<HostPortPartition, MapHost> hedgeHosts = new HashMap<HostPortPartition, MapHost>();
+      Map<MapHost, List<Integer>> hedgeInputs = new HashMap<MapHost, List<Integer>>();
+      for (InputAttemptIdentifier attempt : fetch.attempts) {
+        if (attempt.canRetrieveInputInChunks() || !inputShouldBeConsumed(attempt)
+            || fetch.hedgedInputs.contains(attempt.getInputIdentifier())) {
+          continue;
+        }
+        MapHost source = fetch.host;
+        InputAttemptIdentifier sourceAttempt = attempt;
+        Map<InputAttemptIdentifier, MapHost> sources = knownSources.get(attempt.getInputIdentifier());
+        if (sources != null) {
+          for (Map.Entry<InputAttemptIdentifier, MapHost> entry : sources.entrySet()) {
+            MapHost other = entry.getValue();
+            if (!entry.getKey().equals(attempt) && !obsoleteInputs.contains(entry.getKey())
+                && !other.getHostIdentifier().equals(fetch.host.getHostIdentifier())) {
+              source = other;
+              sourceAttempt = entry.getKey();
+              break;
+            }
+          }
+        }
+        HostPortPartition identifier = new HostPortPartition(source.getHost(), source.getPort(),
+            source.getPartitionId());
+        MapHost hedgeHost = hedgeHosts.get(identifier);
+        if (hedgeHost == null) {
+          hedgeHost = new MapHost(source.getHost(), source.getPort(), source.getPartitionId(),
+              true);
+          hedgeHosts.put(identifier, hedgeHost);
+          hedgeInputs.put(hedgeHost, new ArrayList<Integer>());
+        }
+        hedgeHost.addKnownMap(sourceAttempt);
+        hedgeInputs.get(hedgeHost).add(attempt.getInputIdentifier());
+      }
+
+      for (MapHost hedgeHost : hedgeHosts.values()) {
+        if (hedgedFetchers.size() >= maxHedgedFetches) {
+          break;
+        }
+        LOG.info(srcNameTrimmed + ": " + "Hedging fetch from slow host " + fetch.host + " with "
+            + hedgeHost.getNumKnownMapOutputs() + " outputs from " + hedgeHost + ", no output for "
+            + (now - fetch.lastProgressTime) + " ms, median throughput=" + medianThroughput
+            + " bytes/s");
+        hedgeHost.markBusy();
+        fetch.hedgedInputs.addAll(hedgeInputs.get(hedgeHost));
+        FetcherOrderedGrouped fetcher = constructFetcherForHost(hedgeHost);
+        runningFetchers.add(fetcher);
+        hedgedFetchers.add(fetcher);
+        Futures.addCallback(hedgeExecutor.submit(fetcher), new FetchFutureCallback(fetcher));
+      }
+    }
+    return losers;
+  }
+
   @VisibleForTesting
   FetcherOrderedGrouped constructFetcherForHost(MapHost mapHost) {
     return new FetcherOrderedGrouped(httpConnectionParams, ShuffleScheduler.this, allocator,
@@ -1406,6 +1682,7 @@ class ShuffleScheduler {
     private void doBookKeepingForFetcherComplete() {
       synchronized (ShuffleScheduler.this) {
         runningFetchers.remove(fetcherOrderedGrouped);
+        hedgedFetchers.remove(fetcherOrderedGrouped);
         ShuffleScheduler.this.notifyAll();
       }
     }
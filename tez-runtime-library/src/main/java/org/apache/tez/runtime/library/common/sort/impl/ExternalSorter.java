@@ -57,6 +57,7 @@ import org.apache.tez.runtime.library.api.TezRuntimeConfiguration.ReportPartitio
 import org.apache.tez.runtime.library.common.ConfigUtils;
 import org.apache.tez.runtime.library.common.TezRuntimeUtils;
 import org.apache.tez.runtime.library.common.combine.Combiner;
+import org.apache.tez.runtime.library.common.comparator.NormalizedKeyPrefix;
 import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.ShuffleHeader;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
 import org.apache.tez.runtime.library.common.task.local.output.TezTaskOutput;
@@ -104,6 +105,8 @@ public abstract class ExternalSorter {
   protected final Class keyClass;
   protected final Class valClass;
   protected final RawComparator comparator;
+  // null unless key prefixes are enabled and supported by the comparator
+  protected final NormalizedKeyPrefix keyPrefix;
   protected final SerializationFactory serializationFactory;
   protected final Serializer keySerializer;
   protected final Serializer valSerializer;
@@ -193,6 +196,9 @@ public abstract class ExternalSorter {
         IndexedSorter.class), this.conf);
 
     comparator = ConfigUtils.getIntermediateOutputKeyComparator(this.conf);
+    keyPrefix = this.conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SORTER_KEY_PREFIX_ENABLED,
+        TezRuntimeConfiguration.TEZ_RUNTIME_SORTER_KEY_PREFIX_ENABLED_DEFAULT)
+        ? NormalizedKeyPrefix.forComparator(comparator) : null;
 
     // k/v serialization
     keyClass = ConfigUtils.getIntermediateOutputKeyClass(this.conf);
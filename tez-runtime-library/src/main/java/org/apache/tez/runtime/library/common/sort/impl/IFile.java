@@ -27,6 +27,7 @@ import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +50,7 @@ import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.io.serializer.SerializationFactory;
 import org.apache.hadoop.io.serializer.Serializer;
 import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 
 /**
  * <code>IFile</code> is the simple <key-len, value-len, key, value> format
@@ -67,6 +69,9 @@ public class IFile {
   public static final DataInputBuffer REPEAT_KEY = new DataInputBuffer();
   static final byte[] HEADER = new byte[] { (byte) 'T', (byte) 'I',
     (byte) 'F' , (byte) 0};
+  // flags in the last header byte
+  static final byte COMPRESSED_FLAG = 1;
+  static final byte BLOCK_FORMAT_FLAG = 2;
 
   private static final String INCOMPLETE_READ = "Requested to read %d got %d";
 
@@ -98,6 +103,8 @@ public class IFile {
     private final TezCounter serializedUncompressedBytes;
 
     IFileOutputStream checksumOut;
+    // set when the records are written as blocks, see IFileBlockOutputStream
+    IFileBlockOutputStream blockOut;
 
     boolean closeSerializers = false;
     Serializer keySerializer = null;
@@ -150,7 +157,22 @@ public class IFile {
       this.checksumOut = new IFileOutputStream(outputStream);
       this.start = this.rawOut.getPos();
       this.rle = rle;
-      if (codec != null) {
+      if (conf != null && conf.getBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_BLOCK_FORMAT_ENABLED,
+          TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_BLOCK_FORMAT_ENABLED_DEFAULT)) {
+        int blockSize = conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_BLOCK_SIZE,
+            TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_BLOCK_SIZE_DEFAULT);
+        if (codec != null) {
+          this.compressor = CodecPool.getCompressor(codec);
+          if (this.compressor != null) {
+            this.compressOutput = true;
+          } else {
+            LOG.warn("Could not obtain compressor from CodecPool");
+          }
+        }
+        this.blockOut = new IFileBlockOutputStream(checksumOut, compressOutput ? codec : null,
+            compressor, blockSize);
+        this.out = new FSDataOutputStream(blockOut, null);
+      } else if (codec != null) {
         this.compressor = CodecPool.getCompressor(codec);
         if (this.compressor != null) {
           this.compressor.reset();
@@ -186,7 +208,11 @@ public class IFile {
     protected void writeHeader(OutputStream outputStream) throws IOException {
       if (!headerWritten) {
         outputStream.write(HEADER, 0, HEADER.length - 1);
-        outputStream.write((compressOutput) ? (byte) 1 : (byte) 0);
+        byte flags = (compressOutput) ? COMPRESSED_FLAG : 0;
+        if (blockOut != null) {
+          flags |= BLOCK_FORMAT_FLAG;
+        }
+        outputStream.write(flags);
         outputStream.flush();
         headerWritten = true;
       }
@@ -222,7 +248,10 @@ public class IFile {
       if (ownOutputStream) {
         out.close();
       } else {
-        if (compressOutput) {
+        if (blockOut != null) {
+          // Write the last block and the block index
+          blockOut.finish();
+        } else if (compressOutput) {
           // Flush
           compressedOut.finish();
           compressedOut.resetState();
@@ -413,6 +442,10 @@ public class IFile {
     protected void writeKVPair(byte[] keyData, int keyPos, int keyLength,
         byte[] valueData, int valPos, int valueLength) throws IOException {
       writeValueMarker(out);
+      if (blockOut != null) {
+        // blocks may only be cut here, so that each of them starts with a key
+        blockOut.startKey();
+      }
       WritableUtils.writeVInt(out, keyLength);
       WritableUtils.writeVInt(out, valueLength);
       out.write(keyData, keyPos, keyLength);
@@ -490,8 +523,10 @@ public class IFile {
     private final TezCounter readRecordsCounter;
     private final TezCounter bytesReadCounter;
 
-    final InputStream in;        // Possibly decompressed stream that we read
+    InputStream in;        // Possibly decompressed stream that we read
     Decompressor decompressor;
+    // set when the stream is read ahead on the prefetch threads
+    IFilePrefetcher.PrefetchInputStream prefetchIn;
     public long bytesRead = 0;
     final long fileLength;
     protected boolean eof = false;
@@ -546,7 +581,7 @@ public class IFile {
         int bufferSize) throws IOException {
       this(in, ((in != null) ? (length - HEADER.length) : length), codec,
           readsCounter, bytesReadCounter, readAhead, readAheadLength,
-          bufferSize, ((in != null) ? isCompressedFlagEnabled(in) : false));
+          bufferSize, ((in != null) ? readHeaderFlags(in) : 0));
       if (in != null && bytesReadCounter != null) {
         bytesReadCounter.increment(IFile.HEADER.length);
       }
@@ -567,10 +602,22 @@ public class IFile {
                   TezCounter readsCounter, TezCounter bytesReadCounter,
                   boolean readAhead, int readAheadLength,
                   int bufferSize, boolean isCompressed) throws IOException {
+      this(in, length, codec, readsCounter, bytesReadCounter, readAhead, readAheadLength,
+          bufferSize, (isCompressed ? COMPRESSED_FLAG : 0));
+    }
+
+    private Reader(InputStream in, long length,
+                   CompressionCodec codec,
+                   TezCounter readsCounter, TezCounter bytesReadCounter,
+                   boolean readAhead, int readAheadLength,
+                   int bufferSize, byte headerFlags) throws IOException {
+      final boolean isCompressed = (headerFlags & COMPRESSED_FLAG) != 0;
       if (in != null) {
         checksumIn = new IFileInputStream(in, length, readAhead,
             readAheadLength/* , isCompressed */);
-        if (isCompressed && codec != null) {
+        if ((headerFlags & BLOCK_FORMAT_FLAG) != 0) {
+          this.in = openBlocks(checksumIn, isCompressed ? codec : null);
+        } else if (isCompressed && codec != null) {
           decompressor = CodecPool.getDecompressor(codec);
           if (decompressor != null) {
             this.in = codec.createInputStream(checksumIn, decompressor);
@@ -609,13 +656,20 @@ public class IFile {
     public static void readToMemory(byte[] buffer, InputStream in, int compressedLength,
         CompressionCodec codec, boolean ifileReadAhead, int ifileReadAheadLength)
         throws IOException {
-      boolean isCompressed = IFile.Reader.isCompressedFlagEnabled(in);
+      byte headerFlags = readHeaderFlags(in);
+      boolean isCompressed = (headerFlags & COMPRESSED_FLAG) != 0;
       IFileInputStream checksumIn = new IFileInputStream(in,
           compressedLength - IFile.HEADER.length, ifileReadAhead,
           ifileReadAheadLength);
       in = checksumIn;
       Decompressor decompressor = null;
-      if (isCompressed && codec != null) {
+      if ((headerFlags & BLOCK_FORMAT_FLAG) != 0) {
+        if (isCompressed) {
+          decompressor = getDecompressor(codec);
+        }
+        in = new IFileBlockInputStream(checksumIn, (decompressor != null) ? codec : null,
+            decompressor);
+      } else if (isCompressed && codec != null) {
         decompressor = CodecPool.getDecompressor(codec);
         if (decompressor != null) {
           decompressor.reset();
@@ -697,9 +751,25 @@ public class IFile {
     }
 
     public long getPosition() throws IOException {
+      if (prefetchIn != null) {
+        return prefetchIn.getPosition();
+      }
       return checksumIn.getPosition();
     }
 
+    /**
+     * Read (and decompress) the rest of the segment ahead of the caller on the prefetch threads,
+     * keeping up to the given number of chunks ready. Has to be called before the first record is
+     * read. Once enabled, {@link #getPosition()} is only accurate to a chunk.
+     */
+    public void prefetch(IFilePrefetcher prefetcher, int chunks) {
+      Preconditions.checkState(in != null && prefetchIn == null && numRecordsRead == 0
+          && bytesRead == 0, "Prefetching must be enabled before reading");
+      prefetchIn = prefetcher.prefetch(in, checksumIn, chunks);
+      in = prefetchIn;
+      dataIn = new DataInputStream(in);
+    }
+
     /**
      * Read up to len bytes into buf starting at offset off.
      *
@@ -839,10 +909,32 @@ public class IFile {
     }
 
     public static boolean isCompressedFlagEnabled(InputStream in) throws IOException {
+      return (readHeaderFlags(in) & COMPRESSED_FLAG) != 0;
+    }
+
+    private static byte readHeaderFlags(InputStream in) throws IOException {
       byte[] header = new byte[HEADER.length];
       IOUtils.readFully(in, header, 0, HEADER.length);
       verifyHeaderMagic(header);
-      return (header[3] == 1);
+      return header[3];
+    }
+
+    private static Decompressor getDecompressor(CompressionCodec codec) {
+      if (codec == null) {
+        throw new IllegalArgumentException("IFile blocks are compressed, but no codec is set");
+      }
+      Decompressor decompressor = CodecPool.getDecompressor(codec);
+      if (decompressor == null) {
+        throw new IllegalStateException("Could not obtain decompressor from CodecPool");
+      }
+      return decompressor;
+    }
+
+    private InputStream openBlocks(IFileInputStream checksumIn, CompressionCodec codec) {
+      if (codec != null) {
+        decompressor = getDecompressor(codec);
+      }
+      return new IFileBlockInputStream(checksumIn, codec, decompressor);
     }
 
     public void close() throws IOException {
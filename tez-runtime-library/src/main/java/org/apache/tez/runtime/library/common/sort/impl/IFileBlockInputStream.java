@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.Decompressor;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Decodes the blocks written by {@link IFileBlockOutputStream} back into the raw record stream.
+ * The data is verified by the wrapped {@link IFileInputStream}, which checks the checksum of the
+ * whole stream once its last byte, the end marker, has been read. The length of the next block is
+ * read as soon as a block is loaded, so the end marker is read along with the last block, before
+ * its records are used; readers stop at the EOF record and would otherwise never read it.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class IFileBlockInputStream extends InputStream {
+
+  private final DataInputStream in;
+  private final CompressionCodec codec;
+  private final Decompressor decompressor;
+  private final byte[] oneByte = new byte[1];
+
+  private byte[] stored = new byte[0];
+  private byte[] block = new byte[0];
+  private int pos = 0;
+  private int limit = 0;
+  private int blockNo = 0;
+  private int nextRawLength;
+  private boolean nextRawLengthRead = false;
+  private boolean eof = false;
+
+  /**
+   * @param in stream positioned after the IFile header, usually an {@link IFileInputStream}
+   * @param codec codec the blocks were compressed with, or null if they are stored uncompressed
+   * @param decompressor decompressor for the codec; it is reset before every block
+   */
+  public IFileBlockInputStream(InputStream in, CompressionCodec codec,
+      Decompressor decompressor) {
+    Preconditions.checkArgument(codec == null || decompressor != null,
+        "A decompressor is required to decompress blocks");
+    this.in = new DataInputStream(in);
+    this.codec = codec;
+    this.decompressor = decompressor;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int n = read(oneByte, 0, 1);
+    return (n < 0) ? n : (oneByte[0] & 0xff);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (pos == limit && !nextBlock()) {
+      return -1;
+    }
+    final int n = Math.min(len, limit - pos);
+    System.arraycopy(block, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return limit - pos;
+  }
+
+  private boolean nextBlock() throws IOException {
+    while (!eof) {
+      final int rawLength = nextRawLengthRead ? nextRawLength : WritableUtils.readVInt(in);
+      if (rawLength == 0) {
+        eof = true;
+        break;
+      }
+      final int storedLength = WritableUtils.readVInt(in);
+      if (rawLength < 0 || storedLength < 0) {
+        throw new IOException("Corrupt header of IFile block " + blockNo + ": rawLength="
+            + rawLength + ", storedLength=" + storedLength);
+      }
+
+      if (stored.length < storedLength) {
+        stored = new byte[storedLength];
+      }
+      in.readFully(stored, 0, storedLength);
+
+      if (codec == null) {
+        if (storedLength != rawLength) {
+          throw new IOException("Length mismatch in uncompressed IFile block " + blockNo
+              + ": rawLength=" + rawLength + ", storedLength=" + storedLength);
+        }
+        // swap, so the next block is read into the buffer just consumed
+        final byte[] tmp = block;
+        block = stored;
+        stored = tmp;
+      } else {
+        if (block.length < rawLength) {
+          block = new byte[rawLength];
+        }
+        decompressor.reset();
+        CompressionInputStream blockIn = codec.createInputStream(
+            new ByteArrayInputStream(stored, 0, storedLength), decompressor);
+        IOUtils.readFully(blockIn, block, 0, rawLength);
+      }
+      pos = 0;
+      limit = rawLength;
+      blockNo++;
+      nextRawLength = WritableUtils.readVInt(in);
+      nextRawLengthRead = true;
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Splits the record stream of an IFile into blocks, each compressed on its own. Blocks are only
+ * cut in front of a new key (see {@link #startKey}), so every block starts with a complete
+ * key/value pair.
+ *
+ * Layout, following the IFile header:
+ * <pre>
+ *   block*     : vint rawLength, vint storedLength, stored bytes
+ *   end        : vint 0
+ * </pre>
+ * The whole stream is still wrapped in an {@link IFileOutputStream}, whose checksum covers every
+ * block, so transferring segments is unchanged.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class IFileBlockOutputStream extends OutputStream {
+
+  private final DataOutputStream out;
+  private final CompressionCodec codec;
+  private final Compressor compressor;
+  private final int blockSize;
+
+  private final DataOutputBuffer block = new DataOutputBuffer();
+  private final DataOutputBuffer compressed = new DataOutputBuffer();
+  private final byte[] oneByte = new byte[1];
+
+  private int blocks = 0;
+  private boolean finished = false;
+  private boolean closed = false;
+
+  /**
+   * @param out stream receiving the blocks, usually an {@link IFileOutputStream}
+   * @param codec codec used to compress each block, or null to store blocks uncompressed
+   * @param compressor compressor for the codec; it is reset before every block
+   * @param blockSize number of raw bytes after which a block is cut at the next key
+   */
+  public IFileBlockOutputStream(OutputStream out, CompressionCodec codec, Compressor compressor,
+      int blockSize) {
+    Preconditions.checkArgument(blockSize > 0, "Block size should be positive: " + blockSize);
+    Preconditions.checkArgument(codec == null || compressor != null,
+        "A compressor is required to compress blocks");
+    this.out = new DataOutputStream(out);
+    this.codec = codec;
+    this.compressor = compressor;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Called by the writer in front of every key/value pair (after any V_END_MARKER of the previous
+   * run of values). Cuts the current block if it is full.
+   */
+  public void startKey() throws IOException {
+    if (block.getLength() >= blockSize) {
+      writeBlock();
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    oneByte[0] = (byte) b;
+    write(oneByte, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (finished) {
+      throw new IOException("Block stream already finished");
+    }
+    block.write(b, off, len);
+  }
+
+  private void writeBlock() throws IOException {
+    if (block.getLength() == 0) {
+      return;
+    }
+    byte[] stored = block.getData();
+    int storedLength = block.getLength();
+    if (codec != null) {
+      compressed.reset();
+      compressor.reset();
+      CompressionOutputStream compressedOut = codec.createOutputStream(compressed, compressor);
+      compressedOut.write(block.getData(), 0, block.getLength());
+      compressedOut.finish();
+      stored = compressed.getData();
+      storedLength = compressed.getLength();
+    }
+    WritableUtils.writeVInt(out, block.getLength());
+    WritableUtils.writeVInt(out, storedLength);
+    out.write(stored, 0, storedLength);
+    blocks++;
+    block.reset();
+  }
+
+  /**
+   * Write the last block and the end marker. The underlying stream is not closed.
+   */
+  public void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    writeBlock();
+    finished = true;
+    WritableUtils.writeVInt(out, 0);
+    out.flush();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    finish();
+    out.close();
+  }
+
+  public int getBlockCount() {
+    return blocks;
+  }
+}
@@ -0,0 +1,317 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads (and decompresses) IFile segments ahead of the merge thread. Every prefetched segment keeps
+ * up to a configured number of decoded chunks ready, filled by a shared pool of daemon threads, so
+ * disk reads and codec work of many segments overlap with the comparisons done by the merge.
+ *
+ * Chunks are recycled through a free list shared by all segments. Like
+ * {@link org.apache.hadoop.io.ReadaheadPool}, there is a single instance per JVM; it is created by
+ * the first caller of {@link #getInstance}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class IFilePrefetcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IFilePrefetcher.class);
+
+  private static IFilePrefetcher instance;
+
+  private final ExecutorService executor;
+  private final int chunkSize;
+  private final int maxFreeChunks;
+  private final ConcurrentLinkedQueue<byte[]> freeChunks = new ConcurrentLinkedQueue<byte[]>();
+  private final AtomicInteger numFreeChunks = new AtomicInteger();
+
+  public static synchronized IFilePrefetcher getInstance(int threads, int chunkSize) {
+    if (instance == null) {
+      instance = new IFilePrefetcher(threads, chunkSize);
+    } else if (instance.chunkSize != chunkSize) {
+      LOG.info("IFilePrefetcher already created with chunkSize=" + instance.chunkSize
+          + ", ignoring chunkSize=" + chunkSize);
+    }
+    return instance;
+  }
+
+  IFilePrefetcher(int threads, int chunkSize) {
+    Preconditions.checkArgument(threads > 0, "Prefetch threads should be positive: " + threads);
+    Preconditions.checkArgument(chunkSize > 0, "Chunk size should be positive: " + chunkSize);
+    this.chunkSize = chunkSize;
+    this.maxFreeChunks = threads * 64;
+    this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("IFilePrefetcher #%d").build());
+    LOG.info("Created IFilePrefetcher with threads=" + threads + ", chunkSize=" + chunkSize);
+  }
+
+  /**
+   * Wrap a (decompressed) segment stream, so that it is read up to the given number of chunks
+   * ahead on the prefetch threads. Including the chunk being consumed, the stream holds at most
+   * chunks + 1 chunks. The source must not be used directly afterwards; it is closed when the
+   * returned stream is closed.
+   *
+   * @param positionSource stream whose position is reported by the returned stream, for progress
+   *                       and byte accounting; it is only queried by the thread filling chunks
+   */
+  public PrefetchInputStream prefetch(InputStream source, IFileInputStream positionSource,
+      int chunks) {
+    Preconditions.checkArgument(chunks > 0, "Chunks should be positive: " + chunks);
+    return new PrefetchInputStream(source, positionSource, chunks);
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  private byte[] takeChunk() {
+    byte[] chunk = freeChunks.poll();
+    if (chunk == null) {
+      return new byte[chunkSize];
+    }
+    numFreeChunks.decrementAndGet();
+    return chunk;
+  }
+
+  private void returnChunk(byte[] chunk) {
+    if (numFreeChunks.incrementAndGet() <= maxFreeChunks) {
+      freeChunks.offer(chunk);
+    } else {
+      numFreeChunks.decrementAndGet();
+    }
+  }
+
+  private static class Chunk {
+    final byte[] data;
+    final int length;
+    // position of the source after this chunk was filled
+    final long position;
+    int offset = 0;
+
+    Chunk(byte[] data, int length, long position) {
+      this.data = data;
+      this.length = length;
+      this.position = position;
+    }
+  }
+
+  /**
+   * Stream over the chunks prefetched for one segment. At most one fill task per stream is queued
+   * or running at a time, and it stops once the configured number of chunks is ready, so a slow
+   * consumer never holds a pool thread.
+   */
+  public class PrefetchInputStream extends InputStream {
+
+    private final InputStream source;
+    private final IFileInputStream positionSource;
+    private final int maxChunks;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Chunk> ready = new ArrayDeque<Chunk>();
+    private boolean running = false;
+    private boolean eof = false;
+    private boolean closed = false;
+    private IOException error;
+
+    // only touched by the consuming thread
+    private Chunk current;
+    private long position;
+    private final byte[] oneByte = new byte[1];
+
+    private final Runnable fillTask = new Runnable() {
+      @Override
+      public void run() {
+        fill();
+      }
+    };
+
+    PrefetchInputStream(InputStream source, IFileInputStream positionSource, int maxChunks) {
+      this.source = source;
+      this.positionSource = positionSource;
+      this.maxChunks = maxChunks;
+      this.position = positionSource.getPosition();
+      synchronized (lock) {
+        scheduleFill();
+      }
+    }
+
+    // called with lock held
+    private void scheduleFill() {
+      if (!running && !eof && !closed && error == null && ready.size() < maxChunks) {
+        running = true;
+        executor.execute(fillTask);
+      }
+    }
+
+    private void fill() {
+      while (true) {
+        synchronized (lock) {
+          if (closed || ready.size() >= maxChunks) {
+            running = false;
+            lock.notifyAll();
+            return;
+          }
+        }
+        byte[] data = takeChunk();
+        int length = 0;
+        IOException exception = null;
+        try {
+          while (length < data.length) {
+            int n = source.read(data, length, data.length - length);
+            if (n < 0) {
+              break;
+            }
+            length += n;
+          }
+        } catch (IOException e) {
+          exception = e;
+        } catch (RuntimeException e) {
+          exception = new IOException("Error prefetching IFile segment", e);
+        }
+        final long sourcePosition = positionSource.getPosition();
+        synchronized (lock) {
+          if (length > 0 && exception == null) {
+            ready.add(new Chunk(data, length, sourcePosition));
+          } else {
+            returnChunk(data);
+          }
+          if (exception != null) {
+            error = exception;
+          } else if (length < data.length) {
+            eof = true;
+          }
+          lock.notifyAll();
+          if (eof || error != null) {
+            running = false;
+            return;
+          }
+        }
+      }
+    }
+
+    private Chunk nextChunk() throws IOException {
+      synchronized (lock) {
+        while (ready.isEmpty() && !eof && error == null) {
+          scheduleFill();
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for prefetched data");
+          }
+        }
+        Chunk chunk = ready.poll();
+        if (chunk == null && error != null) {
+          throw error;
+        }
+        scheduleFill();
+        return chunk;
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      int n = read(oneByte, 0, 1);
+      return (n < 0) ? n : (oneByte[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (current == null || current.offset == current.length) {
+        if (current != null) {
+          returnChunk(current.data);
+        }
+        current = nextChunk();
+        if (current == null) {
+          return -1;
+        }
+        position = current.position;
+      }
+      final int n = Math.min(len, current.length - current.offset);
+      System.arraycopy(current.data, current.offset, b, off, n);
+      current.offset += n;
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (current == null) ? 0 : current.length - current.offset;
+    }
+
+    /**
+     * Position of the source after the chunk being consumed, i.e. accurate to a chunk.
+     */
+    public long getPosition() {
+      return position;
+    }
+
+    /**
+     * Stop prefetching, wait for a running fill task and close the source.
+     */
+    @Override
+    public void close() throws IOException {
+      synchronized (lock) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        boolean interrupted = false;
+        while (running) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+        for (Chunk chunk : ready) {
+          returnChunk(chunk.data);
+        }
+        ready.clear();
+      }
+      if (current != null) {
+        returnChunk(current.data);
+        current = null;
+      }
+      source.close();
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.tez.runtime.library.common.comparator.NormalizedKeyPrefix;
+
+/**
+ * Tournament tree of losers for k-way merges. It follows the put / top / adjustTop / pop contract
+ * of {@link org.apache.hadoop.util.PriorityQueue}, so a merge loop written against that class can
+ * switch to it unchanged.
+ *
+ * Each internal node remembers the loser of the match played there, and the overall winner is kept
+ * separately. When the key of the winner changes ({@link #adjustTop()}) or the winner is removed
+ * ({@link #pop()}), only the matches on the path from its leaf to the root are replayed: one
+ * comparison per level, i.e. log k, against about 2 log k for a binary heap sift down.
+ *
+ * Every leaf also caches a 64 bit {@link #prefix} of its current key. Matches between leaves with
+ * different prefixes are decided on the prefixes, without calling {@link #lessThan}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public abstract class LoserTree<T> {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  // leaf i holds an element, or null once the element has been popped
+  private Object[] leaves;
+  private long[] prefixes;
+  // losers[n] is the leaf which lost the match at internal node n, losers[0] is the winner
+  private int[] losers;
+  // number of leaves in the tree
+  private int count;
+  // number of leaves still holding an element
+  private int size;
+  private boolean built;
+
+  protected LoserTree() {
+    initialize(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Determines the ordering of elements; must be consistent with {@link #prefix}.
+   */
+  protected abstract boolean lessThan(T a, T b);
+
+  /**
+   * Normalized prefix of the current key of an element: if the prefix of a is less than the prefix
+   * of b (compared with {@link NormalizedKeyPrefix#compare}), a must be less than b. The default
+   * returns the same prefix for every element, so all matches go to {@link #lessThan}.
+   */
+  protected long prefix(T element) {
+    return 0;
+  }
+
+  /**
+   * Empty the tree, and size it for the given number of elements.
+   */
+  public final void initialize(int maxSize) {
+    final int capacity = Math.max(maxSize, 1);
+    leaves = new Object[capacity];
+    prefixes = new long[capacity];
+    losers = new int[capacity];
+    count = 0;
+    size = 0;
+    built = false;
+  }
+
+  /**
+   * Add an element. Elements are expected to be added before the merge starts; adding one later
+   * rebuilds the tree on the next {@link #top()}.
+   */
+  public final void put(T element) {
+    if (count == leaves.length) {
+      final int capacity = count << 1;
+      leaves = Arrays.copyOf(leaves, capacity);
+      prefixes = Arrays.copyOf(prefixes, capacity);
+      losers = Arrays.copyOf(losers, capacity);
+    }
+    leaves[count] = element;
+    prefixes[count] = prefix(element);
+    count++;
+    size++;
+    built = false;
+  }
+
+  /**
+   * @return the least element, or null if the tree is empty
+   */
+  @SuppressWarnings("unchecked")
+  public final T top() {
+    if (size == 0) {
+      return null;
+    }
+    if (!built) {
+      build();
+    }
+    return (T) leaves[losers[0]];
+  }
+
+  /**
+   * Remove and return the least element, or null if the tree is empty.
+   */
+  public final T pop() {
+    final T winner = top();
+    if (winner != null) {
+      final int leaf = losers[0];
+      leaves[leaf] = null;
+      size--;
+      replay(leaf);
+    }
+    return winner;
+  }
+
+  /**
+   * Restore the ordering after the key of the {@link #top()} element changed.
+   */
+  @SuppressWarnings("unchecked")
+  public final void adjustTop() {
+    if (size == 0) {
+      return;
+    }
+    if (!built) {
+      build();
+      return;
+    }
+    final int leaf = losers[0];
+    prefixes[leaf] = prefix((T) leaves[leaf]);
+    replay(leaf);
+  }
+
+  /**
+   * The least element after {@link #top()}, or null if there is none. Costs up to log k
+   * comparisons, and leaves the tree unchanged.
+   */
+  @SuppressWarnings("unchecked")
+  public final T runnerUp() {
+    if (size < 2) {
+      return null;
+    }
+    if (!built) {
+      build();
+    }
+    // the runner up lost its last match directly against the winner
+    int best = -1;
+    for (int n = (losers[0] + count) >>> 1; n > 0; n >>>= 1) {
+      final int candidate = losers[n];
+      if (best == -1 || beats(candidate, best)) {
+        best = candidate;
+      }
+    }
+    return (T) leaves[best];
+  }
+
+  public final int size() {
+    return size;
+  }
+
+  public final void clear() {
+    Arrays.fill(leaves, 0, count, null);
+    count = 0;
+    size = 0;
+    built = false;
+  }
+
+  /**
+   * Whether leaf a wins against leaf b. Empty leaves lose against everything.
+   */
+  @SuppressWarnings("unchecked")
+  private boolean beats(int a, int b) {
+    final Object ea = leaves[a];
+    final Object eb = leaves[b];
+    if (ea == null) {
+      return false;
+    }
+    if (eb == null) {
+      return true;
+    }
+    final int cmp = NormalizedKeyPrefix.compare(prefixes[a], prefixes[b]);
+    if (cmp != 0) {
+      return cmp < 0;
+    }
+    return lessThan((T) ea, (T) eb);
+  }
+
+  /**
+   * Play all matches bottom up. Leaf i is node count + i and internal nodes are 1 .. count - 1,
+   * laid out like a binary heap, so the parent of node n is n / 2.
+   */
+  private void build() {
+    if (count == 1) {
+      losers[0] = 0;
+      built = true;
+      return;
+    }
+    final int[] winners = new int[count];
+    for (int n = count - 1; n > 0; n--) {
+      final int left = n << 1;
+      final int right = left + 1;
+      final int a = (left >= count) ? left - count : winners[left];
+      final int b = (right >= count) ? right - count : winners[right];
+      if (beats(b, a)) {
+        winners[n] = b;
+        losers[n] = a;
+      } else {
+        winners[n] = a;
+        losers[n] = b;
+      }
+    }
+    losers[0] = winners[1];
+    built = true;
+  }
+
+  /**
+   * Replay the matches from the given leaf up to the root.
+   */
+  private void replay(int leaf) {
+    int winner = leaf;
+    for (int n = (leaf + count) >>> 1; n > 0; n >>>= 1) {
+      final int opponent = losers[n];
+      if (beats(opponent, winner)) {
+        losers[n] = winner;
+        winner = opponent;
+      }
+    }
+    losers[0] = winner;
+  }
+}
@@ -0,0 +1,375 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.Progressable;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.runtime.library.common.ConfigUtils;
+import org.apache.tez.runtime.library.common.sort.impl.IFile.Reader.KeyState;
+import org.apache.tez.runtime.library.common.sort.impl.TezMerger.Segment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Tree merge of sorted segments. The segments are dealt round robin into groups, every group is
+ * merged by {@link TezMerger} on its own thread (including any intermediate on-disk passes), and
+ * the merged group streams are combined by a final k-way merge on the calling thread.
+ *
+ * Group threads hand records to the final merge in batches of serialized key/value pairs through
+ * a small bounded queue, so at most {@link #QUEUE_DEPTH} batches of {@link #BATCH_SIZE} bytes per
+ * group are buffered in addition to the memory held by the segments themselves.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ParallelMerger {
+  private static final Logger LOG = LoggerFactory.getLogger(ParallelMerger.class);
+
+  private static final int BATCH_SIZE = 256 * 1024;
+  private static final int QUEUE_DEPTH = 4;
+  // Don't bother spinning up a thread for less than this many segments
+  private static final int MIN_SEGMENTS_PER_GROUP = 2;
+  // Key length marker for a record repeating the previous key of the batch
+  private static final int REPEAT_KEY = -1;
+
+  private static final Batch EOF = new Batch(new byte[0], 0);
+
+  private ParallelMerger() {
+  }
+
+  /**
+   * Merge the given segments using up to <code>parallelism</code> threads.
+   *
+   * @param segments segments to merge, in-memory segments first
+   * @param inMemSegments number of in-memory segments at the head of <code>segments</code>
+   * @param mergeFactor merge factor for each of the group merges
+   * @param comparator comparator for a single threaded merge. Comparators need not be thread
+   *                   safe, so every group and the final merge get their own instance from
+   *                   <code>conf</code> instead.
+   * @return an iterator over the merged records. Closing it stops any group merge still running.
+   */
+  public static TezRawKeyValueIterator merge(Configuration conf, FileSystem fs,
+      Class keyClass, Class valueClass, CompressionCodec codec,
+      List<Segment> segments, int inMemSegments, int mergeFactor, int parallelism,
+      Path tmpDir, RawComparator comparator, Progressable reporter,
+      TezCounter readsCounter, TezCounter writesCounter, TezCounter bytesReadCounter)
+      throws IOException, InterruptedException {
+    final int numGroups = Math.min(parallelism, segments.size() / MIN_SEGMENTS_PER_GROUP);
+    if (numGroups < 2) {
+      return TezMerger.merge(conf, fs, keyClass, valueClass, codec, segments, mergeFactor,
+          inMemSegments, tmpDir, comparator, reporter, false, readsCounter, writesCounter,
+          bytesReadCounter, null);
+    }
+
+    // Dealing round robin keeps the in-memory segments at the head of each group, and gives
+    // every group a similar mix of small and large segments.
+    List<List<Segment>> groups = new ArrayList<List<Segment>>(numGroups);
+    int[] groupInMemSegments = new int[numGroups];
+    long[] groupBytes = new long[numGroups];
+    for (int i = 0; i < numGroups; i++) {
+      groups.add(new ArrayList<Segment>());
+    }
+    for (int i = 0; i < segments.size(); i++) {
+      final int g = i % numGroups;
+      final Segment segment = segments.get(i);
+      groups.get(g).add(segment);
+      groupBytes[g] += segment.getLength();
+      if (i < inMemSegments) {
+        groupInMemSegments[g]++;
+      }
+    }
+    LOG.info("Merging " + segments.size() + " segments (" + inMemSegments + " in-memory) in " +
+        numGroups + " parallel groups");
+
+    ExecutorService executor = Executors.newFixedThreadPool(numGroups,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("ParallelMerger {" + tmpDir.getName() + "} #%d").build());
+    List<Segment> groupSegments = new ArrayList<Segment>(numGroups);
+    List<GroupReader> readers = new ArrayList<GroupReader>(numGroups);
+    boolean succeeded = false;
+    try {
+      for (int g = 0; g < numGroups; g++) {
+        GroupMerger merger = new GroupMerger(conf, fs, keyClass, valueClass, codec,
+            groups.get(g), groupInMemSegments[g], mergeFactor, new Path(tmpDir, "group_" + g),
+            ConfigUtils.getIntermediateInputKeyComparator(conf), reporter, readsCounter, writesCounter, bytesReadCounter);
+        GroupReader reader = new GroupReader(merger, executor.submit(merger), groupBytes[g]);
+        readers.add(reader);
+        groupSegments.add(new Segment(reader, null));
+      }
+      // Let the pool threads exit once their group is done
+      executor.shutdown();
+      TezRawKeyValueIterator result = TezMerger.merge(conf, fs, keyClass, valueClass,
+          groupSegments, numGroups, tmpDir, ConfigUtils.getIntermediateInputKeyComparator(conf),
+          reporter, null, null, null, null);
+      succeeded = true;
+      return result;
+    } finally {
+      if (!succeeded) {
+        for (GroupReader reader : readers) {
+          reader.close();
+        }
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  private static class Batch {
+    final byte[] data;
+    final int length;
+
+    Batch(byte[] data, int length) {
+      this.data = data;
+      this.length = length;
+    }
+  }
+
+  /**
+   * Merges one group of segments and publishes the records as batches of
+   * <code>vint keyLength, vint valueLength, key, value</code>. A batch never starts with
+   * {@link #REPEAT_KEY}, so the key being repeated is always in the same batch.
+   */
+  private static class GroupMerger implements Callable<Void> {
+    private final Configuration conf;
+    private final FileSystem fs;
+    private final Class keyClass;
+    private final Class valueClass;
+    private final CompressionCodec codec;
+    private final List<Segment> segments;
+    private final int inMemSegments;
+    private final int mergeFactor;
+    private final Path tmpDir;
+    private final RawComparator comparator;
+    private final Progressable reporter;
+    private final TezCounter readsCounter;
+    private final TezCounter writesCounter;
+    private final TezCounter bytesReadCounter;
+
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_DEPTH);
+    private volatile Throwable error;
+
+    GroupMerger(Configuration conf, FileSystem fs, Class keyClass, Class valueClass,
+        CompressionCodec codec, List<Segment> segments, int inMemSegments, int mergeFactor,
+        Path tmpDir, RawComparator comparator, Progressable reporter,
+        TezCounter readsCounter, TezCounter writesCounter, TezCounter bytesReadCounter) {
+      this.conf = conf;
+      this.fs = fs;
+      this.keyClass = keyClass;
+      this.valueClass = valueClass;
+      this.codec = codec;
+      this.segments = segments;
+      this.inMemSegments = inMemSegments;
+      this.mergeFactor = mergeFactor;
+      this.tmpDir = tmpDir;
+      this.comparator = comparator;
+      this.reporter = reporter;
+      this.readsCounter = readsCounter;
+      this.writesCounter = writesCounter;
+      this.bytesReadCounter = bytesReadCounter;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      TezRawKeyValueIterator iter = null;
+      boolean readerClosed = false;
+      try {
+        iter = TezMerger.merge(conf, fs, keyClass, valueClass, codec, segments, mergeFactor,
+            inMemSegments, tmpDir, comparator, reporter, false, readsCounter, writesCounter,
+            bytesReadCounter, null);
+        DataOutputBuffer out = new DataOutputBuffer(BATCH_SIZE);
+        while (iter.next()) {
+          final DataInputBuffer value = iter.getValue();
+          final int vp = value.getPosition();
+          final int vlen = value.getLength() - vp;
+          if (iter.isSameKey() && out.getLength() > 0) {
+            WritableUtils.writeVInt(out, REPEAT_KEY);
+            WritableUtils.writeVInt(out, vlen);
+          } else {
+            final DataInputBuffer key = iter.getKey();
+            final int kp = key.getPosition();
+            final int klen = key.getLength() - kp;
+            WritableUtils.writeVInt(out, klen);
+            WritableUtils.writeVInt(out, vlen);
+            out.write(key.getData(), kp, klen);
+          }
+          out.write(value.getData(), vp, vlen);
+          if (out.getLength() >= BATCH_SIZE) {
+            queue.put(new Batch(out.getData(), out.getLength()));
+            out = new DataOutputBuffer(BATCH_SIZE);
+          }
+        }
+        if (out.getLength() > 0) {
+          queue.put(new Batch(out.getData(), out.getLength()));
+        }
+      } catch (InterruptedException e) {
+        // Reader closed, nobody is waiting for the remaining records
+        readerClosed = true;
+      } catch (Throwable t) {
+        error = t;
+      } finally {
+        try {
+          closeInputs(iter);
+        } catch (Throwable t) {
+          if (error == null) {
+            error = t;
+          }
+        } finally {
+          // also when closing failed, the reader would otherwise wait forever
+          if (!readerClosed) {
+            queue.put(EOF);
+          }
+        }
+      }
+      return null;
+    }
+
+    private void closeInputs(TezRawKeyValueIterator iter) throws IOException {
+      if (iter != null) {
+        iter.close();
+        return;
+      }
+      IOException closeError = null;
+      for (Segment segment : segments) {
+        try {
+          segment.close();
+        } catch (IOException e) {
+          if (closeError == null) {
+            closeError = e;
+          }
+        }
+      }
+      if (closeError != null) {
+        throw closeError;
+      }
+    }
+  }
+
+  /**
+   * Presents the output of a {@link GroupMerger} as an {@link IFile.Reader}, so that it can be
+   * fed to a {@link TezMerger.MergeQueue} as a segment.
+   */
+  private static class GroupReader extends IFile.Reader {
+    private final GroupMerger merger;
+    private final Future<Void> future;
+    private final long size;
+    private final DataInputBuffer batchIn = new DataInputBuffer();
+
+    private Batch batch;
+    private int keyStart;
+    private int keyLength;
+    private int valueStart;
+    private int valueLength;
+    private boolean done;
+
+    GroupReader(GroupMerger merger, Future<Void> future, long size) throws IOException {
+      super(null, size, null, null, null, false, 0, -1);
+      this.merger = merger;
+      this.future = future;
+      this.size = size;
+    }
+
+    private boolean nextBatch() throws IOException {
+      if (done) {
+        return false;
+      }
+      try {
+        batch = merger.queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for merged records", e);
+      }
+      if (batch == EOF) {
+        done = true;
+        batch = null;
+        if (merger.error != null) {
+          throw new IOException("Parallel merge of segments failed", merger.error);
+        }
+        return false;
+      }
+      batchIn.reset(batch.data, 0, batch.length);
+      return true;
+    }
+
+    @Override
+    public KeyState readRawKey(DataInputBuffer key) throws IOException {
+      if ((batch == null || batchIn.getPosition() >= batch.length) && !nextBatch()) {
+        return KeyState.NO_KEY;
+      }
+      final int klen = WritableUtils.readVInt(batchIn);
+      valueLength = WritableUtils.readVInt(batchIn);
+      KeyState state = KeyState.NEW_KEY;
+      if (klen == REPEAT_KEY) {
+        state = KeyState.SAME_KEY;
+      } else {
+        keyStart = batchIn.getPosition();
+        keyLength = klen;
+      }
+      valueStart = (state == KeyState.SAME_KEY) ? batchIn.getPosition() : keyStart + keyLength;
+      batchIn.reset(batch.data, valueStart + valueLength,
+          batch.length - (valueStart + valueLength));
+      key.reset(batch.data, keyStart, keyLength);
+      bytesRead += keyLength + valueLength;
+      return state;
+    }
+
+    @Override
+    public void nextRawValue(DataInputBuffer value) throws IOException {
+      value.reset(batch.data, valueStart, valueLength);
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+      return bytesRead;
+    }
+
+    @Override
+    public long getLength() {
+      return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!done) {
+        done = true;
+        future.cancel(true);
+        merger.queue.clear();
+      }
+    }
+  }
+}
@@ -17,15 +17,18 @@
 */
 package org.apache.tez.runtime.library.common.sort.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,20 +45,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.LocalDirAllocator;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.tez.common.TezUtilsInternal;
 import org.apache.tez.common.CallableWithNdc;
 import org.apache.tez.common.io.NonSyncDataOutputStream;
 import org.apache.tez.runtime.api.Event;
+import org.apache.tez.runtime.library.common.comparator.NormalizedKeyPrefix;
 import org.apache.tez.runtime.library.common.comparator.ProxyComparator;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.util.IndexedSortable;
 import org.apache.hadoop.util.IndexedSorter;
 import org.apache.hadoop.util.Progress;
 import org.apache.tez.common.TezCommonUtils;
+import org.apache.tez.common.TezRuntimeFrameworkConfigs;
 import org.apache.tez.runtime.api.OutputContext;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
+import org.apache.tez.runtime.library.api.TezRuntimeConfiguration.SortBufferType;
+import org.apache.tez.runtime.library.common.Constants;
 import org.apache.tez.runtime.library.common.ConfigUtils;
 import org.apache.tez.runtime.library.common.shuffle.ShuffleUtils;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
@@ -86,6 +94,7 @@ public class PipelinedSorter extends ExternalSorter {
   private static final int VALLEN = 3;           // val len in acct
   private static final int NMETA = 4;            // num meta ints
   private static final int METASIZE = NMETA * 4; // size in bytes
+  private static final int PREFIXSIZE = NormalizedKeyPrefix.PREFIX_LENGTH; // key prefix bytes
 
   private final int minSpillsForCombine;
   private final ProxyComparator hasher;
@@ -115,6 +124,7 @@ public class PipelinedSorter extends ExternalSorter {
   private int bufferIndex = -1;
   private final int MIN_BLOCK_SIZE;
   private final boolean lazyAllocateMem;
+  private final SortBufferType bufferType;
   private final Deflater deflater;
 
   // TODO Set additional countesr - total bytes written, spills etc.
@@ -127,6 +137,10 @@ public class PipelinedSorter extends ExternalSorter {
         .TEZ_RUNTIME_PIPELINED_SORTER_LAZY_ALLOCATE_MEMORY, TezRuntimeConfiguration
         .TEZ_RUNTIME_PIPELINED_SORTER_LAZY_ALLOCATE_MEMORY_DEFAULT);
 
+    bufferType = SortBufferType.fromString(this.conf.get(TezRuntimeConfiguration
+        .TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_TYPE, TezRuntimeConfiguration
+        .TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_TYPE_DEFAULT));
+
     if (lazyAllocateMem) {
       /**
        * When lazy-allocation is enabled, framework takes care of auto
@@ -200,6 +214,8 @@ public class PipelinedSorter extends ExternalSorter {
     initialSetupLogLine.append(", lazyAllocateMem=").append(
         lazyAllocateMem);
     initialSetupLogLine.append(", minBlockSize=").append(MIN_BLOCK_SIZE);
+    initialSetupLogLine.append(", bufferType=").append(bufferType);
+    initialSetupLogLine.append(", keyPrefix=").append(keyPrefix != null);
     initialSetupLogLine.append(", initial BLOCK_SIZE=").append(buffers.get(0).capacity());
     initialSetupLogLine.append(", finalMergeEnabled=").append(isFinalMergeEnabled());
     initialSetupLogLine.append(", pipelinedShuffle=").append(pipelinedShuffle);
@@ -239,7 +255,15 @@ public class PipelinedSorter extends ExternalSorter {
     int size = computeBlockSize(currentAllocatableMemory, availableMemoryMb << 20);
     currentAllocatableMemory -= size;
     int sizeWithoutMeta = (size) - (size % METASIZE);
-    ByteBuffer space = ByteBuffer.allocate(sizeWithoutMeta);
+    ByteBuffer space;
+    try {
+      space = allocateBlock(sizeWithoutMeta);
+    } catch (IOException e) {
+      // mapped blocks are best effort; fall back to the heap rather than failing the task
+      LOG.warn(outputContext.getDestinationVertexName() + ": Unable to allocate "
+          + bufferType + " block of size=" + sizeWithoutMeta + ", falling back to heap", e);
+      space = ByteBuffer.allocate(sizeWithoutMeta);
+    }
 
     buffers.add(space);
     bufferIndex++;
@@ -258,6 +282,44 @@ public class PipelinedSorter extends ExternalSorter {
   }
 
 
+  private ByteBuffer allocateBlock(int size) throws IOException {
+    switch (bufferType) {
+    case DIRECT:
+      return ByteBuffer.allocateDirect(size);
+    case MAPPED:
+      return mapBlock(size);
+    default:
+      return ByteBuffer.allocate(size);
+    }
+  }
+
+  /**
+   * Map a block of the sort buffer onto a file in the local dirs. The file is unlinked as soon
+   * as it is mapped, so the space is reclaimed once the mapping is garbage collected, even if
+   * the task dies without cleaning up.
+   */
+  private ByteBuffer mapBlock(int size) throws IOException {
+    LocalDirAllocator lDirAlloc = new LocalDirAllocator(TezRuntimeFrameworkConfigs.LOCAL_DIRS);
+    Path blockPath = lDirAlloc.getLocalPathForWrite(Constants.TEZ_RUNTIME_TASK_OUTPUT_DIR
+        + Path.SEPARATOR + outputContext.getUniqueIdentifier() + Path.SEPARATOR
+        + "sortbuffer_" + (bufferIndex + 1) + ".mmap", size, conf);
+    File blockFile = new File(blockPath.toUri().getPath());
+    File parent = blockFile.getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+      throw new IOException("Unable to create directory " + parent);
+    }
+    RandomAccessFile raf = new RandomAccessFile(blockFile, "rw");
+    try {
+      raf.setLength(size);
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } finally {
+      raf.close();
+      if (!blockFile.delete()) {
+        LOG.warn("Unable to delete sort buffer file " + blockFile);
+      }
+    }
+  }
+
   @VisibleForTesting
   int computeBlockSize(long availableMem, long maxAllocatedMemory) {
     int maxBlockSize = 0;
@@ -437,6 +499,9 @@ public class PipelinedSorter extends ExternalSorter {
     span.kvmeta.put(keystart);
     span.kvmeta.put(valstart);
     span.kvmeta.put(valend - valstart);
+    if (span.kvprefix != null) {
+      span.kvprefix.put(keyPrefix.getPrefix(span.kvbuffer, keystart, valstart - keystart));
+    }
     mapOutputRecordCounter.increment(1);
     outputContext.notifyProgress();
     mapOutputByteCounter.increment(valend - keystart);
@@ -850,6 +915,15 @@ public class PipelinedSorter extends ExternalSorter {
       super.reset(data, start, length);
     }
 
+    // deep copy out of a (typically off-heap) buffer
+    public void copy(ByteBuffer src, int start, int length) {
+      resize(length);
+      ByteBuffer from = src.duplicate();
+      from.position(start);
+      from.get(buffer, 0, length);
+      super.reset(buffer, 0, length);
+    }
+
     // deep copy
     @SuppressWarnings("unused")
     public void copy(DataInputBuffer clone) {
@@ -864,12 +938,19 @@ public class PipelinedSorter extends ExternalSorter {
 
   private final class SortSpan implements IndexedSortable {
     final IntBuffer kvmeta;
+    // normalized key prefixes, parallel to kvmeta. null when key prefixes are disabled
+    final LongBuffer kvprefix;
     final byte[] rawkvmeta;
     final int kvmetabase;
     final ByteBuffer kvbuffer;
     final NonSyncDataOutputStream out;
     final RawComparator comparator;
     final byte[] imeta = new byte[METASIZE];
+    // false when the span lives in a direct or mapped buffer (no backing array)
+    final boolean onHeap;
+    // scratch space to copy off-heap keys into for the RawComparator
+    private byte[] ikey;
+    private byte[] jkey;
 
     private int index = 0;
     private long eq = 0;
@@ -879,11 +960,12 @@ public class PipelinedSorter extends ExternalSorter {
 
     public SortSpan(ByteBuffer source, int maxItems, int perItem, RawComparator comparator) {
       capacity = source.remaining();
-      int metasize = METASIZE*maxItems;
+      final int metaPerItem = (keyPrefix != null) ? (METASIZE + PREFIXSIZE) : METASIZE;
+      int metasize = metaPerItem*maxItems;
       int dataSize = maxItems * perItem;
       if(capacity < (metasize+dataSize)) {
         // try to allocate less meta space, because we have sample data
-        metasize = METASIZE*(capacity/(perItem+METASIZE));
+        metasize = metaPerItem*(capacity/(perItem+metaPerItem));
       }
       ByteBuffer reserved = source.duplicate();
       reserved.mark();
@@ -894,8 +976,28 @@ public class PipelinedSorter extends ExternalSorter {
       reserved.flip();
       reserved.limit(metasize);
       ByteBuffer kvmetabuffer = reserved.slice();
-      rawkvmeta = kvmetabuffer.array();
-      kvmetabase = kvmetabuffer.arrayOffset();
+      if (keyPrefix != null) {
+        // carve the prefixes out of the tail of the meta space
+        final int items = metasize / metaPerItem;
+        ByteBuffer prefixbuffer = kvmetabuffer.duplicate();
+        prefixbuffer.position(items * METASIZE);
+        prefixbuffer.limit(items * metaPerItem);
+        kvprefix = prefixbuffer.slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+        kvmetabuffer.limit(items * METASIZE);
+        kvmetabuffer = kvmetabuffer.slice();
+      } else {
+        kvprefix = null;
+      }
+      onHeap = kvmetabuffer.hasArray();
+      if (onHeap) {
+        rawkvmeta = kvmetabuffer.array();
+        kvmetabase = kvmetabuffer.arrayOffset();
+      } else {
+        rawkvmeta = null;
+        kvmetabase = 0;
+        ikey = new byte[256];
+        jkey = new byte[256];
+      }
       kvmeta = kvmetabuffer
                 .order(ByteOrder.nativeOrder())
                .asIntBuffer();
@@ -922,6 +1024,21 @@ public class PipelinedSorter extends ExternalSorter {
       final int kvi = offsetFor(mi);
       final int kvj = offsetFor(mj);
 
+      if (kvprefix != null) {
+        final long tmp = kvprefix.get(mi);
+        kvprefix.put(mi, kvprefix.get(mj));
+        kvprefix.put(mj, tmp);
+      }
+
+      if (!onHeap) {
+        for (int i = 0; i < NMETA; i++) {
+          final int tmp = kvmeta.get(kvi + i);
+          kvmeta.put(kvi + i, kvmeta.get(kvj + i));
+          kvmeta.put(kvj + i, tmp);
+        }
+        return;
+      }
+
       final int kvioff = kvmetabase + (kvi << 2);
       final int kvjoff = kvmetabase + (kvj << 2);
       System.arraycopy(rawkvmeta, kvioff, imeta, 0, METASIZE);
@@ -942,15 +1059,35 @@ public class PipelinedSorter extends ExternalSorter {
         return ilen - jlen;
       }
 
-      final byte[] buf = kvbuffer.array();
-      final int off = kvbuffer.arrayOffset();
+      final int cmp;
+      if (onHeap) {
+        final byte[] buf = kvbuffer.array();
+        final int off = kvbuffer.arrayOffset();
 
-      // sort by key
-      final int cmp = comparator.compare(buf, off + istart, ilen, buf, off + jstart, jlen);
+        // sort by key
+        cmp = comparator.compare(buf, off + istart, ilen, buf, off + jstart, jlen);
+      } else {
+        ikey = copyKey(ikey, istart, ilen);
+        jkey = copyKey(jkey, jstart, jlen);
+        cmp = comparator.compare(ikey, 0, ilen, jkey, 0, jlen);
+      }
       if(cmp == 0) eq++;
       return cmp;
     }
 
+    /**
+     * Copy a key out of an off-heap kvbuffer, growing the scratch array if required.
+     */
+    private byte[] copyKey(byte[] scratch, int start, int length) {
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length << 1)];
+      }
+      ByteBuffer src = kvbuffer.duplicate();
+      src.position(start);
+      src.get(scratch, 0, length);
+      return scratch;
+    }
+
 
     public int compare(final int mi, final int mj) {
       final int kvi = offsetFor(mi);
@@ -961,6 +1098,13 @@ public class PipelinedSorter extends ExternalSorter {
       if (kvip != kvjp) {
         return kvip - kvjp;
       }
+      // sort by key prefix, if available
+      if (kvprefix != null) {
+        final int cmp = NormalizedKeyPrefix.compare(kvprefix.get(mi), kvprefix.get(mj));
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
       return compareKeys(kvi, kvj);
     }
 
@@ -995,6 +1139,9 @@ public class PipelinedSorter extends ExternalSorter {
       remaining = remaining.slice();
       kvbuffer.limit(kvbuffer.position());
       kvmeta.limit(kvmeta.position());
+      if (kvprefix != null) {
+        kvprefix.limit(kvprefix.position());
+      }
       int items = length();
       if(items == 0) {
         return null;
@@ -1026,12 +1173,19 @@ public class PipelinedSorter extends ExternalSorter {
       } else {
         keystart = kvmeta.get(this.offsetFor(index) + KEYSTART);
         valstart = kvmeta.get(this.offsetFor(index) + VALSTART);
-        final byte[] buf = kvbuffer.array();
-        final int off = kvbuffer.arrayOffset();
-        cmp = comparator.compare(buf,
-            keystart + off , (valstart - keystart),
-            needle.getData(),
-            needle.getPosition(), (needle.getLength() - needle.getPosition()));
+        if (onHeap) {
+          final byte[] buf = kvbuffer.array();
+          final int off = kvbuffer.arrayOffset();
+          cmp = comparator.compare(buf,
+              keystart + off , (valstart - keystart),
+              needle.getData(),
+              needle.getPosition(), (needle.getLength() - needle.getPosition()));
+        } else {
+          ikey = copyKey(ikey, keystart, valstart - keystart);
+          cmp = comparator.compare(ikey, 0, (valstart - keystart),
+              needle.getData(),
+              needle.getPosition(), (needle.getLength() - needle.getPosition()));
+        }
       }
       return cmp;
     }
@@ -1068,6 +1222,10 @@ public class PipelinedSorter extends ExternalSorter {
     public DataInputBuffer getKey()  {
       final int keystart = kvmeta.get(span.offsetFor(kvindex) + KEYSTART);
       final int valstart = kvmeta.get(span.offsetFor(kvindex) + VALSTART);
+      if (!span.onHeap) {
+        key.copy(kvbuffer, keystart, valstart - keystart);
+        return key;
+      }
       final byte[] buf = kvbuffer.array();
       final int off = kvbuffer.arrayOffset();
       key.reset(buf, off + keystart, valstart - keystart);
@@ -1077,6 +1235,10 @@ public class PipelinedSorter extends ExternalSorter {
     public DataInputBuffer getValue() {
       final int valstart = kvmeta.get(span.offsetFor(kvindex) + VALSTART);
       final int vallen = kvmeta.get(span.offsetFor(kvindex) + VALLEN);
+      if (!span.onHeap) {
+        value.copy(kvbuffer, valstart, vallen);
+        return value;
+      }
       final byte[] buf = kvbuffer.array();
       final int off = kvbuffer.arrayOffset();
       value.reset(buf, off + valstart, vallen);
@@ -1115,6 +1277,18 @@ public class PipelinedSorter extends ExternalSorter {
       return (maxindex - kvindex);
     }
 
+    /**
+     * Partition (and proxy) bits in the upper half, followed by the upper half of the normalized
+     * key prefix, if the span has one. Compares unsigned in the same order as compareTo.
+     */
+    long getPrefix() {
+      final long partition = getPartition();
+      if (span.kvprefix == null) {
+        return partition << 32;
+      }
+      return (partition << 32) | (span.kvprefix.get(kvindex) >>> 32);
+    }
+
     public int compareTo(SpanIterator other) {
       return span.compareInternal(other.getKey(), other.getPartition(), kvindex);
     }
@@ -1238,18 +1412,17 @@ public class PipelinedSorter extends ExternalSorter {
     }
   }
 
-  private static class SpanHeap extends java.util.PriorityQueue<SpanIterator> {
-    private static final long serialVersionUID = 1L;
-
-    public SpanHeap() {
-      super(256);
+  private static class SpanHeap extends LoserTree<SpanIterator> {
+    @Override
+    protected boolean lessThan(SpanIterator a, SpanIterator b) {
+      // b is the iterator being replayed, which may have handed out its (copied) key to the
+      // merger; only ask the opponent for its key
+      return b.compareTo(a) > 0;
     }
-    /**
-     * {@link PriorityQueue}.poll() by a different name 
-     * @return
-     */
-    public SpanIterator pop() {
-      return this.poll();
+
+    @Override
+    protected long prefix(SpanIterator iter) {
+      return iter.getPrefix();
     }
   }
 
@@ -1259,6 +1432,7 @@ public class PipelinedSorter extends ExternalSorter {
     int partition;
 
     private ArrayList< Future<SpanIterator>> futures = new ArrayList< Future<SpanIterator>>();
+    private ArrayList<SpanIterator> spans = new ArrayList<SpanIterator>();
 
     private SpanHeap heap = new SpanHeap();
     private PartitionFilter partIter;
@@ -1275,7 +1449,8 @@ public class PipelinedSorter extends ExternalSorter {
 
     public final void add(SpanIterator iter) {
       if(iter.next()) {
-        heap.add(iter);
+        heap.put(iter);
+        spans.add(iter);
       }
     }
 
@@ -1296,12 +1471,13 @@ public class PipelinedSorter extends ExternalSorter {
         if (heap.size() == 0) {
           return false;
         }
-        for(SpanIterator sp: heap) {
+        for(SpanIterator sp: spans) {
             sb.append(sp.toString());
             sb.append(",");
             total += sp.span.length();
             eq += sp.span.getEq();
         }
+        spans.clear();
         LOG.info(outputContext.getDestinationVertexName() + ": " + "Heap = " + sb.toString());
         return true;
       } catch(ExecutionException e) {
@@ -1310,17 +1486,22 @@ public class PipelinedSorter extends ExternalSorter {
       }
     }
 
+    /**
+     * The SpanIterator holding the next record. It stays in the heap; the caller advances it and
+     * then calls {@link #advanced(SpanIterator)}.
+     */
     private SpanIterator pop() {
       if(gallop > 0) {
         gallop--;
         return horse;
       }
-      SpanIterator current = heap.pop();
-      SpanIterator next = heap.peek();
-      if(next != null && current != null &&
-        ((Object)horse) == ((Object)current)) {
-        // TODO: a better threshold check than 1 key repeating
-        gallop = current.bisect(next.getKey(), next.getPartition())-1;
+      SpanIterator current = heap.top();
+      if(current != null && ((Object)horse) == ((Object)current)) {
+        SpanIterator next = heap.runnerUp();
+        if (next != null) {
+          // TODO: a better threshold check than 1 key repeating
+          gallop = current.bisect(next.getKey(), next.getPartition())-1;
+        }
       }
       horse = current;
       return current;
@@ -1335,7 +1516,15 @@ public class PipelinedSorter extends ExternalSorter {
       if (gallop > 0) {
         return horse;
       }
-      return heap.peek();
+      return heap.top();
+    }
+
+    private void advanced(SpanIterator current) {
+      if (current.next()) {
+        heap.adjustTop();
+      } else {
+        heap.pop();
+      }
     }
 
     public final boolean next() {
@@ -1347,7 +1536,7 @@ public class PipelinedSorter extends ExternalSorter {
         value.reset(current.getValue());
         if(gallop <= 0) {
           // since all keys and values are references to the kvbuffer, no more deep copies
-          this.add(current);
+          advanced(current);
         } else {
           // galloping, no deep copies required anyway
           current.next();
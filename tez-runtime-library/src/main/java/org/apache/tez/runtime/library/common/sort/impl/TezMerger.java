@@ -17,7 +17,9 @@
  */
 package org.apache.tez.runtime.library.common.sort.impl;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -39,18 +41,19 @@ import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.compress.CompressionCodec;
-import org.apache.hadoop.util.PriorityQueue;
 import org.apache.hadoop.util.Progress;
 import org.apache.hadoop.util.Progressable;
 import org.apache.tez.common.TezRuntimeFrameworkConfigs;
 import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
+import org.apache.tez.runtime.library.common.comparator.NormalizedKeyPrefix;
 import org.apache.tez.runtime.library.common.Constants;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Reader;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Reader.KeyState;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
 import org.apache.tez.runtime.library.utils.BufferUtils;
 import org.apache.tez.runtime.library.utils.LocalProgress;
+import org.apache.tez.runtime.library.utils.MappedSegmentInputStream;
 
 /**
  * Merger is an utility class used by the Map and Reduce tasks for merging
@@ -354,6 +357,7 @@ public class TezMerger {
     boolean ifileReadAhead;
     int ifileReadAheadLength;
     int bufferSize = -1;
+    boolean mapped = false;
 
     public DiskSegment(FileSystem fs, Path file,
         CompressionCodec codec, boolean ifileReadAhead,
@@ -385,6 +389,20 @@ public class TezMerger {
         long segmentOffset, long segmentLength, CompressionCodec codec,
         boolean ifileReadAhead, int ifileReadAheadLength, int bufferSize,
         boolean preserve, TezCounter mergedMapOutputsCounter)
+    throws IOException {
+      this(fs, file, segmentOffset, segmentLength, codec, ifileReadAhead, ifileReadAheadLength,
+          bufferSize, preserve, mergedMapOutputsCounter, false);
+    }
+
+    /**
+     * @param mapped read the segment through a read-only memory mapping of a local file,
+     *               instead of opening a stream on the file system, unless it is too long to
+     *               be mapped
+     */
+    public DiskSegment(FileSystem fs, Path file,
+        long segmentOffset, long segmentLength, CompressionCodec codec,
+        boolean ifileReadAhead, int ifileReadAheadLength, int bufferSize,
+        boolean preserve, TezCounter mergedMapOutputsCounter, boolean mapped)
     throws IOException {
       super(null, mergedMapOutputsCounter);
       this.fs = fs;
@@ -397,13 +415,21 @@ public class TezMerger {
 
       this.segmentOffset = segmentOffset;
       this.segmentLength = segmentLength;
+      this.mapped = mapped;
     }
 
     @Override
     void init(TezCounter readsCounter, TezCounter bytesReadCounter) throws IOException {
       super.init(readsCounter, bytesReadCounter);
-      FSDataInputStream in = fs.open(file);
-      in.seek(segmentOffset);
+      final InputStream in;
+      if (mapped && MappedSegmentInputStream.canMap(segmentLength)) {
+        in = MappedSegmentInputStream.map(new File(fs.makeQualified(file).toUri().getPath()),
+            segmentOffset, segmentLength);
+      } else {
+        FSDataInputStream fsIn = fs.open(file);
+        fsIn.seek(segmentOffset);
+        in = fsIn;
+      }
       reader = new Reader(in, segmentLength, codec, readsCounter, bytesReadCounter, ifileReadAhead,
           ifileReadAheadLength, bufferSize);
     }
@@ -448,7 +474,7 @@ public class TezMerger {
 
   @VisibleForTesting
   static class MergeQueue<K extends Object, V extends Object>
-  extends PriorityQueue<Segment> implements TezRawKeyValueIterator {
+  extends LoserTree<Segment> implements TezRawKeyValueIterator {
     Configuration conf;
     FileSystem fs;
     CompressionCodec codec;
@@ -460,6 +486,12 @@ public class TezMerger {
     List<Segment> segments = new ArrayList<Segment>();
     
     RawComparator comparator;
+    // cached per segment by the LoserTree, when the comparator orders keys by their bytes
+    NormalizedKeyPrefix keyPrefix;
+    // reads on-disk segments ahead of the merge, null if disabled
+    IFilePrefetcher prefetcher;
+    int prefetchChunks;
+    long prefetchMemory;
 
     private long totalBytesProcessed;
     private float progPerByte;
@@ -506,8 +538,10 @@ public class TezMerger {
       this.fs = fs;
       this.codec = codec;
       this.comparator = comparator;
+      this.keyPrefix = NormalizedKeyPrefix.forComparator(comparator);
       this.reporter = reporter;
       this.considerFinalMergeForProgress = considerFinalMergeForProgress;
+      initPrefetch();
       
       for (Path file : inputs) {
         LOG.debug("MergeQ: adding: " + file);
@@ -529,9 +563,11 @@ public class TezMerger {
       this.conf = conf;
       this.fs = fs;
       this.comparator = comparator;
+      this.keyPrefix = NormalizedKeyPrefix.forComparator(comparator);
       this.segments = segments;
       this.reporter = reporter;
       this.considerFinalMergeForProgress = considerFinalMergeForProgress;
+      initPrefetch();
       if (sortSegments) {
         Collections.sort(segments, segmentComparator);
       }
@@ -545,6 +581,38 @@ public class TezMerger {
       this.codec = codec;
     }
 
+    private void initPrefetch() {
+      if (conf == null) {
+        return;
+      }
+      prefetchChunks = conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_CHUNKS,
+          TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_CHUNKS_DEFAULT);
+      if (prefetchChunks > 0) {
+        prefetchMemory = (long) conf.getInt(
+            TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_MEMORY_MB,
+            TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_MEMORY_MB_DEFAULT) << 20;
+        prefetcher = IFilePrefetcher.getInstance(
+            conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_THREADS,
+                TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_THREADS_DEFAULT),
+            conf.getInt(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_CHUNK_SIZE,
+                TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_CHUNK_SIZE_DEFAULT));
+      }
+    }
+
+    /**
+     * Number of chunks to prefetch per on-disk segment in a pass merging up to factor segments,
+     * such that all of them fit into the prefetch memory. 0 if prefetching is disabled.
+     */
+    @VisibleForTesting
+    int getPrefetchChunks(int factor) {
+      if (prefetcher == null) {
+        return 0;
+      }
+      // each segment also holds the chunk being consumed
+      long chunks = prefetchMemory / ((long) Math.max(1, factor) * prefetcher.getChunkSize()) - 1;
+      return (int) Math.max(0, Math.min(prefetchChunks, chunks));
+    }
+
     public void close() throws IOException {
       Segment segment;
       while((segment = pop()) != null) {
@@ -673,9 +741,10 @@ public class TezMerger {
       return comparator.compare(b1, s1, l1, b2, s2, l2);
     }
 
-    protected boolean lessThan(Object a, Object b) {
-      KeyValueBuffer key1 = ((Segment)a).getKey();
-      KeyValueBuffer key2 = ((Segment)b).getKey();
+    @Override
+    protected boolean lessThan(Segment a, Segment b) {
+      KeyValueBuffer key1 = a.getKey();
+      KeyValueBuffer key2 = b.getKey();
       int s1 = key1.getPosition();
       int l1 = key1.getLength();
       int s2 = key2.getPosition();
@@ -683,6 +752,15 @@ public class TezMerger {
 
       return comparator.compare(key1.getData(), s1, l1, key2.getData(), s2, l2) < 0;
     }
+
+    @Override
+    protected long prefix(Segment segment) {
+      if (keyPrefix == null) {
+        return 0;
+      }
+      KeyValueBuffer key = segment.getKey();
+      return keyPrefix.getPrefix(key.getData(), key.getPosition(), key.getLength());
+    }
     
     public TezRawKeyValueIterator merge(Class keyClass, Class valueClass,
                                      int factor, Path tmpDir,
@@ -741,6 +819,12 @@ public class TezMerger {
         int segmentsConsidered = 0;
         int numSegmentsToConsider = factor;
         long startBytes = 0; // starting bytes of segments of this merge
+        int passPrefetchChunks = getPrefetchChunks(factor);
+        if (passPrefetchChunks < prefetchChunks) {
+          LOG.info("Prefetching " + passPrefetchChunks + " chunks per segment instead of "
+              + prefetchChunks + ", to merge " + factor + " segments within "
+              + TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_MEMORY_MB);
+        }
         while (true) {
           //extract the smallest 'factor' number of segments  
           //Call cleanup on the empty segments (no key/value data)
@@ -751,6 +835,9 @@ public class TezMerger {
             // this helps in ensuring we don't use buffers until we need them
 
             segment.init(readsCounter, bytesReadCounter);
+            if (passPrefetchChunks > 0 && !segment.inMemory()) {
+              segment.reader.prefetch(prefetcher, passPrefetchChunks);
+            }
             long startPos = segment.getPosition();
             boolean hasNext = segment.nextRawKey(nextKey);
             long endPos = segment.getPosition();
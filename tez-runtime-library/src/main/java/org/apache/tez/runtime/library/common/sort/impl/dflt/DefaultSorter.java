@@ -49,6 +49,7 @@ import org.apache.tez.runtime.api.Event;
 import org.apache.tez.runtime.api.OutputContext;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.ConfigUtils;
+import org.apache.tez.runtime.library.common.comparator.NormalizedKeyPrefix;
 import org.apache.tez.runtime.library.common.shuffle.ShuffleUtils;
 import org.apache.tez.runtime.library.common.sort.impl.ExternalSorter;
 import org.apache.tez.runtime.library.common.sort.impl.IFile;
@@ -449,13 +450,21 @@ public final class DefaultSorter extends ExternalSorter implements IndexedSortab
     if (kvip != kvjp) {
       return kvip - kvjp;
     }
+    final int istart = kvmeta.get(kvi + KEYSTART);
+    final int jstart = kvmeta.get(kvj + KEYSTART);
+    final int ilen = kvmeta.get(kvi + VALSTART) - istart;
+    final int jlen = kvmeta.get(kvj + VALSTART) - jstart;
+    // sort by key prefix. The circular kvmeta has no room for stored prefixes, so they are
+    // read straight from the serialized keys, which is still cheaper than the comparator.
+    if (keyPrefix != null) {
+      final int cmp = NormalizedKeyPrefix.compare(keyPrefix.getPrefix(kvbuffer, istart, ilen),
+          keyPrefix.getPrefix(kvbuffer, jstart, jlen));
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
     // sort by key
-    int result = comparator.compare(kvbuffer,
-        kvmeta.get(kvi + KEYSTART),
-        kvmeta.get(kvi + VALSTART) - kvmeta.get(kvi + KEYSTART),
-        kvbuffer,
-        kvmeta.get(kvj + KEYSTART),
-        kvmeta.get(kvj + VALSTART) - kvmeta.get(kvj + KEYSTART));
+    int result = comparator.compare(kvbuffer, istart, ilen, kvbuffer, jstart, jlen);
     if (result == 0) {
       sameKey++;
     }
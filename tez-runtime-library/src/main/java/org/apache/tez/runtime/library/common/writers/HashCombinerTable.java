@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.writers;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.tez.runtime.library.common.combine.HashCombiner;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Open addressing hash table over serialized records, used by {@link UnorderedPartitionedKVWriter}
+ * to merge the values of records with the same key before they are buffered. Records are kept in
+ * a single byte array, and the slots hold the offset of a record together with the hash of its
+ * key. The table is bounded by a fixed amount of memory; {@link #add} reports when it is full, so
+ * that the caller can {@link #flush} it.
+ */
+class HashCombinerTable {
+
+  /**
+   * Receives the records of the table when it is flushed. The bytes are only valid for the
+   * duration of the call.
+   */
+  interface RecordSink {
+    void write(int partition, byte[] data, int keyOffset, int keyLength, int valueOffset,
+        int valueLength) throws IOException;
+  }
+
+  // Record layout: partition, key length, value capacity, value length, key, value.
+  private static final int INDEX_PARTITION = 0;
+  private static final int INDEX_KEYLEN = 4;
+  private static final int INDEX_VALCAPACITY = 8;
+  private static final int INDEX_VALLEN = 12;
+  private static final int HEADER_SIZE = 16;
+  // Partition of a record which was moved to the end of the data, to hold a larger value.
+  private static final int MOVED = -1;
+  private static final int EMPTY = -1;
+  // Bytes per slot: offset and hash.
+  private static final int SLOT_SIZE = 8;
+
+  static final long MIN_MEMORY = 1024;
+
+  private final HashCombiner combiner;
+  private final byte[] data;
+  private final int[] offsets;
+  private final int[] hashes;
+  private final int mask;
+  private final int maxRecords;
+
+  private int numRecords = 0;
+  private int dataLength = 0;
+
+  private final DataInputBuffer key = new DataInputBuffer();
+  private final DataInputBuffer value = new DataInputBuffer();
+  private final DataInputBuffer newValue = new DataInputBuffer();
+  private final DataOutputBuffer merged = new DataOutputBuffer();
+
+  HashCombinerTable(HashCombiner combiner, long memory) {
+    Preconditions.checkArgument(memory >= MIN_MEMORY,
+        "Hash combiner memory should be at least " + MIN_MEMORY + " bytes: " + memory);
+    this.combiner = combiner;
+    // A quarter of the memory for the slots, with a load factor of 1/2.
+    int numSlots = Integer.highestOneBit((int) Math.min(memory / (4 * SLOT_SIZE), 1 << 28));
+    this.offsets = new int[numSlots];
+    this.hashes = new int[numSlots];
+    this.mask = numSlots - 1;
+    this.maxRecords = numSlots / 2;
+    this.data = new byte[(int) Math.min(memory - (long) numSlots * SLOT_SIZE,
+        Integer.MAX_VALUE - 8)];
+    Arrays.fill(offsets, EMPTY);
+  }
+
+  /**
+   * Add a serialized record, merging its value with the value held for its key, if any.
+   *
+   * @param record the serialized key, followed by the serialized value
+   * @return false if the table has no room for the record. The table is unchanged in that case.
+   */
+  boolean add(int partition, byte[] record, int keyLength, int valueLength) throws IOException {
+    final int hash = hash(record, keyLength);
+    int slot = hash & mask;
+    while (offsets[slot] != EMPTY) {
+      if (hashes[slot] == hash && keyEquals(offsets[slot], record, keyLength)) {
+        return merge(slot, record, keyLength, valueLength);
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (numRecords == maxRecords) {
+      return false;
+    }
+    final int offset = append(partition, record, 0, keyLength, record, keyLength, valueLength);
+    if (offset < 0) {
+      return false;
+    }
+    offsets[slot] = offset;
+    hashes[slot] = hash;
+    numRecords++;
+    return true;
+  }
+
+  private boolean merge(int slot, byte[] record, int keyLength, int valueLength)
+      throws IOException {
+    final int offset = offsets[slot];
+    final int valueStart = offset + HEADER_SIZE + keyLength;
+    key.reset(data, offset + HEADER_SIZE, keyLength);
+    value.reset(data, valueStart, readInt(offset + INDEX_VALLEN));
+    newValue.reset(record, keyLength, valueLength);
+    merged.reset();
+    combiner.combine(key, value, newValue, merged);
+
+    final int mergedLength = merged.getLength();
+    if (mergedLength <= readInt(offset + INDEX_VALCAPACITY)) {
+      System.arraycopy(merged.getData(), 0, data, valueStart, mergedLength);
+      writeInt(offset + INDEX_VALLEN, mergedLength);
+      return true;
+    }
+    // The merged value does not fit in place, move the record to the end of the data.
+    final int newOffset = append(readInt(offset + INDEX_PARTITION), data, offset + HEADER_SIZE,
+        keyLength, merged.getData(), 0, mergedLength);
+    if (newOffset < 0) {
+      return false;
+    }
+    writeInt(offset + INDEX_PARTITION, MOVED);
+    offsets[slot] = newOffset;
+    return true;
+  }
+
+  private int append(int partition, byte[] keyData, int keyOffset, int keyLength,
+      byte[] valueData, int valueOffset, int valueLength) {
+    final int offset = dataLength;
+    if ((long) offset + HEADER_SIZE + keyLength + valueLength > data.length) {
+      return -1;
+    }
+    writeInt(offset + INDEX_PARTITION, partition);
+    writeInt(offset + INDEX_KEYLEN, keyLength);
+    writeInt(offset + INDEX_VALCAPACITY, valueLength);
+    writeInt(offset + INDEX_VALLEN, valueLength);
+    System.arraycopy(keyData, keyOffset, data, offset + HEADER_SIZE, keyLength);
+    System.arraycopy(valueData, valueOffset, data, offset + HEADER_SIZE + keyLength, valueLength);
+    dataLength = offset + HEADER_SIZE + keyLength + valueLength;
+    return offset;
+  }
+
+  /**
+   * Write out all records, in the order they were added, and empty the table.
+   */
+  void flush(RecordSink sink) throws IOException {
+    int offset = 0;
+    while (offset < dataLength) {
+      final int partition = readInt(offset + INDEX_PARTITION);
+      final int keyLength = readInt(offset + INDEX_KEYLEN);
+      final int valueStart = offset + HEADER_SIZE + keyLength;
+      if (partition != MOVED) {
+        sink.write(partition, data, offset + HEADER_SIZE, keyLength, valueStart,
+            readInt(offset + INDEX_VALLEN));
+      }
+      offset = valueStart + readInt(offset + INDEX_VALCAPACITY);
+    }
+    clear();
+  }
+
+  void clear() {
+    if (numRecords > 0) {
+      Arrays.fill(offsets, EMPTY);
+    }
+    numRecords = 0;
+    dataLength = 0;
+  }
+
+  int getNumRecords() {
+    return numRecords;
+  }
+
+  private boolean keyEquals(int offset, byte[] record, int keyLength) {
+    return readInt(offset + INDEX_KEYLEN) == keyLength && WritableComparator.compareBytes(data,
+        offset + HEADER_SIZE, keyLength, record, 0, keyLength) == 0;
+  }
+
+  private static int hash(byte[] record, int keyLength) {
+    int h = WritableComparator.hashBytes(record, 0, keyLength);
+    return h ^ (h >>> 16);
+  }
+
+  private int readInt(int offset) {
+    return WritableComparator.readInt(data, offset);
+  }
+
+  private void writeInt(int offset, int v) {
+    data[offset] = (byte) (v >>> 24);
+    data[offset + 1] = (byte) (v >>> 16);
+    data[offset + 2] = (byte) (v >>> 8);
+    data[offset + 3] = (byte) v;
+  }
+}
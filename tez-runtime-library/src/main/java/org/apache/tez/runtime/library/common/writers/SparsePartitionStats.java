@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.writers;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Record counts and (uncompressed) sizes per partition, for outputs where only some of the
+ * partitions receive data between spills. The counts are kept in arrays indexed by partition, but
+ * the partitions with data are tracked separately, so that iterating over, accumulating, encoding
+ * and resetting the stats takes time proportional to the number of non-empty partitions rather
+ * than to the number of partitions. Instances are meant to be reused across spills.
+ *
+ * Not thread safe.
+ */
+class SparsePartitionStats {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int numPartitions;
+  private final int[] records;
+  // null if sizes are not tracked
+  private final long[] sizes;
+
+  private int[] nonEmpty;
+  private int numNonEmpty = 0;
+  private boolean sorted = true;
+
+  SparsePartitionStats(int numPartitions, boolean trackSizes) {
+    this.numPartitions = numPartitions;
+    this.records = new int[numPartitions];
+    this.sizes = trackSizes ? new long[numPartitions] : null;
+    this.nonEmpty = new int[Math.min(numPartitions, INITIAL_CAPACITY)];
+  }
+
+  void add(int partition, int numRecords, long size) {
+    Preconditions.checkArgument(numRecords > 0, "numRecords should be positive");
+    if (records[partition] == 0) {
+      if (numNonEmpty == nonEmpty.length) {
+        nonEmpty = Arrays.copyOf(nonEmpty, Math.min(numPartitions, nonEmpty.length * 2));
+      }
+      if (numNonEmpty > 0 && nonEmpty[numNonEmpty - 1] > partition) {
+        sorted = false;
+      }
+      nonEmpty[numNonEmpty++] = partition;
+    }
+    records[partition] += numRecords;
+    if (sizes != null) {
+      sizes[partition] += size;
+    }
+  }
+
+  /**
+   * Add the stats of another instance (over the same partitions) to this one.
+   */
+  void addAll(SparsePartitionStats other) {
+    for (int i = 0; i < other.numNonEmpty; i++) {
+      final int partition = other.nonEmpty[i];
+      add(partition, other.records[partition],
+          (other.sizes == null) ? 0 : other.sizes[partition]);
+    }
+  }
+
+  boolean isEmpty(int partition) {
+    return records[partition] == 0;
+  }
+
+  int getRecords(int partition) {
+    return records[partition];
+  }
+
+  int getNumPartitions() {
+    return numPartitions;
+  }
+
+  int getNonEmptyCount() {
+    return numNonEmpty;
+  }
+
+  /**
+   * @return the index-th partition with data, in increasing partition order
+   */
+  int getNonEmptyPartition(int index) {
+    if (!sorted) {
+      Arrays.sort(nonEmpty, 0, numNonEmpty);
+      sorted = true;
+    }
+    return nonEmpty[index];
+  }
+
+  /**
+   * Sizes indexed by partition, or null if sizes are not tracked. The array is owned by this
+   * instance and cleared by {@link #reset()}.
+   */
+  long[] getSizes() {
+    return sizes;
+  }
+
+  /**
+   * Length of the encoding written by {@link #writeNonEmptyPartitions(DataOutput)}.
+   */
+  int getNonEmptyPartitionsLength() {
+    int length = WritableUtils.getVIntSize(numNonEmpty);
+    int previous = 0;
+    for (int i = 0; i < numNonEmpty; i++) {
+      final int partition = getNonEmptyPartition(i);
+      length += WritableUtils.getVIntSize(partition - previous);
+      previous = partition;
+    }
+    return length;
+  }
+
+  /**
+   * Write the partitions with data as a vint count, followed by the partitions as vint deltas in
+   * increasing order.
+   */
+  void writeNonEmptyPartitions(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, numNonEmpty);
+    int previous = 0;
+    for (int i = 0; i < numNonEmpty; i++) {
+      final int partition = getNonEmptyPartition(i);
+      WritableUtils.writeVInt(out, partition - previous);
+      previous = partition;
+    }
+  }
+
+  void reset() {
+    for (int i = 0; i < numNonEmpty; i++) {
+      final int partition = nonEmpty[i];
+      records[partition] = 0;
+      if (sizes != null) {
+        sizes[partition] = 0;
+      }
+    }
+    numNonEmpty = 0;
+    sorted = true;
+  }
+}
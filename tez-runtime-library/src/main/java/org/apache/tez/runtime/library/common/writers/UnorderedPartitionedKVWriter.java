@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
@@ -47,6 +48,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.serializer.Serializer;
 import org.apache.tez.common.CallableWithNdc;
 import org.apache.tez.common.TezCommonUtils;
 import org.apache.tez.common.TezUtilsInternal;
@@ -61,6 +63,8 @@ import org.apache.tez.runtime.library.api.IOInterruptedException;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration.ReportPartitionStats;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.Constants;
+import org.apache.tez.runtime.library.common.TezRuntimeUtils;
+import org.apache.tez.runtime.library.common.combine.HashCombiner;
 import org.apache.tez.runtime.library.common.sort.impl.IFile;
 import org.apache.tez.runtime.library.common.sort.impl.TezIndexRecord;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
@@ -93,9 +97,6 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
 
   private final static int APPROX_HEADER_LENGTH = 150;
 
-  // Maybe setup a separate statistics class which can be shared between the
-  // buffer and the main path instead of having multiple arrays.
-
   private final String destNameTrimmed;
   private final long availableMemory;
   @VisibleForTesting
@@ -113,9 +114,11 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
 
   private final ListeningExecutorService spillExecutor;
 
-  private final int[] numRecordsPerPartition;
-  // uncompressed size for each partition
-  private final long[] sizePerPartition;
+  // records and uncompressed size for each partition, over all spills
+  private final SparsePartitionStats partitionStats;
+  // partitions with data, for events of spills that are not made from a buffer
+  private final SparsePartitionStats eventPartitionStats;
+  private final int sparsePartitionsThreshold;
   private volatile long spilledSize = 0;
   private final Deflater deflater;
 
@@ -155,6 +158,18 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
 
   private final long indexFileSizeEstimate;
 
+  // Map side aggregation ahead of the buffers. Null if no HashCombiner is configured.
+  private final HashCombinerTable combinerTable;
+  private final DataOutputBuffer combinerRecord;
+  private final Serializer combinerKeySerializer;
+  private final Serializer combinerValSerializer;
+  private final HashCombinerTable.RecordSink combinerSink;
+  // Serialized key and value of a record flushed from the combiner table.
+  private final DataInputBuffer combinedKey = new DataInputBuffer();
+  private final DataInputBuffer combinedValue = new DataInputBuffer();
+  private final TezCounter combineInputRecordsCounter;
+  private final TezCounter combineOutputRecordsCounter;
+
   public UnorderedPartitionedKVWriter(OutputContext outputContext, Configuration conf,
       int numOutputs, long availableMemoryBytes) throws IOException {
     super(outputContext, conf, numOutputs);
@@ -176,18 +191,64 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
           + pipelinedShuffle);
     }
 
+    HashCombiner hashCombiner = TezRuntimeUtils.instantiateHashCombiner(this.conf, outputContext);
+    long combinerMemory = 0;
+    if (hashCombiner != null) {
+      float fraction = this.conf.getFloat(
+          TezRuntimeConfiguration.TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_MEMORY_FRACTION,
+          TezRuntimeConfiguration.TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_MEMORY_FRACTION_DEFAULT);
+      Preconditions.checkArgument(fraction > 0 && fraction < 1,
+          TezRuntimeConfiguration.TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_MEMORY_FRACTION
+              + " should be between 0 and 1: " + fraction);
+      combinerMemory = (long) (availableMemoryBytes * fraction);
+      if (combinerMemory < HashCombinerTable.MIN_MEMORY) {
+        LOG.warn(destNameTrimmed + ": " + "Not enough memory for the hash combiner ("
+            + combinerMemory + " bytes), disabling it");
+        hashCombiner = null;
+        combinerMemory = 0;
+      }
+    }
+    if (hashCombiner != null) {
+      combinerTable = new HashCombinerTable(hashCombiner, combinerMemory);
+      combinerRecord = new DataOutputBuffer();
+      combinerKeySerializer = serializationFactory.getSerializer(keyClass);
+      combinerValSerializer = serializationFactory.getSerializer(valClass);
+      combinerKeySerializer.open(combinerRecord);
+      combinerValSerializer.open(combinerRecord);
+      combinerSink = new CombinerSink();
+    } else {
+      combinerTable = null;
+      combinerRecord = null;
+      combinerKeySerializer = null;
+      combinerValSerializer = null;
+      combinerSink = null;
+    }
+    combineInputRecordsCounter =
+        outputContext.getCounters().findCounter(TaskCounter.COMBINE_INPUT_RECORDS);
+    combineOutputRecordsCounter =
+        outputContext.getCounters().findCounter(TaskCounter.COMBINE_OUTPUT_RECORDS);
+
     // Ideally, should be significantly larger.
-    availableMemory = availableMemoryBytes;
+    availableMemory = availableMemoryBytes - combinerMemory;
 
     // Allow unit tests to control the buffer sizes.
     int maxSingleBufferSizeBytes = conf.getInt(
         TezRuntimeConfiguration.TEZ_RUNTIME_UNORDERED_OUTPUT_MAX_PER_BUFFER_SIZE_BYTES, Integer.MAX_VALUE);
     computeNumBuffersAndSize(maxSingleBufferSizeBytes);
 
+    reportPartitionStats = ReportPartitionStats.fromString(
+        conf.get(TezRuntimeConfiguration.TEZ_RUNTIME_REPORT_PARTITION_STATS,
+        TezRuntimeConfiguration.TEZ_RUNTIME_REPORT_PARTITION_STATS_DEFAULT));
+    partitionStats = new SparsePartitionStats(numPartitions, reportPartitionStats.isEnabled());
+    eventPartitionStats = new SparsePartitionStats(numPartitions, false);
+    sparsePartitionsThreshold = conf.getInt(
+        TezRuntimeConfiguration.TEZ_RUNTIME_UNORDERED_OUTPUT_SPARSE_PARTITIONS_THRESHOLD,
+        TezRuntimeConfiguration.TEZ_RUNTIME_UNORDERED_OUTPUT_SPARSE_PARTITIONS_THRESHOLD_DEFAULT);
+
     availableBuffers = new LinkedBlockingQueue<WrappedBuffer>();
     buffers = new WrappedBuffer[numBuffers];
     // Set up only the first buffer to start with.
-    buffers[0] = new WrappedBuffer(numOutputs, sizePerBuffer);
+    buffers[0] = new WrappedBuffer(numOutputs, sizePerBuffer, reportPartitionStats.isEnabled());
     numInitializedBuffers = 1;
     if (LOG.isDebugEnabled()) {
       LOG.debug(destNameTrimmed + ": " + "Initializing Buffer #" +
@@ -210,12 +271,6 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
                         outputContext.getDestinationVertexName()) + "}")
             .build());
     spillExecutor = MoreExecutors.listeningDecorator(executor);
-    numRecordsPerPartition = new int[numPartitions];
-    reportPartitionStats = ReportPartitionStats.fromString(
-        conf.get(TezRuntimeConfiguration.TEZ_RUNTIME_REPORT_PARTITION_STATS,
-        TezRuntimeConfiguration.TEZ_RUNTIME_REPORT_PARTITION_STATS_DEFAULT));
-    sizePerPartition = (reportPartitionStats.isEnabled()) ?
-        new long[numPartitions] : null;
 
     outputLargeRecordsCounter = outputContext.getCounters().findCounter(
         TaskCounter.OUTPUT_LARGE_RECORDS);
@@ -241,7 +296,8 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
         + ", skipBuffers=" + skipBuffers
         + ", pipelinedShuffle=" + pipelinedShuffle
         + ", numPartitions=" + numPartitions
-        + ", reportPartitionStats=" + reportPartitionStats);
+        + ", reportPartitionStats=" + reportPartitionStats
+        + ", hashCombinerMemory=" + combinerMemory);
   }
 
   private void computeNumBuffersAndSize(int bufferLimit) {
@@ -264,7 +320,9 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
       // Already reported as a fatalError - report to the user code
       throw new IOException("Exception during spill", new IOException(spillException));
     }
-    if (skipBuffers) {
+    if (combinerTable != null) {
+      combine(key, value, skipBuffers ? 0 : partitioner.getPartition(key, value, numPartitions));
+    } else if (skipBuffers) {
       //special case, where we have only one partition and pipelining is disabled.
       // The reason outputRecordsCounter isn't updated here:
       // For skipBuffers case, IFile writer has the reference to
@@ -279,6 +337,68 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
   }
 
   @SuppressWarnings("unchecked")
+  private void combine(Object key, Object value, int partition) throws IOException {
+    combineInputRecordsCounter.increment(1);
+    combinerRecord.reset();
+    combinerKeySerializer.serialize(key);
+    int keyLength = combinerRecord.getLength();
+    combinerValSerializer.serialize(value);
+    int valueLength = combinerRecord.getLength() - keyLength;
+    if (combinerTable.add(partition, combinerRecord.getData(), keyLength, valueLength)) {
+      return;
+    }
+    flushCombinerTable();
+    if (!combinerTable.add(partition, combinerRecord.getData(), keyLength, valueLength)) {
+      // Larger than the entire table.
+      combineOutputRecordsCounter.increment(1);
+      if (skipBuffers) {
+        writer.append(key, value);
+        outputContext.notifyProgress();
+      } else {
+        write(key, value, partition);
+      }
+    }
+  }
+
+  private void flushCombinerTable() throws IOException {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(destNameTrimmed + ": " + "Flushing " + combinerTable.getNumRecords()
+          + " records from the hash combiner");
+    }
+    combinerTable.flush(combinerSink);
+  }
+
+  private class CombinerSink implements HashCombinerTable.RecordSink {
+    @Override
+    public void write(int partition, byte[] data, int keyOffset, int keyLength, int valueOffset,
+        int valueLength) throws IOException {
+      combinedKey.reset(data, keyOffset, keyLength);
+      combinedValue.reset(data, valueOffset, valueLength);
+      combineOutputRecordsCounter.increment(1);
+      if (skipBuffers) {
+        writer.append(combinedKey, combinedValue);
+        outputContext.notifyProgress();
+      } else {
+        UnorderedPartitionedKVWriter.this.write(combinedKey, combinedValue, partition);
+      }
+    }
+  }
+
+  /**
+   * Serialize the key (or value) of a record into the current buffer. Records flushed from the
+   * combiner table are already serialized.
+   */
+  @SuppressWarnings("unchecked")
+  private void serialize(Serializer serializer, Object o, DataInputBuffer serialized)
+      throws IOException {
+    if (o == serialized) {
+      dos.write(serialized.getData(), serialized.getPosition(),
+          serialized.getLength() - serialized.getPosition());
+    } else {
+      serializer.serialize(o);
+    }
+  }
+
   private void write(Object key, Object value, int partition) throws IOException {
     // Wrap to 4 byte (Int) boundary for metaData
     int mod = currentBuffer.nextPosition % INT_SIZE;
@@ -293,7 +413,7 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
     currentBuffer.availableSize -= (META_SIZE + metaSkip);
     currentBuffer.nextPosition += META_SIZE;
 
-    keySerializer.serialize(key);
+    serialize(keySerializer, key, combinedKey);
 
     if (currentBuffer.full) {
       if (metaStart == 0) { // Started writing at the start of the buffer. Write Key to disk.
@@ -312,7 +432,7 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
 
 
     int valStart = currentBuffer.nextPosition;
-    valSerializer.serialize(value);
+    serialize(valSerializer, value, combinedValue);
 
     if (currentBuffer.full) {
       // Value too large for current buffer, or K-V too large for entire buffer.
@@ -343,9 +463,8 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
     outputRecordsCounter.increment(1);
     outputContext.notifyProgress();
     currentBuffer.partitionPositions[partition] = metaStart;
-    currentBuffer.recordsPerPartition[partition]++;
-    currentBuffer.sizePerPartition[partition] +=
-        currentBuffer.nextPosition - (metaStart + META_SIZE);
+    currentBuffer.partitionStats.add(partition, 1,
+        currentBuffer.nextPosition - (metaStart + META_SIZE));
     currentBuffer.numRecords++;
 
   }
@@ -372,23 +491,15 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
     }
   }
 
-  private boolean reportPartitionStats() {
-    return (sizePerPartition != null);
-  }
-
   private void updateGlobalStats(WrappedBuffer buffer) {
-    for (int i = 0; i < numPartitions; i++) {
-      numRecordsPerPartition[i] += buffer.recordsPerPartition[i];
-      if (reportPartitionStats()) {
-        sizePerPartition[i] += buffer.sizePerPartition[i];
-      }
-    }
+    partitionStats.addAll(buffer.partitionStats);
   }
 
   private WrappedBuffer getNextAvailableBuffer() throws IOException {
     if (availableBuffers.peek() == null) {
       if (numInitializedBuffers < numBuffers) {
-        buffers[numInitializedBuffers] = new WrappedBuffer(numPartitions, sizePerBuffer);
+        buffers[numInitializedBuffers] = new WrappedBuffer(numPartitions, sizePerBuffer,
+            reportPartitionStats.isEnabled());
         numInitializedBuffers++;
         return buffers[numInitializedBuffers - 1];
       } else {
@@ -437,15 +548,14 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
       DataInputBuffer key = new DataInputBuffer();
       DataInputBuffer val = new DataInputBuffer();
       long compressedLength = 0;
-      for (int i = 0; i < numPartitions; i++) {
+      // Empty partitions are skipped, i.e. have an empty index record.
+      final SparsePartitionStats stats = wrappedBuffer.partitionStats;
+      for (int p = 0; p < stats.getNonEmptyCount(); p++) {
+        final int i = stats.getNonEmptyPartition(p);
         IFile.Writer writer = null;
         outputContext.notifyProgress();
         try {
           long segmentStart = out.getPos();
-          if (wrappedBuffer.partitionPositions[i] == WrappedBuffer.PARTITION_ABSENT_POSITION) {
-            // Skip empty partition.
-            continue;
-          }
           writer = new Writer(conf, out, keyClass, valClass, codec, numRecordsCounter, null);
           writePartition(wrappedBuffer.partitionPositions[i], wrappedBuffer, writer, key, val);
           writer.close();
@@ -502,6 +612,9 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
   @Override
   public List<Event> close() throws IOException, InterruptedException {
     List<Event> eventList = Lists.newLinkedList();
+    if (combinerTable != null && spillException == null) {
+      flushCombinerTable();
+    }
     isShutdown.set(true);
     spillLock.lock();
     try {
@@ -539,20 +652,16 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
           sr.putIndex(rec, 0);
           sr.writeToFile(finalIndexPath, conf);
 
-          BitSet emptyPartitions = new BitSet();
-          if (outputRecordsCounter.getValue() == 0) {
-            emptyPartitions.set(0);
-          }
-          if (reportPartitionStats()) {
-            sizePerPartition[0] = rawLen;
+          final long numRecords = outputRecordsCounter.getValue();
+          if (numRecords > 0) {
+            partitionStats.add(0, (int) Math.min(numRecords, Integer.MAX_VALUE), rawLen);
           }
           cleanupCurrentBuffer();
 
           outputBytesWithOverheadCounter.increment(rawLen);
           fileOutputBytesCounter.increment(compLen + indexFileSizeEstimate);
           eventList.add(generateVMEvent());
-          eventList.add(generateDMEvent(false, -1, false, outputContext
-              .getUniqueIdentifier(), emptyPartitions));
+          eventList.add(generateDMEvent());
           return eventList;
         }
 
@@ -570,43 +679,35 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
 
       //For pipelined case, send out an event in case finalspill generated a spill file.
       if (finalSpill()) {
-        // VertexManagerEvent is only sent at the end and thus sizePerPartition is used
+        // VertexManagerEvent is only sent at the end and thus partitionStats is used
         // for the sum of all spills.
-        sendPipelinedEventForSpill(currentBuffer.recordsPerPartition,
-            sizePerPartition, numSpills.get() - 1, true);
+        sendPipelinedEventForSpill(currentBuffer.partitionStats,
+            partitionStats.getSizes(), numSpills.get() - 1, true);
       }
       cleanupCurrentBuffer();
       return events;
     }
   }
 
-  private BitSet getEmptyPartitions(int[] recordsPerPartition) {
-    Preconditions.checkArgument(recordsPerPartition != null, "records per partition can not be null");
-    BitSet emptyPartitions = new BitSet();
-    for (int i = 0; i < numPartitions; i++) {
-      if (recordsPerPartition[i] == 0 ) {
-        emptyPartitions.set(i);
-      }
-    }
-    return emptyPartitions;
-  }
-
   public boolean reportDetailedPartitionStats() {
     return reportPartitionStats.isPrecise();
   }
 
   private Event generateVMEvent() throws IOException {
-    return ShuffleUtils.generateVMEvent(outputContext, this.sizePerPartition,
+    return ShuffleUtils.generateVMEvent(outputContext, partitionStats.getSizes(),
         this.reportDetailedPartitionStats(), deflater);
   }
 
   private Event generateDMEvent() throws IOException {
-    BitSet emptyPartitions = getEmptyPartitions(numRecordsPerPartition);
-    return generateDMEvent(false, -1, false, outputContext.getUniqueIdentifier(), emptyPartitions);
+    return generateDMEvent(false, -1, false, outputContext.getUniqueIdentifier(), partitionStats);
   }
 
+  /**
+   * @param stats stats of the partitions covered by the event; only the partitions with data are
+   *              used
+   */
   private Event generateDMEvent(boolean addSpillDetails, int spillId,
-      boolean isLastSpill, String pathComponent, BitSet emptyPartitions)
+      boolean isLastSpill, String pathComponent, SparsePartitionStats stats)
       throws IOException {
 
     outputContext.notifyProgress();
@@ -614,14 +715,12 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
         .newBuilder();
 
     String host = getHost();
-    if (emptyPartitions.cardinality() != 0) {
+    if (stats.getNonEmptyCount() != numPartitions) {
       // Empty partitions exist
-      ByteString emptyPartitionsByteString =
-          TezCommonUtils.compressByteArrayToByteString(TezUtilsInternal.toByteArray(emptyPartitions), deflater);
-      payloadBuilder.setEmptyPartitions(emptyPartitionsByteString);
+      setEmptyPartitions(payloadBuilder, stats);
     }
 
-    if (emptyPartitions.cardinality() != numPartitions) {
+    if (stats.getNonEmptyCount() != 0) {
       // Populate payload only if at least 1 partition has data
       payloadBuilder.setHost(host);
       payloadBuilder.setPort(getShufflePort());
@@ -637,6 +736,27 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
     return CompositeDataMovementEvent.create(0, numPartitions, payload);
   }
 
+  private void setEmptyPartitions(DataMovementEventPayloadProto.Builder payloadBuilder,
+      SparsePartitionStats stats) throws IOException {
+    if (numPartitions >= sparsePartitionsThreshold
+        && stats.getNonEmptyPartitionsLength() < (numPartitions + 7) / 8) {
+      // List only the partitions with data, so that neither the size of the event nor the work to
+      // create it depends on the number of partitions.
+      DataOutputBuffer out = new DataOutputBuffer(stats.getNonEmptyPartitionsLength());
+      stats.writeNonEmptyPartitions(out);
+      payloadBuilder.setNonEmptyPartitions(ByteString.copyFrom(out.getData(), 0, out.getLength()));
+    } else {
+      BitSet emptyPartitions = new BitSet(numPartitions);
+      emptyPartitions.set(0, numPartitions);
+      for (int i = 0; i < stats.getNonEmptyCount(); i++) {
+        emptyPartitions.clear(stats.getNonEmptyPartition(i));
+      }
+      ByteString emptyPartitionsByteString =
+          TezCommonUtils.compressByteArrayToByteString(TezUtilsInternal.toByteArray(emptyPartitions), deflater);
+      payloadBuilder.setEmptyPartitions(emptyPartitionsByteString);
+    }
+  }
+
   private void cleanupCurrentBuffer() {
     currentBuffer.cleanup();
     currentBuffer = null;
@@ -660,13 +780,12 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
       if (pipelinedShuffle) {
         List<Event> eventList = Lists.newLinkedList();
         eventList.add(ShuffleUtils.generateVMEvent(outputContext,
-            reportPartitionStats() ? new long[numPartitions] : null,
+            reportPartitionStats.isEnabled() ? new long[numPartitions] : null,
                 reportDetailedPartitionStats(), deflater));
         //Send final event with all empty partitions and null path component.
-        BitSet emptyPartitions = new BitSet(numPartitions);
-        emptyPartitions.flip(0, numPartitions);
+        eventPartitionStats.reset();
         eventList.add(generateDMEvent(true, numSpills.get(), true,
-            null, emptyPartitions));
+            null, eventPartitionStats));
         outputContext.sendEvents(eventList);
       }
       return false;
@@ -752,12 +871,10 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
       out = rfs.create(finalOutPath);
       Writer writer = null;
 
-      for (int i = 0; i < numPartitions; i++) {
+      // Partitions without records are skipped, i.e. have an empty index record.
+      for (int p = 0; p < partitionStats.getNonEmptyCount(); p++) {
+        final int i = partitionStats.getNonEmptyPartition(p);
         long segmentStart = out.getPos();
-        if (numRecordsPerPartition[i] == 0) {
-          LOG.info(destNameTrimmed + ": " + "Skipping partition: " + i + " in final merge since it has no records");
-          continue;
-        }
         writer = new Writer(conf, out, keyClass, valClass, codec, null, null);
         try {
           if (currentBuffer.nextPosition != 0
@@ -824,44 +941,36 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
       final TezSpillRecord spillRecord = new TezSpillRecord(numPartitions);
       final Path outPath = spillPathDetails.outputFilePath;
       out = rfs.create(outPath);
-      BitSet emptyPartitions = null;
-      if (pipelinedShuffle) {
-        emptyPartitions = new BitSet(numPartitions);
-      }
-      for (int i = 0; i < numPartitions; i++) {
-        final long recordStart = out.getPos();
-        if (i == partition) {
-          spilledRecordsCounter.increment(1);
-          Writer writer = null;
-          try {
-            writer = new IFile.Writer(conf, out, keyClass, valClass, codec, null, null);
-            writer.append(key, value);
-            outputLargeRecordsCounter.increment(1);
-            numRecordsPerPartition[i]++;
-            if (reportPartitionStats()) {
-              sizePerPartition[i] += writer.getRawLength();
-            }
-            writer.close();
-            additionalSpillBytesWritternCounter.increment(writer.getCompressedLength());
-            TezIndexRecord indexRecord = new TezIndexRecord(recordStart, writer.getRawLength(),
-                writer.getCompressedLength());
-            spillRecord.putIndex(indexRecord, i);
-            outSize = writer.getCompressedLength();
-            writer = null;
-          } finally {
-            if (writer != null) {
-              writer.close();
-            }
-          }
+      // All other partitions are empty in this spill.
+      final long recordStart = out.getPos();
+      spilledRecordsCounter.increment(1);
+      Writer writer = null;
+      try {
+        writer = new IFile.Writer(conf, out, keyClass, valClass, codec, null, null);
+        if (key == combinedKey) {
+          writer.append(combinedKey, combinedValue);
         } else {
-          if (emptyPartitions != null) {
-            emptyPartitions.set(i);
-          }
+          writer.append(key, value);
+        }
+        outputLargeRecordsCounter.increment(1);
+        partitionStats.add(partition, 1, writer.getRawLength());
+        writer.close();
+        additionalSpillBytesWritternCounter.increment(writer.getCompressedLength());
+        TezIndexRecord indexRecord = new TezIndexRecord(recordStart, writer.getRawLength(),
+            writer.getCompressedLength());
+        spillRecord.putIndex(indexRecord, partition);
+        outSize = writer.getCompressedLength();
+        writer = null;
+      } finally {
+        if (writer != null) {
+          writer.close();
         }
       }
       handleSpillIndex(spillPathDetails, spillRecord);
 
-      sendPipelinedEventForSpill(emptyPartitions, sizePerPartition,
+      eventPartitionStats.reset();
+      eventPartitionStats.add(partition, 1, 0);
+      sendPipelinedEventForSpill(eventPartitionStats, partitionStats.getSizes(),
           spillIndex, false);
 
       LOG.info(destNameTrimmed + ": " + "Finished writing large record of size " + outSize + " to spill file " + spillIndex);
@@ -918,10 +1027,8 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
     private static final int PARTITION_ABSENT_POSITION = -1;
 
     private final int[] partitionPositions;
-    private final int[] recordsPerPartition;
-    // uncompressed size for each partition
-    private final long[] sizePerPartition;
-    private final int numPartitions;
+    // records and uncompressed size for each partition
+    private final SparsePartitionStats partitionStats;
     private final int size;
 
     private byte[] buffer;
@@ -934,16 +1041,10 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
     private int availableSize;
     private boolean full = false;
 
-    WrappedBuffer(int numPartitions, int size) {
+    WrappedBuffer(int numPartitions, int size, boolean trackSizes) {
       this.partitionPositions = new int[numPartitions];
-      this.recordsPerPartition = new int[numPartitions];
-      this.sizePerPartition = new long[numPartitions];
-      this.numPartitions = numPartitions;
-      for (int i = 0; i < numPartitions; i++) {
-        this.partitionPositions[i] = PARTITION_ABSENT_POSITION;
-        this.recordsPerPartition[i] = 0;
-        this.sizePerPartition[i] = 0;
-      }
+      this.partitionStats = new SparsePartitionStats(numPartitions, trackSizes);
+      Arrays.fill(this.partitionPositions, PARTITION_ABSENT_POSITION);
       size = size - (size % INT_SIZE);
       this.size = size;
       this.buffer = new byte[size];
@@ -952,11 +1053,12 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
     }
 
     void reset() {
-      for (int i = 0; i < numPartitions; i++) {
-        this.partitionPositions[i] = PARTITION_ABSENT_POSITION;
-        this.recordsPerPartition[i] = 0;
-        this.sizePerPartition[i] = 0;
+      // Only the partitions written to since the last reset have a position.
+      for (int i = 0; i < partitionStats.getNonEmptyCount(); i++) {
+        this.partitionPositions[partitionStats.getNonEmptyPartition(i)] =
+            PARTITION_ABSENT_POSITION;
       }
+      partitionStats.reset();
       numRecords = 0;
       nextPosition = 0;
       skipSize = 0;
@@ -971,7 +1073,7 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
   }
 
   private void sendPipelinedEventForSpill(
-      BitSet emptyPartitions, long[] sizePerPartition, int spillNumber,
+      SparsePartitionStats spillPartitionStats, long[] sizePerPartition, int spillNumber,
       boolean isFinalUpdate) {
     List<Event> eventList = Lists.newLinkedList();
     if (!pipelinedShuffle) {
@@ -985,7 +1087,7 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
             sizePerPartition, reportDetailedPartitionStats(), deflater));
       }
       Event compEvent = generateDMEvent(true, spillNumber, isFinalUpdate,
-          pathComponent, emptyPartitions);
+          pathComponent, spillPartitionStats);
       eventList.add(compEvent);
 
       LOG.info(destNameTrimmed + ": " + "Adding spill event for spill (final update=" + isFinalUpdate + "), spillId=" + spillNumber);
@@ -996,13 +1098,6 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
     }
   }
 
-  private void sendPipelinedEventForSpill(int[] recordsPerPartition,
-      long[] sizePerPartition, int spillNumber, boolean isFinalUpdate) {
-    BitSet emptyPartitions = getEmptyPartitions(recordsPerPartition);
-    sendPipelinedEventForSpill(emptyPartitions, sizePerPartition, spillNumber,
-        isFinalUpdate);
-  }
-
   private class SpillCallback implements FutureCallback<SpillResult> {
 
     private final int spillNumber;
@@ -1015,8 +1110,8 @@ public class UnorderedPartitionedKVWriter extends BaseUnorderedPartitionedKVWrit
     public void onSuccess(SpillResult result) {
       spilledSize += result.spillSize;
 
-      sendPipelinedEventForSpill(result.wrappedBuffer.recordsPerPartition,
-          result.wrappedBuffer.sizePerPartition, spillNumber, false);
+      sendPipelinedEventForSpill(result.wrappedBuffer.partitionStats,
+          result.wrappedBuffer.partitionStats.getSizes(), spillNumber, false);
 
       try {
         result.wrappedBuffer.reset();
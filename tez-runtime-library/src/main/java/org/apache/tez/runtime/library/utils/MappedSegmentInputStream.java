@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.InvalidMarkException;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+
+/**
+ * InputStream over a read-only memory mapped region of a local file. Reads are served straight
+ * from the page cache, without a read syscall or an intermediate buffered stream per read.
+ *
+ * A single mapping is at most {@link Integer#MAX_VALUE} bytes; callers read longer segments
+ * through a regular stream, see {@link #canMap}. Every open stream holds one mapping, which takes
+ * address space and an entry of the process map count rather than heap. The merger has at most
+ * the segments of its running merge passes open (io.sort.factor each), and the unordered reader
+ * one input at a time. The JDK cannot unmap a region explicitly, so {@link #close()} drops the
+ * reference to it and the mapping goes away once the buffer is garbage collected.
+ */
+@Private
+public class MappedSegmentInputStream extends InputStream {
+
+  // null once closed
+  private ByteBuffer buffer;
+
+  public MappedSegmentInputStream(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Whether a segment of the given length fits in a single mapping.
+   */
+  public static boolean canMap(long length) {
+    return length <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * Map [offset, offset + length) of the given local file.
+   * The mapping stays valid after the underlying channel has been closed.
+   */
+  public static MappedSegmentInputStream map(File file, long offset, long length)
+      throws IOException {
+    if (!canMap(length)) {
+      throw new IOException("Segment of length " + length + " in " + file
+          + " is too large to be mapped");
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return new MappedSegmentInputStream(
+          raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length));
+    } finally {
+      raf.close();
+    }
+  }
+
+  private ByteBuffer getBuffer() throws IOException {
+    if (buffer == null) {
+      throw new IOException("Stream closed");
+    }
+    return buffer;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final ByteBuffer buffer = getBuffer();
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    return buffer.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    final ByteBuffer buffer = getBuffer();
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    final int n = Math.min(len, buffer.remaining());
+    buffer.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    final ByteBuffer buffer = getBuffer();
+    final int skipped = (int) Math.min(n, buffer.remaining());
+    buffer.position(buffer.position() + skipped);
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return getBuffer().remaining();
+  }
+
+  @Override
+  public void close() {
+    buffer = null;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+    if (buffer != null) {
+      buffer.mark();
+    }
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    try {
+      getBuffer().reset();
+    } catch (InvalidMarkException e) {
+      throw new IOException("Stream has not been marked", e);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.comparator;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+public class TestNormalizedKeyPrefix {
+
+  final static String[] keys = {
+    "",
+    "A", "B",
+    "AA", "BB", "BA", "CB",
+    "AAA", "BBBB", "CCCCC",
+    "AAAAAAAA", "AAAAAAAAA", "AAAAAAAAB", "AAAAAAAB",
+    "A\u0000", "A\u0000\u0000",
+    /* utf-8 comparisons */
+    "\u00E6AAAA", "\u00F7", "A\u00F7", "\u00F7AAAAAAAAA",
+    "\u00F7\u00F7", "\u00F7\u00F7\u00E6\u00E6A",
+    "\u00F7\u00F7\u00E6\u00E6A"
+  };
+
+  @Test(timeout = 5000)
+  public void testForComparator() {
+    assertNotNull(NormalizedKeyPrefix.forComparator(new TezBytesComparator()));
+    assertNotNull(NormalizedKeyPrefix.forComparator(WritableComparator.get(Text.class)));
+    assertNotNull(NormalizedKeyPrefix.forComparator(WritableComparator.get(BytesWritable.class)));
+    assertNull(NormalizedKeyPrefix.forComparator(WritableComparator.get(IntWritable.class)));
+    assertNull(NormalizedKeyPrefix.forComparator(null));
+  }
+
+  @Test(timeout = 5000)
+  public void testTezBytesComparatorPrefix() throws IOException {
+    verifyPrefixOrder(new TezBytesComparator(), false);
+  }
+
+  @Test(timeout = 5000)
+  public void testTextComparatorPrefix() throws IOException {
+    verifyPrefixOrder(WritableComparator.get(Text.class), true);
+  }
+
+  @Test(timeout = 5000)
+  public void testBytesWritableComparatorPrefix() throws IOException {
+    verifyPrefixOrder(WritableComparator.get(BytesWritable.class), true);
+  }
+
+  private void verifyPrefixOrder(RawComparator comparator, boolean writable)
+      throws IOException {
+    NormalizedKeyPrefix keyPrefix = NormalizedKeyPrefix.forComparator(comparator);
+    for (String l : keys) {
+      for (String r : keys) {
+        byte[] lhs = serialize(comparator, l, writable);
+        byte[] rhs = serialize(comparator, r, writable);
+        long lprefix = keyPrefix.getPrefix(lhs, 0, lhs.length);
+        long rprefix = keyPrefix.getPrefix(rhs, 0, rhs.length);
+        // heap and buffer variants have to agree
+        assertTrue(lprefix == keyPrefix.getPrefix(ByteBuffer.wrap(lhs), 0, lhs.length));
+        int prefixCmp = NormalizedKeyPrefix.compare(lprefix, rprefix);
+        int cmp = comparator.compare(lhs, 0, lhs.length, rhs, 0, rhs.length);
+        if (prefixCmp < 0) {
+          assertTrue(String.format("(%s) < (%s)", l, r), cmp < 0);
+        }
+        if (prefixCmp > 0) {
+          assertTrue(String.format("(%s) > (%s)", l, r), cmp > 0);
+        }
+        if (cmp == 0) {
+          assertTrue(String.format("(%s) == (%s)", l, r), prefixCmp == 0);
+        }
+      }
+    }
+  }
+
+  private static byte[] serialize(RawComparator comparator, String s, boolean writable)
+      throws IOException {
+    byte[] b = s.getBytes(Charset.forName("utf-8"));
+    if (!writable) {
+      return b;
+    }
+    Writable w = (comparator instanceof Text.Comparator) ? new Text(b) : new BytesWritable(b);
+    DataOutputBuffer out = new DataOutputBuffer();
+    w.write(out);
+    byte[] serialized = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, serialized, 0, out.getLength());
+    return serialized;
+  }
+}
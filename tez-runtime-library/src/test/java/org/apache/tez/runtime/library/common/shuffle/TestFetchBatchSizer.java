@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestFetchBatchSizer {
+
+  private static final String HOST = "host1:13562";
+
+  @Test(timeout = 5000)
+  public void testGrowAndShrink() {
+    FetchBatchSizer sizer = new FetchBatchSizer(10, 1024 * 1024, 1000);
+    assertEquals(10, sizer.getBatchSize(HOST));
+
+    // small and fast full batches grow up to the URL limit
+    sizer.fetchCompleted(HOST, 10, 10 * 1024, 20);
+    assertEquals(20, sizer.getBatchSize(HOST));
+    sizer.fetchCompleted(HOST, 20, 20 * 1024, 20);
+    sizer.fetchCompleted(HOST, 40, 40 * 1024, 20);
+    assertEquals(FetchBatchSizer.MAX_BATCH_SIZE, sizer.getBatchSize(HOST));
+
+    // a batch that was not full says nothing about the host
+    sizer.fetchCompleted(HOST, 5, 5 * 1024, 20);
+    assertEquals(FetchBatchSizer.MAX_BATCH_SIZE, sizer.getBatchSize(HOST));
+
+    // slow requests and failures halve the batch
+    sizer.fetchCompleted(HOST, 75, 75 * 1024, 2000);
+    assertEquals(37, sizer.getBatchSize(HOST));
+    sizer.fetchFailed(HOST);
+    assertEquals(18, sizer.getBatchSize(HOST));
+    for (int i = 0; i < 10; i++) {
+      sizer.fetchFailed(HOST);
+    }
+    assertEquals(1, sizer.getBatchSize(HOST));
+
+    // other hosts are not affected
+    assertEquals(10, sizer.getBatchSize("host2:13562"));
+  }
+
+  @Test(timeout = 5000)
+  public void testTargetBytes() {
+    FetchBatchSizer sizer = new FetchBatchSizer(10, 1024 * 1024, 1000);
+    // 256KB per output: no more than 4 fit in the target
+    sizer.fetchCompleted(HOST, 10, 10 * 256 * 1024, 100);
+    assertEquals(4, sizer.getBatchSize(HOST));
+    // outputs larger than the target are fetched one at a time
+    sizer.fetchCompleted(HOST, 4, 4 * 2048 * 1024, 100);
+    assertEquals(1, sizer.getBatchSize(HOST));
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.junit.Test;
+
+public class TestFetchStatistics {
+
+  @Test(timeout = 5000)
+  public void testHistogram() {
+    FetchStatistics.Histogram histogram = new FetchStatistics.Histogram();
+    assertEquals(0, histogram.getPercentile(50));
+    assertEquals(0, FetchStatistics.Histogram.getBucket(0));
+    assertEquals(1, FetchStatistics.Histogram.getBucket(1));
+    assertEquals(2, FetchStatistics.Histogram.getBucket(3));
+    assertEquals(11, FetchStatistics.Histogram.getBucket(1024));
+
+    for (int i = 0; i < 99; i++) {
+      histogram.record(3);
+    }
+    histogram.record(1000);
+    assertEquals(100, histogram.getCount());
+    assertEquals(99 * 3 + 1000, histogram.getSum());
+    assertEquals(1000, histogram.getMax());
+    assertEquals(4, histogram.getPercentile(50));
+    assertEquals(4, histogram.getPercentile(99));
+    assertEquals(1024, histogram.getPercentile(100));
+  }
+
+  @Test(timeout = 5000)
+  public void testCounters() {
+    FetchStatistics stats = new FetchStatistics(1);
+    TezCounters counters = new TezCounters();
+
+    stats.connected("host1:13562", 5, 20);
+    stats.outputFetched("host1:13562", 1000000, 100);
+    stats.connected("host2:13562", 7, 30);
+    stats.outputFetched("host2:13562", 1000, 100);
+    stats.fetchRetried("host2:13562");
+    stats.updateCounters(counters);
+    assertEquals(12, counters.findCounter(TaskCounter.SHUFFLE_CONNECT_TIME).getValue());
+    assertEquals(50, counters.findCounter(TaskCounter.SHUFFLE_FIRST_BYTE_TIME).getValue());
+    assertEquals(200, counters.findCounter(TaskCounter.SHUFFLE_FETCH_TIME).getValue());
+    assertEquals(1, counters.findCounter(TaskCounter.SHUFFLE_FETCH_RETRIES).getValue());
+
+    // only what was recorded since the last update is added
+    stats.outputFetched("host1:13562", 1000000, 300);
+    stats.hostPenalized("host2:13562");
+    stats.updateCounters(counters);
+    assertEquals(500, counters.findCounter(TaskCounter.SHUFFLE_FETCH_TIME).getValue());
+    assertEquals(1, counters.findCounter(TaskCounter.SHUFFLE_HOST_PENALTIES).getValue());
+    assertNull(counters.getGroup(FetchStatistics.HOST_BYTES_GROUP).findCounter(
+        "host2:13562", false));
+
+    List<FetchStatistics.HostStatistics> slowest = stats.getSlowestHosts(2);
+    assertEquals(2, slowest.size());
+    assertEquals("host2:13562", slowest.get(0).host);
+    assertEquals("host1:13562", slowest.get(1).host);
+
+    stats.publishFinalCounters(counters);
+    stats.publishFinalCounters(counters);
+    assertEquals(1000, counters.findCounter(FetchStatistics.HOST_BYTES_GROUP,
+        "host2:13562").getValue());
+    assertEquals(100, counters.findCounter(FetchStatistics.HOST_MILLIS_GROUP,
+        "host2:13562").getValue());
+    // only the slowest host is named, the other one is counted as OTHER
+    assertNull(counters.getGroup(FetchStatistics.HOST_BYTES_GROUP).findCounter(
+        "host1:13562", false));
+    assertEquals(2000000, counters.findCounter(FetchStatistics.HOST_BYTES_GROUP,
+        FetchStatistics.OTHER_HOSTS).getValue());
+    assertEquals(400, counters.findCounter(FetchStatistics.HOST_MILLIS_GROUP,
+        FetchStatistics.OTHER_HOSTS).getValue());
+    assertEquals(2, counters.getGroup(FetchStatistics.HOST_BYTES_GROUP).size());
+    // 100 ms twice, 300 ms once
+    assertEquals(2, counters.findCounter(FetchStatistics.FETCH_TIME_GROUP,
+        FetchStatistics.Histogram.getBucketName(7)).getValue());
+    assertEquals(1, counters.findCounter(FetchStatistics.FETCH_TIME_GROUP,
+        FetchStatistics.Histogram.getBucketName(9)).getValue());
+    assertEquals(500, counters.findCounter(TaskCounter.SHUFFLE_FETCH_TIME).getValue());
+  }
+
+  @Test(timeout = 5000)
+  public void testBoundedCounters() {
+    FetchStatistics stats = new FetchStatistics(100);
+    TezCounters counters = new TezCounters();
+    for (int i = 0; i < 50; i++) {
+      String host = "host" + i + ":13562";
+      stats.outputFetched(host, 1000 * (i + 1), 100);
+      // one fetch per bucket
+      stats.outputFetched(host, 1000, (1L << i) - 1);
+    }
+    stats.publishFinalCounters(counters);
+
+    // the slowest hosts by name, and the others together
+    assertEquals(FetchStatistics.MAX_SLOW_HOSTS + 1,
+        counters.getGroup(FetchStatistics.HOST_BYTES_GROUP).size());
+    assertEquals(FetchStatistics.MAX_SLOW_HOSTS + 1,
+        counters.getGroup(FetchStatistics.HOST_MILLIS_GROUP).size());
+    long bytes = 0;
+    for (int i = 0; i < 50; i++) {
+      bytes += 1000 * (i + 2);
+    }
+    long published = 0;
+    for (TezCounter counter : counters.getGroup(FetchStatistics.HOST_BYTES_GROUP)) {
+      published += counter.getValue();
+    }
+    assertEquals(bytes, published);
+    assertEquals(FetchStatistics.PUBLISHED_BUCKETS,
+        counters.getGroup(FetchStatistics.FETCH_TIME_GROUP).size());
+    // buckets 0 to 19 are published as is, 20 to 49 together
+    assertEquals(51, counters.findCounter(FetchStatistics.FETCH_TIME_GROUP,
+        FetchStatistics.Histogram.getBucketName(7)).getValue());
+    assertEquals(30, counters.findCounter(FetchStatistics.FETCH_TIME_GROUP,
+        FetchStatistics.getSlowestBucketName()).getValue());
+  }
+}
@@ -30,7 +30,10 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -42,11 +45,13 @@ import com.google.common.collect.Lists;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.sort.impl.TezIndexRecord;
+import org.apache.tez.runtime.library.utils.MappedSegmentInputStream;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -234,6 +239,52 @@ public class TestFetcher {
     Assert.assertEquals("success callback type", f.getType(), FetchedInput.Type.DISK_DIRECT);
   }
 
+  @Test(timeout = 5000)
+  public void testMappedLocalDiskFetchedInput() throws Exception {
+    File file = File.createTempFile("TestFetcher", ".out");
+    file.deleteOnExit();
+    byte[] data = new byte[4096];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    InputAttemptIdentifier srcAttempt = new InputAttemptIdentifier(0, 1);
+    FetchedInputCallback callback = mock(FetchedInputCallback.class);
+
+    for (boolean mmap : new boolean[] { false, true }) {
+      TezConfiguration conf = new TezConfiguration();
+      conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_OPTIMIZE_LOCAL_FETCH_MMAP, mmap);
+      LocalDiskFetchedInput fetchedInput = new LocalDiskFetchedInput(100, 1000, 1000,
+          srcAttempt, new Path(file.getAbsolutePath()), conf, callback);
+      InputStream in = fetchedInput.getInputStream();
+      try {
+        byte[] read = new byte[1000];
+        IOUtils.readFully(in, read, 0, read.length);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 100, 1100), read);
+        // reads are bounded by the segment
+        Assert.assertEquals(-1, in.read());
+      } finally {
+        in.close();
+      }
+      if (mmap) {
+        Assert.assertTrue(in instanceof MappedSegmentInputStream);
+        try {
+          in.read();
+          Assert.fail("Mapping should be released on close");
+        } catch (IOException e) {
+          // expected
+        }
+      }
+    }
+    Assert.assertTrue(MappedSegmentInputStream.canMap(Integer.MAX_VALUE));
+    Assert.assertFalse(MappedSegmentInputStream.canMap(Integer.MAX_VALUE + 1L));
+  }
+
   @Test(timeout=5000)
   public void testInputAttemptIdentifierMap() {
     InputAttemptIdentifier[] srcAttempts = {
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TestSharedFetcherPool {
+
+  private static class BlockingFetch implements Callable<Integer> {
+    private final CountDownLatch release;
+    private final AtomicInteger started;
+    private final int id;
+
+    BlockingFetch(int id, CountDownLatch release, AtomicInteger started) {
+      this.id = id;
+      this.release = release;
+      this.started = started;
+    }
+
+    @Override
+    public Integer call() throws Exception {
+      started.incrementAndGet();
+      release.await();
+      return id;
+    }
+  }
+
+  private static void waitForRunning(SharedFetcherPool pool, int running)
+      throws InterruptedException {
+    while (pool.getNumRunning() != running) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testLimits() throws Exception {
+    SharedFetcherPool pool = new SharedFetcherPool(3, 2);
+    SharedFetcherPool.Client client1 = pool.newClient("client1");
+    SharedFetcherPool.Client client2 = pool.newClient("client2");
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger started = new AtomicInteger();
+
+    List<ListenableFuture<Integer>> futures = new ArrayList<ListenableFuture<Integer>>();
+    // Three fetches from host1, only two of which may run at a time.
+    for (int i = 0; i < 3; i++) {
+      futures.add(client1.submitFetch("host1", new BlockingFetch(i, release, started)));
+    }
+    waitForRunning(pool, 2);
+    assertEquals(1, pool.getNumPending());
+
+    // Another host can use the third slot, but not more.
+    futures.add(client2.submitFetch("host2", new BlockingFetch(3, release, started)));
+    futures.add(client2.submitFetch("host2", new BlockingFetch(4, release, started)));
+    waitForRunning(pool, 3);
+    assertEquals(2, pool.getNumPending());
+
+    release.countDown();
+    for (int i = 0; i < futures.size(); i++) {
+      assertEquals(i, futures.get(i).get().intValue());
+    }
+    assertEquals(5, started.get());
+    waitForRunning(pool, 0);
+  }
+
+  @Test(timeout = 10000)
+  public void testClientShutdownNow() throws Exception {
+    SharedFetcherPool pool = new SharedFetcherPool(1, 1);
+    SharedFetcherPool.Client client1 = pool.newClient("client1");
+    SharedFetcherPool.Client client2 = pool.newClient("client2");
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger started = new AtomicInteger();
+
+    ListenableFuture<Integer> running =
+        client1.submitFetch("host1", new BlockingFetch(0, release, started));
+    client1.submitFetch("host1", new BlockingFetch(1, release, started));
+    ListenableFuture<Integer> other =
+        client2.submitFetch("host1", new BlockingFetch(2, release, started));
+    waitForRunning(pool, 1);
+
+    // Interrupts the running fetch and drops the pending one of client1 only.
+    assertEquals(1, client1.shutdownNow().size());
+    assertTrue(client1.isShutdown());
+    assertTrue(client1.awaitTermination(5, TimeUnit.SECONDS));
+    assertTrue(running.isDone());
+    assertFalse(client2.isShutdown());
+
+    release.countDown();
+    assertEquals(2, other.get().intValue());
+    assertEquals(2, started.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testSlotOrder() throws Exception {
+    SharedFetcherPool pool = new SharedFetcherPool(1, 1);
+    SharedFetcherPool.Client small = pool.newClient("small");
+    SharedFetcherPool.Client large = pool.newClient("large");
+    SharedFetcherPool.Client urgent = pool.newClient("urgent", 1);
+    small.setRemainingInputs(10);
+    large.setRemainingInputs(100);
+    urgent.setRemainingInputs(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger started = new AtomicInteger();
+
+    // Occupy the only slot, so that the following fetches queue up.
+    ListenableFuture<Integer> first =
+        small.submitFetch("host1", new BlockingFetch(0, release, started));
+    waitForRunning(pool, 1);
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    List<ListenableFuture<String>> futures = new ArrayList<ListenableFuture<String>>();
+    for (final SharedFetcherPool.Client client : Arrays.asList(small, large, urgent)) {
+      final String name = (client == small) ? "small" : (client == large) ? "large" : "urgent";
+      futures.add(client.submitFetch("host" + (futures.size() + 2), new Callable<String>() {
+        @Override
+        public String call() {
+          order.add(name);
+          return name;
+        }
+      }));
+    }
+    assertEquals(3, pool.getNumPending());
+
+    release.countDown();
+    assertEquals(0, first.get().intValue());
+    for (ListenableFuture<String> future : futures) {
+      future.get();
+    }
+    // Priority first, then the client with the most remaining inputs.
+    assertEquals(Arrays.asList("urgent", "large", "small"), order);
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TestShuffleBufferPool {
+
+  @Test(timeout = 5000)
+  public void testSizeClasses() {
+    assertEquals(100, ShuffleBufferPool.getCapacity(100));
+    assertEquals(1024, ShuffleBufferPool.getCapacity(1024));
+    assertEquals(1152, ShuffleBufferPool.getCapacity(1025));
+    assertEquals(2048, ShuffleBufferPool.getCapacity(2048));
+    assertEquals(2304, ShuffleBufferPool.getCapacity(2049));
+    assertEquals(1 << 20, ShuffleBufferPool.getCapacity((1 << 20) - 1));
+    for (int size = 1025; size < 100000; size += 7) {
+      int capacity = ShuffleBufferPool.getCapacity(size);
+      assertEquals(capacity, ShuffleBufferPool.getCapacity(capacity));
+      if (capacity < size || capacity > size + size / 8 + 1) {
+        throw new AssertionError("size=" + size + ", capacity=" + capacity);
+      }
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testReuse() {
+    ShuffleBufferPool pool = new ShuffleBufferPool(1024 * 1024, 64 * 1024);
+
+    byte[] buffer = pool.allocate(5000);
+    assertEquals(ShuffleBufferPool.getCapacity(5000), buffer.length);
+    pool.release(buffer);
+    assertEquals(buffer.length, pool.getFreeBytes());
+
+    // any size of the same class gets the buffer back
+    assertSame(buffer, pool.allocate(buffer.length - 10));
+    assertEquals(1, pool.getReusedCount());
+    assertEquals(0, pool.getFreeBytes());
+    assertEquals(buffer.length, pool.getAllocatedBytes());
+    pool.release(buffer);
+
+    // other classes do not
+    byte[] other = pool.allocate(10000);
+    assertNotSame(buffer, other);
+    assertEquals(2, pool.getAllocatedCount());
+
+    // small and large sizes are allocated exactly and not kept
+    byte[] small = pool.allocate(100);
+    assertEquals(100, small.length);
+    byte[] large = pool.allocate(100 * 1024);
+    assertEquals(100 * 1024, large.length);
+    pool.release(small);
+    pool.release(large);
+    assertEquals(buffer.length, pool.getFreeBytes());
+    assertEquals(other.length, pool.getAllocatedBytes());
+  }
+
+  @Test(timeout = 5000)
+  public void testBounded() {
+    ShuffleBufferPool pool = new ShuffleBufferPool(64 * 1024, 32 * 1024);
+
+    byte[] first = pool.allocate(32 * 1024);
+    byte[] second = pool.allocate(16 * 1024);
+    pool.release(first);
+    pool.release(second);
+    assertEquals(48 * 1024, pool.getFreeBytes());
+
+    // free buffers, largest first, make room for new ones
+    byte[] third = pool.allocate(24 * 1024);
+    assertEquals(16 * 1024, pool.getFreeBytes());
+    assertEquals(third.length, pool.getAllocatedBytes());
+
+    // the pool does not grow beyond its bound when buffers are released
+    byte[] fourth = pool.allocate(32 * 1024);
+    byte[] fifth = pool.allocate(32 * 1024);
+    assertEquals(0, pool.getFreeBytes());
+    pool.release(fifth);
+    pool.release(fourth);
+    pool.release(third);
+    assertEquals(0, pool.getAllocatedBytes());
+    assertEquals(fourth.length + third.length, pool.getFreeBytes());
+
+    pool.clear();
+    assertEquals(0, pool.getFreeBytes());
+  }
+
+  @Test(timeout = 5000)
+  public void testShared() {
+    ShuffleBufferPool pool = ShuffleBufferPool.getShared(32 * 1024, 16 * 1024);
+    assertEquals(ShuffleBufferPool.getCapacity(5000), pool.getBufferSize(5000));
+    assertEquals(20000, pool.getBufferSize(20000));
+
+    // a second input shares the pool, and raises its bounds
+    assertSame(pool, ShuffleBufferPool.getShared(32 * 1024, 32 * 1024));
+    assertEquals(ShuffleBufferPool.getCapacity(20000), pool.getBufferSize(20000));
+    byte[] first = pool.allocate(32 * 1024);
+    byte[] second = pool.allocate(24 * 1024);
+    pool.release(first);
+    pool.release(second);
+    assertEquals(56 * 1024, pool.getFreeBytes());
+
+    // free buffers beyond the bound of the remaining input are dropped
+    ShuffleBufferPool.releaseShared(pool, 32 * 1024);
+    assertEquals(24 * 1024, pool.getFreeBytes());
+    ShuffleBufferPool.releaseShared(pool, 32 * 1024);
+    assertEquals(0, pool.getFreeBytes());
+
+    ShuffleBufferPool next = ShuffleBufferPool.getShared(32 * 1024, 16 * 1024);
+    assertNotSame(pool, next);
+    ShuffleBufferPool.releaseShared(next, 32 * 1024);
+  }
+}
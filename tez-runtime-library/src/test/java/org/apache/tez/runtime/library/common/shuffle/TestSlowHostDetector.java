@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestSlowHostDetector {
+
+  @Test(timeout = 5000)
+  public void testSlowHost() {
+    SlowHostDetector detector = new SlowHostDetector(0.05f, 1000);
+    detector.outputFetched("host1:13562", 100000, 100);
+    detector.outputFetched("host2:13562", 100000, 100);
+    // no median yet
+    assertEquals(-1, detector.getMedianThroughput());
+    assertFalse(detector.isSlow("host3:13562", 5000, detector.getMedianThroughput()));
+
+    detector.outputFetched("host3:13562", 50000, 100);
+    detector.outputFetched("host4:13562", 200000, 0);
+    long median = detector.getMedianThroughput();
+    assertEquals(1000000, median);
+
+    // not running long enough
+    assertFalse(detector.isSlow("host3:13562", 500, median));
+    // 50000 bytes in 100 + 1000 ms is about 45 KB/s, below 5% of 1 MB/s
+    assertTrue(detector.isSlow("host3:13562", 1000, median));
+    // 100000 bytes in 100 + 1000 ms is about 90 KB/s, but only 19 KB/s after 5 seconds
+    assertFalse(detector.isSlow("host1:13562", 1000, median));
+    assertTrue(detector.isSlow("host1:13562", 5000, median));
+    // a host that served nothing yet
+    assertTrue(detector.isSlow("host5:13562", 1000, median));
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tez.runtime.library.common.shuffle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
+import org.junit.Test;
+
+public class TestStreamingFetchedInput {
+
+  private final AtomicInteger completed = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final AtomicInteger freed = new AtomicInteger();
+
+  private final FetchedInputCallback callback = new FetchedInputCallback() {
+    @Override
+    public void fetchComplete(FetchedInput fetchedInput) {
+      completed.incrementAndGet();
+    }
+
+    @Override
+    public void fetchFailed(FetchedInput fetchedInput) {
+      failed.incrementAndGet();
+    }
+
+    @Override
+    public void freeResources(FetchedInput fetchedInput) {
+      freed.incrementAndGet();
+    }
+  };
+
+  private StreamingFetchedInput create(int size) {
+    return new StreamingFetchedInput(size, size, new InputAttemptIdentifier(0, 0), callback, 16, 2);
+  }
+
+  private Thread write(final OutputStream out, final byte[] data, final boolean close,
+      final AtomicReference<IOException> error) {
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < data.length; i += 7) {
+            out.write(data, i, Math.min(7, data.length - i));
+          }
+          if (close) {
+            out.close();
+          }
+        } catch (IOException e) {
+          error.set(e);
+        }
+      }
+    };
+    writer.start();
+    return writer;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[5];
+    int n;
+    while ((n = in.read(buffer, 0, buffer.length)) >= 0) {
+      bytes.write(buffer, 0, n);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test(timeout = 5000)
+  public void testReadWhileWriting() throws Exception {
+    byte[] data = new byte[1000];
+    new Random(0).nextBytes(data);
+    StreamingFetchedInput input = create(data.length);
+    AtomicReference<IOException> error = new AtomicReference<IOException>();
+    // far more than the two buffered chunks, so the writer has to wait for the reader
+    Thread writer = write(input.getOutputStream(), data, true, error);
+
+    InputStream in = input.getInputStream();
+    assertArrayEquals(data, readFully(in));
+    writer.join();
+    assertEquals(null, error.get());
+
+    // the reader may be done before the input is committed, which then frees it
+    in.close();
+    input.free();
+    assertEquals(0, freed.get());
+    input.commit();
+    assertEquals(1, completed.get());
+    assertEquals(1, freed.get());
+    input.free();
+    assertEquals(1, freed.get());
+
+    try {
+      input.getInputStream();
+      fail("Streamed input read twice");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testAbortFailsReader() throws Exception {
+    byte[] data = new byte[100];
+    StreamingFetchedInput input = create(data.length);
+    AtomicReference<IOException> error = new AtomicReference<IOException>();
+    write(input.getOutputStream(), new byte[20], false, error).join();
+
+    InputStream in = input.getInputStream();
+    assertEquals(10, in.read(new byte[10], 0, 10));
+    input.abort();
+    assertEquals(1, failed.get());
+    try {
+      readFully(in);
+      fail("Aborted input read to the end");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("failed"));
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testIncompleteWriteFailsReader() throws Exception {
+    StreamingFetchedInput input = create(100);
+    AtomicReference<IOException> error = new AtomicReference<IOException>();
+    write(input.getOutputStream(), new byte[30], true, error).join();
+    try {
+      readFully(input.getInputStream());
+      fail("Incomplete input read to the end");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Incomplete"));
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testReaderCloseFailsWriter() throws Exception {
+    byte[] data = new byte[1000];
+    StreamingFetchedInput input = create(data.length);
+    AtomicReference<IOException> error = new AtomicReference<IOException>();
+    Thread writer = write(input.getOutputStream(), data, true, error);
+    InputStream in = input.getInputStream();
+    assertEquals(0, in.read());
+    in.close();
+    writer.join();
+    assertTrue(error.get() != null);
+  }
+}
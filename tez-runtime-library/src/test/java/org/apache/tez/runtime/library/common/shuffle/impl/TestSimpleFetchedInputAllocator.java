@@ -21,6 +21,7 @@ package org.apache.tez.runtime.library.common.shuffle.impl;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.UUID;
 
 import org.slf4j.Logger;
@@ -30,6 +31,8 @@ import org.apache.tez.common.TezRuntimeFrameworkConfigs;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.shuffle.FetchedInput;
+import org.apache.tez.runtime.library.common.shuffle.MemoryFetchedInput;
+import org.apache.tez.runtime.library.common.shuffle.StreamingFetchedInput;
 import org.junit.Test;
 
 public class TestSimpleFetchedInputAllocator {
@@ -85,4 +88,96 @@ public class TestSimpleFetchedInputAllocator {
     assertEquals(FetchedInput.Type.DISK, fi5.getType());
   }
 
+  @Test(timeout = 5000)
+  public void testPooledAllocation() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setFloat(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_BUFFER_PERCENT, 1.0f);
+    conf.setFloat(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMORY_LIMIT_PERCENT, 1.0f);
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED, true);
+    conf.setStrings(TezRuntimeFrameworkConfigs.LOCAL_DIRS, "/tmp/" + this.getClass().getName());
+
+    SimpleFetchedInputAllocator inputManager = new SimpleFetchedInputAllocator("srcName",
+        UUID.randomUUID().toString(), conf, 10000, 10000);
+    try {
+      // 4500 bytes take a buffer of 4608
+      FetchedInput fi1 = inputManager.allocate(4500, 1, new InputAttemptIdentifier(1, 1));
+      assertEquals(FetchedInput.Type.MEMORY, fi1.getType());
+      assertEquals(4608, ((MemoryFetchedInput) fi1).getBytes().length);
+      FetchedInput fi2 = inputManager.allocate(4500, 1, new InputAttemptIdentifier(2, 1));
+      assertEquals(FetchedInput.Type.MEMORY, fi2.getType());
+
+      // 2 * 4500 + 900 would fit, but the buffers take 2 * 4608
+      FetchedInput fi3 = inputManager.allocate(900, 1, new InputAttemptIdentifier(3, 1));
+      assertEquals(FetchedInput.Type.DISK, fi3.getType());
+
+      // the whole buffer is released
+      fi1.commit();
+      fi1.free();
+      FetchedInput fi4 = inputManager.allocate(5000, 1, new InputAttemptIdentifier(4, 1));
+      assertEquals(FetchedInput.Type.MEMORY, fi4.getType());
+    } finally {
+      inputManager.close();
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testStreamingAllocation() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setFloat(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_BUFFER_PERCENT, 1.0f);
+    conf.setFloat(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMORY_LIMIT_PERCENT, 1.0f);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_STREAMING_BUFFER_SIZE, 128 << 10);
+    conf.setStrings(TezRuntimeFrameworkConfigs.LOCAL_DIRS, "/tmp/" + this.getClass().getName());
+
+    // each stream holds up to 4 chunks of 64 KB, so three of them fit
+    SimpleFetchedInputAllocator inputManager = new SimpleFetchedInputAllocator("srcName",
+        UUID.randomUUID().toString(), conf, 800 << 10, 800 << 10);
+    final int size = 1 << 20;
+    StreamingFetchedInput[] streams = new StreamingFetchedInput[3];
+    Thread[] writers = new Thread[streams.length];
+    for (int i = 0; i < streams.length; i++) {
+      FetchedInput fi = inputManager.allocateType(FetchedInput.Type.STREAM, size, size,
+          new InputAttemptIdentifier(i, 1));
+      assertEquals(FetchedInput.Type.STREAM, fi.getType());
+      streams[i] = (StreamingFetchedInput) fi;
+      // nothing reads the streams, so every writer fills its buffer and waits
+      writers[i] = write(streams[i].getOutputStream(), size);
+    }
+
+    // no memory left for another stream, or for an in-memory input
+    FetchedInput fi4 = inputManager.allocateType(FetchedInput.Type.STREAM, size, size,
+        new InputAttemptIdentifier(4, 1));
+    assertEquals(FetchedInput.Type.DISK, fi4.getType());
+    FetchedInput fi5 = inputManager.allocate(100 << 10, 1, new InputAttemptIdentifier(5, 1));
+    assertEquals(FetchedInput.Type.DISK, fi5.getType());
+
+    // the reader gives up on one stream, which fails its fetch and releases the memory
+    streams[0].free();
+    writers[0].join();
+    streams[0].abort();
+    FetchedInput fi6 = inputManager.allocateType(FetchedInput.Type.STREAM, size, size,
+        new InputAttemptIdentifier(6, 1));
+    assertEquals(FetchedInput.Type.STREAM, fi6.getType());
+
+    for (int i = 1; i < streams.length; i++) {
+      streams[i].free();
+      writers[i].join();
+      streams[i].abort();
+    }
+  }
+
+  private static Thread write(final OutputStream out, final int size) {
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          out.write(new byte[size]);
+        } catch (IOException e) {
+          // the reader closed the stream
+        }
+      }
+    };
+    writer.start();
+    return writer;
+  }
+
 }
@@ -19,6 +19,7 @@
 package org.apache.tez.runtime.library.common.shuffle.orderedgrouped;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -50,6 +51,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.FileChunk;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.tez.common.TezRuntimeFrameworkConfigs;
+import org.apache.tez.common.counters.TaskCounter;
 import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.runtime.api.InputContext;
@@ -204,6 +206,160 @@ public class TestMergeManager {
     assertEquals(0, mergeManager.getCommitMemory());
   }
 
+  @Test(timeout = 10000)
+  public void testProgressiveMergeThresholds() throws IOException {
+    Configuration conf = new TezConfiguration(defaultConf);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_IO_SORT_FACTOR, 10);
+    FileSystem localFs = FileSystem.getLocal(conf);
+    InputContext inputContext = createMockInputContext(UUID.randomUUID().toString());
+    MergeManager mergeManager =
+        new MergeManager(conf, localFs, null, inputContext, null, null, null, null,
+            mock(ExceptionReporter.class), 2000000, null, false, -1);
+    assertEquals(19, mergeManager.onDiskMergeThreshold);
+    final long mergeThreshold = mergeManager.memToDiskMergeThreshold;
+
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_ENABLED, true);
+    mergeManager =
+        new MergeManager(conf, localFs, null, inputContext, null, null, null, null,
+            mock(ExceptionReporter.class), 2000000, null, false, -1);
+    assertEquals(10, mergeManager.onDiskMergeThreshold);
+    assertTrue(mergeManager.memToDiskMergeThreshold < mergeThreshold);
+
+    // never later than a regular merge
+    conf.setFloat(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MERGE_PROGRESSIVE_MEMORY_PERCENT,
+        1.0f);
+    mergeManager =
+        new MergeManager(conf, localFs, null, inputContext, null, null, null, null,
+            mock(ExceptionReporter.class), 2000000, null, false, -1);
+    assertEquals(mergeThreshold, mergeManager.memToDiskMergeThreshold);
+  }
+
+  @Test(timeout = 10000)
+  public void testSelectTier() {
+    // the first run of 3 outputs within a factor of 2
+    assertEquals(2, MergeManager.selectTier(new long[] { 1, 10, 100, 120, 150, 300, 1000 }, 2.0f, 3));
+    assertEquals(1, MergeManager.selectTier(new long[] { 1, 10, 10, 10, 10 }, 1.0f, 3));
+    assertEquals(-1, MergeManager.selectTier(new long[] { 1, 10, 100, 1000 }, 4.0f, 2));
+    assertEquals(-1, MergeManager.selectTier(new long[] { 100, 120 }, 2.0f, 3));
+    assertEquals(0, MergeManager.selectTier(new long[] { 0, 0, 5 }, 2.0f, 2));
+  }
+
+  @Test(timeout = 10000)
+  public void testMemToMemCostModel() throws IOException {
+    Configuration conf = new TezConfiguration(defaultConf);
+    FileSystem localFs = FileSystem.getLocal(conf);
+    InputContext inputContext = createMockInputContext(UUID.randomUUID().toString());
+    MergeManager mergeManager =
+        new MergeManager(conf, localFs, null, inputContext, null, null, null, null,
+            mock(ExceptionReporter.class), 2000000, null, false, -1);
+
+    MapOutput mapOutput = mergeManager.reserve(new InputAttemptIdentifier(0, 0), 1000, 1000, 0);
+    assertEquals(MapOutput.Type.MEMORY, mapOutput.getType());
+    mapOutput.commit();
+    // nothing known about the remaining inputs
+    assertFalse(mergeManager.isMemToDiskMergeExpected());
+    mergeManager.setRemainingInputs(1);
+    assertFalse(mergeManager.isMemToDiskMergeExpected());
+    // as many outputs of the same size will not fit
+    mergeManager.setRemainingInputs((int) (mergeManager.memToDiskMergeThreshold / 1000));
+    assertTrue(mergeManager.isMemToDiskMergeExpected());
+
+    // nothing was merged
+    assertEquals(0, mergeManager.getWriteAmplificationPercent());
+  }
+
+  @Test(timeout = 60000)
+  public void testTieredMemToMemMerge() throws Throwable {
+    Configuration conf = new TezConfiguration(defaultConf);
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_COMPRESS, false);
+    conf.set(TezRuntimeConfiguration.TEZ_RUNTIME_KEY_CLASS, IntWritable.class.getName());
+    conf.set(TezRuntimeConfiguration.TEZ_RUNTIME_VALUE_CLASS, IntWritable.class.getName());
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_ENABLE_MEMTOMEM, true);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_SEGMENTS, 2);
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIERED, true);
+    conf.setFloat(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_TIER_RATIO, 1.5f);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_MAX_MERGES, 2);
+
+    Path localDir = new Path(workDir, "local");
+    localFs.mkdirs(localDir);
+    conf.setStrings(TezRuntimeFrameworkConfigs.LOCAL_DIRS, localDir.toString());
+
+    FileSystem localFs = FileSystem.getLocal(conf);
+    LocalDirAllocator localDirAllocator =
+        new LocalDirAllocator(TezRuntimeFrameworkConfigs.LOCAL_DIRS);
+    InputContext inputContext = createMockInputContext(UUID.randomUUID().toString());
+
+    MergeManager mergeManager =
+        new MergeManager(conf, localFs, localDirAllocator, inputContext, null, null, null, null,
+            mock(ExceptionReporter.class), 2000000, null, false, -1);
+    mergeManager.configureAndStart();
+
+    byte[] data = generateDataBySize(conf, 1000);
+
+    // two outputs of the same size are merged
+    commitToMemory(mergeManager, 0, data);
+    commitToMemory(mergeManager, 1, data);
+    mergeManager.waitForMemToMemMerge();
+    assertEquals(0, mergeManager.inMemoryMapOutputs.size());
+    assertEquals(1, mergeManager.inMemoryMergedMapOutputs.size());
+    MapOutput merged1 = mergeManager.inMemoryMergedMapOutputs.iterator().next();
+    assertEquals(1, merged1.getMergeLevel());
+
+    // a small output is not merged with the larger merged output, but with the next small one
+    commitToMemory(mergeManager, 2, data);
+    assertEquals(1, mergeManager.inMemoryMapOutputs.size());
+    commitToMemory(mergeManager, 3, data);
+    mergeManager.waitForMemToMemMerge();
+    assertEquals(0, mergeManager.inMemoryMapOutputs.size());
+    assertEquals(2, mergeManager.inMemoryMergedMapOutputs.size());
+    MapOutput merged2 = null;
+    for (MapOutput mo : mergeManager.inMemoryMergedMapOutputs) {
+      if (mo != merged1) {
+        merged2 = mo;
+      }
+    }
+    assertEquals(1, merged2.getMergeLevel());
+
+    // the two merged outputs are now in the same tier
+    commitToMemory(mergeManager, 4, data);
+    mergeManager.waitForMemToMemMerge();
+    assertEquals(1, mergeManager.inMemoryMapOutputs.size());
+    assertEquals(1, mergeManager.inMemoryMergedMapOutputs.size());
+    MapOutput merged3 = mergeManager.inMemoryMergedMapOutputs.iterator().next();
+    assertEquals(2, merged3.getMergeLevel());
+
+    // merged3 has been merged the maximum number of times, so only the small outputs are merged
+    commitToMemory(mergeManager, 5, data);
+    mergeManager.waitForMemToMemMerge();
+    assertEquals(0, mergeManager.inMemoryMapOutputs.size());
+    assertEquals(2, mergeManager.inMemoryMergedMapOutputs.size());
+    MapOutput merged4 = null;
+    for (MapOutput mo : mergeManager.inMemoryMergedMapOutputs) {
+      if (mo != merged3) {
+        merged4 = mo;
+      }
+    }
+    assertEquals(1, merged4.getMergeLevel());
+
+    long mergedBytes =
+        merged1.getSize() + merged2.getSize() + merged3.getSize() + merged4.getSize();
+    assertEquals((mergedBytes * 100) / (6 * data.length),
+        mergeManager.getWriteAmplificationPercent());
+    assertEquals(mergedBytes, inputContext.getCounters()
+        .findCounter(TaskCounter.SHUFFLE_MERGE_BYTES_WRITTEN).getValue());
+
+    mergeManager.close(true);
+  }
+
+  private static void commitToMemory(MergeManager mergeManager, int inputIndex, byte[] data)
+      throws IOException {
+    MapOutput mapOutput = mergeManager.reserve(new InputAttemptIdentifier(inputIndex, 0),
+        data.length, data.length, 0);
+    assertEquals(MapOutput.Type.MEMORY, mapOutput.getType());
+    System.arraycopy(data, 0, mapOutput.getMemory(), 0, data.length);
+    mapOutput.commit();
+  }
+
   @Test(timeout=20000)
   public void testIntermediateMemoryMergeAccounting() throws Exception {
     Configuration conf = new TezConfiguration(defaultConf);
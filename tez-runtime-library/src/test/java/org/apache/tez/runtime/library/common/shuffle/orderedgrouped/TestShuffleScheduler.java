@@ -22,6 +22,7 @@ import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -29,10 +30,15 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
@@ -41,6 +47,7 @@ import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.tez.common.TezCommonUtils;
+import org.apache.tez.common.counters.TaskCounter;
 import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.common.security.JobTokenIdentifier;
 import org.apache.tez.common.security.JobTokenSecretManager;
@@ -894,6 +901,89 @@ public class TestShuffleScheduler {
   }
 
 
+  @Test(timeout = 30000)
+  public void testHedgedFetch() throws Exception {
+    InputContext inputContext = createTezInputContext();
+    Configuration conf = new TezConfiguration();
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_ENABLED, true);
+    conf.setLong(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MIN_STALL_MS, 0);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FETCH_HEDGED_MAX, 1);
+    Shuffle shuffle = mock(Shuffle.class);
+    MergeManager mergeManager = mock(MergeManager.class);
+    final ShuffleSchedulerForTest scheduler =
+        new ShuffleSchedulerForTest(inputContext, conf, 5, shuffle, mergeManager, mergeManager,
+            System.currentTimeMillis(), null, false, 0, "srcName", true);
+    try {
+      // a fetch of inputs 0 and 1 from a host that does not make progress
+      InputAttemptIdentifier slow0 = new InputAttemptIdentifier(0, 0, "attempt_");
+      InputAttemptIdentifier slow1 = new InputAttemptIdentifier(1, 0, "attempt_");
+      scheduler.addKnownMapOutput("slowhost", 10000, 0, slow0);
+      scheduler.addKnownMapOutput("slowhost", 10000, 0, slow1);
+      MapHost slowHost = scheduler.getHost();
+      scheduler.startFetcher(slowHost);
+      assertEquals(2, scheduler.getMapsForHost(slowHost).size());
+      FetcherOrderedGrouped slowFetcher = scheduler.fetchers.get(0);
+
+      // input 0 has a second attempt elsewhere; the other hosts set the median throughput
+      InputAttemptIdentifier other0 = new InputAttemptIdentifier(0, 1, "attempt_");
+      scheduler.addKnownMapOutput("otherhost", 10000, 0, other0);
+      for (int i = 2; i < 5; i++) {
+        InputAttemptIdentifier identifier = new InputAttemptIdentifier(i, 0, "attempt_");
+        scheduler.addKnownMapOutput("host" + i, 10000, 0, identifier);
+        scheduler.copySucceeded(identifier, new MapHost("host" + i, 10000, 0), 1000000, 1000000,
+            10, createMapOutput(), false);
+      }
+
+      // one hedged fetch at a time, so only one of the two hedge hosts is fetched from
+      assertTrue(scheduler.hedgeSlowFetches().isEmpty());
+      assertEquals(2, scheduler.numFetchersCreated.get());
+      assertTrue(scheduler.hedgeSlowFetches().isEmpty());
+      assertEquals(2, scheduler.numFetchersCreated.get());
+
+      // the other output is hedged once the first hedged fetch is done
+      scheduler.fetchersReleased.countDown();
+      while (scheduler.numFetchersCreated.get() < 3) {
+        assertTrue(scheduler.hedgeSlowFetches().isEmpty());
+        Thread.sleep(10);
+      }
+      assertEquals(3, scheduler.numFetchersCreated.get());
+
+      // a failed hedged fetch is left to the fetch it hedged
+      MapHost hedgeHost = new MapHost("otherhost", 10000, 0, true);
+      scheduler.copyFailed(other0, hedgeHost, false, true, false);
+      assertEquals(0, inputContext.getCounters().findCounter(
+          TaskCounter.NUM_FAILED_SHUFFLE_INPUTS).getValue());
+      verify(shuffle, never()).reportException(any(Throwable.class));
+
+      // the first copy of an output is used, the second one is discarded
+      MapOutput hedgedOutput = createMapOutput();
+      scheduler.copySucceeded(other0, hedgeHost, 100, 100, 10, hedgedOutput, false);
+      verify(hedgedOutput).commit();
+      MapOutput slowOutput = createMapOutput();
+      scheduler.copySucceeded(slow0, slowHost, 100, 100, 10, slowOutput, false);
+      verify(slowOutput, never()).commit();
+      verify(slowOutput).abort();
+
+      // the slow fetch is cancelled once all of its outputs were fetched by hedged fetches
+      assertTrue(scheduler.hedgeSlowFetches().isEmpty());
+      scheduler.copySucceeded(slow1, new MapHost("slowhost", 10000, 0, true), 100, 100, 10,
+          createMapOutput(), false);
+      List<FetcherOrderedGrouped> losers = scheduler.hedgeSlowFetches();
+      assertEquals(1, losers.size());
+      assertTrue(losers.get(0) == slowFetcher);
+      assertTrue(scheduler.hedgeSlowFetches().isEmpty());
+      assertTrue(scheduler.isDone());
+    } finally {
+      scheduler.close();
+    }
+  }
+
+  private static MapOutput createMapOutput() {
+    MapOutput output = mock(MapOutput.class);
+    doReturn(MapOutput.Type.MEMORY).when(output).getType();
+    return output;
+  }
+
   private InputContext createTezInputContext() throws IOException {
     ApplicationId applicationId = ApplicationId.newInstance(1, 1);
     InputContext inputContext = mock(InputContext.class);
@@ -915,6 +1005,9 @@ public class TestShuffleScheduler {
   private static class ShuffleSchedulerForTest extends ShuffleScheduler {
 
     private final AtomicInteger numFetchersCreated = new AtomicInteger(0);
+    private final List<FetcherOrderedGrouped> fetchers =
+        Collections.synchronizedList(new ArrayList<FetcherOrderedGrouped>());
+    private final CountDownLatch fetchersReleased = new CountDownLatch(1);
     private final boolean fetcherShouldWait;
     private final ExceptionReporter reporter;
 
@@ -952,11 +1045,12 @@ public class TestShuffleScheduler {
         @Override
         public Object answer(InvocationOnMock invocation) throws Throwable {
           if (fetcherShouldWait) {
-            Thread.sleep(100000l);
+            fetchersReleased.await(100000l, TimeUnit.MILLISECONDS);
           }
           return null;
         }
       }).when(mockFetcher).callInternal();
+      fetchers.add(mockFetcher);
       return mockFetcher;
     }
   }
@@ -47,6 +47,7 @@ import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.InMemoryReader;
 import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.InMemoryWriter;
@@ -470,6 +471,92 @@ public class TestIFile {
     reader.close();
   }
 
+  @Test(timeout = 20000)
+  public void testBlockFormat() throws IOException {
+    Configuration conf = new Configuration(defaultConf);
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_BLOCK_FORMAT_ENABLED, true);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_BLOCK_SIZE, 16);
+    List<KVPair> data = KVDataGen.generateTestData(true, 10);
+
+    for (CompressionCodec blockCodec : new CompressionCodec[] { null, codec }) {
+      for (boolean rle : new boolean[] { false, true }) {
+        FSDataOutputStream out = localFs.create(outputPath);
+        Writer writer = new Writer(conf, out, Text.class, IntWritable.class, blockCodec,
+            null, null, rle);
+        writeTestFile(writer, rle, true, data, blockCodec);
+        out.close();
+        assertTrue(writer.blockOut.getBlockCount() > 1);
+        readAndVerifyData(writer.getRawLength(), writer.getCompressedLength(), data, blockCodec);
+      }
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testBlockFormatCorruption() throws IOException {
+    Configuration conf = new Configuration(defaultConf);
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_BLOCK_FORMAT_ENABLED, true);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_BLOCK_SIZE, 256);
+    List<KVPair> data = new ArrayList<KVPair>();
+    for (int i = 0; i < 100; i++) {
+      data.add(new KVPair(new Text("key" + i), new IntWritable(i)));
+    }
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    FSDataOutputStream out = new FSDataOutputStream(baos, null);
+    Writer writer = new Writer(conf, out, Text.class, IntWritable.class, null, null, null);
+    writeTestFile(writer, false, false, data, null);
+    out.close();
+    byte[] bytes = baos.toByteArray();
+
+    // flip a bit in a key of the first block, which the segment checksum catches
+    bytes[IFile.HEADER.length + 20] ^= 1;
+    Reader reader = new Reader(new ByteArrayInputStream(bytes), bytes.length, null, null, null,
+        false, 0, -1);
+    DataInputBuffer keyIn = new DataInputBuffer();
+    DataInputBuffer valIn = new DataInputBuffer();
+    try {
+      while (reader.nextRawKey(keyIn)) {
+        reader.nextRawValue(valIn);
+      }
+      fail("Corrupt block should have been detected");
+    } catch (ChecksumException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testPrefetch() throws IOException {
+    // small chunks, so that records span chunks
+    IFilePrefetcher prefetcher = new IFilePrefetcher(2, 7);
+    List<KVPair> data = KVDataGen.generateTestData(true, 10);
+    for (CompressionCodec prefetchCodec : new CompressionCodec[] { null, codec }) {
+      writeTestFile(true, true, data, prefetchCodec);
+      Reader reader = new IFile.Reader(localFs, outputPath, prefetchCodec, null, null, false, 0,
+          -1);
+      reader.prefetch(prefetcher, 2);
+      verifyData(reader, data);
+      assertTrue(reader.getPosition() > 0);
+      reader.close();
+    }
+
+    // a corrupt segment fails on the reading thread
+    Writer writer = writeTestFile(false, false, data, null);
+    byte[] bytes = new byte[(int) writer.getCompressedLength()];
+    FSDataInputStream in = localFs.open(outputPath);
+    in.readFully(bytes);
+    in.close();
+    bytes[bytes.length - 1] ^= 1;
+    Reader reader = new Reader(new ByteArrayInputStream(bytes), bytes.length, null, null, null,
+        false, 0, -1);
+    reader.prefetch(prefetcher, 2);
+    try {
+      verifyData(reader, data);
+      fail("Corrupt checksum should have been detected");
+    } catch (ChecksumException e) {
+      // expected
+    }
+    reader.close();
+  }
+
   /**
    * Test different options (RLE, repeat keys, compression) on reader/writer
    *
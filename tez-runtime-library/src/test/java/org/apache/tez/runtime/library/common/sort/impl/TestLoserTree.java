@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLoserTree {
+
+  private static class Run {
+    final int[] data;
+    int index = 0;
+
+    Run(int[] data) {
+      this.data = data;
+    }
+
+    int current() {
+      return data[index];
+    }
+  }
+
+  private static class RunTree extends LoserTree<Run> {
+    private final boolean usePrefix;
+    int comparisons = 0;
+
+    RunTree(boolean usePrefix) {
+      this.usePrefix = usePrefix;
+    }
+
+    @Override
+    protected boolean lessThan(Run a, Run b) {
+      comparisons++;
+      return a.current() < b.current();
+    }
+
+    @Override
+    protected long prefix(Run run) {
+      return usePrefix ? run.current() / 10 : 0;
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testMerge() {
+    Random rnd = new Random();
+    for (int k = 1; k <= 40; k++) {
+      merge(rnd, k, false);
+      merge(rnd, k, true);
+    }
+  }
+
+  private void merge(Random rnd, int k, boolean usePrefix) {
+    RunTree tree = new RunTree(usePrefix);
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < k; i++) {
+      int[] data = new int[1 + rnd.nextInt(50)];
+      for (int j = 0; j < data.length; j++) {
+        data[j] = rnd.nextInt(1000);
+        expected.add(data[j]);
+      }
+      Arrays.sort(data);
+      tree.put(new Run(data));
+    }
+    Collections.sort(expected);
+    assertEquals(k, tree.size());
+
+    List<Integer> merged = new ArrayList<Integer>();
+    Run top;
+    while ((top = tree.top()) != null) {
+      Run runnerUp = tree.runnerUp();
+      if (runnerUp != null) {
+        assertTrue(runnerUp.current() >= top.current());
+      } else {
+        assertEquals(1, tree.size());
+      }
+      merged.add(top.current());
+      if (++top.index < top.data.length) {
+        tree.adjustTop();
+      } else {
+        tree.pop();
+      }
+    }
+    assertEquals(expected, merged);
+    assertEquals(0, tree.size());
+    assertNull(tree.pop());
+  }
+
+  @Test(timeout = 5000)
+  public void testComparisonsPerRecord() {
+    final int k = 128;
+    final int perRun = 100;
+    RunTree tree = new RunTree(false);
+    tree.initialize(k);
+    for (int i = 0; i < k; i++) {
+      int[] data = new int[perRun];
+      for (int j = 0; j < perRun; j++) {
+        data[j] = j * k + i;
+      }
+      tree.put(new Run(data));
+    }
+    tree.top();
+    tree.comparisons = 0;
+    int records = 0;
+    Run top;
+    while ((top = tree.top()) != null) {
+      records++;
+      if (++top.index < top.data.length) {
+        tree.adjustTop();
+      } else {
+        tree.pop();
+      }
+    }
+    assertEquals(k * perRun, records);
+    // one comparison per level, log2(128) = 7
+    assertTrue("comparisons=" + tree.comparisons, tree.comparisons <= 7 * records);
+  }
+
+  @Test(timeout = 5000)
+  public void testClear() {
+    RunTree tree = new RunTree(true);
+    tree.put(new Run(new int[] { 5 }));
+    tree.put(new Run(new int[] { 3 }));
+    assertEquals(3, tree.pop().current());
+    tree.clear();
+    assertEquals(0, tree.size());
+    assertNull(tree.top());
+
+    tree.put(new Run(new int[] { 7 }));
+    assertEquals(7, tree.top().current());
+    assertNull(tree.runnerUp());
+  }
+}
@@ -364,6 +364,66 @@ public class TestPipelinedSorter {
     verifyCounters(sorter, outputContext);
   }
 
+  @Test
+  public void testWithDirectBuffers() throws IOException {
+    testWithBufferType(TezRuntimeConfiguration.SortBufferType.DIRECT);
+  }
+
+  @Test
+  public void testWithMappedBuffers() throws IOException {
+    testWithBufferType(TezRuntimeConfiguration.SortBufferType.MAPPED);
+  }
+
+  @Test
+  public void testWithKeyPrefix() throws IOException {
+    this.numOutputs = 1;
+    this.initialAvailableMem = 5 * 1024 * 1024;
+    Configuration conf = getConf();
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_SORTER_KEY_PREFIX_ENABLED, true);
+    conf.setInt(TezRuntimeConfiguration
+        .TEZ_RUNTIME_PIPELINED_SORTER_MIN_BLOCK_SIZE_IN_MB, 1);
+    PipelinedSorter sorter = new PipelinedSorter(this.outputContext, conf, numOutputs,
+        initialAvailableMem);
+    assertTrue(sorter.keyPrefix != null);
+
+    //Keys are longer than the prefix, so ties still fall back to the comparator
+    writeData(sorter, 50000, 10);
+
+    verifyCounters(sorter, outputContext);
+    Path outputFile = sorter.finalOutputFile;
+    FileSystem fs = outputFile.getFileSystem(conf);
+    IFile.Reader reader = new IFile.Reader(fs, outputFile, null, null, null, false, -1, 4096);
+    verifyData(reader);
+    reader.close();
+  }
+
+  private void testWithBufferType(TezRuntimeConfiguration.SortBufferType bufferType)
+      throws IOException {
+    this.numOutputs = 1;
+    this.initialAvailableMem = 5 * 1024 * 1024;
+    Configuration conf = getConf();
+    conf.set(TezRuntimeConfiguration.TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_TYPE, bufferType.name());
+    conf.setInt(TezRuntimeConfiguration
+        .TEZ_RUNTIME_PIPELINED_SORTER_MIN_BLOCK_SIZE_IN_MB, 1);
+    PipelinedSorter sorter = new PipelinedSorter(this.outputContext, conf, numOutputs,
+        initialAvailableMem);
+
+    //Enough data to fill multiple spans and spill more than once
+    writeData(sorter, 50000, 100, false);
+    assertTrue(sorter.buffers.size() > 1);
+    for (ByteBuffer buffer : sorter.buffers) {
+      assertTrue(buffer.isDirect());
+    }
+    closeSorter(sorter);
+
+    verifyCounters(sorter, outputContext);
+    Path outputFile = sorter.finalOutputFile;
+    FileSystem fs = outputFile.getFileSystem(conf);
+    IFile.Reader reader = new IFile.Reader(fs, outputFile, null, null, null, false, -1, 4096);
+    verifyData(reader);
+    reader.close();
+  }
+
   public void basicTest2(int partitions, int[] numkeys, int[] keysize,
       long initialAvailableMem, int  blockSize) throws IOException {
     this.numOutputs = partitions; // single output
@@ -35,12 +35,14 @@ import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.util.Progress;
 import org.apache.hadoop.util.Progressable;
 import org.apache.tez.common.TezRuntimeFrameworkConfigs;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.ConfigUtils;
+import org.apache.tez.runtime.library.common.sort.impl.IFile.Reader.KeyState;
 import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.InMemoryReader;
 import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.InMemoryWriter;
 import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.MergeManager;
@@ -50,6 +52,8 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
@@ -57,7 +61,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
 public class TestTezMerger {
@@ -694,6 +700,168 @@ public class TestTezMerger {
     segments.clear();
   }
 
+  @Test(timeout = 20000)
+  public void testPrefetchMemory() throws Exception {
+    Configuration conf = new Configuration(defaultConf);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_CHUNKS, 4);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_IFILE_PREFETCH_MEMORY_MB, 1);
+    List<TezMerger.Segment> segments = Lists.newLinkedList();
+    segments.addAll(createDiskSegments(10, 100));
+    TezMerger.MergeQueue mergeQueue = new TezMerger.MergeQueue(conf, localFs, segments,
+        comparator, new Reporter(), false, false);
+    mergeQueue.prefetcher = new IFilePrefetcher(1, 128 * 1024);
+    // 8 chunks fit, one of each segment is being consumed
+    assertEquals(4, mergeQueue.getPrefetchChunks(1));
+    assertEquals(3, mergeQueue.getPrefetchChunks(2));
+    assertEquals(1, mergeQueue.getPrefetchChunks(4));
+    assertEquals(0, mergeQueue.getPrefetchChunks(5));
+
+    // segments are prefetched in passes of 2 segments, and not in the final pass of 5
+    TezRawKeyValueIterator records = mergeQueue.merge(IntWritable.class, LongWritable.class,
+        2, new Path(workDir, "tmp_" + System.nanoTime()), null, null, null, null);
+    verifyData(records);
+    verificationDataSet.clear();
+  }
+
+  @Test(timeout = 20000)
+  public void testParallelMergeSegments() throws Exception {
+    List<TezMerger.Segment> segments = Lists.newLinkedList();
+    segments.addAll(createInMemorySegments(10, 100));
+    segments.addAll(createDiskSegments(10, 100));
+    parallelMergeSegments(segments, 10, 5, 4);
+    verificationDataSet.clear();
+    segments.clear();
+
+    // enough records per group to span several batches
+    segments.addAll(createDiskSegments(8, 20000));
+    parallelMergeSegments(segments, 0, 2, 3);
+    verificationDataSet.clear();
+    segments.clear();
+
+    // too few segments to split, falls back to a single merge
+    segments.addAll(createInMemorySegments(3, 100));
+    parallelMergeSegments(segments, 3, 5, 4);
+    verificationDataSet.clear();
+    segments.clear();
+  }
+
+  @Test(timeout = 20000)
+  public void testParallelMergeSegmentCloseFailure() throws Exception {
+    // segments 1 and 3 end up in the same group; the group merge fails on a read, and closing the
+    // remaining segment fails as well
+    List<TezMerger.Segment> segments = Lists.newLinkedList();
+    segments.addAll(createInMemorySegments(4, 100));
+    segments.set(1, new TezMerger.Segment(segments.get(1).reader, null) {
+      @Override
+      KeyState readRawKey(DataInputBuffer nextKey) throws IOException {
+        throw new IOException("read failed");
+      }
+    });
+    segments.set(3, new TezMerger.Segment(segments.get(3).reader, null) {
+      @Override
+      void close() throws IOException {
+        throw new IOException("close failed");
+      }
+    });
+    try {
+      TezRawKeyValueIterator records = ParallelMerger.merge(defaultConf, localFs,
+          IntWritable.class, LongWritable.class, null, segments, 4, 5, 2,
+          new Path(workDir, "tmp_" + System.nanoTime()), comparator, new Reporter(), null, null,
+          null);
+      try {
+        while (records.next()) {
+        }
+      } finally {
+        records.close();
+      }
+      fail("Expected the failed group merge to be reported");
+    } catch (IOException e) {
+      // expected, instead of waiting for the failed group forever
+    }
+    verificationDataSet.clear();
+  }
+
+  @Test(timeout = 60000)
+  public void testParallelMergeWithObjectComparator() throws Exception {
+    // keys without a raw comparator are compared by deserializing them into fields of the
+    // comparator, which must not be shared by the group threads
+    Configuration conf = new Configuration(defaultConf);
+    conf.set(TezRuntimeConfiguration.TEZ_RUNTIME_KEY_CLASS, ObjectIntKey.class.getName());
+    RawComparator objectComparator = ConfigUtils.getIntermediateInputKeyComparator(conf);
+    assertTrue(objectComparator.getClass() == WritableComparator.class);
+
+    List<TezMerger.Segment> segments = Lists.newLinkedList();
+    segments.addAll(createDiskSegments(8, 20000));
+    final int expected = verificationDataSet.size();
+    TezRawKeyValueIterator records = ParallelMerger.merge(conf, localFs,
+        ObjectIntKey.class, LongWritable.class, null, segments, 0, 2, 4,
+        new Path(workDir, "tmp_" + System.nanoTime()), objectComparator, new Reporter(),
+        null, null, null);
+    int count = 0;
+    try {
+      ObjectIntKey previous = null;
+      while (records.next()) {
+        ObjectIntKey key = new ObjectIntKey();
+        key.readFields(records.getKey());
+        if (previous != null) {
+          assertTrue("previousKey=" + previous.value + ", current=" + key.value,
+              previous.compareTo(key) <= 0);
+        }
+        previous = key;
+        count++;
+      }
+    } finally {
+      records.close();
+    }
+    assertEquals(expected, count);
+    verificationDataSet.clear();
+  }
+
+  /**
+   * Serialized like an IntWritable, but without a raw comparator.
+   */
+  public static class ObjectIntKey implements WritableComparable<ObjectIntKey> {
+    int value;
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(value);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      value = in.readInt();
+    }
+
+    @Override
+    public int compareTo(ObjectIntKey o) {
+      return (value < o.value) ? -1 : ((value == o.value) ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof ObjectIntKey) && ((ObjectIntKey) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return value;
+    }
+  }
+
+  private void parallelMergeSegments(List<TezMerger.Segment> segmentList, int inMemSegments,
+      int mergeFactor, int parallelism) throws Exception {
+    TezRawKeyValueIterator records = ParallelMerger.merge(defaultConf, localFs,
+        IntWritable.class, LongWritable.class, null, segmentList, inMemSegments, mergeFactor,
+        parallelism, new Path(workDir, "tmp_" + System.nanoTime()), comparator, new Reporter(),
+        null, null, null);
+    try {
+      verifyData(records);
+    } finally {
+      records.close();
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private void mergeSegments(List<TezMerger.Segment> segmentList, int mergeFactor, boolean
       hasDiskSegments) throws Exception {
@@ -80,6 +80,7 @@ import org.apache.tez.runtime.api.events.CompositeDataMovementEvent;
 import org.apache.tez.runtime.library.api.Partitioner;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration.ReportPartitionStats;
+import org.apache.tez.runtime.library.common.combine.LongSumHashCombiner;
 import org.apache.tez.runtime.library.common.sort.impl.IFile;
 import org.apache.tez.runtime.library.common.sort.impl.TezIndexRecord;
 import org.apache.tez.runtime.library.common.sort.impl.TezSpillRecord;
@@ -516,6 +517,148 @@ public class TestUnorderedPartitionedKVWriter {
   }
 
 
+  @SuppressWarnings("unchecked")
+  @Test(timeout = 10000)
+  public void testSparsePartitions_WithPipelinedShuffle() throws IOException, InterruptedException {
+    ApplicationId appId = ApplicationId.newInstance(10000000, 1);
+    TezCounters counters = new TezCounters();
+    String uniqueId = UUID.randomUUID().toString();
+    OutputContext outputContext = createMockOutputContext(counters, appId, uniqueId);
+
+    Configuration conf = createConfiguration(outputContext, IntWritable.class, LongWritable.class,
+        shouldCompress, -1);
+    conf.setBoolean(TezRuntimeConfiguration.TEZ_RUNTIME_PIPELINED_SHUFFLE_ENABLED, true);
+
+    int numPartitions = 5000;
+    UnorderedPartitionedKVWriter kvWriter = new UnorderedPartitionedKVWriterForTest(outputContext,
+        conf, numPartitions, 2048);
+
+    BitSet partitionsWithData = new BitSet(numPartitions);
+    IntWritable intWritable = new IntWritable();
+    LongWritable longWritable = new LongWritable();
+    for (int i = 0; i < 200; i++) {
+      // PartitionerForTest: key % numPartitions
+      intWritable.set((i * 37) % numPartitions);
+      longWritable.set(i);
+      partitionsWithData.set(intWritable.get());
+      kvWriter.write(intWritable, longWritable);
+    }
+    kvWriter.close();
+    assertTrue(kvWriter.numSpills.get() > 1);
+
+    ArgumentCaptor<List> eventCaptor = ArgumentCaptor.forClass(List.class);
+    verify(outputContext, atLeast(1)).sendEvents(eventCaptor.capture());
+    BitSet partitionsInEvents = new BitSet(numPartitions);
+    int numDMEvents = 0;
+    for (List<Event> events : (List<List<Event>>) (List) eventCaptor.getAllValues()) {
+      for (Event event : events) {
+        if (!(event instanceof CompositeDataMovementEvent)) {
+          continue;
+        }
+        numDMEvents++;
+        CompositeDataMovementEvent cdme = (CompositeDataMovementEvent) event;
+        assertEquals(numPartitions, cdme.getCount());
+        // Only the partitions with data are listed.
+        assertTrue(cdme.getUserPayload().remaining() < numPartitions / 8);
+        DataMovementEventPayloadProto eventProto = DataMovementEventPayloadProto.parseFrom(
+            ByteString.copyFrom(cdme.getUserPayload()));
+        assertFalse(eventProto.hasEmptyPartitions());
+        assertTrue(eventProto.hasNonEmptyPartitions());
+        BitSet emptyPartitions = ShuffleUtils.getEmptyPartitions(eventProto, numPartitions,
+            TezCommonUtils.newInflater());
+        BitSet nonEmptyPartitions = new BitSet(numPartitions);
+        nonEmptyPartitions.set(0, numPartitions);
+        nonEmptyPartitions.andNot(emptyPartitions);
+        assertEquals(nonEmptyPartitions.cardinality() > 0, eventProto.hasHost());
+        partitionsInEvents.or(nonEmptyPartitions);
+      }
+    }
+    assertTrue(numDMEvents >= kvWriter.numSpills.get());
+    assertEquals(partitionsWithData, partitionsInEvents);
+    verify(outputContext, never()).reportFailure(any(TaskFailureType.class),
+        any(Throwable.class), any(String.class));
+  }
+
+  @Test(timeout = 10000)
+  public void testHashCombiner() throws IOException, InterruptedException {
+    ApplicationId appId = ApplicationId.newInstance(10000000, 1);
+    TezCounters counters = new TezCounters();
+    String uniqueId = UUID.randomUUID().toString();
+    OutputContext outputContext = createMockOutputContext(counters, appId, uniqueId);
+
+    Configuration conf = createConfiguration(outputContext, IntWritable.class, LongWritable.class,
+        shouldCompress, -1);
+    conf.set(TezRuntimeConfiguration.TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_CLASS,
+        LongSumHashCombiner.class.getName());
+    conf.setFloat(TezRuntimeConfiguration.TEZ_RUNTIME_UNORDERED_OUTPUT_HASH_COMBINER_MEMORY_FRACTION,
+        0.5f);
+    CompressionCodec codec = null;
+    if (shouldCompress) {
+      codec = new DefaultCodec();
+      ((Configurable) codec).setConf(conf);
+    }
+
+    int numPartitions = 10;
+    int numRecords = 1000;
+    // The table holds at most 32 keys.
+    UnorderedPartitionedKVWriter kvWriter = new UnorderedPartitionedKVWriterForTest(outputContext,
+        conf, numPartitions, 4096);
+
+    Map<Integer, Long> expectedSums = new HashMap<Integer, Long>();
+    IntWritable intWritable = new IntWritable();
+    LongWritable longWritable = new LongWritable();
+    Random random = new Random();
+    for (int i = 0; i < numRecords; i++) {
+      intWritable.set(random.nextInt(50));
+      longWritable.set(i + 1);
+      Long sum = expectedSums.get(intWritable.get());
+      expectedSums.put(intWritable.get(), (sum == null ? 0 : sum) + i + 1);
+      kvWriter.write(intWritable, longWritable);
+    }
+    kvWriter.close();
+    verify(outputContext, never()).reportFailure(any(TaskFailureType.class),
+        any(Throwable.class), any(String.class));
+
+    long outputRecords = counters.findCounter(TaskCounter.OUTPUT_RECORDS).getValue();
+    assertEquals(numRecords, counters.findCounter(TaskCounter.COMBINE_INPUT_RECORDS).getValue());
+    assertEquals(outputRecords,
+        counters.findCounter(TaskCounter.COMBINE_OUTPUT_RECORDS).getValue());
+    assertTrue(outputRecords < numRecords);
+    // More records than keys, i.e. the table was flushed before close.
+    assertTrue(outputRecords > 50);
+
+    // Records of a key may be spread over a few flushes, but add up to the expected sum.
+    TezSpillRecord spillRecord = new TezSpillRecord(kvWriter.finalIndexPath, conf);
+    DataInputBuffer keyBuffer = new DataInputBuffer();
+    DataInputBuffer valBuffer = new DataInputBuffer();
+    IntWritable keyDeser = new IntWritable();
+    LongWritable valDeser = new LongWritable();
+    long recordsRead = 0;
+    for (int i = 0; i < numPartitions; i++) {
+      TezIndexRecord indexRecord = spillRecord.getIndex(i);
+      FSDataInputStream inStream = FileSystem.getLocal(conf).open(kvWriter.finalOutPath);
+      inStream.seek(indexRecord.getStartOffset());
+      IFile.Reader reader = new IFile.Reader(inStream, indexRecord.getPartLength(), codec, null,
+          null, false, 0, -1);
+      while (reader.nextRawKey(keyBuffer)) {
+        reader.nextRawValue(valBuffer);
+        keyDeser.readFields(keyBuffer);
+        valDeser.readFields(valBuffer);
+        assertEquals(i, keyDeser.get() % numPartitions);
+        long remaining = expectedSums.get(keyDeser.get()) - valDeser.get();
+        if (remaining == 0) {
+          expectedSums.remove(keyDeser.get());
+        } else {
+          expectedSums.put(keyDeser.get(), remaining);
+        }
+        recordsRead++;
+      }
+      inStream.close();
+    }
+    assertEquals(outputRecords, recordsRead);
+    assertTrue(expectedSums.isEmpty());
+  }
+
   @SuppressWarnings("unchecked")
   private void baseTestWithPipelinedTransfer(int numRecords, int numPartitions, Set<Integer>
       skippedPartitions, boolean shouldCompress) throws IOException, InterruptedException {
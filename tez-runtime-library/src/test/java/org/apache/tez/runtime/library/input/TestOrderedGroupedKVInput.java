@@ -30,6 +30,7 @@ import org.apache.tez.dag.api.TezException;
 import org.apache.tez.dag.api.UserPayload;
 import org.apache.tez.runtime.api.InputContext;
 import org.apache.tez.runtime.library.api.IOInterruptedException;
+import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.apache.tez.runtime.library.common.MemoryUpdateCallbackHandler;
 import org.apache.tez.runtime.library.common.shuffle.orderedgrouped.Shuffle;
 import org.junit.Assert;
@@ -57,6 +58,13 @@ public class TestOrderedGroupedKVInput {
 
   }
 
+  @Test(timeout = 5000)
+  public void testMergeConfigurationKeys() {
+    // keys missing from the set are dropped from the input's configuration
+    Assert.assertTrue(OrderedGroupedKVInput.getConfigurationKeySet().contains(
+        TezRuntimeConfiguration.TEZ_RUNTIME_SHUFFLE_FINAL_MERGE_PARALLELISM));
+  }
+
 
   private InputContext createMockInputContext() throws IOException {
     InputContext inputContext = mock(InputContext.class);
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.tez.common.TezRuntimeFrameworkConfigs;
+import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
+import org.apache.tez.runtime.library.partitioner.HashPartitioner;
+
+/**
+ * Record generation and local file system setup shared by the benchmarks. Data is generated from a
+ * fixed seed, so that runs with the same parameters see the same records.
+ */
+public final class BenchmarkData {
+
+  private static final long SEED = 0x7e2L;
+  private static final byte[] ALPHABET =
+      "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".getBytes();
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Random printable keys (or values) of the given size.
+   *
+   * @param distinct number of distinct keys; keys repeat once that many have been generated
+   */
+  public static Text[] generate(int count, int size, int distinct) {
+    Random random = new Random(SEED + size);
+    Text[] distinctKeys = new Text[Math.max(1, Math.min(count, distinct))];
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < distinctKeys.length; i++) {
+      for (int j = 0; j < size; j++) {
+        bytes[j] = ALPHABET[random.nextInt(ALPHABET.length)];
+      }
+      distinctKeys[i] = new Text(bytes);
+    }
+    Text[] texts = new Text[count];
+    for (int i = 0; i < count; i++) {
+      texts[i] = distinctKeys[(distinctKeys.length == count) ? i : random.nextInt(
+          distinctKeys.length)];
+    }
+    return texts;
+  }
+
+  public static Text[] generate(int count, int size) {
+    return generate(count, size, count);
+  }
+
+  public static Text[] sorted(Text[] texts) {
+    Text[] copy = Arrays.copyOf(texts, texts.length);
+    Arrays.sort(copy);
+    return copy;
+  }
+
+  /**
+   * A new, empty directory under java.io.tmpdir (or -Dtez.benchmarks.dir).
+   */
+  public static Path createWorkDir(FileSystem fs, String name) throws IOException {
+    String base = System.getProperty("tez.benchmarks.dir", System.getProperty("java.io.tmpdir"));
+    Path dir = fs.makeQualified(new Path(new File(base).getAbsolutePath(),
+        "tez-benchmarks-" + name + "-" + UUID.randomUUID()));
+    fs.mkdirs(dir);
+    return dir;
+  }
+
+  public static LocalFileSystem localFs(Configuration conf) throws IOException {
+    return FileSystem.getLocal(conf);
+  }
+
+  /**
+   * Configuration for Text keys and values, with local dirs in the given directory.
+   */
+  public static Configuration createConf(Path workDir) {
+    Configuration conf = new Configuration();
+    conf.set("fs.defaultFS", "file:///");
+    conf.set(TezRuntimeConfiguration.TEZ_RUNTIME_KEY_CLASS, Text.class.getName());
+    conf.set(TezRuntimeConfiguration.TEZ_RUNTIME_VALUE_CLASS, Text.class.getName());
+    conf.set(TezRuntimeConfiguration.TEZ_RUNTIME_PARTITIONER_CLASS,
+        HashPartitioner.class.getName());
+    if (workDir != null) {
+      conf.setStrings(TezRuntimeFrameworkConfigs.LOCAL_DIRS, workDir.toString());
+    }
+    return conf;
+  }
+
+  /**
+   * @param codecClass codec class name, or "none" for no compression
+   */
+  public static CompressionCodec createCodec(Configuration conf, String codecClass)
+      throws ClassNotFoundException {
+    if (codecClass == null || codecClass.isEmpty() || "none".equals(codecClass)) {
+      return null;
+    }
+    return (CompressionCodec) ReflectionUtils.newInstance(conf.getClassByName(codecClass), conf);
+  }
+}
@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.dag.api.UserPayload;
+import org.apache.tez.runtime.api.Event;
+import org.apache.tez.runtime.api.ExecutionContext;
+import org.apache.tez.runtime.api.MemoryUpdateCallback;
+import org.apache.tez.runtime.api.ObjectRegistry;
+import org.apache.tez.runtime.api.OutputContext;
+import org.apache.tez.runtime.api.OutputStatisticsReporter;
+import org.apache.tez.runtime.api.TaskFailureType;
+
+/**
+ * Minimal {@link OutputContext} for running outputs outside of a task. Events are dropped and
+ * failures are rethrown, so that a broken benchmark does not report numbers.
+ */
+public class BenchmarkOutputContext implements OutputContext {
+
+  private static final ApplicationId APP_ID = ApplicationId.newInstance(1, 1);
+
+  private final String uniqueId;
+  private final String[] workDirs;
+  private final long totalMemory;
+  private final TezCounters counters = new TezCounters();
+
+  private final ExecutionContext executionContext = new ExecutionContext() {
+    @Override
+    public String getHostName() {
+      return "localhost";
+    }
+  };
+
+  private final OutputStatisticsReporter statisticsReporter = new OutputStatisticsReporter() {
+    @Override
+    public void reportDataSize(long size) {
+    }
+
+    @Override
+    public void reportItemsProcessed(long items) {
+    }
+  };
+
+  public BenchmarkOutputContext(String uniqueId, String[] workDirs, long totalMemory) {
+    this.uniqueId = uniqueId;
+    this.workDirs = workDirs;
+    this.totalMemory = totalMemory;
+  }
+
+  @Override
+  public String getDestinationVertexName() {
+    return "destination";
+  }
+
+  @Override
+  public int getOutputIndex() {
+    return 0;
+  }
+
+  @Override
+  public OutputStatisticsReporter getStatisticsReporter() {
+    return statisticsReporter;
+  }
+
+  @Override
+  public ApplicationId getApplicationId() {
+    return APP_ID;
+  }
+
+  @Override
+  public int getDAGAttemptNumber() {
+    return 1;
+  }
+
+  @Override
+  public int getTaskIndex() {
+    return 0;
+  }
+
+  @Override
+  public int getTaskAttemptNumber() {
+    return 0;
+  }
+
+  @Override
+  public String getDAGName() {
+    return "benchmark";
+  }
+
+  @Override
+  public String getTaskVertexName() {
+    return "source";
+  }
+
+  @Override
+  public int getTaskVertexIndex() {
+    return 0;
+  }
+
+  @Override
+  public int getDagIdentifier() {
+    return 1;
+  }
+
+  @Override
+  public TezCounters getCounters() {
+    return counters;
+  }
+
+  @Override
+  public void sendEvents(List<Event> events) {
+  }
+
+  @Override
+  public UserPayload getUserPayload() {
+    return UserPayload.create(null);
+  }
+
+  @Override
+  public String[] getWorkDirs() {
+    return workDirs;
+  }
+
+  @Override
+  public String getUniqueIdentifier() {
+    return uniqueId;
+  }
+
+  @Override
+  public ObjectRegistry getObjectRegistry() {
+    return null;
+  }
+
+  @Override
+  public void notifyProgress() {
+  }
+
+  @Override
+  public void fatalError(Throwable exception, String message) {
+    throw new RuntimeException(message, exception);
+  }
+
+  @Override
+  public void reportFailure(TaskFailureType taskFailureType, Throwable exception, String message) {
+    throw new RuntimeException(message, exception);
+  }
+
+  @Override
+  public void killSelf(Throwable exception, String message) {
+    throw new RuntimeException(message, exception);
+  }
+
+  @Override
+  public ByteBuffer getServiceConsumerMetaData(String serviceName) {
+    return null;
+  }
+
+  @Override
+  public ByteBuffer getServiceProviderMetaData(String serviceName) {
+    // shuffle port
+    DataOutputBuffer metaData = new DataOutputBuffer();
+    try {
+      metaData.writeInt(13562);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return ByteBuffer.wrap(metaData.getData(), 0, metaData.getLength());
+  }
+
+  @Override
+  public void requestInitialMemory(long size, MemoryUpdateCallback callbackHandler) {
+    callbackHandler.memoryAssigned(Math.min(size, totalMemory));
+  }
+
+  @Override
+  public long getTotalMemoryAvailableToTask() {
+    return totalMemory;
+  }
+
+  @Override
+  public int getVertexParallelism() {
+    return 1;
+  }
+
+  @Override
+  public ExecutionContext getExecutionContext() {
+    return executionContext;
+  }
+}
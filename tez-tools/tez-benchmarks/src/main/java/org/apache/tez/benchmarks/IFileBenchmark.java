@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.tez.runtime.library.common.sort.impl.IFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * IFile.Writer and IFile.Reader throughput for each codec. Snappy and LZ4 need the Hadoop native
+ * libraries (-Djava.library.path); without them, those parameter combinations fail.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IFileBenchmark {
+
+  @Param({ "none", "org.apache.hadoop.io.compress.DefaultCodec",
+      "org.apache.hadoop.io.compress.SnappyCodec", "org.apache.hadoop.io.compress.Lz4Codec" })
+  public String codecClass;
+
+  @Param({ "10", "100" })
+  public int keySize;
+
+  @Param({ "10", "1000" })
+  public int valueSize;
+
+  @Param({ "100000" })
+  public int records;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path workDir;
+  private Path file;
+  private CompressionCodec codec;
+  private Text[] keys;
+  private Text[] values;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    conf = BenchmarkData.createConf(null);
+    fs = BenchmarkData.localFs(conf).getRaw();
+    workDir = BenchmarkData.createWorkDir(fs, "ifile");
+    file = new Path(workDir, "file.out");
+    codec = BenchmarkData.createCodec(conf, codecClass);
+    keys = BenchmarkData.sorted(BenchmarkData.generate(records, keySize));
+    values = BenchmarkData.generate(records, valueSize);
+    // the file read by readIFile
+    writeIFile();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    fs.delete(workDir, true);
+  }
+
+  @Benchmark
+  public long writeIFile() throws IOException {
+    IFile.Writer writer = new IFile.Writer(conf, fs, file, Text.class, Text.class, codec, null,
+        null);
+    for (int i = 0; i < records; i++) {
+      writer.append(keys[i], values[i]);
+    }
+    writer.close();
+    return writer.getCompressedLength();
+  }
+
+  @Benchmark
+  public void readIFile(Blackhole blackhole) throws IOException {
+    IFile.Reader reader = new IFile.Reader(fs, file, codec, null, null, false, 0, -1);
+    DataInputBuffer key = new DataInputBuffer();
+    DataInputBuffer value = new DataInputBuffer();
+    while (reader.nextRawKey(key)) {
+      reader.nextRawValue(value);
+      blackhole.consume(key.getData());
+      blackhole.consume(value.getData());
+    }
+    reader.close();
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
+import org.apache.tez.runtime.library.common.sort.impl.ExternalSorter;
+import org.apache.tez.runtime.library.common.sort.impl.PipelinedSorter;
+import org.apache.tez.runtime.library.common.sort.impl.dflt.DefaultSorter;
+import org.apache.tez.runtime.library.conf.OrderedPartitionedKVOutputConfig.SorterImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PipelinedSorter vs DefaultSorter: time to write, sort, spill and merge one output. A sort buffer
+ * smaller than the data forces multiple spills and a final merge.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SorterBenchmark {
+
+  @Param({ "PIPELINED", "LEGACY" })
+  public SorterImpl sorter;
+
+  @Param({ "10", "100" })
+  public int keySize;
+
+  @Param({ "10", "1000" })
+  public int valueSize;
+
+  @Param({ "1000000" })
+  public int records;
+
+  @Param({ "10" })
+  public int partitions;
+
+  @Param({ "32", "256" })
+  public int sortMb;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path workDir;
+  private Text[] keys;
+  private Text[] values;
+  private int invocation = 0;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    fs = BenchmarkData.localFs(new Configuration()).getRaw();
+    workDir = BenchmarkData.createWorkDir(fs, "sorter");
+    conf = BenchmarkData.createConf(workDir);
+    conf.setInt(TezRuntimeConfiguration.TEZ_RUNTIME_IO_SORT_MB, sortMb);
+    keys = BenchmarkData.generate(records, keySize);
+    values = BenchmarkData.generate(records, valueSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    fs.delete(workDir, true);
+  }
+
+  @TearDown(Level.Invocation)
+  public void deleteOutputs() throws IOException {
+    for (FileStatus status : fs.listStatus(workDir)) {
+      fs.delete(status.getPath(), true);
+    }
+  }
+
+  @Benchmark
+  public long sort() throws IOException {
+    final long memory = ((long) sortMb) << 20;
+    BenchmarkOutputContext context = new BenchmarkOutputContext("sorter_" + (invocation++),
+        new String[] { workDir.toUri().getPath() }, memory);
+    ExternalSorter externalSorter;
+    if (sorter == SorterImpl.PIPELINED) {
+      externalSorter = new PipelinedSorter(context, conf, partitions, memory);
+    } else {
+      externalSorter = new DefaultSorter(context, conf, partitions, memory);
+    }
+    for (int i = 0; i < records; i++) {
+      externalSorter.write(keys[i], values[i]);
+    }
+    externalSorter.flush();
+    externalSorter.close();
+    return fs.getFileStatus(externalSorter.getFinalOutputFile()).getLen();
+  }
+}
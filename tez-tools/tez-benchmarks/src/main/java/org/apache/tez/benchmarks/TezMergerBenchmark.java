@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.Progressable;
+import org.apache.tez.runtime.library.common.sort.impl.IFile;
+import org.apache.tez.runtime.library.common.sort.impl.TezMerger;
+import org.apache.tez.runtime.library.common.sort.impl.TezRawKeyValueIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * TezMerger over a varying number of on-disk segments. The records are spread over the segments,
+ * so the total amount of data is the same for every segment count; with more segments than the
+ * merge factor, intermediate merge passes are included (and their files deleted by the merger).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TezMergerBenchmark {
+
+  private static final Progressable NO_PROGRESS = new Progressable() {
+    @Override
+    public void progress() {
+    }
+  };
+
+  @Param({ "10", "100", "1000" })
+  public int segments;
+
+  @Param({ "100" })
+  public int mergeFactor;
+
+  @Param({ "10", "100" })
+  public int keySize;
+
+  @Param({ "10", "1000" })
+  public int valueSize;
+
+  @Param({ "1000000" })
+  public int records;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path workDir;
+  private Path tmpDir;
+  private Path[] inputs;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    fs = BenchmarkData.localFs(new Configuration()).getRaw();
+    workDir = BenchmarkData.createWorkDir(fs, "merger");
+    // relative to the local dirs, i.e. to workDir
+    tmpDir = new Path("merge_tmp");
+    conf = BenchmarkData.createConf(workDir);
+
+    Text[] keys = BenchmarkData.generate(records, keySize);
+    Text[] values = BenchmarkData.generate(records, valueSize);
+    inputs = new Path[segments];
+    final int perSegment = (records + segments - 1) / segments;
+    for (int s = 0; s < segments; s++) {
+      final int start = Math.min(records, s * perSegment);
+      final int end = Math.min(records, start + perSegment);
+      Text[] segmentKeys = new Text[end - start];
+      System.arraycopy(keys, start, segmentKeys, 0, segmentKeys.length);
+      segmentKeys = BenchmarkData.sorted(segmentKeys);
+
+      inputs[s] = new Path(workDir, "segment_" + s + ".out");
+      IFile.Writer writer = new IFile.Writer(conf, fs, inputs[s], Text.class, Text.class, null,
+          null, null);
+      for (int i = 0; i < segmentKeys.length; i++) {
+        writer.append(segmentKeys[i], values[start + i]);
+      }
+      writer.close();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    fs.delete(workDir, true);
+  }
+
+  @Benchmark
+  public void merge(Blackhole blackhole) throws IOException, InterruptedException {
+    TezRawKeyValueIterator iterator = TezMerger.merge(conf, fs, Text.class, Text.class, null,
+        false, 0, -1, inputs, false, mergeFactor, tmpDir, WritableComparator.get(Text.class),
+        NO_PROGRESS, null, null, null, null);
+    while (iterator.next()) {
+      DataInputBuffer key = iterator.getKey();
+      DataInputBuffer value = iterator.getValue();
+      blackhole.consume(key.getData());
+      blackhole.consume(value.getData());
+    }
+    iterator.close();
+  }
+}
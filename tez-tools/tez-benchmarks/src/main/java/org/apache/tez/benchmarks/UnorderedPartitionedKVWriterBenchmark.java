@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.tez.runtime.api.Event;
+import org.apache.tez.runtime.library.common.writers.UnorderedPartitionedKVWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * UnorderedPartitionedKVWriter with a buffer small enough that the records are spilled several
+ * times and the spills merged into the final output on close.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UnorderedPartitionedKVWriterBenchmark {
+
+  @Param({ "10", "100" })
+  public int keySize;
+
+  @Param({ "10", "1000" })
+  public int valueSize;
+
+  @Param({ "1000000" })
+  public int records;
+
+  @Param({ "1", "100", "1000" })
+  public int partitions;
+
+  @Param({ "16" })
+  public int bufferMb;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path workDir;
+  private Text[] keys;
+  private Text[] values;
+  private int invocation = 0;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    fs = BenchmarkData.localFs(new Configuration()).getRaw();
+    workDir = BenchmarkData.createWorkDir(fs, "unordered");
+    conf = BenchmarkData.createConf(workDir);
+    keys = BenchmarkData.generate(records, keySize);
+    values = BenchmarkData.generate(records, valueSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    fs.delete(workDir, true);
+  }
+
+  @TearDown(Level.Invocation)
+  public void deleteOutputs() throws IOException {
+    for (FileStatus status : fs.listStatus(workDir)) {
+      fs.delete(status.getPath(), true);
+    }
+  }
+
+  @Benchmark
+  public List<Event> write() throws IOException, InterruptedException {
+    final long memory = ((long) bufferMb) << 20;
+    BenchmarkOutputContext context = new BenchmarkOutputContext("unordered_" + (invocation++),
+        new String[] { workDir.toUri().getPath() }, memory);
+    UnorderedPartitionedKVWriter writer = new UnorderedPartitionedKVWriter(context, conf,
+        partitions, memory);
+    for (int i = 0; i < records; i++) {
+      writer.write(keys[i], values[i]);
+    }
+    return writer.close();
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.Progress;
+import org.apache.tez.common.counters.GenericCounter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.runtime.library.common.ValuesIterator;
+import org.apache.tez.runtime.library.common.sort.impl.TezRawKeyValueIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ValuesIterator grouping of sorted records: key comparison and deserialization of keys and
+ * values. The records are served from memory, so that the merge and disk reads are not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ValuesIteratorBenchmark {
+
+  @Param({ "10", "100" })
+  public int keySize;
+
+  @Param({ "10", "1000" })
+  public int valueSize;
+
+  @Param({ "1000000" })
+  public int records;
+
+  @Param({ "1", "10", "1000" })
+  public int valuesPerKey;
+
+  private Configuration conf;
+  private final RawComparator<Text> comparator = WritableComparator.get(Text.class);
+  private final TezCounter keyCounter = new GenericCounter("keys", "keys");
+  private final TezCounter valueCounter = new GenericCounter("values", "values");
+
+  private byte[] data;
+  private int[] keyOffsets;
+  private int[] valueOffsets;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    conf = BenchmarkData.createConf(null);
+    Text[] keys = BenchmarkData.sorted(
+        BenchmarkData.generate(records, keySize, Math.max(1, records / valuesPerKey)));
+    Text[] values = BenchmarkData.generate(records, valueSize);
+
+    // serialized records back to back; record i is [keyOffsets[i], valueOffsets[i]) and
+    // [valueOffsets[i], keyOffsets[i + 1])
+    DataOutputBuffer out = new DataOutputBuffer();
+    keyOffsets = new int[records + 1];
+    valueOffsets = new int[records];
+    for (int i = 0; i < records; i++) {
+      keyOffsets[i] = out.getLength();
+      keys[i].write(out);
+      valueOffsets[i] = out.getLength();
+      values[i].write(out);
+    }
+    keyOffsets[records] = out.getLength();
+    data = out.getData();
+  }
+
+  @Benchmark
+  public void group(Blackhole blackhole) throws IOException {
+    ValuesIterator<Text, Text> iterator = new ValuesIterator<Text, Text>(new InMemoryIterator(),
+        comparator, Text.class, Text.class, conf, keyCounter, valueCounter);
+    while (iterator.moveToNext()) {
+      blackhole.consume(iterator.getKey());
+      for (Text value : iterator.getValues()) {
+        blackhole.consume(value);
+      }
+    }
+  }
+
+  private class InMemoryIterator implements TezRawKeyValueIterator {
+    private final DataInputBuffer key = new DataInputBuffer();
+    private final DataInputBuffer value = new DataInputBuffer();
+    private final Progress progress = new Progress();
+    private int record = -1;
+
+    @Override
+    public DataInputBuffer getKey() {
+      return key;
+    }
+
+    @Override
+    public DataInputBuffer getValue() {
+      return value;
+    }
+
+    @Override
+    public boolean next() {
+      if (++record >= records) {
+        return false;
+      }
+      key.reset(data, keyOffsets[record], valueOffsets[record] - keyOffsets[record]);
+      value.reset(data, valueOffsets[record], keyOffsets[record + 1] - valueOffsets[record]);
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Progress getProgress() {
+      return progress;
+    }
+
+    @Override
+    public boolean isSameKey() {
+      if (record <= 0 || record >= records) {
+        return false;
+      }
+      return comparator.compare(data, keyOffsets[record - 1],
+          valueOffsets[record - 1] - keyOffsets[record - 1], data, keyOffsets[record],
+          valueOffsets[record] - keyOffsets[record]) == 0;
+    }
+  }
+}